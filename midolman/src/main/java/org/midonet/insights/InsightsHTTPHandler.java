@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.insights;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.midonet.midolman.management.SimpleHTTPServer;
+
+/**
+ * Serves the counters aggregated by the {@link RingBufferListener}, when
+ * enabled, as a tab-delimited text table.
+ */
+public final class InsightsHTTPHandler implements SimpleHTTPServer.Handler {
+
+    @Override
+    public String path() {
+        return "/insights";
+    }
+
+    @Override
+    public void writeResponse(BufferedWriter writer) {
+        RingBufferListener listener = RingBufferListener.current();
+        try {
+            if (listener == null) {
+                writer.append("Insights ring buffer listener not enabled\n");
+            } else {
+                listener.toTextTable(writer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
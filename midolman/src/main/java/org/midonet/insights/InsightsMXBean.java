@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.insights;
+
+import java.util.Map;
+
+public interface InsightsMXBean {
+    String NAME = "org.midonet.midolman:type=Insights";
+
+    long getFlowsAdded();
+    long getFlowsDeleted();
+    long getSimulations();
+    long getDroppedSimulations();
+    long getDroppedRecords();
+
+    /** Returns the number of flows added per traversed device. */
+    Map<String, Long> getDeviceFlows();
+
+    /** Returns the number of simulations per ingress port. */
+    Map<String, Long> getPortSimulations();
+
+    /** Returns the number of bytes sent by the top source addresses. */
+    Map<String, Long> getTopTalkers();
+}
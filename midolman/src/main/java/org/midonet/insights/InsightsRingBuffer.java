@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.insights;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single-producer single-consumer ring buffer of fixed-size Insights
+ * records, stored off-heap. The producer is a packet worker thread, which
+ * claims a record slot, writes the record fields at the returned offset and
+ * publishes the record. When the ring is full, the record is dropped and
+ * counted, such that the producer never blocks nor allocates.
+ *
+ * The record layout is:
+ * <pre>
+ *   0  type (byte)
+ *   1  simulation result (byte)
+ *   2  network protocol (byte)
+ *   3  number of devices (byte)
+ *   4  network source IPv4 address (int)
+ *   8  network destination IPv4 address (int)
+ *  12  source port (short)
+ *  14  destination port (short)
+ *  16  packets (long)
+ *  24  bytes (long)
+ *  32  input port (UUID, two longs)
+ *  48  traversed devices (UUID, two longs each)
+ * </pre>
+ */
+final class InsightsRingBuffer {
+
+    interface RecordHandler {
+        void onRecord(ByteBuffer buffer, int offset);
+    }
+
+    static final int RECORD_SIZE = 128;
+
+    static final int TYPE = 0;
+    static final int RESULT = 1;
+    static final int PROTO = 2;
+    static final int DEVICE_COUNT = 3;
+    static final int SRC_IP = 4;
+    static final int DST_IP = 8;
+    static final int SRC_PORT = 12;
+    static final int DST_PORT = 14;
+    static final int PACKETS = 16;
+    static final int BYTES = 24;
+    static final int INPUT_PORT = 32;
+    static final int DEVICES = 48;
+
+    static final int MAX_DEVICES = (RECORD_SIZE - DEVICES) / 16;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+
+    // The producer sequence is only written by the producer thread, which
+    // publishes it with an ordered write.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long producerSeq = 0L;
+    private long cachedTail = 0L;
+
+    InsightsRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(
+                "Ring buffer capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Claims the next record slot. This method must only be called by the
+     * producer thread.
+     *
+     * @return The offset of the record in the buffer, or -1 if the ring is
+     *         full, in which case the record is counted as dropped.
+     */
+    int claim() {
+        if (producerSeq - cachedTail >= capacity) {
+            cachedTail = tail.get();
+            if (producerSeq - cachedTail >= capacity) {
+                dropped.lazySet(dropped.get() + 1);
+                return -1;
+            }
+        }
+        int offset = (int) (producerSeq & mask) * RECORD_SIZE;
+        buffer.put(offset + DEVICE_COUNT, (byte) 0);
+        return offset;
+    }
+
+    /**
+     * Publishes the last claimed record to the consumer. This method must
+     * only be called by the producer thread, after a successful claim.
+     */
+    void publish() {
+        head.lazySet(++producerSeq);
+    }
+
+    /**
+     * Consumes all published records. This method must only be called by the
+     * consumer thread.
+     *
+     * @return The number of consumed records.
+     */
+    int drain(RecordHandler handler) {
+        long t = tail.get();
+        long h = head.get();
+        int count = 0;
+        while (t < h) {
+            handler.onRecord(buffer, (int) (t & mask) * RECORD_SIZE);
+            t++;
+            count++;
+        }
+        tail.lazySet(t);
+        return count;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+}
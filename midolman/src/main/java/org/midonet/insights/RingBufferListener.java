@@ -0,0 +1,522 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.insights;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.midonet.midolman.PacketWorkflow;
+import org.midonet.midolman.config.MidolmanConfig;
+import org.midonet.midolman.simulation.PacketContext;
+import org.midonet.odp.FlowMatch;
+import org.midonet.odp.FlowMetadata;
+import org.midonet.odp.flows.FlowStats;
+import org.midonet.packets.IPAddr;
+import org.midonet.packets.IPv4Addr;
+import org.midonet.sdn.flows.FlowTagger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A built-in Insights listener that aggregates flow analytics locally in the
+ * agent. Each packet worker thread writes fixed-size records into its own
+ * off-heap {@link InsightsRingBuffer}, such that the listener callbacks are
+ * lock-free and do not allocate heap memory once the ring of the calling
+ * thread has been created. A background thread drains the rings and
+ * aggregates the records into per-device, per-ingress port and top source
+ * address counters, which are exposed via JMX and the agent HTTP server.
+ *
+ * The listener has no access to the topology and is not notified when a
+ * device is deleted. Therefore, the per-device and per-port counters are
+ * kept in least recently used order and bounded by the configured maximum
+ * number of tracked devices.
+ */
+public final class RingBufferListener extends AbstractService
+    implements Insights.Listener, InsightsMXBean {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(RingBufferListener.class);
+
+    static final byte FLOW_ADDED = 1;
+    static final byte FLOW_SIMULATION = 2;
+    static final byte FLOW_DELETED = 3;
+
+    static final byte RESULT_FORWARD = 0;
+    static final byte RESULT_DROP = 1;
+
+    private static final int TALKERS_CAPACITY_FACTOR = 8;
+
+    private static volatile RingBufferListener current;
+
+    /**
+     * @return The running ring buffer listener, or null if the listener is
+     *         not enabled.
+     */
+    public static RingBufferListener current() {
+        return current;
+    }
+
+    private final int ringSize;
+    private final long drainIntervalMillis;
+    private final int topTalkers;
+    private final int talkersCapacity;
+    private final int maxTrackedDevices;
+
+    private final List<InsightsRingBuffer> rings =
+        new CopyOnWriteArrayList<>();
+    private final ThreadLocal<InsightsRingBuffer> localRing =
+        new ThreadLocal<InsightsRingBuffer>() {
+            @Override
+            protected InsightsRingBuffer initialValue() {
+                InsightsRingBuffer ring = new InsightsRingBuffer(ringSize);
+                rings.add(ring);
+                return ring;
+            }
+        };
+
+    private volatile boolean running = false;
+    private ScheduledExecutorService executor;
+
+    // Aggregated counters, updated by the drain thread while holding the
+    // aggregation lock.
+    private final Object lock = new Object();
+    private long flowsAdded = 0L;
+    private long flowsDeleted = 0L;
+    private long simulations = 0L;
+    private long droppedSimulations = 0L;
+    private final Map<UUID, long[]> devices;
+    private final Map<UUID, long[]> ports;
+    private final Map<Integer, long[]> talkers = new HashMap<>();
+
+    private final InsightsRingBuffer.RecordHandler aggregator =
+        this::aggregate;
+
+    public RingBufferListener(MidolmanConfig config,
+                              CuratorFramework curator,
+                              MetricRegistry metrics) {
+        ringSize = config.insights().ringBufferSize();
+        drainIntervalMillis = config.insights().drainInterval().toMillis();
+        topTalkers = config.insights().topTalkers();
+        talkersCapacity = Math.max(1, topTalkers * TALKERS_CAPACITY_FACTOR);
+        maxTrackedDevices = Math.max(1, config.insights().maxTrackedDevices());
+        devices = lruMap(maxTrackedDevices);
+        ports = lruMap(maxTrackedDevices);
+
+        metrics.register(name(RingBufferListener.class, "droppedRecords"),
+                         (Gauge<Long>) this::getDroppedRecords);
+    }
+
+    @Override
+    protected void doStart() {
+        executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("insights-drain")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(this::drain, drainIntervalMillis,
+                                        drainIntervalMillis,
+                                        TimeUnit.MILLISECONDS);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                this, new ObjectName(InsightsMXBean.NAME));
+        } catch (Exception e) {
+            LOG.warn("Failed to register Insights JMX bean", e);
+        }
+        running = true;
+        current = this;
+        notifyStarted();
+    }
+
+    @Override
+    protected void doStop() {
+        running = false;
+        if (current == this) {
+            current = null;
+        }
+        executor.shutdownNow();
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                new ObjectName(InsightsMXBean.NAME));
+        } catch (Exception e) {
+            LOG.debug("Failed to unregister Insights JMX bean", e);
+        }
+        notifyStopped();
+    }
+
+    @Override
+    public void flowAdded(FlowMatch flowMatch,
+                          List<FlowTagger.FlowTag> flowTags,
+                          long expiration) {
+        if (!running) return;
+        InsightsRingBuffer ring = localRing.get();
+        int offset = ring.claim();
+        if (offset < 0) return;
+        ByteBuffer buffer = ring.buffer();
+        buffer.put(offset + InsightsRingBuffer.TYPE, FLOW_ADDED);
+        writeMatch(buffer, offset, flowMatch);
+        writePort(buffer, offset, null);
+        writeDevices(buffer, offset, flowTags);
+        ring.publish();
+    }
+
+    @Override
+    public void flowSimulation(PacketContext context,
+                               PacketWorkflow.SimulationResult result) {
+        if (!running) return;
+        InsightsRingBuffer ring = localRing.get();
+        int offset = ring.claim();
+        if (offset < 0) return;
+        ByteBuffer buffer = ring.buffer();
+        buffer.put(offset + InsightsRingBuffer.TYPE, FLOW_SIMULATION);
+        buffer.put(offset + InsightsRingBuffer.RESULT,
+                   result instanceof PacketWorkflow.DropAction
+                   ? RESULT_DROP : RESULT_FORWARD);
+        writeMatch(buffer, offset, context.origMatch());
+        buffer.putLong(offset + InsightsRingBuffer.PACKETS, 1L);
+        buffer.putLong(offset + InsightsRingBuffer.BYTES,
+                       context.packet() != null
+                       ? context.packet().packetLen : 0L);
+        writePort(buffer, offset, context.inputPort());
+        writeDevices(buffer, offset, context.flowTags());
+        ring.publish();
+    }
+
+    @Override
+    public void flowDeleted(FlowMatch flowMatch, FlowMetadata metadata) {
+        if (!running) return;
+        InsightsRingBuffer ring = localRing.get();
+        int offset = ring.claim();
+        if (offset < 0) return;
+        ByteBuffer buffer = ring.buffer();
+        buffer.put(offset + InsightsRingBuffer.TYPE, FLOW_DELETED);
+        writeMatch(buffer, offset, flowMatch);
+        FlowStats stats = metadata != null ? metadata.getStats() : null;
+        buffer.putLong(offset + InsightsRingBuffer.PACKETS,
+                       stats != null ? stats.getPackets() : 0L);
+        buffer.putLong(offset + InsightsRingBuffer.BYTES,
+                       stats != null ? stats.getBytes() : 0L);
+        writePort(buffer, offset, null);
+        ring.publish();
+    }
+
+    private static void writeMatch(ByteBuffer buffer, int offset,
+                                   FlowMatch flowMatch) {
+        buffer.put(offset + InsightsRingBuffer.PROTO,
+                   flowMatch.getNetworkProto());
+        buffer.putInt(offset + InsightsRingBuffer.SRC_IP,
+                      ipv4(flowMatch.getNetworkSrcIP()));
+        buffer.putInt(offset + InsightsRingBuffer.DST_IP,
+                      ipv4(flowMatch.getNetworkDstIP()));
+        buffer.putShort(offset + InsightsRingBuffer.SRC_PORT,
+                        (short) flowMatch.getSrcPort());
+        buffer.putShort(offset + InsightsRingBuffer.DST_PORT,
+                        (short) flowMatch.getDstPort());
+        buffer.putLong(offset + InsightsRingBuffer.PACKETS, 0L);
+        buffer.putLong(offset + InsightsRingBuffer.BYTES, 0L);
+    }
+
+    private static int ipv4(IPAddr address) {
+        return address instanceof IPv4Addr ? ((IPv4Addr) address).addr() : 0;
+    }
+
+    private static void writePort(ByteBuffer buffer, int offset, UUID port) {
+        buffer.putLong(offset + InsightsRingBuffer.INPUT_PORT,
+                       port != null ? port.getMostSignificantBits() : 0L);
+        buffer.putLong(offset + InsightsRingBuffer.INPUT_PORT + 8,
+                       port != null ? port.getLeastSignificantBits() : 0L);
+    }
+
+    private static void writeDevices(ByteBuffer buffer, int offset,
+                                     List<FlowTagger.FlowTag> flowTags) {
+        int count = 0;
+        // Iterate by index to avoid allocating an iterator.
+        for (int index = 0; index < flowTags.size() &&
+                            count < InsightsRingBuffer.MAX_DEVICES; index++) {
+            FlowTagger.FlowTag tag = flowTags.get(index);
+            if (tag instanceof FlowTagger.DeviceTag) {
+                UUID device = ((FlowTagger.DeviceTag) tag).device();
+                int position = offset + InsightsRingBuffer.DEVICES + count * 16;
+                buffer.putLong(position, device.getMostSignificantBits());
+                buffer.putLong(position + 8, device.getLeastSignificantBits());
+                count++;
+            }
+        }
+        buffer.put(offset + InsightsRingBuffer.DEVICE_COUNT, (byte) count);
+    }
+
+    /**
+     * Drains the records from all worker rings into the aggregated counters.
+     */
+    @VisibleForTesting
+    void drain() {
+        try {
+            synchronized (lock) {
+                for (InsightsRingBuffer ring : rings) {
+                    ring.drain(aggregator);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Failed to aggregate Insights records", e);
+        }
+    }
+
+    private void aggregate(ByteBuffer buffer, int offset) {
+        byte type = buffer.get(offset + InsightsRingBuffer.TYPE);
+        long bytes = buffer.getLong(offset + InsightsRingBuffer.BYTES);
+        switch (type) {
+            case FLOW_ADDED:
+                flowsAdded++;
+                forEachDevice(buffer, offset, 0);
+                break;
+            case FLOW_SIMULATION:
+                simulations++;
+                boolean drop = buffer.get(offset + InsightsRingBuffer.RESULT)
+                               == RESULT_DROP;
+                if (drop) {
+                    droppedSimulations++;
+                }
+                forEachDevice(buffer, offset, drop ? 2 : 1);
+                UUID port = readUuid(buffer,
+                                     offset + InsightsRingBuffer.INPUT_PORT);
+                if (port != null) {
+                    counter(ports, port, 1)[0]++;
+                }
+                break;
+            case FLOW_DELETED:
+                flowsDeleted++;
+                break;
+            default:
+                return;
+        }
+        if (bytes > 0) {
+            addTalker(buffer.getInt(offset + InsightsRingBuffer.SRC_IP),
+                      buffer.getLong(offset + InsightsRingBuffer.PACKETS),
+                      bytes);
+        }
+    }
+
+    private void forEachDevice(ByteBuffer buffer, int offset, int index) {
+        int count = buffer.get(offset + InsightsRingBuffer.DEVICE_COUNT);
+        for (int i = 0; i < count; i++) {
+            UUID device = readUuid(
+                buffer, offset + InsightsRingBuffer.DEVICES + i * 16);
+            long[] counters = counter(devices, device, 3);
+            counters[index]++;
+            if (index == 2) {
+                // Dropped simulations are also simulations.
+                counters[1]++;
+            }
+        }
+    }
+
+    private static UUID readUuid(ByteBuffer buffer, int position) {
+        long msb = buffer.getLong(position);
+        long lsb = buffer.getLong(position + 8);
+        return msb == 0L && lsb == 0L ? null : new UUID(msb, lsb);
+    }
+
+    /**
+     * @return A map in access order that discards its least recently
+     *         accessed entry when it exceeds the given capacity.
+     */
+    private static <K> Map<K, long[]> lruMap(int capacity) {
+        return new LinkedHashMap<K, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static <K> long[] counter(Map<K, long[]> map, K key, int size) {
+        long[] counters = map.get(key);
+        if (counters == null) {
+            counters = new long[size];
+            map.put(key, counters);
+        }
+        return counters;
+    }
+
+    /**
+     * Tracks the top source addresses by bytes using the space-saving
+     * algorithm: when the table is full, the address with the fewest bytes
+     * is replaced and the new address inherits its count, which bounds the
+     * over-estimation error of the reported counters.
+     */
+    private void addTalker(int address, long packets, long bytes) {
+        long[] counters = talkers.get(address);
+        if (counters == null) {
+            counters = new long[2];
+            if (talkers.size() >= talkersCapacity) {
+                Map.Entry<Integer, long[]> min = null;
+                for (Map.Entry<Integer, long[]> entry : talkers.entrySet()) {
+                    if (min == null ||
+                        entry.getValue()[1] < min.getValue()[1]) {
+                        min = entry;
+                    }
+                }
+                talkers.remove(min.getKey());
+                counters[0] = min.getValue()[0];
+                counters[1] = min.getValue()[1];
+            }
+            talkers.put(address, counters);
+        }
+        counters[0] += packets;
+        counters[1] += bytes;
+    }
+
+    private List<Map.Entry<Integer, long[]>> sortedTalkers() {
+        List<Map.Entry<Integer, long[]>> entries =
+            new ArrayList<>(talkers.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[1],
+                                            a.getValue()[1]));
+        return entries.subList(0, Math.min(topTalkers, entries.size()));
+    }
+
+    @Override
+    public long getFlowsAdded() {
+        synchronized (lock) {
+            return flowsAdded;
+        }
+    }
+
+    @Override
+    public long getFlowsDeleted() {
+        synchronized (lock) {
+            return flowsDeleted;
+        }
+    }
+
+    @Override
+    public long getSimulations() {
+        synchronized (lock) {
+            return simulations;
+        }
+    }
+
+    @Override
+    public long getDroppedSimulations() {
+        synchronized (lock) {
+            return droppedSimulations;
+        }
+    }
+
+    @Override
+    public long getDroppedRecords() {
+        long dropped = 0L;
+        for (InsightsRingBuffer ring : rings) {
+            dropped += ring.dropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public Map<String, Long> getDeviceFlows() {
+        Map<String, Long> result = new HashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<UUID, long[]> entry : devices.entrySet()) {
+                result.put(entry.getKey().toString(), entry.getValue()[0]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPortSimulations() {
+        Map<String, Long> result = new HashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<UUID, long[]> entry : ports.entrySet()) {
+                result.put(entry.getKey().toString(), entry.getValue()[0]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTopTalkers() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<Integer, long[]> entry : sortedTalkers()) {
+                result.put(IPv4Addr.intToString(entry.getKey()),
+                           entry.getValue()[1]);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Writes the aggregated counters as a tab-delimited text table.
+     */
+    public void toTextTable(BufferedWriter writer) throws IOException {
+        synchronized (lock) {
+            writer.append("flows_added\t").append(Long.toString(flowsAdded))
+                .append('\n');
+            writer.append("flows_deleted\t")
+                .append(Long.toString(flowsDeleted)).append('\n');
+            writer.append("simulations\t").append(Long.toString(simulations))
+                .append('\n');
+            writer.append("dropped_simulations\t")
+                .append(Long.toString(droppedSimulations)).append('\n');
+            writer.append("dropped_records\t")
+                .append(Long.toString(getDroppedRecords())).append('\n');
+            for (Map.Entry<UUID, long[]> entry : devices.entrySet()) {
+                long[] counters = entry.getValue();
+                writer.append("device\t").append(entry.getKey().toString())
+                    .append('\t').append(Long.toString(counters[0]))
+                    .append('\t').append(Long.toString(counters[1]))
+                    .append('\t').append(Long.toString(counters[2]))
+                    .append('\n');
+            }
+            for (Map.Entry<UUID, long[]> entry : ports.entrySet()) {
+                writer.append("port\t").append(entry.getKey().toString())
+                    .append('\t').append(Long.toString(entry.getValue()[0]))
+                    .append('\n');
+            }
+            for (Map.Entry<Integer, long[]> entry : sortedTalkers()) {
+                writer.append("talker\t")
+                    .append(IPv4Addr.intToString(entry.getKey()))
+                    .append('\t').append(Long.toString(entry.getValue()[0]))
+                    .append('\t').append(Long.toString(entry.getValue()[1]))
+                    .append('\n');
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.MetricRegistry;
 
 import org.midonet.midolman.config.MidolmanConfig;
+import org.midonet.netlink.AbstractNetlinkConnection;
 import org.midonet.netlink.BufferPool;
 import org.midonet.netlink.Netlink;
 import org.midonet.netlink.NetlinkMetrics;
@@ -118,6 +119,8 @@ public class SelectorBasedDatapathConnection implements ManagedDatapathConnectio
 
         conn.getChannel().configureBlocking(false);
         conn.setMaxBatchIoOps(200); // FIXME - deprecated
+        conn.setReadBatch(AbstractNetlinkConnection.newReadBatch(
+            config.datapath().upcallReadBatchSize()));
 
         readLoop.register(
                 conn.getChannel(),
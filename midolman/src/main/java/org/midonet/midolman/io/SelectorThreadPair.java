@@ -27,7 +27,9 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.MetricRegistry;
 
 import org.midonet.midolman.config.MidolmanConfig;
+import org.midonet.netlink.AbstractNetlinkConnection;
 import org.midonet.netlink.BufferPool;
+import org.midonet.netlink.DatagramBatch;
 import org.midonet.netlink.Netlink;
 import org.midonet.netlink.NetlinkMetrics;
 import org.midonet.odp.protos.OvsDatapathConnection;
@@ -49,6 +51,9 @@ public class SelectorThreadPair {
     private SelectLoop writeLoop;
     private final boolean singleThreaded;
     private final MetricRegistry metrics;
+    // Shared by all connections, since their reads are handled on the same
+    // read thread.
+    private DatagramBatch readBatch;
 
     private Set<ManagedDatapathConnection> conns = new HashSet<>();
 
@@ -97,6 +102,11 @@ public class SelectorThreadPair {
 
         conn.getChannel().configureBlocking(false);
         conn.setMaxBatchIoOps(200); // FIXME - deprecated
+        if (readBatch == null) {
+            readBatch = AbstractNetlinkConnection.newReadBatch(
+                config.datapath().upcallReadBatchSize());
+        }
+        conn.setReadBatch(readBatch);
 
         readLoop.register(
                 conn.getChannel(),
@@ -0,0 +1,640 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+
+/**
+ * An IPv4 routing table backed by a multi-bit trie with a stride of 8 bits
+ * and controlled prefix expansion, stored in primitive arrays.
+ *
+ * The trie consists of chunks of 256 slots, such that a lookup requires at
+ * most four chunk accesses. Every slot stores the index of the group of
+ * routes with the longest destination prefix expanded into that slot, and
+ * the index of the child chunk, if any. Routes with the same destination
+ * prefix form a group, for which the table precomputes the ECMP candidates
+ * such that lookups do not allocate when the routes have no source prefix.
+ *
+ * Unlike the {@link RoutingTable}, this table supports deleting routes, such
+ * that the router mapper can maintain a single table incrementally and
+ * publish immutable snapshots to the simulation. A snapshot shares the trie
+ * chunks, the route groups and the prefix map pages with the table, which
+ * copies a chunk or a page the first time it modifies it after a snapshot.
+ * Therefore, a snapshot only copies the references to the chunks and pages,
+ * and a route update only copies the chunks and pages that it modifies.
+ */
+public class IPv4LpmRoutingTable implements RoutingTableIfc<IPv4Addr> {
+
+    private final static Logger log =
+        LoggerFactory.getLogger("org.midonet.devices.router");
+
+    private static final int STRIDE = 8;
+    private static final int SLOTS = 1 << STRIDE;
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int INITIAL_CHUNKS = 16;
+    private static final int INITIAL_PAGES = 4;
+    private static final int NO_GROUP = -1;
+    private static final Route[] NO_ROUTES = new Route[0];
+
+    /**
+     * The routes with the same destination prefix, and their ECMP candidates
+     * when none of the routes has a source prefix. Groups are immutable, such
+     * that snapshots can share them.
+     */
+    private static final class Group {
+        final int length;
+        final Route[] routes;
+        final List<Route> candidates;
+
+        Group(int length, Route[] routes) {
+            this.length = length;
+            this.routes = routes;
+            boolean anySource = false;
+            for (Route route : routes) {
+                anySource |= route.srcNetworkLength != 0;
+            }
+            candidates = anySource ? null : matchSource(routes, 0);
+        }
+    }
+
+    /**
+     * An open addressing hash map from a destination prefix, encoded as a
+     * long, to the index of its route group. The map stores its entries in
+     * pages, which a copy of the map shares until either map modifies them.
+     */
+    private static final class PrefixMap {
+        private static final long EMPTY = -1L;
+
+        private long[][] keys;
+        private int[][] values;
+        private int[] pageGenerations;
+        private int generation;
+        private int mask;
+        private int size;
+
+        PrefixMap(int capacity) {
+            allocate(capacity);
+        }
+
+        PrefixMap(PrefixMap map) {
+            keys = map.keys.clone();
+            values = map.values.clone();
+            pageGenerations = map.pageGenerations.clone();
+            mask = map.mask;
+            size = map.size;
+            // Neither map owns the shared pages after the copy.
+            generation = ++map.generation;
+        }
+
+        private static int hash(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        private long key(int index) {
+            return keys[index >>> PAGE_BITS][index & PAGE_MASK];
+        }
+
+        private void set(int index, long key, int value) {
+            int page = index >>> PAGE_BITS;
+            if (pageGenerations[page] != generation) {
+                keys[page] = keys[page].clone();
+                values[page] = values[page].clone();
+                pageGenerations[page] = generation;
+            }
+            keys[page][index & PAGE_MASK] = key;
+            values[page][index & PAGE_MASK] = value;
+        }
+
+        int get(long key) {
+            int index = hash(key, mask);
+            long k;
+            while ((k = key(index)) != EMPTY) {
+                if (k == key)
+                    return values[index >>> PAGE_BITS][index & PAGE_MASK];
+                index = (index + 1) & mask;
+            }
+            return NO_GROUP;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) << 1 > mask + 1)
+                resize();
+            int index = hash(key, mask);
+            long k;
+            while ((k = key(index)) != EMPTY) {
+                if (k == key) {
+                    set(index, key, value);
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            set(index, key, value);
+            size++;
+        }
+
+        void remove(long key) {
+            int index = hash(key, mask);
+            long k;
+            while ((k = key(index)) != key) {
+                if (k == EMPTY)
+                    return;
+                index = (index + 1) & mask;
+            }
+            // Shift back the following entries of the probe sequence.
+            int gap = index;
+            index = (index + 1) & mask;
+            while ((k = key(index)) != EMPTY) {
+                int home = hash(k, mask);
+                if (((index - home) & mask) >= ((index - gap) & mask)) {
+                    set(gap, k,
+                        values[index >>> PAGE_BITS][index & PAGE_MASK]);
+                    gap = index;
+                }
+                index = (index + 1) & mask;
+            }
+            set(gap, EMPTY, 0);
+            size--;
+        }
+
+        private void allocate(int capacity) {
+            int pages = capacity >>> PAGE_BITS;
+            keys = new long[pages][PAGE_SIZE];
+            values = new int[pages][PAGE_SIZE];
+            pageGenerations = new int[pages];
+            for (long[] page : keys) {
+                Arrays.fill(page, EMPTY);
+            }
+            Arrays.fill(pageGenerations, generation);
+            mask = capacity - 1;
+        }
+
+        private void resize() {
+            long[][] oldKeys = keys;
+            int[][] oldValues = values;
+            allocate((mask + 1) << 1);
+            size = 0;
+            for (int page = 0; page < oldKeys.length; page++) {
+                for (int index = 0; index < PAGE_SIZE; index++) {
+                    if (oldKeys[page][index] != EMPTY)
+                        put(oldKeys[page][index], oldValues[page][index]);
+                }
+            }
+        }
+    }
+
+    // The table owns the chunks and the group pages whose generation equals
+    // the table generation, and copies the other ones before modifying them.
+    private int generation;
+
+    // The chunk 0 is the root of the trie.
+    private int[][] leaves;
+    private byte[][] leafLengths;
+    private int[][] children;
+    private int[] chunkGenerations;
+    private int[] chunkRefs;
+    private int[] parentSlots;
+    private int chunkCount;
+    private int[] freeChunks;
+    private int freeChunkCount;
+
+    private Group[][] groups;
+    private int[] groupGenerations;
+    private int groupCount;
+    private int[] freeGroups;
+    private int freeGroupCount;
+
+    private PrefixMap prefixes;
+    private int defaultGroup = NO_GROUP;
+    private int numRoutes = 0;
+
+    public IPv4LpmRoutingTable() {
+        leaves = new int[INITIAL_CHUNKS][];
+        leafLengths = new byte[INITIAL_CHUNKS][];
+        children = new int[INITIAL_CHUNKS][];
+        chunkGenerations = new int[INITIAL_CHUNKS];
+        chunkRefs = new int[INITIAL_CHUNKS];
+        parentSlots = new int[INITIAL_CHUNKS];
+        freeChunks = new int[INITIAL_CHUNKS];
+        allocateChunk(0);
+
+        groups = new Group[INITIAL_PAGES][];
+        groupGenerations = new int[INITIAL_PAGES];
+        freeGroups = new int[PAGE_SIZE];
+
+        prefixes = new PrefixMap(PAGE_SIZE);
+    }
+
+    private IPv4LpmRoutingTable(IPv4LpmRoutingTable table) {
+        // Neither table owns the shared chunks and pages after the copy.
+        generation = ++table.generation;
+
+        leaves = table.leaves.clone();
+        leafLengths = table.leafLengths.clone();
+        children = table.children.clone();
+        chunkGenerations = table.chunkGenerations.clone();
+        chunkRefs = table.chunkRefs.clone();
+        parentSlots = table.parentSlots.clone();
+        chunkCount = table.chunkCount;
+        freeChunks = Arrays.copyOf(table.freeChunks, table.freeChunkCount);
+        freeChunkCount = table.freeChunkCount;
+
+        groups = table.groups.clone();
+        groupGenerations = table.groupGenerations.clone();
+        groupCount = table.groupCount;
+        freeGroups = Arrays.copyOf(table.freeGroups, table.freeGroupCount);
+        freeGroupCount = table.freeGroupCount;
+
+        prefixes = new PrefixMap(table.prefixes);
+        defaultGroup = table.defaultGroup;
+        numRoutes = table.numRoutes;
+    }
+
+    /**
+     * Returns a copy of this routing table. The copy shares the trie chunks,
+     * the route groups and the prefix map pages with this table until either
+     * table modifies them, such that its cost is proportional to the number
+     * of chunks and pages rather than to their size.
+     */
+    public IPv4LpmRoutingTable snapshot() {
+        return new IPv4LpmRoutingTable(this);
+    }
+
+    /**
+     * Returns the number of routes in this table.
+     */
+    public int size() {
+        return numRoutes;
+    }
+
+    @Override
+    public void addRoute(Route rt) {
+        log.debug("addRoute: {}", rt);
+        int length = rt.dstNetworkLength;
+        int addr = rt.dstNetworkAddr & mask(length);
+        long key = key(addr, length);
+
+        int group = prefixes.get(key);
+        if (group == NO_GROUP) {
+            group = allocateGroup(length);
+            prefixes.put(key, group);
+            if (length == 0) {
+                defaultGroup = group;
+            } else {
+                insertPrefix(addr, length, group);
+            }
+        }
+
+        Route[] routes = group(group).routes;
+        for (Route route : routes) {
+            if (route.equals(rt))
+                return;
+        }
+        Route[] newRoutes = Arrays.copyOf(routes, routes.length + 1);
+        newRoutes[routes.length] = rt;
+        setGroup(group, new Group(length, newRoutes));
+        numRoutes++;
+    }
+
+    /**
+     * Deletes a route from the routing table. The method does nothing if the
+     * route does not exist.
+     */
+    public void deleteRoute(Route rt) {
+        log.debug("deleteRoute: {}", rt);
+        int length = rt.dstNetworkLength;
+        int addr = rt.dstNetworkAddr & mask(length);
+        long key = key(addr, length);
+
+        int group = prefixes.get(key);
+        if (group == NO_GROUP)
+            return;
+
+        Route[] routes = group(group).routes;
+        int index = 0;
+        while (index < routes.length && !routes[index].equals(rt)) {
+            index++;
+        }
+        if (index == routes.length)
+            return;
+        numRoutes--;
+
+        if (routes.length > 1) {
+            Route[] newRoutes = new Route[routes.length - 1];
+            System.arraycopy(routes, 0, newRoutes, 0, index);
+            System.arraycopy(routes, index + 1, newRoutes, index,
+                             routes.length - index - 1);
+            setGroup(group, new Group(length, newRoutes));
+            return;
+        }
+
+        prefixes.remove(key);
+        if (length == 0) {
+            defaultGroup = NO_GROUP;
+        } else {
+            removePrefix(addr, length, group);
+        }
+        releaseGroup(group);
+    }
+
+    @Override
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst) {
+        return lookup(src.toInt(), dst.toInt());
+    }
+
+    @Override
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst, Logger logger) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("lookup: src {} dst {} in table with {} routes",
+                         src, dst, numRoutes);
+        }
+        List<Route> routes = lookup(src.toInt(), dst.toInt());
+        if (logger.isDebugEnabled()) {
+            logger.debug("lookup: return {} for src {} dst {}",
+                         routes, src, dst);
+        }
+        return routes;
+    }
+
+    /**
+     * Returns the routes with the longest destination prefix matching the
+     * destination address, whose source prefix matches the source address,
+     * and that have the minimum weight. The returned list must not be
+     * modified.
+     */
+    public List<Route> lookup(int src, int dst) {
+        int index = longestGroup(dst);
+        while (index != NO_GROUP) {
+            Group group = group(index);
+            List<Route> routes = group.candidates;
+            if (routes == null) {
+                routes = matchSource(group.routes, src);
+            }
+            if (!routes.isEmpty())
+                return routes;
+            index = shorterGroup(dst, group.length);
+        }
+        return Collections.emptyList();
+    }
+
+    private int longestGroup(int dst) {
+        int group = defaultGroup;
+        int chunk = 0;
+        for (int level = 0; level < 4; level++) {
+            int slot = byteAt(dst, level);
+            int leaf = leaves[chunk][slot];
+            if (leaf != 0) {
+                group = leaf - 1;
+            }
+            chunk = children[chunk][slot];
+            if (chunk == 0)
+                break;
+        }
+        return group;
+    }
+
+    private int shorterGroup(int dst, int length) {
+        for (int len = length - 1; len >= 0; len--) {
+            int group = prefixes.get(key(dst & mask(len), len));
+            if (group != NO_GROUP)
+                return group;
+        }
+        return NO_GROUP;
+    }
+
+    private void insertPrefix(int addr, int length, int group) {
+        int level = (length - 1) / STRIDE;
+        int chunk = 0;
+        chunkRefs[0]++;
+        for (int l = 0; l < level; l++) {
+            int slot = byteAt(addr, l);
+            int child = children[chunk][slot];
+            if (child == 0) {
+                child = allocateChunk(chunk * SLOTS + slot);
+                copyChunkOnWrite(chunk);
+                children[chunk][slot] = child;
+            }
+            chunk = child;
+            chunkRefs[chunk]++;
+        }
+
+        copyChunkOnWrite(chunk);
+        int[] chunkLeaves = leaves[chunk];
+        byte[] chunkLengths = leafLengths[chunk];
+        int span = 1 << (STRIDE * (level + 1) - length);
+        int first = byteAt(addr, level) & ~(span - 1);
+        for (int slot = first; slot < first + span; slot++) {
+            if (chunkLengths[slot] <= length) {
+                chunkLeaves[slot] = group + 1;
+                chunkLengths[slot] = (byte) length;
+            }
+        }
+    }
+
+    private void removePrefix(int addr, int length, int group) {
+        int level = (length - 1) / STRIDE;
+        int chunk = 0;
+        for (int l = 0; l < level; l++) {
+            chunk = children[chunk][byteAt(addr, l)];
+        }
+
+        copyChunkOnWrite(chunk);
+        int[] chunkLeaves = leaves[chunk];
+        byte[] chunkLengths = leafLengths[chunk];
+        int span = 1 << (STRIDE * (level + 1) - length);
+        int first = byteAt(addr, level) & ~(span - 1);
+        int minLength = STRIDE * level + 1;
+        for (int slot = first; slot < first + span; slot++) {
+            if (chunkLeaves[slot] != group + 1)
+                continue;
+            // Replace the leaf with the longest shorter prefix that expands
+            // into the same slot, if any.
+            int slotAddr = (addr & mask(STRIDE * level)) |
+                           (slot << (24 - STRIDE * level));
+            chunkLeaves[slot] = 0;
+            chunkLengths[slot] = 0;
+            for (int len = length - 1; len >= minLength; len--) {
+                int shorter = prefixes.get(key(slotAddr & mask(len), len));
+                if (shorter != NO_GROUP) {
+                    chunkLeaves[slot] = shorter + 1;
+                    chunkLengths[slot] = (byte) len;
+                    break;
+                }
+            }
+        }
+
+        // Release the chunks that no longer hold any prefix.
+        while (chunk != 0) {
+            int parent = parentSlots[chunk] / SLOTS;
+            if (--chunkRefs[chunk] == 0) {
+                copyChunkOnWrite(parent);
+                children[parent][parentSlots[chunk] % SLOTS] = 0;
+                releaseChunk(chunk);
+            }
+            chunk = parent;
+        }
+        chunkRefs[0]--;
+    }
+
+    /**
+     * Copies the arrays of a chunk shared with a snapshot, before modifying
+     * the chunk.
+     */
+    private void copyChunkOnWrite(int chunk) {
+        if (chunkGenerations[chunk] != generation) {
+            leaves[chunk] = leaves[chunk].clone();
+            leafLengths[chunk] = leafLengths[chunk].clone();
+            children[chunk] = children[chunk].clone();
+            chunkGenerations[chunk] = generation;
+        }
+    }
+
+    private int allocateChunk(int parentSlot) {
+        int chunk;
+        if (freeChunkCount > 0) {
+            chunk = freeChunks[--freeChunkCount];
+        } else {
+            if (chunkCount == chunkRefs.length) {
+                int capacity = chunkCount << 1;
+                leaves = Arrays.copyOf(leaves, capacity);
+                leafLengths = Arrays.copyOf(leafLengths, capacity);
+                children = Arrays.copyOf(children, capacity);
+                chunkGenerations = Arrays.copyOf(chunkGenerations, capacity);
+                chunkRefs = Arrays.copyOf(chunkRefs, capacity);
+                parentSlots = Arrays.copyOf(parentSlots, capacity);
+            }
+            chunk = chunkCount++;
+        }
+        // Do not reuse the arrays of a released chunk, since a snapshot may
+        // still reference them.
+        leaves[chunk] = new int[SLOTS];
+        leafLengths[chunk] = new byte[SLOTS];
+        children[chunk] = new int[SLOTS];
+        chunkGenerations[chunk] = generation;
+        chunkRefs[chunk] = 0;
+        parentSlots[chunk] = parentSlot;
+        return chunk;
+    }
+
+    private void releaseChunk(int chunk) {
+        leaves[chunk] = null;
+        leafLengths[chunk] = null;
+        children[chunk] = null;
+        if (freeChunkCount == freeChunks.length) {
+            freeChunks = Arrays.copyOf(freeChunks,
+                                       Math.max(freeChunkCount << 1,
+                                                INITIAL_CHUNKS));
+        }
+        freeChunks[freeChunkCount++] = chunk;
+    }
+
+    private Group group(int group) {
+        return groups[group >>> PAGE_BITS][group & PAGE_MASK];
+    }
+
+    /**
+     * Sets a group, copying its page if the page is shared with a snapshot.
+     */
+    private void setGroup(int group, Group value) {
+        int page = group >>> PAGE_BITS;
+        if (groupGenerations[page] != generation) {
+            groups[page] = groups[page].clone();
+            groupGenerations[page] = generation;
+        }
+        groups[page][group & PAGE_MASK] = value;
+    }
+
+    private int allocateGroup(int length) {
+        int group;
+        if (freeGroupCount > 0) {
+            group = freeGroups[--freeGroupCount];
+        } else {
+            int page = groupCount >>> PAGE_BITS;
+            if (page == groups.length) {
+                groups = Arrays.copyOf(groups, page << 1);
+                groupGenerations = Arrays.copyOf(groupGenerations, page << 1);
+            }
+            if (groups[page] == null) {
+                groups[page] = new Group[PAGE_SIZE];
+                groupGenerations[page] = generation;
+            }
+            group = groupCount++;
+        }
+        setGroup(group, new Group(length, NO_ROUTES));
+        return group;
+    }
+
+    private void releaseGroup(int group) {
+        setGroup(group, null);
+        if (freeGroupCount == freeGroups.length) {
+            freeGroups = Arrays.copyOf(freeGroups,
+                                       Math.max(freeGroupCount << 1,
+                                                PAGE_SIZE));
+        }
+        freeGroups[freeGroupCount++] = group;
+    }
+
+    private static List<Route> matchSource(Route[] routes, int src) {
+        List<Route> candidates = null;
+        int minWeight = Integer.MAX_VALUE;
+        for (Route route : routes) {
+            if (IPv4Subnet.addrMatch(src, route.srcNetworkAddr,
+                                     route.srcNetworkLength)) {
+                if (route.weight < minWeight || candidates == null) {
+                    candidates = new ArrayList<>(routes.length);
+                    candidates.add(route);
+                    minWeight = route.weight;
+                } else if (route.weight == minWeight) {
+                    candidates.add(route);
+                }
+            }
+        }
+        return candidates == null
+               ? Collections.<Route>emptyList()
+               : Collections.unmodifiableList(candidates);
+    }
+
+    private static int byteAt(int addr, int level) {
+        return (addr >>> (24 - STRIDE * level)) & (SLOTS - 1);
+    }
+
+    private static int mask(int length) {
+        return length == 0 ? 0 : ~0 << (32 - length);
+    }
+
+    private static long key(int addr, int length) {
+        return ((long) length << 32) | (addr & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public String toString() {
+        return "IPv4LpmRoutingTable [routes=" + numRoutes +
+               " prefixes=" + prefixes.size + " chunks=" +
+               (chunkCount - freeChunkCount) + "]";
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.rules;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.midonet.odp.FlowMatch;
+import org.midonet.packets.IPAddr;
+import org.midonet.packets.IPSubnet;
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+import org.midonet.util.Range;
+
+/**
+ * A bit-vector classifier that is compiled from the rules of a chain.
+ *
+ * For each indexed dimension (network protocol, source and destination IPv4
+ * address and transport destination port) the key space is partitioned into
+ * elementary intervals, and every interval is associated with the bit set of
+ * the rules whose condition may match a packet with a key in that interval.
+ * The candidate rules for a packet are the intersection of the bit sets
+ * selected in every dimension, computed with one array lookup or binary
+ * search per dimension and a word-wise AND.
+ *
+ * A rule that is not a candidate is guaranteed not to match the packet, such
+ * that the chain only needs to evaluate the candidate rules in order. The
+ * classifier is conservative: rules with an inverted conjunction and
+ * conditions that cannot be indexed are candidates in every interval.
+ *
+ * The classifier only reads from the flow match the fields of the dimensions
+ * used by at least one rule, such that the fields seen by the simulation
+ * remain a superset of those determining the classification.
+ */
+public final class RuleClassifier {
+
+    private static final long MAX_PORT = 0xFFFFL;
+    private static final long MAX_IPV4 = 0xFFFFFFFFL;
+
+    /**
+     * A dimension indexed by unsigned keys, partitioned into elementary
+     * intervals delimited by the lower bounds in {@code bounds}.
+     */
+    private static final class IntervalDimension {
+        final long[] bounds;
+        final long[][] sets;
+
+        IntervalDimension(long[] bounds, long[][] sets) {
+            this.bounds = bounds;
+            this.sets = sets;
+        }
+
+        long[] lookup(long key) {
+            int index = Arrays.binarySearch(bounds, key);
+            return sets[index >= 0 ? index : -index - 2];
+        }
+    }
+
+    private final int size;
+    private final int words;
+
+    private final long[][] protoSets;
+    private final IntervalDimension srcIps;
+    private final long[] noSrcIpv4;
+    private final IntervalDimension dstIps;
+    private final long[] noDstIpv4;
+    private final IntervalDimension dstPorts;
+
+    private final ThreadLocal<long[]> scratch;
+
+    private RuleClassifier(int size, long[][] protoSets,
+                           IntervalDimension srcIps, long[] noSrcIpv4,
+                           IntervalDimension dstIps, long[] noDstIpv4,
+                           IntervalDimension dstPorts) {
+        this.size = size;
+        this.words = wordsFor(size);
+        this.protoSets = protoSets;
+        this.srcIps = srcIps;
+        this.noSrcIpv4 = noSrcIpv4;
+        this.dstIps = dstIps;
+        this.noDstIpv4 = noDstIpv4;
+        this.dstPorts = dstPorts;
+        this.scratch = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[words];
+            }
+        };
+    }
+
+    /**
+     * Compiles a classifier for the given list of rules. The method returns
+     * null when none of the rules can be indexed, in which case the linear
+     * evaluation is as fast as the classifier.
+     */
+    public static RuleClassifier compile(List<Rule> rules) {
+        int size = rules.size();
+        Condition[] conditions = new Condition[size];
+        boolean indexProto = false, indexSrcIp = false, indexDstIp = false,
+                indexDstPort = false;
+        for (int index = 0; index < size; index++) {
+            Condition cond = rules.get(index).getCondition();
+            if (cond == null || cond.conjunctionInv)
+                continue;
+            conditions[index] = cond;
+            indexProto |= cond.nwProto != null;
+            indexSrcIp |= cond.nwSrcIp instanceof IPv4Subnet;
+            indexDstIp |= cond.nwDstIp instanceof IPv4Subnet;
+            indexDstPort |= cond.tpDst != null;
+        }
+        if (!indexProto && !indexSrcIp && !indexDstIp && !indexDstPort)
+            return null;
+
+        long[][] protoSets = indexProto ? compileProto(conditions) : null;
+        IntervalDimension srcIps = null, dstIps = null, dstPorts = null;
+        long[] noSrcIpv4 = null, noDstIpv4 = null;
+        if (indexSrcIp) {
+            IPSubnet<?>[] subnets = new IPSubnet<?>[size];
+            boolean[] inverted = new boolean[size];
+            for (int index = 0; index < size; index++) {
+                if (conditions[index] != null) {
+                    subnets[index] = conditions[index].nwSrcIp;
+                    inverted[index] = conditions[index].nwSrcInv;
+                }
+            }
+            srcIps = compileSubnets(subnets, inverted);
+            noSrcIpv4 = compileNoIpv4(subnets, inverted);
+        }
+        if (indexDstIp) {
+            IPSubnet<?>[] subnets = new IPSubnet<?>[size];
+            boolean[] inverted = new boolean[size];
+            for (int index = 0; index < size; index++) {
+                if (conditions[index] != null) {
+                    subnets[index] = conditions[index].nwDstIp;
+                    inverted[index] = conditions[index].nwDstInv;
+                }
+            }
+            dstIps = compileSubnets(subnets, inverted);
+            noDstIpv4 = compileNoIpv4(subnets, inverted);
+        }
+        if (indexDstPort) {
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+            boolean[] inverted = new boolean[size];
+            boolean[] indexed = new boolean[size];
+            for (int index = 0; index < size; index++) {
+                Condition cond = conditions[index];
+                if (cond != null && cond.tpDst != null) {
+                    Range<Integer> range = cond.tpDst;
+                    starts[index] = range.start() == null ? 0L : range.start();
+                    ends[index] = range.end() == null ? MAX_PORT : range.end();
+                    inverted[index] = cond.tpDstInv;
+                    indexed[index] = true;
+                }
+            }
+            dstPorts = compileIntervals(starts, ends, inverted, indexed,
+                                        MAX_PORT);
+        }
+        return new RuleClassifier(size, protoSets, srcIps, noSrcIpv4,
+                                  dstIps, noDstIpv4, dstPorts);
+    }
+
+    /**
+     * Returns the number of rules classified by this classifier.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Computes the set of candidate rules for the given flow match. The
+     * returned bit set is owned by the calling thread and remains valid until
+     * the next call to this method from the same thread.
+     */
+    public long[] classify(FlowMatch match) {
+        long[] candidates = scratch.get();
+        Arrays.fill(candidates, -1L);
+        if (protoSets != null) {
+            and(candidates, protoSets[match.getNetworkProto() & 0xFF]);
+        }
+        if (srcIps != null) {
+            IPAddr address = match.getNetworkSrcIP();
+            if (address instanceof IPv4Addr) {
+                and(candidates, srcIps.lookup(
+                    ((IPv4Addr) address).toInt() & MAX_IPV4));
+            } else if (address == null) {
+                and(candidates, noSrcIpv4);
+            }
+        }
+        if (dstIps != null) {
+            IPAddr address = match.getNetworkDstIP();
+            if (address instanceof IPv4Addr) {
+                and(candidates, dstIps.lookup(
+                    ((IPv4Addr) address).toInt() & MAX_IPV4));
+            } else if (address == null) {
+                and(candidates, noDstIpv4);
+            }
+        }
+        if (dstPorts != null) {
+            and(candidates, dstPorts.lookup(match.getDstPort()));
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the index of the first candidate rule at or after the given
+     * index, or the number of rules if there is none.
+     */
+    public int nextCandidate(long[] candidates, int from) {
+        int word = from >>> 6;
+        if (word >= words)
+            return size;
+        long bits = candidates[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return index < size ? index : size;
+            }
+            if (++word == words)
+                return size;
+            bits = candidates[word];
+        }
+    }
+
+    private static long[][] compileProto(Condition[] conditions) {
+        int words = wordsFor(conditions.length);
+        long[][] sets = new long[256][];
+        for (int proto = 0; proto < 256; proto++) {
+            long[] set = new long[words];
+            for (int index = 0; index < conditions.length; index++) {
+                Condition cond = conditions[index];
+                if (cond == null || cond.nwProto == null ||
+                    (((cond.nwProto & 0xFF) == proto) ^ cond.nwProtoInv)) {
+                    set(set, index);
+                }
+            }
+            sets[proto] = set;
+        }
+        return sets;
+    }
+
+    private static IntervalDimension compileSubnets(IPSubnet<?>[] subnets,
+                                                    boolean[] inverted) {
+        int size = subnets.length;
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        boolean[] indexed = new boolean[size];
+        for (int index = 0; index < size; index++) {
+            if (subnets[index] instanceof IPv4Subnet) {
+                IPv4Subnet subnet = (IPv4Subnet) subnets[index];
+                int prefixLen = subnet.getPrefixLen();
+                int mask = prefixLen == 0 ? 0 : ~0 << (32 - prefixLen);
+                int network = subnet.getIntAddress() & mask;
+                starts[index] = network & MAX_IPV4;
+                ends[index] = (network | ~mask) & MAX_IPV4;
+                indexed[index] = true;
+            }
+        }
+        return compileIntervals(starts, ends, inverted, indexed, MAX_IPV4);
+    }
+
+    /**
+     * Computes the candidate set for packets without an IPv4 address: a
+     * condition on an IPv4 subnet never matches a missing address unless the
+     * condition is inverted.
+     */
+    private static long[] compileNoIpv4(IPSubnet<?>[] subnets,
+                                        boolean[] inverted) {
+        long[] set = new long[wordsFor(subnets.length)];
+        for (int index = 0; index < subnets.length; index++) {
+            if (!(subnets[index] instanceof IPv4Subnet) || inverted[index]) {
+                set(set, index);
+            }
+        }
+        return set;
+    }
+
+    private static IntervalDimension compileIntervals(long[] starts,
+                                                      long[] ends,
+                                                      boolean[] inverted,
+                                                      boolean[] indexed,
+                                                      long max) {
+        int size = starts.length;
+        int words = wordsFor(size);
+        TreeSet<Long> points = new TreeSet<>();
+        points.add(0L);
+        for (int index = 0; index < size; index++) {
+            if (indexed[index]) {
+                points.add(starts[index]);
+                if (ends[index] < max)
+                    points.add(ends[index] + 1);
+            }
+        }
+
+        long[] bounds = new long[points.size()];
+        int count = 0;
+        for (Long point : points) {
+            bounds[count++] = point;
+        }
+
+        long[][] sets = new long[bounds.length][];
+        long[] previous = null;
+        for (int interval = 0; interval < bounds.length; interval++) {
+            long[] set = new long[words];
+            long key = bounds[interval];
+            for (int index = 0; index < size; index++) {
+                if (!indexed[index] ||
+                    ((key >= starts[index] && key <= ends[index]) ^
+                     inverted[index])) {
+                    set(set, index);
+                }
+            }
+            // Share the bit set between adjacent intervals with the same
+            // candidates to bound the memory used by large chains.
+            if (previous != null && Arrays.equals(previous, set)) {
+                sets[interval] = previous;
+            } else {
+                sets[interval] = set;
+                previous = set;
+            }
+        }
+        return new IntervalDimension(bounds, sets);
+    }
+
+    private static int wordsFor(int size) {
+        return Math.max(1, (size + 63) >>> 6);
+    }
+
+    private static void set(long[] set, int index) {
+        set[index >>> 6] |= 1L << index;
+    }
+
+    private static void and(long[] candidates, long[] set) {
+        for (int word = 0; word < candidates.length; word++) {
+            candidates[word] &= set[word];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RuleClassifier [rules=" + size +
+               " proto=" + (protoSets != null) +
+               " srcIp=" + (srcIps != null ? srcIps.bounds.length : 0) +
+               " dstIp=" + (dstIps != null ? dstIps.bounds.length : 0) +
+               " dstPort=" + (dstPorts != null ? dstPorts.bounds.length : 0) +
+               "]";
+    }
+}
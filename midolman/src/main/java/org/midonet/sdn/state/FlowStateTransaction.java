@@ -68,6 +68,35 @@ public class FlowStateTransaction<K, V> {
         return keys.size() + refs.size();
     }
 
+    /**
+     * The number of keys put in this transaction.
+     */
+    public int putCount() {
+        return keys.size();
+    }
+
+    public K putKey(int index) {
+        return keys.get(index);
+    }
+
+    /**
+     * The number of ref() operations in this transaction.
+     */
+    public int refCount() {
+        return refs.size();
+    }
+
+    public K refKey(int index) {
+        return refs.get(index);
+    }
+
+    /**
+     * Whether this transaction touches or removes any key.
+     */
+    public boolean hasTouchesOrDeletes() {
+        return !touchKeys.isEmpty() || !deletes.isEmpty();
+    }
+
     /**
      * Discards the ongoing transaction, clearing all state in it.
      */
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.state
+
+import java.io.ByteArrayOutputStream
+import java.nio.{BufferUnderflowException, ByteBuffer}
+import java.util.UUID
+import java.util.zip.{DataFormatException, Deflater, Inflater}
+
+import scala.collection.mutable
+
+import org.apache.commons.codec.binary.Base64
+
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+
+/**
+ * Encodes and decodes the chunks of a bulk route table. Instead of storing
+ * every learned route as a separate value of the port `routes` state
+ * key, a bulk route table stores the routes of a port in chunks, where every
+ * chunk is a value of the port `route_table` state key containing up to
+ * several hundred routes. This reduces the number of z-nodes and watcher
+ * notifications for large routing tables by the number of routes per chunk.
+ *
+ * A chunk is encoded as the format version, followed by a dot and the
+ * URL-safe base-64 encoding of the deflated binary chunk:
+ *
+ *  8 bytes  - chunk sequence number, unique for the port
+ *  4 bytes  - number of routes
+ *  for each route:
+ *    4 bytes  - destination IPv4 address
+ *    1 byte   - destination prefix length
+ *    4 bytes  - source IPv4 address
+ *    1 byte   - source prefix length
+ *    4 bytes  - next hop IPv4 address
+ *    4 bytes  - metric
+ *    16 bytes - router identifier
+ *    16 bytes - next hop port identifier
+ *
+ * Since the routes of a chunk usually share the router and the next hop port,
+ * the deflated chunk is much smaller than the binary representation.
+ *
+ * The ZooKeeper storage stores a chunk as the name of a z-node, and reads all
+ * chunks of a route table with a single `getChildren` call. Therefore, the
+ * ZooKeeper client buffer of every agent and cluster node reading the route
+ * table, set with `zookeeper.buffer_size`, must exceed the total size of its
+ * chunks, as given by [[RouteTable.storedSize]]. With full chunks of routes
+ * sharing the router and next hop port, a chunk uses about 7 bytes per route,
+ * such that a buffer of 10 bytes per route, i.e. 10MB per million routes,
+ * leaves room for the partially filled chunks. The default buffer size of
+ * 4MB accommodates about 400,000 routes.
+ */
+object RouteTable {
+
+    final val FormatVersion = 1
+
+    private final val Prefix = s"$FormatVersion."
+    private final val HeaderSize = 12
+    private final val RouteSize = 50
+
+    /**
+     * A decoded route table chunk.
+     */
+    case class Chunk(sequence: Long, routes: Array[Route])
+
+    /**
+     * Encodes the given routes as a route table chunk with the specified
+     * sequence number. Only [[NextHop.PORT]] routes are supported.
+     */
+    def encode(sequence: Long, routes: Iterable[Route]): String = {
+        val buffer = ByteBuffer.allocate(HeaderSize + routes.size * RouteSize)
+        buffer.putLong(sequence)
+        buffer.putInt(routes.size)
+        for (route <- routes) {
+            if (route.nextHop != NextHop.PORT) {
+                throw new IllegalArgumentException(
+                    s"Route next hop ${route.nextHop} not supported")
+            }
+            buffer.putInt(route.dstNetworkAddr)
+            buffer.put(route.dstNetworkLength.toByte)
+            buffer.putInt(route.srcNetworkAddr)
+            buffer.put(route.srcNetworkLength.toByte)
+            buffer.putInt(route.nextHopGateway)
+            buffer.putInt(route.weight)
+            buffer.putLong(route.routerId.getMostSignificantBits)
+            buffer.putLong(route.routerId.getLeastSignificantBits)
+            buffer.putLong(route.nextHopPort.getMostSignificantBits)
+            buffer.putLong(route.nextHopPort.getLeastSignificantBits)
+        }
+
+        val deflater = new Deflater(Deflater.BEST_SPEED)
+        try {
+            deflater.setInput(buffer.array(), 0, buffer.position())
+            deflater.finish()
+            val output = new ByteArrayOutputStream(buffer.position() / 2)
+            val block = new Array[Byte](4096)
+            while (!deflater.finished()) {
+                output.write(block, 0, deflater.deflate(block))
+            }
+            Prefix + Base64.encodeBase64URLSafeString(output.toByteArray)
+        } finally {
+            deflater.end()
+        }
+    }
+
+    /**
+     * Returns the number of bytes the given chunk adds to the response of a
+     * ZooKeeper `getChildren` call: the z-node name and its length.
+     */
+    def storedSize(value: String): Int = value.length + 4
+
+    /**
+     * Decodes a route table chunk, returning `None` if the chunk is invalid or
+     * uses an unsupported format.
+     */
+    def decode(value: String): Option[Chunk] = {
+        if (!value.startsWith(Prefix)) {
+            return None
+        }
+        val inflater = new Inflater()
+        try {
+            inflater.setInput(Base64.decodeBase64(value.substring(Prefix.length)))
+            val output = new ByteArrayOutputStream(value.length * 4)
+            val block = new Array[Byte](4096)
+            while (!inflater.finished()) {
+                val length = inflater.inflate(block)
+                if (length == 0 && (inflater.needsInput() ||
+                                    inflater.needsDictionary())) {
+                    return None
+                }
+                output.write(block, 0, length)
+            }
+
+            val buffer = ByteBuffer.wrap(output.toByteArray)
+            val sequence = buffer.getLong()
+            val count = buffer.getInt()
+            if (count < 0 || count * RouteSize > buffer.remaining()) {
+                return None
+            }
+            val routes = new Array[Route](count)
+            var index = 0
+            while (index < count) {
+                val dstNetworkAddr = buffer.getInt()
+                val dstNetworkLength = buffer.get()
+                val srcNetworkAddr = buffer.getInt()
+                val srcNetworkLength = buffer.get()
+                val nextHopGateway = buffer.getInt()
+                val weight = buffer.getInt()
+                val routerId = new UUID(buffer.getLong(), buffer.getLong())
+                val nextHopPort = new UUID(buffer.getLong(), buffer.getLong())
+                routes(index) = new Route(srcNetworkAddr, srcNetworkLength,
+                                          dstNetworkAddr, dstNetworkLength,
+                                          NextHop.PORT, nextHopPort,
+                                          nextHopGateway, weight, "",
+                                          routerId, true)
+                index += 1
+            }
+            Some(Chunk(sequence, routes))
+        } catch {
+            case _: DataFormatException | _: BufferUnderflowException => None
+        } finally {
+            inflater.end()
+        }
+    }
+
+}
+
+/**
+ * Computes the route updates of a bulk route table from the successive sets
+ * of chunks of the port `route_table` state key. The reader keeps the routes
+ * of every chunk and a reference count of every route, such that a route is
+ * added when it first appears in any chunk, and removed when it no longer
+ * appears in any chunk. This allows the publisher to replace a chunk by
+ * adding the new chunk before removing the old one, without emitting any
+ * update for the routes present in both.
+ *
+ * The cost of an update is proportional to the number of chunks, and to the
+ * number of routes in the chunks that were added or removed.
+ *
+ * This class is not thread-safe.
+ */
+class RouteTableReader {
+
+    private val chunks = new mutable.HashMap[String, Array[Route]]
+    private val references = new mutable.HashMap[Route, Int]
+
+    /**
+     * @return The current routes in the route table.
+     */
+    def routes: Set[Route] = references.keySet.toSet
+
+    /**
+     * Updates the reader with the current chunks of the route table, and
+     * returns the routes added and removed since the previous update.
+     */
+    def update(values: Set[String]): RouteTableUpdate = {
+        val added = new mutable.HashSet[Route]
+        val removed = new mutable.HashSet[Route]
+
+        for (value <- values if !chunks.contains(value)) {
+            val routes = RouteTable.decode(value) match {
+                case Some(chunk) => chunk.routes
+                case None => Array.empty[Route]
+            }
+            chunks.put(value, routes)
+            for (route <- routes) {
+                val count = references.getOrElse(route, 0)
+                references.put(route, count + 1)
+                if (count == 0 && !removed.remove(route)) added += route
+            }
+        }
+
+        for ((value, routes) <- chunks.toList if !values.contains(value)) {
+            chunks.remove(value)
+            for (route <- routes) {
+                val count = references(route) - 1
+                if (count == 0) {
+                    references.remove(route)
+                    if (!added.remove(route)) removed += route
+                } else {
+                    references.put(route, count)
+                }
+            }
+        }
+
+        RouteTableUpdate(added.toSet, removed.toSet)
+    }
+}
+
+/**
+ * The routes added to and removed from a bulk route table.
+ */
+case class RouteTableUpdate(added: Set[Route], removed: Set[Route]) {
+    def isEmpty = added.isEmpty && removed.isEmpty
+}
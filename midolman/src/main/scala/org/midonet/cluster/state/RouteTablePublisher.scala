@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.state
+
+import java.util.UUID
+import java.util.concurrent.{ScheduledExecutorService, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.{Future, Promise}
+import scala.util.control.NonFatal
+
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory
+
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.data.storage.{MultiValueKey, StateResult, StateStorage}
+import org.midonet.cluster.models.Topology.Port
+import org.midonet.cluster.services.MidonetBackend.RouteTableKey
+import org.midonet.cluster.state.RoutingTableStorage._
+import org.midonet.midolman.layer3.Route
+import org.midonet.util.functors._
+
+/**
+ * Publishes the learned routes of a port to its bulk route table. The
+ * publisher batches the route additions and removals, and publishes a batch
+ * either when it reaches `chunkSize` routes, or after `flushDelayMs`
+ * milliseconds since the first change of the batch. When publishing a batch,
+ * the publisher replaces the chunks containing removed routes: the remaining
+ * routes of these chunks and the added routes are written to new chunks,
+ * which are added to the storage before the replaced chunks are removed, such
+ * that observers never see a remaining route disappear.
+ *
+ * To keep the chunks compact, a batch adding routes also replaces the newest
+ * partially filled chunk, such that the added routes fill that chunk first,
+ * and a batch with any change also replaces the chunks with fewer than half
+ * of `chunkSize` routes, coalescing their routes into full chunks. Therefore,
+ * every chunk except the newest holds at least half of `chunkSize` routes.
+ *
+ * The ZooKeeper storage stores every chunk as the name of a z-node, and reads
+ * the route table with a single `getChildren` call, whose response must fit
+ * in the ZooKeeper client buffer of every reader. The publisher logs a
+ * warning when the route table outgrows `bufferSize` bytes, the client buffer
+ * size configured by `zookeeper.buffer_size`.
+ *
+ * The futures returned by `add` and `remove` complete when the batch including
+ * the change was published. If publishing a batch fails, the in-memory chunks
+ * may no longer match the storage: the publisher is then marked dirty and it
+ * reloads the route table from storage before publishing the next batch.
+ *
+ * This class is thread-safe.
+ */
+class RouteTablePublisher(store: StateStorage, portId: UUID, chunkSize: Int,
+                          flushDelayMs: Long,
+                          executor: ScheduledExecutorService,
+                          bufferSize: Int = Int.MaxValue) {
+
+    require(chunkSize > 0, "The chunk size must be positive")
+
+    private val log = Logger(LoggerFactory.getLogger("org.midonet.routing.bgp"))
+
+    // Chunks with fewer routes are coalesced when publishing the next batch.
+    private val fillThreshold = Math.max(chunkSize / 2, 1)
+
+    private val chunks = new mutable.HashMap[String, Array[Route]]
+    private val routeChunks = new mutable.HashMap[Route, String]
+    private val sparseChunks = new mutable.HashSet[String]
+    private var partialChunk: String = null
+    private var tableSize = 0L
+    private var tableSizeExceeded = false
+
+    // The pending changes, where true adds and false removes the route.
+    private val pending = new mutable.LinkedHashMap[Route, Boolean]
+    private val promises = new mutable.ArrayBuffer[(Route, Promise[Route])]
+    private var flushScheduled = false
+    private var sequence = 0L
+    private var dirty = false
+
+    private val flushRunnable = makeRunnable { flush() }
+
+    /**
+     * @return The routes currently published, or pending publication.
+     */
+    def routes: Set[Route] = synchronized {
+        val routes = new mutable.HashSet[Route]
+        routes ++= routeChunks.keys
+        for ((route, present) <- pending) {
+            if (present) routes += route else routes -= route
+        }
+        routes.toSet
+    }
+
+    /**
+     * @return True if a publication failed and the publisher has not yet
+     *         reloaded the route table from storage.
+     */
+    def isDirty: Boolean = synchronized { dirty }
+
+    /**
+     * Replaces the chunks known by the publisher with the chunks of the route
+     * table that are in storage, for instance after the routing handler
+     * restarted or after the storage session was lost, and returns the routes
+     * in these chunks. The pending changes are kept, and they are applied to
+     * the restored chunks when the next batch is published.
+     */
+    def restore(values: Set[String]): Set[Route] = synchronized {
+        chunks.clear()
+        routeChunks.clear()
+        sparseChunks.clear()
+        partialChunk = null
+        tableSize = 0L
+        var partialSequence = -1L
+        for (value <- values; chunk <- RouteTable.decode(value)) {
+            chunks.put(value, chunk.routes)
+            tableSize += RouteTable.storedSize(value)
+            for (route <- chunk.routes) {
+                routeChunks.put(route, value)
+            }
+            if (chunk.routes.length < fillThreshold) {
+                sparseChunks += value
+            }
+            if (chunk.routes.length < chunkSize &&
+                chunk.sequence > partialSequence) {
+                partialChunk = value
+                partialSequence = chunk.sequence
+            }
+            sequence = Math.max(sequence, chunk.sequence + 1)
+        }
+        checkTableSize()
+        dirty = false
+        routeChunks.keySet.toSet
+    }
+
+    /**
+     * Adds a route to the route table.
+     */
+    def add(route: Route): Future[Route] = change(route, present = true)
+
+    /**
+     * Removes a route from the route table.
+     */
+    def remove(route: Route): Future[Route] = change(route, present = false)
+
+    private def change(route: Route, present: Boolean)
+    : Future[Route] = synchronized {
+        val promise = Promise[Route]()
+        pending.put(route, present)
+        promises += ((route, promise))
+        if (pending.size >= chunkSize) {
+            executor.execute(flushRunnable)
+        } else if (!flushScheduled) {
+            flushScheduled = true
+            executor.schedule(flushRunnable, flushDelayMs,
+                              TimeUnit.MILLISECONDS)
+        }
+        promise.future
+    }
+
+    /**
+     * Publishes the pending changes to storage.
+     */
+    def flush(): Unit = {
+        if (isDirty) {
+            try {
+                restore(store.getKey(classOf[Port], portId, RouteTableKey)
+                             .toBlocking.first() match {
+                    case MultiValueKey(_, values) => values
+                    case _ => Set.empty[String]
+                })
+            } catch {
+                case NonFatal(e) =>
+                    // Fail the pending changes: the publisher remains dirty
+                    // and retries the reload for the next batch.
+                    val completions = synchronized {
+                        flushScheduled = false
+                        val completions = promises.toList
+                        pending.clear()
+                        promises.clear()
+                        completions
+                    }
+                    for ((_, promise) <- completions) {
+                        promise tryFailure e
+                    }
+                    return
+            }
+        }
+
+        val (added, removed, completions) = synchronized {
+            flushScheduled = false
+            update()
+        }
+        if (completions.isEmpty) {
+            return
+        }
+
+        val addObservables = added.map(store.addRouteTableChunk(portId, _))
+        val removeObservables = removed.map(store.removeRouteTableChunk(portId, _))
+        Observable.concat(Observable.merge(addObservables.asJava),
+                          Observable.merge(removeObservables.asJava))
+                  .subscribe(new Observer[StateResult] {
+                      override def onNext(result: StateResult): Unit = { }
+                      override def onCompleted(): Unit = {
+                          for ((route, promise) <- completions) {
+                              promise trySuccess route
+                          }
+                      }
+                      override def onError(e: Throwable): Unit = {
+                          RouteTablePublisher.this.synchronized {
+                              dirty = true
+                          }
+                          for ((_, promise) <- completions) {
+                              promise tryFailure e
+                          }
+                      }
+                  })
+    }
+
+    /**
+     * Applies the pending changes to the current chunks, and returns the
+     * chunks to add, the chunks to remove and the promises to complete.
+     */
+    private def update()
+    : (Seq[String], Seq[String], Seq[(Route, Promise[Route])]) = {
+        val addedRoutes = new mutable.ArrayBuffer[Route]
+        val removedRoutes = new mutable.HashSet[Route]
+        val removedChunks = new mutable.LinkedHashSet[String]
+
+        for ((route, present) <- pending) {
+            routeChunks.get(route) match {
+                case None if present => addedRoutes += route
+                case Some(value) if !present =>
+                    removedRoutes += route
+                    removedChunks += value
+                case _ =>
+            }
+        }
+
+        // Merge the added routes into the newest partial chunk, and coalesce
+        // the sparse chunks, if the batch changes the route table.
+        if (addedRoutes.nonEmpty && (partialChunk ne null)) {
+            removedChunks += partialChunk
+        }
+        if (addedRoutes.nonEmpty || removedRoutes.nonEmpty) {
+            removedChunks ++= sparseChunks
+        }
+
+        // The remaining routes of the replaced chunks are published again.
+        for (value <- removedChunks; route <- chunks.remove(value).get) {
+            routeChunks.remove(route)
+            if (!removedRoutes.contains(route)) {
+                addedRoutes += route
+            }
+        }
+        for (value <- removedChunks) {
+            tableSize -= RouteTable.storedSize(value)
+        }
+        sparseChunks --= removedChunks
+        if ((partialChunk ne null) && removedChunks.contains(partialChunk)) {
+            partialChunk = null
+        }
+
+        val addedChunks = for (routes <- addedRoutes.grouped(chunkSize).toList)
+            yield {
+                val value = RouteTable.encode(sequence, routes)
+                sequence += 1
+                chunks.put(value, routes.toArray)
+                tableSize += RouteTable.storedSize(value)
+                for (route <- routes) {
+                    routeChunks.put(route, value)
+                }
+                if (routes.size < fillThreshold) {
+                    sparseChunks += value
+                }
+                if (routes.size < chunkSize) {
+                    partialChunk = value
+                }
+                value
+            }
+
+        checkTableSize()
+
+        val completions = promises.toList
+        pending.clear()
+        promises.clear()
+        (addedChunks, removedChunks.toList, completions)
+    }
+
+    /**
+     * Logs a warning when the route table first exceeds the buffer size.
+     */
+    private def checkTableSize(): Unit = {
+        if (tableSize > bufferSize && !tableSizeExceeded) {
+            log.warn(s"Route table of port $portId with ${routeChunks.size} " +
+                     s"routes in ${chunks.size} chunks requires $tableSize " +
+                     s"bytes, exceeding the ZooKeeper client buffer size of " +
+                     s"$bufferSize bytes: increase zookeeper.buffer_size " +
+                     "for all agents and cluster nodes reading the route table")
+        }
+        tableSizeExceeded = tableSize > bufferSize
+    }
+
+}
@@ -26,7 +26,7 @@ import rx.Observable
 
 import org.midonet.cluster.data.storage.{MultiValueKey, StateResult, StateStorage}
 import org.midonet.cluster.models.Topology.Port
-import org.midonet.cluster.services.MidonetBackend.RoutesKey
+import org.midonet.cluster.services.MidonetBackend.{RouteTableKey, RoutesKey}
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.layer3.Route
@@ -36,6 +36,7 @@ import org.midonet.util.functors._
 object RoutingTableStorage {
 
     private final val NoRoutes = Set.empty[Route]
+    private final val NoChunks = Set.empty[String]
 
     implicit def asRoutingTable(store: StateStorage): RoutingTableStorage = {
         new RoutingTableStorage(store)
@@ -180,6 +181,15 @@ object RoutingTableStorage {
  *
  * TODO: Asynchronous addition with parallel read via observable
  *
+ * Alternatively, the routes of a port can be stored in bulk as the chunks of
+ * a route table, using the [[RouteTableKey]] state key of multiple type. Every
+ * value of this key is a compressed chunk with up to several hundred routes,
+ * encoded by [[RouteTable]], and the route table is updated incrementally by
+ * replacing only the chunks of the modified routes. The route table should be
+ * updated with a [[RouteTablePublisher]] and it can be observed as a stream of
+ * route additions and removals. The chunks are also read with `getChildren`,
+ * but they require a ZooKeeper client buffer of only about 10 bytes per route,
+ * i.e. 10MB per million routes (see [[RouteTable]]).
  */
 class RoutingTableStorage(val store: StateStorage) extends AnyVal {
 
@@ -245,4 +255,46 @@ class RoutingTableStorage(val store: StateStorage) extends AnyVal {
         }
     }
 
+    /** Adds a chunk of the bulk route table of the specified port. */
+    def addRouteTableChunk(portId: UUID, chunk: String)
+    : Observable[StateResult] = {
+        store.addValue(classOf[Port], portId, RouteTableKey, chunk)
+    }
+
+    /** Removes a chunk of the bulk route table of the specified port. */
+    def removeRouteTableChunk(portId: UUID, chunk: String)
+    : Observable[StateResult] = {
+        store.removeValue(classOf[Port], portId, RouteTableKey, chunk)
+    }
+
+    /** Fetches the chunks of the bulk route table of the given port using the
+      * state for the specified host. */
+    def getPortRouteTable(portId: UUID, hostId: UUID)
+    : Observable[Set[String]] = {
+        store.getKey(hostId.asNullableString, classOf[Port], portId,
+                     RouteTableKey) map makeFunc1 {
+            case MultiValueKey(_, values) => values
+            case _ => NoChunks
+        }
+    }
+
+    /** Provides an observable for the updates of the bulk route table for a
+      * given port using the state for the last host emitted by the `hostIds`
+      * observable. Every subscriber receives first the routes present in the
+      * route table, and then the routes added and removed by every subsequent
+      * update of the route table. */
+    def portRouteTableObservable(portId: UUID, hostIds: Observable[UUID])
+    : Observable[RouteTableUpdate] = {
+        Observable.defer(makeFunc0 {
+            val reader = new RouteTableReader
+            store.keyObservable(hostIds.map[String](makeFunc1 { _.asNullableString }),
+                                classOf[Port], portId, RouteTableKey)
+                 .map[RouteTableUpdate](makeFunc1 {
+                     case MultiValueKey(_, values) => reader.update(values)
+                     case _ => reader.update(NoChunks)
+                 })
+                 .filter(makeFunc1 { !_.isEmpty })
+        })
+    }
+
 }
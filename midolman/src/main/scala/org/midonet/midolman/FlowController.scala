@@ -170,6 +170,12 @@ trait FlowController extends DisruptorBackChannel {
     def flowExists(mark: Int): Boolean
 
     def invalidateFlowsFor(tag: FlowTag): Unit
+
+    /**
+      * @return True if there are invalidated flows pending removal, when the
+      *         flows are invalidated in chunks.
+      */
+    def hasPendingInvalidations: Boolean = false
 }
 
 trait FlowControllerDeleter {
@@ -208,6 +214,9 @@ class FlowControllerImpl(config: MidolmanConfig,
     private val oversubscriptionFlowPool = new NoOpPool[ManagedFlowImpl](
         new ManagedFlowImpl(_))
 
+    private val invalidations = new FlowInvalidationQueue(
+        config.flowInvalidationChunkSize, clock, metrics, removeFlowById)
+
     override def addFlow(fmatch: FlowMatch, flowTags: ArrayList[FlowTag],
                          removeCallbacks: ArrayList[CallbackSpec],
                          expiration: Expiration): ManagedFlow = {
@@ -268,7 +277,10 @@ class FlowControllerImpl(config: MidolmanConfig,
         (flow ne null) && flow.mark == mark
     }
 
-    override def shouldProcess = deleter.shouldProcess()
+    override def shouldProcess =
+        deleter.shouldProcess() || invalidations.hasPending
+
+    override def hasPendingInvalidations = invalidations.hasPending
 
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
@@ -281,12 +293,28 @@ class FlowControllerImpl(config: MidolmanConfig,
             }
             flowId = expirationIndexer.pollForExpired(tick)
         }
+        invalidations.process()
     }
 
     override def invalidateFlowsFor(tag: FlowTag): Unit = {
-        val iter = tagIndexer.invalidateFlowsFor(tag)
-        while (iter.hasNext()) {
-            removeFlow(iter.next())
+        val flows = tagIndexer.takeFlowsFor(tag)
+        if (flows ne null) {
+            log.debug(s"Invalidating ${flows.size()} flows for tag $tag")
+            val flowIds = new Array[Long](flows.size())
+            var index = 0
+            val iter = flows.iterator()
+            while (iter.hasNext()) {
+                flowIds(index) = iter.next().id
+                index += 1
+            }
+            invalidations.add(flowIds, index)
+        }
+    }
+
+    private def removeFlowById(flowId: Long): Unit = {
+        val flow = indexToFlow((flowId & mask).toInt)
+        if ((flow ne null) && flow.id == flowId) {
+            removeFlow(flow)
         }
     }
 
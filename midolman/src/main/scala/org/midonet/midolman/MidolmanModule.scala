@@ -38,7 +38,7 @@ import org.midonet.cluster.backend.cassandra.CassandraClient
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.storage.{FlowStateStorage, MidonetBackendConfig}
 import org.midonet.conf.HostIdGenerator
-import org.midonet.insights.Insights
+import org.midonet.insights.{Insights, InsightsHTTPHandler}
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.DisruptorDatapathChannel.PacketContextHolder
 import org.midonet.midolman.datapath._
@@ -267,7 +267,8 @@ class MidolmanModule(config: MidolmanConfig,
             SelectorProvider.provider,
             backChannel,
             new DatapathMetrics(metricRegistry),
-            NanoClock.DEFAULT)
+            NanoClock.DEFAULT,
+            config.datapath.flowBatchSize)
 
     protected def createProcessors(
             ringBuffer: RingBuffer[PacketContextHolder],
@@ -406,7 +407,8 @@ class MidolmanModule(config: MidolmanConfig,
         new SimpleHTTPServerService(
             config.statsHttpServerPort,
                 Lists.newArrayList(new MeteringHTTPHandler,
-                                   new PrometheusMetricsHTTPHandler))
+                                   new PrometheusMetricsHTTPHandler,
+                                   new InsightsHTTPHandler))
     }
 
     protected def bindHostService(): Unit =
@@ -36,13 +36,13 @@ import org.midonet.midolman.monitoring.{FlowRecorder, FlowSenderWorker}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.services.HostIdProvider
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
-import org.midonet.midolman.state.ConnTrackState.{ConnTrackKeySerializer, ConnTrackValueSerializer}
-import org.midonet.midolman.state.NatState.{NatBindingSerializer, NatKey, NatKeySerializer}
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackCodec, ConnTrackKeySerializer, ConnTrackValueSerializer}
+import org.midonet.midolman.state.NatState.{NatBindingSerializer, NatCodec, NatKey, NatKeySerializer}
 import org.midonet.midolman.state.TraceState.{TraceContext, TraceKey}
 import org.midonet.midolman.state.{NatBlockAllocator, NatLeaser, PeerResolver}
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.packets.NatState.NatBinding
-import org.midonet.sdn.state.{OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable}
+import org.midonet.sdn.state.{DirectShardedFlowStateTable, OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable}
 import org.midonet.util.StatisticalCounter
 import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.logging.Logger
@@ -86,13 +86,21 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
     val numWorkers = PacketWorkersService.numWorkers(config)
 
-    val connTrackStateTable = if (config.offHeapTables) {
+    val connTrackStateTable = if (config.offHeapTables &&
+                                  config.stateTableSlots > 0) {
+        new DirectShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
+            clock, ConnTrackCodec, config.stateTableSlots)
+    } else if (config.offHeapTables) {
         new OffHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
             clock, new ConnTrackKeySerializer, new ConnTrackValueSerializer)
     } else {
         new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](clock)
     }
-    val natStateTable = if (config.offHeapTables) {
+    val natStateTable = if (config.offHeapTables &&
+                            config.stateTableSlots > 0) {
+        new DirectShardedFlowStateTable[NatKey, NatBinding](
+            clock, NatCodec, config.stateTableSlots)
+    } else if (config.offHeapTables) {
         new OffHeapShardedFlowStateTable[NatKey, NatBinding](
             clock, new NatKeySerializer, new NatBindingSerializer)
     } else {
@@ -109,7 +117,8 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     supervisorThread.setDaemon(true)
     val shutdownLatch = new CountDownLatch(1)
 
-    private val flowSenderWorker = FlowSenderWorker(config, backend)
+    private val flowSenderWorker = FlowSenderWorker(config, backend,
+                                                    metricsRegistry)
 
     val workers: IndexedSeq[DisruptorPacketWorker] =
         0 until numWorkers map createWorker
@@ -265,7 +265,12 @@ class PacketWorkflow(
     private val maxWithoutExpiration = (5 seconds) toNanos
 
     protected val datapathId = dpState.datapath.getIndex
-    private val meters = if (config.offHeapTables) {
+    private val meters = if (config.meterTopK > 0) {
+        MeterRegistry.newTopK(config.meterTopK, config.meterSketchWidth,
+                              config.meterSketchDepth,
+                              Math.max(1, config.datapath.maxFlowCount /
+                                          numWorkers))
+    } else if (config.offHeapTables) {
         MeterRegistry.newOffHeap()
     } else {
         preallocation.takeMeterRegistry()
@@ -283,6 +288,13 @@ class PacketWorkflow(
                                cbRegistry, insights)
     }
 
+    private val simulationCache = if (config.simulationCacheSize > 0) {
+        new SimulationCache(config.simulationCacheSize,
+                            config.simulationCacheExpiration, clock)
+    } else {
+        null
+    }
+
     protected val connTrackTx = new FlowStateTransaction(connTrackStateTable)
     protected val natTx = new FlowStateTransaction(natStateTable)
     protected val traceStateTx = new FlowStateTransaction(traceStateTable)
@@ -301,20 +313,23 @@ class PacketWorkflow(
     private val invalidateExpiredConnTrackKeys =
         new Reducer[ConnTrackKey, ConnTrackValue, Unit]() {
             override def apply(u: Unit, k: ConnTrackKey, v: ConnTrackValue) {
-                flowController.invalidateFlowsFor(k)
+                invalidateFlowsFor(k)
             }
         }
 
     private val invalidateExpiredNatKeys =
         new Reducer[NatKey, NatBinding, Unit]() {
             override def apply(u: Unit, k: NatKey, v: NatBinding): Unit = {
-                flowController.invalidateFlowsFor(k)
+                invalidateFlowsFor(k)
                 releaseBinding(k, v, natLeaser)
             }
         }
 
     override def onEvent(event: PacketRef, sequence: Long,
                          endOfBatch: Boolean): Unit = {
+        if (flowController.hasPendingInvalidations) {
+            metrics.packetsDelayedByInvalidation.mark()
+        }
         handlePacket(event.packet)
         if (endOfBatch) {
             process()
@@ -346,7 +361,7 @@ class PacketWorkflow(
         val InvalidateFlows(id, added, deleted) = msg
 
         for (route <- deleted) {
-            flowController.invalidateFlowsFor(FlowTagger.tagForRoute(route))
+            invalidateFlowsFor(FlowTagger.tagForRoute(route))
         }
 
         for (route <- added) {
@@ -358,15 +373,20 @@ class PacketWorkflow(
             while (deletions.hasNext) {
                 val ip = IPv4Addr.fromInt(deletions.next)
                 log.debug(s"Got the following destination to invalidate $ip")
-                flowController.invalidateFlowsFor(
-                    FlowTagger.tagForDestinationIp(id, ip))
+                invalidateFlowsFor(FlowTagger.tagForDestinationIp(id, ip))
             }
         }
     }
 
+    private def invalidateFlowsFor(tag: FlowTag): Unit = {
+        flowController.invalidateFlowsFor(tag)
+        if (simulationCache ne null)
+            simulationCache.invalidate(tag)
+    }
+
     private def handle(msg: BackChannelMessage): Unit = msg match {
         case m: InvalidateFlows => invalidateRoutedFlows(m)
-        case tag: FlowTag => flowController.invalidateFlowsFor(tag)
+        case tag: FlowTag => invalidateFlowsFor(tag)
         case RestartWorkflow(cookie, pktCtx, error) => restart(cookie, pktCtx, error)
         case m: GeneratedPacket => startWorkflow(generatedPacketContext(m))
         case m: FlowStateBatch => replicator.importFromStorage(m)
@@ -385,6 +405,7 @@ class PacketWorkflow(
         arpBroker.process()
         waitingRoom.doExpirations(giveUpWorkflow)
         checkProcessedContexts()
+        metrics.sampleAllocations()
         lastExpiration = System.nanoTime()
     }
 
@@ -577,13 +598,15 @@ class PacketWorkflow(
                 handleErrorOn(pktCtx, ex, pktCtx.runs > 1)
         }
 
-    protected def handlePacket(packet: Packet): Unit =
+    protected def handlePacket(packet: Packet): Unit = {
+        metrics.packetHandled()
         if (isFlowStateMessage(packet.getMatch)) {
             handleStateMessage(packet)
             packetOut(1)
         } else {
             processPacket(packet)
         }
+    }
 
     private def processPacket(packet: Packet): Unit = {
         startWorkflow(packetContext(packet))
@@ -745,10 +768,30 @@ class PacketWorkflow(
     protected def simulatePacketIn(context: PacketContext): SimulationResult =
         if (handleDHCP(context)) {
             NoOp
+        } else if ((simulationCache ne null) && !context.tracingEnabled &&
+                   !context.origMatch.isFromTunnel) {
+            simulateWithCache(context)
         } else {
             Simulator.simulate(context)
         }
 
+    private def simulateWithCache(context: PacketContext): SimulationResult = {
+        val cached = simulationCache.replay(context)
+        if (cached ne null) {
+            context.log.debug("Replaying cached simulation")
+            metrics.simulationCacheHits.mark()
+            cached
+        } else {
+            metrics.simulationCacheMisses.mark()
+            val tags = context.flowTags.size
+            val actions = context.virtualFlowActions.size
+            val generated = context.generatedPackets
+            val result = Simulator.simulate(context)
+            simulationCache.add(context, result, tags, actions, generated)
+            result
+        }
+    }
+
     protected def handleStateMessage(packet: Packet): Unit = {
         log.debug("Accepting a state push message")
         replicator.accept(packet.getEthernet)
@@ -83,6 +83,10 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
     def dhcpMtu = Math.min(getInt(s"$PREFIX.midolman.dhcp_mtu"), 0xffff)
     def simulationThreads = getInt(s"$PREFIX.midolman.simulation_threads")
     def offHeapTables = getBoolean(s"$PREFIX.midolman.off_heap_tables")
+    def stateTableSlots = getInt(s"$PREFIX.midolman.state_table_slots")
+    def meterTopK = getInt(s"$PREFIX.midolman.meter_top_k")
+    def meterSketchWidth = getInt(s"$PREFIX.midolman.meter_sketch_width")
+    def meterSketchDepth = getInt(s"$PREFIX.midolman.meter_sketch_depth")
     def reclaimDatapath = getBoolean(s"$PREFIX.midolman.reclaim_datapath")
     def flowExpirationRate = getInt(s"$PREFIX.midolman.flow_expiration_rate_per_second")
     def maxPooledContexts = getInt(s"$PREFIX.midolman.max_pooled_contexts")
@@ -92,6 +96,14 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
 
     def lockMemory = getBoolean(s"$PREFIX.midolman.lock_memory")
 
+    def compiledChains = getBoolean(s"$PREFIX.midolman.compiled_chains")
+
+    def simulationCacheSize = getInt(s"$PREFIX.midolman.simulation_cache_size")
+    def simulationCacheExpiration =
+        getDuration(s"$PREFIX.midolman.simulation_cache_expiration", TimeUnit.NANOSECONDS)
+    def flowInvalidationChunkSize =
+        getInt(s"$PREFIX.midolman.flow_invalidation_chunk_size")
+
     def statsHttpServerPort: Int =
         getInt(s"$PREFIX.midolman.stats_http_server_port")
 
@@ -135,6 +147,7 @@ class InitialStorageCacheConfig(val conf: Config, val schema: Config)
     def ttlMs = getInt(s"$PREFIX.ttl_ms")
     def snapshotRetries = getInt(s"$PREFIX.snapshot_retries")
     def snapshotTimeoutMs = getInt(s"$PREFIX.snapshot_timeout_ms")
+    def compression = getBoolean(s"$PREFIX.compression")
 }
 
 class HostConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -150,6 +163,9 @@ class RouterConfig(val conf: Config, val schema: Config) extends TypeFailureFall
     val PREFIX = "agent.router"
     def maxBgpPeerRoutes = conf.getInt(s"$PREFIX.max_bgp_peer_routes")
     def bgpZookeeperHoldtime = conf.getDuration(s"$PREFIX.bgp_zookeeper_holdtime", TimeUnit.SECONDS)
+    def compressedRoutingTable = getBoolean(s"$PREFIX.compressed_routing_table")
+    def bgpRouteTableChunkSize = getInt(s"$PREFIX.bgp_route_table_chunk_size")
+    def bgpRouteTableFlushDelay = getDuration(s"$PREFIX.bgp_route_table_flush_delay", TimeUnit.MILLISECONDS)
 }
 
 class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -160,6 +176,8 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def sendBufferPoolBufSizeKb = getInt(s"$PREFIX.send_buffer_pool_buf_size_kb")
 
     def maxFlowCount = getInt(s"$PREFIX.max_flow_count")
+    def flowBatchSize = getInt(s"$PREFIX.flow_batch_size")
+    def upcallReadBatchSize = getInt(s"$PREFIX.upcall_read_batch_size")
 
     def vxlanVtepUdpPort = getInt(s"$PREFIX.vxlan_vtep_udp_port")
     def vxlanOverlayUdpPort = getInt(s"$PREFIX.vxlan_overlay_udp_port")
@@ -238,11 +256,31 @@ class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailur
     def queueSize = getInt("agent.flow_history.queue_size")
     def connectionInterval = getDuration("agent.flow_history.connection_interval",
                                          TimeUnit.MILLISECONDS) millis
+    def batchMaxBytes = getInt("agent.flow_history.batch_max_bytes")
+    def batchMaxLatency = getDuration("agent.flow_history.batch_max_latency",
+                                      TimeUnit.NANOSECONDS) nanos
+    def batchCompression = getBoolean("agent.flow_history.batch_compression")
+    def localStoreEnabled = getBoolean("agent.flow_history.local_store_enabled")
+    def localStoreDirectory = getString("agent.flow_history.local_store_directory")
+    def localStoreSegmentRecords = getInt("agent.flow_history.local_store_segment_records")
+    def localStoreSegmentDataSize = getInt("agent.flow_history.local_store_segment_data_size_kb") * 1024
+    def localStoreMaxSegments = getInt("agent.flow_history.local_store_max_segments")
+
+    /** Whether flow records should be sent to a remote endpoint. */
+    def remoteEnabled = enabled && endpointService.nonEmpty
+
+    /** Whether flow records should be appended to the local store. */
+    def localEnabled = enabled && localStoreEnabled && encoding == "binary"
 }
 
 class InsightsConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def enabled = getBoolean("agent.insights.enabled")
     def listenerClass = getString("agent.insights.listener_class")
+    def ringBufferSize = getInt("agent.insights.ring_buffer_size")
+    def drainInterval = getDuration("agent.insights.drain_interval",
+                                    TimeUnit.MILLISECONDS) millis
+    def topTalkers = getInt("agent.insights.top_talkers")
+    def maxTrackedDevices = getInt("agent.insights.max_tracked_devices")
 }
 
 class ContainerConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
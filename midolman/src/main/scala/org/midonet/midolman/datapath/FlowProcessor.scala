@@ -55,6 +55,7 @@ object FlowProcessor {
         classOf[FlowProcessor].getDeclaredField("lastSequence"))
 
     private val MAX_BUF_CAPACITY = 4 * 1024 * 1024
+    private val BATCH_BUF_CAPACITY = 64 * 1024
 
     /**
       * A flow back-channel message.
@@ -79,7 +80,8 @@ class FlowProcessor(dpState: DatapathState,
                     selectorProvider: SelectorProvider,
                     backChannel: SimulationBackChannel,
                     datapathMetrics: DatapathMetrics,
-                    clock: NanoClock)
+                    clock: NanoClock,
+                    flowBatchSize: Int = 1)
     extends EventPoller.Handler[PacketContextHolder]
     with DisruptorBackChannel
     with LifecycleAware {
@@ -118,6 +120,20 @@ class FlowProcessor(dpState: DatapathState,
         clock)
     private val timeoutMillis = broker.timeout.toMillis
 
+    // When batching is enabled, the flow create messages produced within a
+    // Disruptor batch are coalesced into a single netlink write, which is
+    // flushed at the end of the batch, or when reaching the batch size.
+    private val batching = flowBatchSize > 1
+    private val createBatchBuf =
+        if (batching) BytesUtil.instance.allocateDirect(BATCH_BUF_CAPACITY)
+        else null
+    private val deleteBatchBuf =
+        if (batching) BytesUtil.instance.allocateDirect(
+            Math.max(BATCH_BUF_CAPACITY, maxRequestSize))
+        else null
+    private var batchedFlows = 0
+    private var batchedSequence = Sequencer.INITIAL_CURSOR_VALUE
+
     private val flowMask = new FlowMask()
 
     private var lastSequence = Sequencer.INITIAL_CURSOR_VALUE
@@ -148,9 +164,15 @@ class FlowProcessor(dpState: DatapathState,
             // Note: user -> kernel netlink communication is synchronous.
             // At this point, our createFlow requests above has been
             // processed by the kernel and it's safe to update lastSequence.
-            lastSequence = sequence
+            // When batching, this happens when the batch is flushed.
+            if (batching)
+                batchedSequence = sequence
+            else
+                lastSequence = sequence
         }
         context.setFlowProcessed()
+        if (batching && endOfBatch)
+            flushFlows()
         true
     }
 
@@ -176,9 +198,13 @@ class FlowProcessor(dpState: DatapathState,
             createProtocol.prepareFlowCreate(
                 datapathId, keys, actions, mask, writeBuf)
             writeBuf.putInt(NetlinkMessage.NLMSG_SEQ_OFFSET, index)
-            writer.write(writeBuf)
-            writeBuf.rewind()
-            sixwind.processFlow(writeBuf, writeBuf.limit())
+            if (batching) {
+                batchFlow()
+            } else {
+                writer.write(writeBuf)
+                writeBuf.rewind()
+                sixwind.processFlow(writeBuf, writeBuf.limit())
+            }
         } catch { case e: BufferOverflowException =>
             val capacity = writeBuf.capacity()
             if (capacity >= MAX_BUF_CAPACITY)
@@ -191,6 +217,46 @@ class FlowProcessor(dpState: DatapathState,
             writeBuf.clear()
         }
 
+    /**
+     * Appends the flow create message from the write buffer to the current
+     * batch, flushing the batch if the message does not fit or if the batch
+     * is full. Messages larger than the batch buffer are written directly.
+     */
+    private def batchFlow(): Unit = {
+        sixwind.processFlow(writeBuf, writeBuf.limit())
+        if (writeBuf.remaining() > createBatchBuf.remaining())
+            flushFlows()
+        if (writeBuf.remaining() > createBatchBuf.remaining()) {
+            writer.write(writeBuf)
+            datapathMetrics.flowCreateBatchSize.update(1)
+        } else {
+            createBatchBuf.put(writeBuf)
+            batchedFlows += 1
+            if (batchedFlows >= flowBatchSize)
+                flushFlows()
+        }
+    }
+
+    /**
+     * Writes the batched flow create messages with a single netlink write,
+     * and makes the flows of the batch visible to tryEject.
+     */
+    private def flushFlows(): Unit = {
+        if (batchedFlows > 0) {
+            createBatchBuf.flip()
+            try {
+                writer.write(createBatchBuf)
+            } catch { case NonFatal(e) =>
+                log.error(s"Failed to create $batchedFlows datapath flows", e)
+            } finally {
+                datapathMetrics.flowCreateBatchSize.update(batchedFlows)
+                createBatchBuf.clear()
+                batchedFlows = 0
+            }
+        }
+        lastSequence = batchedSequence
+    }
+
     def capacity = broker.capacity
 
     /**
@@ -244,7 +310,16 @@ class FlowProcessor(dpState: DatapathState,
 
     override def process(): Unit = {
         if (broker.hasRequestsToWrite) {
-            val bytes = broker.writePublishedRequests()
+            val bytes = if (batching) {
+                val written = broker.writtenRequests
+                val bytes = broker.writePublishedRequests(deleteBatchBuf,
+                                                          flowBatchSize)
+                datapathMetrics.flowDeleteBatchSize.update(
+                    broker.writtenRequests - written)
+                bytes
+            } else {
+                broker.writePublishedRequests()
+            }
             log.debug(s"Wrote flow deletion requests ($bytes bytes)")
         }
     }
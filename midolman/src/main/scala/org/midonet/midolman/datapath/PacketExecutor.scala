@@ -19,7 +19,7 @@ package org.midonet.midolman.datapath
 import java.nio.BufferOverflowException
 import java.nio.channels.AsynchronousCloseException
 import java.util.concurrent.TimeUnit
-import java.util.{ArrayList => JArrayList}
+import java.util.{ArrayList => JArrayList, List => JList}
 
 import scala.annotation.tailrec
 import scala.util.control.NonFatal
@@ -35,7 +35,7 @@ import org.midonet.midolman.monitoring.metrics.PacketExecutorMetrics
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.netlink._
 import org.midonet.odp._
-import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.flows.{FlowAction, FlowKey, FlowKeyEncap, FlowKeyTCP, FlowKeyTCPFlags, FlowKeyUDP}
 import org.midonet.packets._
 import org.midonet.util.concurrent.NanoClock
 
@@ -71,7 +71,7 @@ object PacketExecutor {
     private[datapath] def clampMss(ctx: PacketContext, log: Logger): Unit = {
         // Don't do MSS clamping on packet tunneled here from another Midolman
         // node, since the other node already did it if needed.
-        if (ctx.inputPort != null) {
+        if (ctx.inputPort != null && mayCarryTcpSyn(ctx.packet)) {
             try clampMss(ctx.packet.getEthernet, 0, log) catch {
                 case ex: ArrayIndexOutOfBoundsException =>
                     log.debug(
@@ -80,6 +80,33 @@ object PacketExecutor {
         }
     }
 
+    /**
+      * Checks the flow keys of a packet that has not been deserialized, to
+      * avoid deserializing it when it cannot contain a TCP SYN segment. UDP
+      * packets may encapsulate one. The L3 and L4 keys of VLAN-tagged frames
+      * are nested in an encapsulation key.
+      */
+    private def mayCarryTcpSyn(packet: Packet): Boolean = {
+        packet.isParsed || mayCarryTcpSyn(packet.getMatch.getKeys)
+    }
+
+    private def mayCarryTcpSyn(keys: JList[FlowKey]): Boolean = {
+        var tcp = false
+        var index = 0
+        while (index < keys.size) {
+            keys.get(index) match {
+                case flags: FlowKeyTCPFlags => return flags.getFlag(TCP.Flag.Syn)
+                case _: FlowKeyTCP => tcp = true
+                case _: FlowKeyUDP => return true
+                case encap: FlowKeyEncap if mayCarryTcpSyn(encap.keys) =>
+                    return true
+                case _ =>
+            }
+            index += 1
+        }
+        tcp
+    }
+
     @tailrec
     private def clampMss(pkt: IPacket, wrapperSize: Int, log: Logger)
     : Unit = pkt match {
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.util.concurrent.NanoClock
+
+object FlowInvalidationQueue {
+
+    private final class Invalidation(val flowIds: Array[Long],
+                                     val count: Int,
+                                     val startNanos: Long) {
+        var position = 0
+    }
+
+}
+
+/**
+  * Removes the flows invalidated by a flow tag in chunks of at most
+  * `chunkSize` flows, such that the packet worker interleaves the removal of
+  * a large number of flows with packet processing. The invalidated flows are
+  * referenced by identifier, and the `removeFlow` function must ignore the
+  * identifiers of flows that were already removed, for instance by a previous
+  * invalidation or by expiration.
+  *
+  * When `chunkSize` is zero, the flows are removed all at once when the
+  * invalidation is added.
+  *
+  * This class is not thread-safe and it must be used from the packet worker
+  * thread.
+  */
+final class FlowInvalidationQueue(chunkSize: Int,
+                                  clock: NanoClock,
+                                  metrics: PacketPipelineMetrics,
+                                  removeFlow: Long => Unit) {
+
+    import FlowInvalidationQueue._
+
+    private val invalidations = new ArrayDeque[Invalidation]()
+    private var pendingFlows = 0L
+
+    /**
+      * Adds the first `count` flow identifiers from the given array for
+      * invalidation. The queue takes ownership of the array.
+      */
+    def add(flowIds: Array[Long], count: Int): Unit = {
+        if (count == 0) {
+            return
+        }
+        val invalidation = new Invalidation(flowIds, count, clock.tick)
+        if (chunkSize <= 0) {
+            remove(invalidation, count)
+            complete(invalidation)
+        } else {
+            invalidations.add(invalidation)
+            pendingFlows += count
+            metrics.flowsPendingInvalidation.inc(count)
+        }
+    }
+
+    /**
+      * @return True if there are flows pending invalidation.
+      */
+    def hasPending: Boolean = !invalidations.isEmpty
+
+    /**
+      * @return The number of flows pending invalidation.
+      */
+    def pending: Long = pendingFlows
+
+    /**
+      * Removes the next chunk of invalidated flows.
+      */
+    def process(): Unit = {
+        var budget = chunkSize
+        while (budget > 0 && !invalidations.isEmpty) {
+            val invalidation = invalidations.peek()
+            val removed = remove(invalidation, budget)
+            budget -= removed
+            pendingFlows -= removed
+            metrics.flowsPendingInvalidation.dec(removed)
+            if (invalidation.position == invalidation.count) {
+                invalidations.poll()
+                complete(invalidation)
+            }
+        }
+    }
+
+    private def remove(invalidation: Invalidation, max: Int): Int = {
+        val end = Math.min(invalidation.count, invalidation.position + max)
+        val start = invalidation.position
+        while (invalidation.position < end) {
+            removeFlow(invalidation.flowIds(invalidation.position))
+            invalidation.position += 1
+        }
+        end - start
+    }
+
+    private def complete(invalidation: Invalidation): Unit = {
+        metrics.flowInvalidationLatency.update(
+            clock.tick - invalidation.startNanos, TimeUnit.NANOSECONDS)
+    }
+}
@@ -63,6 +63,14 @@ class FlowTagIndexer extends MidolmanLogging {
         }
     }
 
+    /**
+      * Removes and returns the flows for the given tag, or null if there are
+      * none. Unlike `invalidateFlowsFor`, the other tags of the flows remain
+      * indexed until the flows are removed.
+      */
+    def takeFlowsFor(tag: FlowTag): Set[ManagedFlowImpl] =
+        tagToFlows.remove(tag)
+
     def flowsFor(tag: FlowTag): Set[ManagedFlowImpl] =
         tagToFlows.get(tag)
 
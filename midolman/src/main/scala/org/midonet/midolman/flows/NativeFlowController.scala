@@ -67,6 +67,8 @@ class NativeFlowController(config: MidolmanConfig,
                                                         datapathId,
                                                         meters,
                                                         insights)
+    private val invalidations = new FlowInvalidationQueue(
+        config.flowInvalidationChunkSize, clock, metrics, removeFlow)
 
     override def addFlow(fmatch: FlowMatch, flowTags: ArrayList[FlowTag],
                          removeCallbacks: ArrayList[CallbackSpec],
@@ -127,19 +129,23 @@ class NativeFlowController(config: MidolmanConfig,
     override def invalidateFlowsFor(tag: FlowTag): Unit = {
         val invalid = JNI.flowTagIndexerInvalidate(indexer, tag.toLongHash)
         try {
-            val count = JNI.flowTagIndexerInvalidFlowsCount(invalid)
+            val count = JNI.flowTagIndexerInvalidFlowsCount(invalid).toInt
+            val flowIds = new Array[Long](count)
             var i = 0
             while (i < count) {
-                val id = JNI.flowTagIndexerInvalidFlowsGet(invalid, i)
-                removeFlow(id)
+                flowIds(i) = JNI.flowTagIndexerInvalidFlowsGet(invalid, i)
                 i += 1
             }
+            invalidations.add(flowIds, count)
         } finally {
             JNI.flowTagIndexerInvalidFlowsFree(invalid)
         }
     }
 
-    override def shouldProcess: Boolean = deleter.shouldProcess()
+    override def shouldProcess: Boolean =
+        deleter.shouldProcess() || invalidations.hasPending
+
+    override def hasPendingInvalidations: Boolean = invalidations.hasPending
 
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
@@ -149,6 +155,7 @@ class NativeFlowController(config: MidolmanConfig,
             removeFlow(flowId)
             flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
         }
+        invalidations.process()
     }
 
     private def addFlow(flowMatch: FlowMatch, expiration: Expiration)
@@ -44,8 +44,8 @@ object FlowRecorder {
               flowSenderWorker: FlowSenderWorker): FlowRecorder = {
         log.info("Creating flow recorder with " +
                      s"(${config.flowHistory.encoding}) encoding")
-        if (config.flowHistory.enabled &&
-            config.flowHistory.endpointService.nonEmpty) {
+        if (config.flowHistory.remoteEnabled ||
+            config.flowHistory.localEnabled) {
             config.flowHistory.encoding match {
                 case "json" => new JsonFlowRecorder(
                     hostId, flowSenderWorker)
@@ -59,7 +59,7 @@ object FlowRecorder {
         } else {
             if (config.flowHistory.enabled) {
                 log.warn("Flow history disabled because no endpoint service " +
-                             "specified")
+                             "or local store specified")
             }
             NullFlowRecorder()
         }
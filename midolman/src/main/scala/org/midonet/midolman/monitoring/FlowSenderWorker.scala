@@ -15,7 +15,7 @@
  */
 package org.midonet.midolman.monitoring
 
-import java.io.IOException
+import java.io.{File, IOException}
 import java.net.{InetSocketAddress, StandardSocketOptions}
 import java.nio.ByteBuffer
 import java.nio.channels.SocketChannel
@@ -26,20 +26,23 @@ import scala.concurrent.duration.Duration
 import scala.util.control.NonFatal
 import scala.util.{Random, Try}
 
+import com.codahale.metrics.MetricRegistry
 import com.google.common.util.concurrent.{AbstractService, RateLimiter}
 import com.google.protobuf.CodedOutputStream
 import com.lmax.disruptor._
 import com.typesafe.scalalogging.Logger
 
 import org.slf4j.LoggerFactory
+import org.xerial.snappy.Snappy
 
 import rx.Observer
 
 import org.midonet.Util
-import org.midonet.cluster.flowhistory.BinarySerialization
+import org.midonet.cluster.flowhistory.{BinarySerialization, FlowHistoryStore}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.discovery.{MidonetDiscoveryClient, MidonetServiceHostAndPort}
 import org.midonet.midolman.config.{FlowHistoryConfig, MidolmanConfig}
+import org.midonet.midolman.monitoring.metrics.FlowHistoryMetrics
 import org.midonet.util.concurrent.NamedThreadFactory
 import org.midonet.util.functors.makeRunnable
 
@@ -48,10 +51,12 @@ trait FlowSenderWorker extends AbstractService {
 }
 
 object FlowSenderWorker {
-    def apply(config: MidolmanConfig, backend: MidonetBackend) = {
-        if (config.flowHistory.enabled &&
-            config.flowHistory.endpointService.nonEmpty) {
-            new DisruptorFlowSenderWorker(config.flowHistory, backend)
+    def apply(config: MidolmanConfig, backend: MidonetBackend,
+              metrics: MetricRegistry = new MetricRegistry) = {
+        if (config.flowHistory.remoteEnabled ||
+            config.flowHistory.localEnabled) {
+            new DisruptorFlowSenderWorker(config.flowHistory, backend,
+                                          new FlowHistoryMetrics(metrics))
         } else {
             NullFlowSenderWorker
         }
@@ -73,10 +78,12 @@ object NullFlowSenderWorker extends FlowSenderWorker {
 }
 
 /**
-  * Class responsible for sending flow records via TCP.
+  * Class responsible for sending flow records via TCP, and for appending them
+  * to the local flow history store when enabled.
   */
 class DisruptorFlowSenderWorker(config: FlowHistoryConfig,
-                                backend: MidonetBackend)
+                                backend: MidonetBackend,
+                                metrics: FlowHistoryMetrics)
     extends FlowSenderWorker {
 
     private val log = Logger(LoggerFactory.getLogger("org.midonet.history"))
@@ -89,10 +96,28 @@ class DisruptorFlowSenderWorker(config: FlowHistoryConfig,
         Util.findNextPositivePowerOfTwo(config.queueSize),
         new BlockingWaitStrategy)
 
-    private val flowSender = new FlowSender(config, backend)
+    private val flowSender =
+        if (!config.remoteEnabled) None
+        else if (config.batchMaxBytes > 0)
+            Some(new BatchingFlowSender(config, backend, metrics))
+        else Some(new FlowSender(config, backend))
+
+    private val localStore =
+        if (config.localEnabled) Some(new LocalFlowStoreHandler(config))
+        else None
+
+    private val eventHandler = new EventHandler[ByteBuffer] {
+        override def onEvent(event: ByteBuffer, sequence: Long,
+                             endOfBatch: Boolean): Unit = {
+            if (localStore.isDefined)
+                localStore.get.onEvent(event, sequence, endOfBatch)
+            if (flowSender.isDefined)
+                flowSender.get.onEvent(event, sequence, endOfBatch)
+        }
+    }
 
     private val eventProcessor = new BatchEventProcessor(
-        ringBuffer, ringBuffer.newBarrier(), flowSender)
+        ringBuffer, ringBuffer.newBarrier(), eventHandler)
 
     ringBuffer.addGatingSequences(eventProcessor.getSequence)
 
@@ -111,12 +136,14 @@ class DisruptorFlowSenderWorker(config: FlowHistoryConfig,
         } catch {
             case ice: InsufficientCapacityException =>
                 log.debug("Flow sender ring buffer full, packet dropped")
+                metrics.queueOverflow.mark()
                 false
         }
     }
 
     override def doStart(): Unit = {
-        flowSender.startAsync().awaitRunning()
+        flowSender.foreach(_.startAsync().awaitRunning())
+        localStore.foreach(_.open())
         executor.submit(makeRunnable {
             eventProcessor.run()
         })
@@ -132,7 +159,12 @@ class DisruptorFlowSenderWorker(config: FlowHistoryConfig,
             executor.shutdownNow()
         }
 
-        flowSender.stopAsync().awaitTerminated()
+        flowSender.foreach(_.stopAsync().awaitTerminated())
+        // The segments are unmapped only once the event processor has
+        // terminated, since it may be appending to the current segment.
+        if (executor.isTerminated) {
+            localStore.foreach(_.close())
+        }
         notifyStopped()
     }
 }
@@ -149,7 +181,7 @@ class FlowSender(config: FlowHistoryConfig, backend: MidonetBackend)
     protected val endpointRef =
         new AtomicReference[Option[InetSocketAddress]](None)
 
-    private var channel: SocketChannel = _
+    protected var channel: SocketChannel = _
     private var current: InetSocketAddress = _
     private val sizeBuffer: ByteBuffer = ByteBuffer.allocateDirect(4)
     private val codedOutputStream = CodedOutputStream.newInstance(sizeBuffer, 4)
@@ -277,7 +309,7 @@ class FlowSender(config: FlowHistoryConfig, backend: MidonetBackend)
         }
     }
 
-    private def close() = {
+    protected def close() = {
         if (channel != null) {
             Try(channel.shutdownOutput()) // eat up shutdown errors
             Try(channel.close()) // eat up close errors
@@ -286,6 +318,215 @@ class FlowSender(config: FlowHistoryConfig, backend: MidonetBackend)
     }
 }
 
+/**
+  * Appends the binary flow records to the local flow history store. Errors
+  * disable the store, such that a full or failing disk does not affect the
+  * records sent to the remote endpoint.
+  */
+class LocalFlowStoreHandler(config: FlowHistoryConfig)
+    extends EventHandler[ByteBuffer] {
+
+    private val log = Logger(LoggerFactory.getLogger("org.midonet.history"))
+
+    private val store = new FlowHistoryStore(
+        new File(config.localStoreDirectory), config.localStoreSegmentRecords,
+        config.localStoreSegmentDataSize, config.localStoreMaxSegments)
+    @volatile private var available = false
+
+    def open(): Unit = {
+        try {
+            store.open()
+            available = true
+            log.info("Recording flow history to local store at {}",
+                     store.directory)
+        } catch {
+            case NonFatal(e) =>
+                log.warn("Failed to open the local flow history store at " +
+                         s"${store.directory}", e)
+        }
+    }
+
+    def close(): Unit = {
+        available = false
+        try {
+            store.close()
+        } catch {
+            case NonFatal(e) =>
+                log.warn("Failed to close the local flow history store at " +
+                         s"${store.directory}", e)
+        }
+    }
+
+    override def onEvent(event: ByteBuffer, sequence: Long,
+                         endOfBatch: Boolean): Unit = {
+        if (available) try {
+            if (!store.append(System.currentTimeMillis(), event)) {
+                log.debug("Flow record of {} bytes exceeds the local store " +
+                          "segment size", Int.box(event.remaining()))
+            }
+        } catch {
+            case NonFatal(e) =>
+                available = false
+                log.warn("Error appending flow record to the local store: " +
+                         "local flow history disabled", e)
+        }
+    }
+}
+
+/**
+  * A flow sender that accumulates the records of a Disruptor batch, and sends
+  * them to the endpoint with a single gathering write, each record preceded by
+  * its varint length as with the [[FlowSender]]. A batch is sent at the end
+  * of each Disruptor batch, since the ring buffer may reuse the record buffers
+  * afterwards, or earlier when it exceeds the maximum size or latency.
+  *
+  * When compression is enabled, the batch is compressed with Snappy and sent
+  * as a 4-byte compressed length followed by the compressed block, the same
+  * framing as the [[org.midonet.services.flowstate.stream.snappy.SnappyBlockWriter]].
+  *
+  * Writes to the endpoint block the sender thread, such that when the
+  * endpoint is slow the ring buffer fills and new records are dropped by the
+  * producers instead. Batches that cannot be sent are dropped.
+  */
+class BatchingFlowSender(config: FlowHistoryConfig, backend: MidonetBackend,
+                         metrics: FlowHistoryMetrics)
+    extends FlowSender(config, backend) {
+
+    import BatchingFlowSender._
+
+    private val log = Logger(LoggerFactory.getLogger("org.midonet.history"))
+
+    private val maxBytes = config.batchMaxBytes
+    private val maxLatencyNanos = config.batchMaxLatency.toNanos
+    private val maxRecords = Util.findNextPositivePowerOfTwo(config.queueSize)
+
+    private val headers =
+        ByteBuffer.allocateDirect(maxRecords * MaxVarint32Size)
+    private val buffers = new Array[ByteBuffer](2 * maxRecords)
+    private var records = 0
+    private var bytes = 0
+    private var batchStartNanos = 0L
+
+    private val uncompressed =
+        if (config.batchCompression)
+            new Array[Byte](math.max(maxBytes, BinarySerialization.BufferSize) +
+                            MaxVarint32Size)
+        else null
+    private val compressed =
+        if (config.batchCompression)
+            new Array[Byte](Snappy.maxCompressedLength(uncompressed.length) + 4)
+        else null
+
+    override def onEvent(event: ByteBuffer, sequence: Long,
+                         endOfBatch: Boolean): Unit = {
+        if (records == maxRecords ||
+            (records > 0 && bytes + event.remaining() > maxBytes)) {
+            flush()
+        }
+        if (records == 0) {
+            batchStartNanos = System.nanoTime()
+        }
+        add(event)
+        if (endOfBatch || bytes >= maxBytes ||
+            System.nanoTime() - batchStartNanos >= maxLatencyNanos) {
+            flush()
+        }
+    }
+
+    private def add(record: ByteBuffer): Unit = {
+        val offset = records * MaxVarint32Size
+        headers.limit(offset + MaxVarint32Size).position(offset)
+        val header = headers.slice()
+        writeVarint32(header, record.remaining())
+        header.flip()
+
+        buffers(2 * records) = header
+        buffers(2 * records + 1) = record
+        bytes += header.remaining() + record.remaining()
+        records += 1
+    }
+
+    private def flush(): Unit = {
+        if (records == 0) {
+            return
+        }
+        try {
+            if (sendBatch()) {
+                metrics.recordsSent.mark(records)
+                metrics.batchesSent.mark()
+            } else {
+                metrics.recordsDropped.mark(records)
+            }
+        } catch {
+            case ex: IOException =>
+                // Close and invalidate endpoint on IOException
+                close()
+                invalidateEndpoint()
+                metrics.recordsDropped.mark(records)
+                log.info("Error sending flow records to endpoint: {}",
+                         ex.getMessage)
+            case NonFatal(e) =>
+                metrics.recordsDropped.mark(records)
+                log.info("Unknown error while recording flow records", e)
+        } finally {
+            var index = 0
+            while (index < 2 * records) {
+                buffers(index) = null
+                index += 1
+            }
+            records = 0
+            bytes = 0
+        }
+    }
+
+    /** Sends the current batch, returning false if there is no endpoint. */
+    protected def sendBatch(): Boolean = {
+        val actualEndpoint = endpoint.orElse(maybeChangeEndpoint()).orNull
+        if (actualEndpoint == null) {
+            return false
+        }
+        maybeConnect(actualEndpoint)
+        if (uncompressed ne null) {
+            var length = 0
+            var index = 0
+            while (index < 2 * records) {
+                val buffer = buffers(index)
+                val remaining = buffer.remaining()
+                buffer.get(uncompressed, length, remaining)
+                length += remaining
+                index += 1
+            }
+            val compressedSize = Snappy.compress(uncompressed, 0, length,
+                                                 compressed, 4)
+            val block = ByteBuffer.wrap(compressed, 0, compressedSize + 4)
+            block.putInt(0, compressedSize)
+            while (block.hasRemaining)
+                channel.write(block)
+            metrics.bytesSent.mark(compressedSize + 4)
+        } else {
+            var remaining = bytes.toLong
+            while (remaining > 0)
+                remaining -= channel.write(buffers, 0, 2 * records)
+            metrics.bytesSent.mark(bytes)
+        }
+        true
+    }
+}
+
+object BatchingFlowSender {
+    final val MaxVarint32Size = 5
+
+    private[monitoring] def writeVarint32(buffer: ByteBuffer,
+                                          value: Int): Unit = {
+        var v = value
+        while ((v & ~0x7F) != 0) {
+            buffer.put(((v & 0x7F) | 0x80).toByte)
+            v >>>= 7
+        }
+        buffer.put(v.toByte)
+    }
+}
+
 object DisruptorFlowSenderWorker {
     class ByteBufferFactory extends EventFactory[ByteBuffer] {
         override def newInstance(): ByteBuffer =
@@ -32,6 +32,9 @@ object MeterRegistry {
     def newOnHeap(maxFlows: Int): MeterRegistry =
         new OnHeapMeterRegistry(maxFlows)
     def newOffHeap(): MeterRegistry = new NativeMeterRegistry
+    def newTopK(topK: Int, sketchWidth: Int, sketchDepth: Int,
+                maxFlows: Int): MeterRegistry =
+        new TopKMeterRegistry(topK, sketchWidth, sketchDepth, maxFlows)
 }
 
 trait MeterRegistry {
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.monitoring
+
+import java.nio.{ByteBuffer, LongBuffer}
+import java.util.{ArrayList, Collection, List}
+
+import org.midonet.Util
+import org.midonet.management.{FlowStats => JmxFlowStats}
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowStats
+import org.midonet.sdn.flows.FlowTagger.{FlowTag, MeterTag}
+
+object TopKMeterRegistry {
+
+    /** Maximum number of meters whose deltas are tracked per flow. */
+    final val MaxFlowMeters = 8
+
+    // Flow slot layout, in longs.
+    private final val FlowPackets = 1
+    private final val FlowBytes = 2
+    private final val FlowMeterCount = 3
+    private final val FlowMeters = 4
+    private final val FlowSlotLongs = FlowMeters + MaxFlowMeters
+
+    // Heavy hitter slot layout, in longs.
+    private final val HitterPackets = 1
+    private final val HitterBytes = 2
+    private final val HitterSlotLongs = 3
+
+    /** The finalization step of MurmurHash3, used to spread the keys. */
+    @inline private[monitoring] def mix(value: Long): Long = {
+        var h = value
+        h ^= h >>> 33
+        h *= 0xff51afd7ed558ccdL
+        h ^= h >>> 33
+        h *= 0xc4ceb9fe1a85ec53L
+        h ^= h >>> 33
+        h
+    }
+
+    /** Zero marks an empty slot, such that it is not a valid key. */
+    @inline private def nonZero(key: Long): Long = if (key == 0L) 1L else key
+
+    @inline private def flowKey(flowMatch: FlowMatch): Long =
+        nonZero((flowMatch.hashCode.toLong << 32) |
+                (flowMatch.connectionHash & 0xffffffffL))
+
+    /**
+      * An open addressing hash table of fixed-width slots stored in direct
+      * memory, where the first long of each slot is a non-zero key. Slots are
+      * removed with backward shift deletion, such that the table needs no
+      * tombstones.
+      */
+    private class OffHeapTable(requestedCapacity: Int, slotLongs: Int) {
+
+        val capacity = Util.findNextPositivePowerOfTwo(
+            Math.max(2, requestedCapacity))
+        private val mask = capacity - 1
+        private val maxSize = capacity - (capacity >>> 2)
+        private val data: LongBuffer =
+            ByteBuffer.allocateDirect(capacity * slotLongs * 8).asLongBuffer()
+        var size = 0
+
+        @inline def key(slot: Int): Long = data.get(slot * slotLongs)
+
+        @inline def get(slot: Int, field: Int): Long =
+            data.get(slot * slotLongs + field)
+
+        @inline def put(slot: Int, field: Int, value: Long): Unit =
+            data.put(slot * slotLongs + field, value)
+
+        @inline def add(slot: Int, field: Int, value: Long): Unit =
+            put(slot, field, get(slot, field) + value)
+
+        def isFull: Boolean = size >= maxSize
+
+        def find(k: Long): Int = {
+            var slot = (mix(k) & mask).toInt
+            while (true) {
+                val current = key(slot)
+                if (current == k) return slot
+                if (current == 0L) return -1
+                slot = (slot + 1) & mask
+            }
+            -1
+        }
+
+        /** Inserts a key that is not in the table, and returns its slot with
+          * all fields cleared, or -1 if the table is full. */
+        def insert(k: Long): Int = {
+            if (isFull) return -1
+            var slot = (mix(k) & mask).toInt
+            while (key(slot) != 0L) {
+                slot = (slot + 1) & mask
+            }
+            var field = 1
+            while (field < slotLongs) {
+                put(slot, field, 0L)
+                field += 1
+            }
+            put(slot, 0, k)
+            size += 1
+            slot
+        }
+
+        def remove(slot: Int): Unit = {
+            var hole = slot
+            var next = (hole + 1) & mask
+            while (key(next) != 0L) {
+                val ideal = (mix(key(next)) & mask).toInt
+                if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                    var field = 0
+                    while (field < slotLongs) {
+                        put(hole, field, get(next, field))
+                        field += 1
+                    }
+                    moved(next, hole)
+                    hole = next
+                }
+                next = (next + 1) & mask
+            }
+            put(hole, 0, 0L)
+            moved(hole, -1)
+            size -= 1
+        }
+
+        /** Called when the entry at slot `from` moves to slot `to`, or when
+          * it is removed, in which case `to` is -1. */
+        protected def moved(from: Int, to: Int): Unit = { }
+    }
+}
+
+/**
+  * A meter registry whose memory is bounded regardless of the number of
+  * flows and meters, where all counters are stored in direct memory.
+  *
+  * The meters are identified by the `toLongHash` of their tag. Only the `topK`
+  * meters with the most bytes are tracked exactly, in a heavy hitter table,
+  * while the packets and bytes of the other meters are counted approximately
+  * with a count-min sketch of `sketchDepth` rows of `sketchWidth` counters.
+  * A meter displaces the heavy hitter with the fewest bytes when its
+  * estimated bytes exceed those of the heavy hitter, and then starts with its
+  * estimated counters, which never under-count. Since the meter name is only
+  * known from the tag, a meter may enter the heavy hitter table only when a
+  * flow with that meter is tracked or when a packet is recorded.
+  *
+  * Flows are tracked in a fixed-size table of up to `maxFlows` entries, keyed
+  * by a 64-bit hash of the flow match and holding the last flow statistics
+  * and the hashes of up to `MaxFlowMeters` meters, such that flow hash
+  * collisions and flows beyond the table size are not accounted for.
+  */
+class TopKMeterRegistry(val topK: Int, sketchWidth: Int, sketchDepth: Int,
+                        maxFlows: Int) extends MeterRegistry {
+
+    import TopKMeterRegistry._
+
+    require(topK > 0, "The number of exact meters must be positive")
+    require(sketchDepth > 0, "The sketch depth must be positive")
+
+    private val width =
+        Util.findNextPositivePowerOfTwo(Math.max(1, sketchWidth))
+    private val widthMask = width - 1
+    private val sketch: LongBuffer =
+        ByteBuffer.allocateDirect(sketchDepth * width * 2 * 8).asLongBuffer()
+
+    private val flows = new OffHeapTable(maxFlows + (maxFlows / 3),
+                                         FlowSlotLongs)
+
+    private val hitterTags = new Array[MeterTag](
+        Util.findNextPositivePowerOfTwo(Math.max(2, topK * 2)))
+    private val hitters = new OffHeapTable(hitterTags.length,
+                                           HitterSlotLongs) {
+        override protected def moved(from: Int, to: Int): Unit = {
+            if (to >= 0) hitterTags(to) = hitterTags(from)
+            hitterTags(from) = null
+        }
+    }
+
+    // A lower bound of the bytes of the smallest heavy hitter, since their
+    // counters only increase.
+    private var minHitterBytes = 0L
+
+    override def getMeterKeys(): Collection[String] = {
+        val keys = new ArrayList[String](topK)
+        var slot = 0
+        while (slot < hitterTags.length) {
+            val tag = hitterTags(slot)
+            if (tag ne null) keys.add(tag.meterName)
+            slot += 1
+        }
+        keys
+    }
+
+    override def getMeter(key: String): JmxFlowStats = {
+        var slot = 0
+        while (slot < hitterTags.length) {
+            val tag = hitterTags(slot)
+            if ((tag ne null) && tag.meterName == key) {
+                return new JmxFlowStats(hitters.get(slot, HitterPackets),
+                                        hitters.get(slot, HitterBytes))
+            }
+            slot += 1
+        }
+        null
+    }
+
+    override def trackFlow(flowMatch: FlowMatch, tags: List[FlowTag]): Unit = {
+        val key = flowKey(flowMatch)
+        if (flows.find(key) >= 0)
+            return
+
+        var slot = -1
+        var count = 0
+        var i = 0
+        while (i < tags.size()) {
+            tags.get(i) match {
+                case meter: MeterTag =>
+                    if (slot < 0 && count == 0)
+                        slot = flows.insert(key)
+                    if (slot >= 0 && count < MaxFlowMeters) {
+                        flows.put(slot, FlowMeters + count,
+                                  nonZero(meter.toLongHash))
+                        count += 1
+                        flows.put(slot, FlowMeterCount, count)
+                    }
+                    record(meter, 0L, 0L)
+                case _ => // Do nothing
+            }
+            i += 1
+        }
+    }
+
+    override def recordPacket(packetLen: Int, tags: List[FlowTag]): Unit = {
+        var i = 0
+        while (i < tags.size()) {
+            tags.get(i) match {
+                case meter: MeterTag => record(meter, 1L, packetLen)
+                case _ => // Do nothing
+            }
+            i += 1
+        }
+    }
+
+    override def updateFlow(flowMatch: FlowMatch, stats: FlowStats): Unit = {
+        val slot = flows.find(flowKey(flowMatch))
+        if (slot < 0)
+            return
+
+        var packets = stats.packets - flows.get(slot, FlowPackets)
+        var bytes = stats.bytes - flows.get(slot, FlowBytes)
+        if (packets < 0) {
+            packets = stats.packets
+            bytes = stats.bytes
+        }
+        flows.put(slot, FlowPackets, stats.packets)
+        flows.put(slot, FlowBytes, stats.bytes)
+
+        val count = flows.get(slot, FlowMeterCount).toInt
+        var i = 0
+        while (i < count) {
+            val hash = flows.get(slot, FlowMeters + i)
+            val hitter = hitters.find(hash)
+            if (hitter >= 0) {
+                hitters.add(hitter, HitterPackets, packets)
+                hitters.add(hitter, HitterBytes, bytes)
+            } else {
+                addToSketch(hash, packets, bytes)
+            }
+            i += 1
+        }
+    }
+
+    override def forgetFlow(flowMatch: FlowMatch): Unit = {
+        val slot = flows.find(flowKey(flowMatch))
+        if (slot >= 0)
+            flows.remove(slot)
+    }
+
+    private def record(meter: MeterTag, packets: Long, bytes: Long): Unit = {
+        val hash = nonZero(meter.toLongHash)
+        var slot = hitters.find(hash)
+        if (slot >= 0) {
+            hitters.add(slot, HitterPackets, packets)
+            hitters.add(slot, HitterBytes, bytes)
+            return
+        }
+
+        addToSketch(hash, packets, bytes)
+        if (hitters.size < topK) {
+            slot = hitters.insert(hash)
+        } else {
+            val estimate = estimate(hash, 1)
+            if (estimate <= minHitterBytes)
+                return
+            val min = smallestHitter()
+            if (estimate <= hitters.get(min, HitterBytes))
+                return
+            evict(min)
+            slot = hitters.insert(hash)
+        }
+        hitterTags(slot) = meter
+        hitters.put(slot, HitterPackets, estimate(hash, 0))
+        hitters.put(slot, HitterBytes, estimate(hash, 1))
+    }
+
+    private def smallestHitter(): Int = {
+        var min = -1
+        var slot = 0
+        while (slot < hitterTags.length) {
+            if (hitters.key(slot) != 0L &&
+                (min < 0 || hitters.get(slot, HitterBytes) <
+                            hitters.get(min, HitterBytes))) {
+                min = slot
+            }
+            slot += 1
+        }
+        minHitterBytes = hitters.get(min, HitterBytes)
+        min
+    }
+
+    /** Removes a heavy hitter, returning to the sketch the counts that the
+      * sketch does not already account for. */
+    private def evict(slot: Int): Unit = {
+        val hash = hitters.key(slot)
+        val packets = hitters.get(slot, HitterPackets) - estimate(hash, 0)
+        val bytes = hitters.get(slot, HitterBytes) - estimate(hash, 1)
+        addToSketch(hash, Math.max(packets, 0L), Math.max(bytes, 0L))
+        hitters.remove(slot)
+    }
+
+    @inline private def sketchIndex(hash: Long, row: Int): Int = {
+        val column = (mix(hash + row * 0x9e3779b97f4a7c15L) & widthMask).toInt
+        (row * width + column) * 2
+    }
+
+    private def addToSketch(hash: Long, packets: Long, bytes: Long): Unit = {
+        if (packets == 0L && bytes == 0L)
+            return
+        var row = 0
+        while (row < sketchDepth) {
+            val index = sketchIndex(hash, row)
+            sketch.put(index, sketch.get(index) + packets)
+            sketch.put(index + 1, sketch.get(index + 1) + bytes)
+            row += 1
+        }
+    }
+
+    /** Returns the estimated packets, when `field` is 0, or bytes, when
+      * `field` is 1, of a meter from the count-min sketch. */
+    private def estimate(hash: Long, field: Int): Long = {
+        var result = Long.MaxValue
+        var row = 0
+        while (row < sketchDepth) {
+            result = Math.min(result,
+                              sketch.get(sketchIndex(hash, row) + field))
+            row += 1
+        }
+        result
+    }
+}
@@ -38,5 +38,11 @@ class DatapathMetrics(val registry: MetricRegistry) {
     val flowDeleteErrors = registry.meter(
         name(classOf[DatapathMeter], "flows", "deleteErrors"))
 
+    val flowCreateBatchSize = registry.histogram(
+        name(classOf[DatapathMeter], "flows", "createBatchSize"))
+
+    val flowDeleteBatchSize = registry.histogram(
+        name(classOf[DatapathMeter], "flows", "deleteBatchSize"))
+
 }
 
@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.monitoring.metrics
 
+import java.lang.management.ManagementFactory
 import java.util.concurrent.TimeUnit
 
 import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
@@ -69,10 +70,79 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    val simulationCacheHits = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "simulationCache", "hits"))
+
+    val simulationCacheMisses = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "simulationCache", "misses"))
+
+    val bytesAllocated = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "bytesAllocated"))
+
+    val bytesAllocatedPerPacket = registry.histogram(
+        name(classOf[PacketPipelineHistogram], workerTag,
+             "bytesAllocatedPerPacket"))
+
+    val flowInvalidationLatency = registry.timer(
+        name(classOf[PacketPipelineHistogram], workerTag,
+             "flowInvalidationLatency"))
+
+    val flowsPendingInvalidation = registry.counter(
+        name(classOf[PacketPipelineCounter], workerTag,
+             "flowsPendingInvalidation"))
+
+    val packetsDelayedByInvalidation = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag,
+             "packetsDelayedByInvalidation"))
+
+    private val threadBean = ManagementFactory.getThreadMXBean match {
+        case bean: com.sun.management.ThreadMXBean
+            if bean.isThreadAllocatedMemorySupported &&
+               bean.isThreadAllocatedMemoryEnabled => bean
+        case _ => null
+    }
+    private var lastAllocatedBytes = -1L
+    private var packetAllocatedBytes = -1L
+    private var packetsSinceSample = 0L
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
     }
+
+    /**
+      * Counts a packet handled by the packet worker, such that the memory
+      * allocated by the worker can be reported per packet.
+      */
+    def packetHandled(): Unit = {
+        packetsSinceSample += 1
+    }
+
+    /**
+      * Samples the memory allocated by the current thread since the previous
+      * sample. This method must be called from the packet worker thread and
+      * does nothing if the JVM does not support measuring thread allocations.
+      */
+    def sampleAllocations(): Unit = {
+        if (threadBean eq null)
+            return
+        val allocated =
+            threadBean.getThreadAllocatedBytes(Thread.currentThread().getId)
+        if (lastAllocatedBytes >= 0 && allocated >= lastAllocatedBytes) {
+            bytesAllocated.mark(allocated - lastAllocatedBytes)
+        }
+        lastAllocatedBytes = allocated
+        if (packetsSinceSample > 0) {
+            if (packetAllocatedBytes >= 0 && allocated >= packetAllocatedBytes) {
+                bytesAllocatedPerPacket.update(
+                    (allocated - packetAllocatedBytes) / packetsSinceSample)
+            }
+            packetAllocatedBytes = allocated
+            packetsSinceSample = 0
+        } else if (packetAllocatedBytes < 0) {
+            packetAllocatedBytes = allocated
+        }
+    }
 }
 
 class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
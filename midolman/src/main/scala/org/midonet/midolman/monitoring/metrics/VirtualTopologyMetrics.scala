@@ -61,7 +61,9 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
                              devices: => Int,
                              observables: => Int,
                              cacheHits: => Long,
-                             cacheMisses: => Long) {
+                             cacheMisses: => Long,
+                             snapshotReconciled: => Long = 0L,
+                             snapshotStale: => Long = 0L) {
 
     private val classes = Set[Class[_]](
         classOf[Bridge], classOf[Chain], classOf[Host], classOf[IPAddrGroup],
@@ -82,6 +84,27 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         registry.register(name(classOf[VirtualTopologyGauge], "cacheMiss"),
                           gauge(cacheMisses))
 
+    // Startup phases when the agent bootstraps from a topology snapshot.
+    val snapshotDownloadTimer =
+        registry.timer(name(classOf[VirtualTopologyHistogram],
+                            "snapshotDownload"))
+    val snapshotDecodeTimer =
+        registry.timer(name(classOf[VirtualTopologyHistogram],
+                            "snapshotDecode"))
+    val snapshotServingTimer =
+        registry.timer(name(classOf[VirtualTopologyHistogram],
+                            "snapshotServing"))
+    val snapshotFailureCounter =
+        registry.counter(name(classOf[VirtualTopologyCounter],
+                              "snapshotFailure"))
+    val snapshotReconciledGauge =
+        registry.register(name(classOf[VirtualTopologyGauge],
+                               "snapshotReconciled"),
+                          gauge(snapshotReconciled))
+    val snapshotStaleGauge =
+        registry.register(name(classOf[VirtualTopologyGauge], "snapshotStale"),
+                          gauge(snapshotStale))
+
     val deviceUpdateCounter =
         registry.counter(name(classOf[VirtualTopologyCounter], "deviceUpdate"))
     val deviceErrorCounter =
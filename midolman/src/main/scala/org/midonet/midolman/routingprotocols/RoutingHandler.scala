@@ -608,9 +608,11 @@ abstract class RoutingHandler(var routerPort: RouterPort,
                 for (route <- learnedRoutes if !peerRoutes.contains(route)) {
                     futures += forgetLearnedRoute(route)
                 }
-                // Add routes that were not published
+                // Add routes that were not published, or that are no longer
+                // in storage, such as after the storage session was lost
                 for ((routeKey, routeValue) <- peerRoutes
-                     if routeValue eq null) {
+                     if (routeValue eq null) ||
+                        !learnedRoutes.contains(routeKey)) {
                     futures += publishLearnedRoute(routeKey)
                 }
                 Future.sequence(futures)(breakOut, singleThreadExecutionContext)
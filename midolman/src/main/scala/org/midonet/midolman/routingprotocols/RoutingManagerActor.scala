@@ -16,6 +16,7 @@
 package org.midonet.midolman.routingprotocols
 
 import java.util.UUID
+import java.util.concurrent.{ConcurrentHashMap, Executors}
 
 import scala.collection.mutable
 import scala.concurrent.{ExecutionContext, Future, Promise}
@@ -36,6 +37,7 @@ import org.midonet.cluster.data.storage.StateStorage
 import org.midonet.cluster.models.Topology.{Port, ServiceContainer}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.BgpKey
+import org.midonet.cluster.state.RouteTablePublisher
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.containers.Containers
 import org.midonet.midolman.config.MidolmanConfig
@@ -50,7 +52,7 @@ import org.midonet.midolman.topology.devices._
 import org.midonet.midolman.topology.{VirtualToPhysicalMapper, VirtualTopology}
 import org.midonet.midolman.{DatapathState, Referenceable, SimulationBackChannel}
 import org.midonet.util.concurrent.ReactiveActor._
-import org.midonet.util.concurrent.{ReactiveActor, toFutureOps}
+import org.midonet.util.concurrent.{NamedThreadFactory, ReactiveActor, toFutureOps}
 import org.midonet.util.eventloop.{Reactor, SelectLoop}
 import org.midonet.util.functors._
 import org.midonet.util.reactivex._
@@ -94,6 +96,59 @@ object RoutingManagerActor extends Referenceable {
         }
     }
 
+    /** A routing storage that publishes the learned routes of every port in
+      * the port bulk route table, using a [[RouteTablePublisher]]. */
+    private[routingprotocols] class RouteTableStorageImpl(storage: StateStorage,
+                                                          chunkSize: Int,
+                                                          flushDelayMs: Long,
+                                                          bufferSize: Int)
+        extends RoutingStorageImpl(storage) {
+
+        private val executor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("route-table-publisher", isDaemon = true))
+        private val publishers = new ConcurrentHashMap[UUID, RouteTablePublisher]
+
+        override def addRoute(route: Route, portId: UUID): Future[Route] = {
+            publisher(portId).add(route)
+        }
+        override def removeRoute(route: Route, portId: UUID): Future[Route] = {
+            publisher(portId).remove(route)
+        }
+        override def learnedRoutes(routerId: UUID, portId: UUID, hostId: UUID)
+        : Future[Set[Route]] = {
+            storage.getPortRouteTable(portId, hostId)
+                   .map[Set[Route]](makeFunc1(publisher(portId).restore))
+                   .asFuture
+        }
+
+        /** Releases the route table publisher of a port when its routing
+          * handler stopped, after publishing the pending changes. A new
+          * handler for the same port starts with a new publisher, which
+          * restores the route table from storage. */
+        def release(portId: UUID): Unit = {
+            val publisher = publishers.remove(portId)
+            if ((publisher ne null) && !executor.isShutdown) {
+                executor.execute(makeRunnable { publisher.flush() })
+            }
+        }
+
+        def shutdown(): Unit = {
+            executor.shutdown()
+        }
+
+        private def publisher(portId: UUID): RouteTablePublisher = {
+            var publisher = publishers.get(portId)
+            if (publisher eq null) {
+                publisher = new RouteTablePublisher(storage, portId, chunkSize,
+                                                    flushDelayMs, executor,
+                                                    bufferSize)
+                val current = publishers.putIfAbsent(portId, publisher)
+                if (current ne null) publisher = current
+            }
+            publisher
+        }
+    }
+
     private case class HandlerStop(portId: UUID, value: Boolean)
     private case class HandlerStopError(portId: UUID, e: Throwable)
 
@@ -270,6 +325,7 @@ class RoutingManagerActor extends ReactiveActor[AnyRef]
 
         case RoutingHandlerStopped(id) =>
             log.debug(s"BGP routing handler for port $id successfully stopped.")
+            releaseRoutingStorage(id)
             checkZkConnection()
 
         case StopBgpHandlers() =>
@@ -283,6 +339,7 @@ class RoutingManagerActor extends ReactiveActor[AnyRef]
     private def stopping: Actor.Receive = {
         case RoutingHandlerStopped(id) =>
             log.debug(s"BGP routing handler for port $id successfully stopped.")
+            releaseRoutingStorage(id)
             checkZkConnection()
             if (bgpActorCount == 0) {
                 log.debug("ALL BGP routing handlers stopped. " +
@@ -297,13 +354,31 @@ class RoutingManagerActor extends ReactiveActor[AnyRef]
     override def preStart(): Unit = {
         super.preStart()
         selfRefPromise trySuccess self
-        routingStorage = new RoutingStorageImpl(backend.stateStore)
+        val chunkSize = config.router.bgpRouteTableChunkSize
+        routingStorage = if (chunkSize > 0) {
+            new RouteTableStorageImpl(backend.stateStore, chunkSize,
+                                      config.router.bgpRouteTableFlushDelay,
+                                      config.zookeeper.bufferSize)
+        } else {
+            new RoutingStorageImpl(backend.stateStore)
+        }
 
         portsSubscription add VirtualToPhysicalMapper.portsActive.subscribe(this)
     }
 
     override def postStop(): Unit = {
         portsSubscription.unsubscribe()
+        routingStorage match {
+            case storage: RouteTableStorageImpl => storage.shutdown()
+            case _ =>
+        }
+    }
+
+    private def releaseRoutingStorage(portId: UUID): Unit = {
+        routingStorage match {
+            case storage: RouteTableStorageImpl => storage.release(portId)
+            case _ =>
+        }
     }
 
     private def stopAllHandlers(): Unit = {
@@ -20,7 +20,8 @@ import java.util.{UUID, List => JList, Map => JMap}
 
 import com.google.common.annotations.VisibleForTesting
 
-import org.midonet.midolman.rules.{JumpRule, Rule, RuleResult}
+import org.midonet.midolman.rules.{JumpRule, NatRule, Rule, RuleClassifier,
+                                   RuleResult}
 import org.midonet.midolman.rules.RuleResult.Action
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
 import org.midonet.sdn.flows.FlowTagger
@@ -43,7 +44,8 @@ case class Chain(id: UUID,
                  jumpTargets: JMap[UUID, Chain],
                  name: String,
                  metadata: Array[Byte] = Chain.NoMetadata,
-                 ruleLoggers: Seq[RuleLogger] = Seq())
+                 ruleLoggers: Seq[RuleLogger] = Seq(),
+                 classifier: RuleClassifier = null)
     extends VirtualDevice with SimDevice {
     import Chain._
 
@@ -74,11 +76,18 @@ case class Chain(id: UUID,
 
         context.addFlowTag(deviceTag)
         traversedChains.add(id)
-        var i = 0
+        // The classifier skips the rules that cannot match the packet, which
+        // would otherwise be recorded as not matched: tracing uses the
+        // linear evaluation such that the trace includes every rule.
+        var candidates =
+            if ((classifier ne null) && !context.tracingEnabled)
+                classifier.classify(context.wcmatch)
+            else null
+        var i = nextRule(candidates, 0)
         var res = Continue
         while ((i < rules.size()) && (res.action eq Action.CONTINUE)) {
             val rule = rules.get(i)
-            i += 1
+            val next = i + 1
             res = rule.process(context)
 
             res.action match {
@@ -103,13 +112,29 @@ case class Chain(id: UUID,
                 context.recordTraversedRule(rule.id, res)
             }
 
+            // NAT rules and the rules of a jump chain may rewrite the match,
+            // such that the candidates are classified again for the
+            // remaining rules.
+            val rewritten = rule.isInstanceOf[NatRule] ||
+                            (res.action eq Action.JUMP)
             if (res.action eq Action.JUMP)
                 res = jump(context, res.jumpToChain, traversedChains)
+            if ((candidates ne null) && rewritten &&
+                (res.action eq Action.CONTINUE)) {
+                candidates = classifier.classify(context.wcmatch)
+            }
+            i = nextRule(candidates, next)
         }
         assert(res.action ne Action.JUMP)
         res
     }
 
+    @inline
+    private[this] def nextRule(candidates: Array[Long], from: Int): Int = {
+        if (candidates eq null) from
+        else classifier.nextCandidate(candidates, from)
+    }
+
     private[this] def jump(context: PacketContext,
                            jumpChainId: UUID,
                            traversedChains:util.ArrayList[UUID]): RuleResult = {
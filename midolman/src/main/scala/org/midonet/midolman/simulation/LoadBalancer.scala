@@ -22,12 +22,31 @@ import scala.collection.breakOut
 
 import org.midonet.midolman.rules.RuleResult
 import org.midonet.midolman.topology.VirtualTopology.{VirtualDevice, tryGet}
+import org.midonet.packets.IPAddr
 import org.midonet.sdn.flows.FlowTagger
 
 object LoadBalancer {
     val simpleAcceptRuleResult = new RuleResult(RuleResult.Action.ACCEPT)
     val simpleContinueRuleResult = new RuleResult(RuleResult.Action.CONTINUE)
     val simpleDropRuleResult = new RuleResult(RuleResult.Action.DROP)
+
+    /**
+     * Indexes the VIPs by address. The VIPs with the same address are kept in
+     * their original order, such that the index returns the same VIP as a
+     * linear scan.
+     */
+    private def indexVips(vips: Array[Vip]): util.HashMap[IPAddr, Array[Vip]] = {
+        val index = new util.HashMap[IPAddr, Array[Vip]]()
+        var i = 0
+        while (i < vips.length) {
+            val vip = vips(i)
+            val current = index.get(vip.address)
+            index.put(vip.address,
+                      if (current eq null) Array(vip) else current :+ vip)
+            i += 1
+        }
+        index
+    }
 }
 
 class LoadBalancer(val id: UUID, val adminStateUp: Boolean, val routerId: UUID,
@@ -40,6 +59,10 @@ class LoadBalancer(val id: UUID, val adminStateUp: Boolean, val routerId: UUID,
 
     val vips: Array[Vip] = pools.flatMap(_.vips)(breakOut)
 
+    // The VIPs indexed by address, since VIPs only match TCP packets by
+    // address and port.
+    private val vipsByAddress = indexVips(vips)
+
     // Session persistence should only ever be set on either pools or VIPs,
     // never both. Ignore VIP settings if we see a pool with sticky source.
     val (hasStickySource, hasNonStickySource) =
@@ -140,20 +163,28 @@ class LoadBalancer(val id: UUID, val adminStateUp: Boolean, val routerId: UUID,
     }
 
     private def findVip(context: PacketContext): Vip = {
+        // Only the packets to a VIP address read the port and protocol.
+        val candidates = vipsByAddress.get(context.wcmatch.getNetworkDstIP)
+        if (candidates eq null)
+            return null
         var i = 0
-        while (i < vips.length) {
-            if (vips(i).matches(context))
-                return vips(i)
+        while (i < candidates.length) {
+            if (candidates(i).matches(context))
+                return candidates(i)
             i += 1
         }
         null
     }
 
     private def findVipReturn(context: PacketContext): Vip = {
+        // Only the packets from a VIP address read the port and protocol.
+        val candidates = vipsByAddress.get(context.wcmatch.getNetworkSrcIP)
+        if (candidates eq null)
+            return null
         var i = 0
-        while (i < vips.length) {
-            if (vips(i).matchesReturn(context))
-                return vips(i)
+        while (i < candidates.length) {
+            if (candidates(i).matchesReturn(context))
+                return candidates(i)
             i += 1
         }
         null
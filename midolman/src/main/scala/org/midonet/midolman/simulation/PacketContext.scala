@@ -103,6 +103,9 @@ trait FlowContext extends Clearable { this: PacketContext =>
     // encap'ing or the outer if decap'ing. Taken from a Stash.
     var recircMatch: FlowMatch = _
     var recircPayload: Ethernet = _
+    // The flow match used as recirculation match, kept across resets such
+    // that pooled contexts do not allocate a new one per packet.
+    private val recircMatchBuffer = new FlowMatch()
 
     var flow: ManagedFlow = _
 
@@ -156,8 +159,7 @@ trait FlowContext extends Clearable { this: PacketContext =>
 
         calculateActionsFromMatchDiff()
         virtualFlowActions.add(Encap(vni))
-        if (recircMatch eq null)
-            recircMatch = new FlowMatch()
+        recircMatch = recircMatchBuffer
         recircMatch.reset(origMatch)
         recircMatch.allFieldsSeen()
         recircPayload = packet.getEthernet
@@ -183,8 +185,7 @@ trait FlowContext extends Clearable { this: PacketContext =>
         // There's no point in calculating actions: outer packet will be discarded
         virtualFlowActions.clear()
         virtualFlowActions.add(Decap(vni))
-        if (recircMatch eq null)
-            recircMatch = new FlowMatch()
+        recircMatch = recircMatchBuffer
         recircMatch.reset(origMatch)
         recircMatch.allFieldsSeen()
 
@@ -407,6 +408,7 @@ class PacketContext extends Clearable
 
     var idle: Boolean = true
     var runs: Int = 0
+    var generatedPackets: Int = 0
 
     var devicesTraversed = 0
 
@@ -487,6 +489,7 @@ class PacketContext extends Clearable
         this.idle = true
         this.devicesTraversed = 0
         this.runs = 0
+        this.generatedPackets = 0
         this.cookie = -1
         this.packet = null
         this.origMatch.clear()
@@ -498,6 +501,10 @@ class PacketContext extends Clearable
         this.inPortId = null
         this.outPortId = null
         this.outPorts.clear()
+        this.inputPort = null
+        this.currentDevice = null
+        this.routeTo = null
+        this.nwDstRewritten = false
         this.portGroups = null
         this.inPortGroups = null
         this.outPortGroups = null
@@ -540,12 +547,16 @@ class PacketContext extends Clearable
     def setFlowProcessed(): Unit = flowProcessed.set(true)
     def setPacketProcessed(): Unit = packetProcessed.set(true)
 
-    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit =
+    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit = {
+        generatedPackets += 1
         backChannel.tell(GeneratedLogicalPacket(uuid, ethernet, cookie))
+    }
 
     def addGeneratedPhysicalPacket(portNo: JInteger,
-                                   ethernet: Ethernet): Unit =
+                                   ethernet: Ethernet): Unit = {
+        generatedPackets += 1
         backChannel.tell(GeneratedPhysicalPacket(portNo, ethernet, cookie))
+    }
 
     def markUserspaceOnly(): Unit =
         wcmatch.markUserspaceOnly()
@@ -22,10 +22,11 @@ import java.util.{Objects, UUID}
 import org.midonet.midolman.state.NatState.NatKey
 import org.midonet.midolman.state.l4lb.{PoolLBMethod, SessionPersistence}
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
+import org.midonet.odp.FlowMatch
 import org.midonet.packets.{ICMP, IPAddr}
 import org.midonet.packets.NatState
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.util.collection.WeightedSelector
+import org.midonet.util.collection.{MaglevTable, WeightedSelector}
 
 object Pool {
     def findPoolMember(ip: IPAddr, port: Int, pmArray: Array[PoolMember])
@@ -39,6 +40,28 @@ object Pool {
         }
         false
     }
+
+    /**
+     * Computes the hash of a flow used to select a pool member from the
+     * Maglev table. For sticky source IP, the hash only includes the source
+     * IP address, such that all connections from a client are load balanced
+     * to the same member. The hash is the same on all agents.
+     */
+    def flowHash(fmatch: FlowMatch, stickySourceIP: Boolean): Long = {
+        val srcIp = fmatch.getNetworkSrcIP
+        val source = if (srcIp eq null) 0L else srcIp.hashCode.toLong
+        if (stickySourceIP) {
+            MaglevTable.hash(source, 0L)
+        } else {
+            val dstIp = fmatch.getNetworkDstIP
+            val destination = if (dstIp eq null) 0L else dstIp.hashCode.toLong
+            MaglevTable.hash(
+                (source << 32) | (destination & 0xffffffffL),
+                (fmatch.getSrcPort.toLong << 24) |
+                (fmatch.getDstPort.toLong << 8) |
+                (fmatch.getNetworkProto & 0xffL))
+        }
+    }
 }
 
 final class Pool(val id: UUID, val adminStateUp: Boolean,
@@ -49,14 +72,18 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
                  val members: Array[PoolMember],
                  val activePoolMembers: Array[PoolMember],
                  val disabledPoolMembers: Array[PoolMember],
-                 val vips: Array[Vip])
+                 val vips: Array[Vip],
+                 val maglevTable: MaglevTable[PoolMember] = null)
     extends VirtualDevice {
 
     override val deviceTag = FlowTagger.tagForPool(id)
 
     val isUp = adminStateUp && activePoolMembers.nonEmpty
 
-    private val memberSelector = if (!isUp) null
+    private val useMaglev = lbMethod == PoolLBMethod.MAGLEV &&
+                            (maglevTable ne null)
+
+    private val memberSelector = if (!isUp || useMaglev) null
                                  else WeightedSelector(activePoolMembers)
 
     /**
@@ -64,7 +91,11 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
      * to redirect traffic to that pool member.
      *
      * If an existing NAT mapping is present, we respect that instead of mapping
-     * to a new backend, in order to maintain existing connections.
+     * to a new backend, in order to maintain existing connections. With the
+     * Maglev load balancing method, the member is selected by consistent
+     * hashing of the flow, such that a connection whose NAT mapping is lost,
+     * for instance after a gateway fail-over, is load balanced to the same
+     * member by any agent.
      *
      * Return action based on outcome: ACCEPT if loadbalanced successfully,
      * DROP if no active pool member is available.
@@ -76,7 +107,11 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
         context.addFlowTag(deviceTag)
 
         if (isUp) {
-            val member = memberSelector.select()
+            val member =
+                if (useMaglev)
+                    maglevTable.select(
+                        Pool.flowHash(context.wcmatch, stickySourceIP))
+                else memberSelector.select()
             if (context.log.underlying.isDebugEnabled) {
                 context.log.debug(s"Selected member $member out of {}",
                                   activePoolMembers.mkString(", "))
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.lang.{Long => JLong}
+import java.util.{ArrayList, HashMap, UUID}
+
+import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, Drop, ShortDrop, SimulationResult}
+import org.midonet.midolman.rules.RuleResult
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.odp.flows.FlowAction
+import org.midonet.packets.ConnTrackState.ConnTrackKeyStore
+import org.midonet.packets.NatState.NatKeyStore
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+import org.midonet.sdn.state.FlowStateTransaction
+import org.midonet.util.concurrent.NanoClock
+
+object SimulationCache {
+
+    private val Fields = Field.values()
+
+    /** The maximum number of distinct wildcard masks, which bounds the number
+      * of hash table probes per lookup. */
+    final val MaxMasks = 32
+
+    /** The fields that may be modified by a cached simulation, and that are
+      * restored when the simulation is replayed. */
+    private val ReplayableFields =
+        (1L << Field.EthSrc.ordinal) | (1L << Field.EthDst.ordinal) |
+        (1L << Field.NetworkSrc.ordinal) | (1L << Field.NetworkDst.ordinal) |
+        (1L << Field.NetworkTTL.ordinal) | (1L << Field.NetworkTOS.ordinal) |
+        (1L << Field.SrcPort.ordinal) | (1L << Field.DstPort.ordinal)
+
+    private final class Entry(val usedFields: Long,
+                              val mask: Long,
+                              val hash: Int,
+                              val fmatch: FlowMatch,
+                              val result: SimulationResult,
+                              val actions: Array[FlowAction],
+                              val tags: Array[FlowTag],
+                              val modifiedFields: Long,
+                              val modifiedMatch: FlowMatch,
+                              val inPortId: UUID,
+                              val outPortId: UUID,
+                              val traversedRules: Array[UUID],
+                              val traversedRuleResults: Array[RuleResult],
+                              val traversedRulesMatched: Array[Boolean],
+                              val traversedRulesApplied: Array[Boolean],
+                              val conntrackState: StateKeys,
+                              val natState: StateKeys,
+                              val createdNanos: Long) {
+        var next: Entry = _
+        var removed = false
+    }
+
+    /** The flow state keys of a cached simulation with the values they had
+      * when the simulation was added: the keys referenced by the simulation,
+      * followed by the keys it read, as given by its flow tags. */
+    private final class StateKeys(val keys: Array[AnyRef],
+                                  val values: Array[AnyRef],
+                                  val refs: Int) {
+
+        /** Whether the keys have the same values in the transaction. */
+        def matches[K, V](tx: FlowStateTransaction[K, V]): Boolean = {
+            var index = 0
+            while (index < keys.length) {
+                if (tx.get(keys(index).asInstanceOf[K]) != values(index))
+                    return false
+                index += 1
+            }
+            true
+        }
+
+        /** References the keys referenced by the simulation. */
+        def replay[K, V](tx: FlowStateTransaction[K, V]): Unit = {
+            var index = 0
+            while (index < refs) {
+                tx.ref(keys(index).asInstanceOf[K])
+                index += 1
+            }
+        }
+    }
+
+    private def stateKeys[K, V](tx: FlowStateTransaction[K, V],
+                                tags: Array[FlowTag],
+                                keyClass: Class[_]): StateKeys = {
+        val keys = new ArrayList[AnyRef]()
+        var index = 0
+        while (index < tx.putCount) {
+            keys.add(tx.putKey(index).asInstanceOf[AnyRef])
+            index += 1
+        }
+        index = 0
+        while (index < tx.refCount) {
+            keys.add(tx.refKey(index).asInstanceOf[AnyRef])
+            index += 1
+        }
+        val refs = keys.size
+        index = 0
+        while (index < tags.length) {
+            if (keyClass.isInstance(tags(index)))
+                keys.add(tags(index))
+            index += 1
+        }
+        if (keys.isEmpty)
+            return null
+
+        val values = new Array[AnyRef](keys.size)
+        index = 0
+        while (index < values.length) {
+            values(index) = tx.get(keys.get(index).asInstanceOf[K]).asInstanceOf[AnyRef]
+            index += 1
+        }
+        new StateKeys(keys.toArray, values, refs)
+    }
+
+    private def hash(fmatch: FlowMatch, usedFields: Long, mask: Long): Int = {
+        var result = 31 * JLong.hashCode(usedFields) + JLong.hashCode(mask)
+        var bits = mask
+        while (bits != 0) {
+            val field = Fields(JLong.numberOfTrailingZeros(bits))
+            result = 31 * result + field.hashCode(fmatch)
+            bits &= bits - 1
+        }
+        result
+    }
+
+    private def fieldsEqual(a: FlowMatch, b: FlowMatch, mask: Long): Boolean = {
+        var bits = mask
+        while (bits != 0) {
+            val field = Fields(JLong.numberOfTrailingZeros(bits))
+            if (!field.equals(a, b))
+                return false
+            bits &= bits - 1
+        }
+        true
+    }
+
+    /** Returns the fields that differ between the two flow matches. */
+    private def modifiedFields(original: FlowMatch, modified: FlowMatch): Long = {
+        var fields = 0L
+        var index = 0
+        while (index < Field.COUNT.ordinal) {
+            val field = Fields(index)
+            val used = original.isUsed(field)
+            if (used != modified.isUsed(field) ||
+                (used && !field.equals(original, modified))) {
+                fields |= 1L << index
+            }
+            index += 1
+        }
+        fields
+    }
+
+    private def isCacheable(result: SimulationResult): Boolean = result match {
+        case AddVirtualWildcardFlow | Drop | ShortDrop => true
+        case _ => false
+    }
+}
+
+/**
+  * A per packet worker cache of simulation results, similar to the megaflow
+  * cache of the datapath. A simulation result is keyed on the values of the
+  * flow match fields read during the simulation, as tracked by the seen fields
+  * of the flow match, such that any subsequent packet with the same values
+  * for those fields produces the same result. This is the same assumption
+  * used to install wildcard flows in the datapath.
+  *
+  * Only simulations that can be replayed are cached: the simulation must not
+  * create flow removal callbacks, emit generated packets, read user space
+  * only fields, or encapsulate, redirect or translate the packet. A replay
+  * restores the virtual actions, flow tags and recorded rules of the cached
+  * simulation, and the flow match fields it modified.
+  *
+  * The connection tracking and NAT keys created, referenced or read by a
+  * simulation are recorded with their values. A replay requires that these
+  * keys still have the same values in the state tables, and references the
+  * keys created or referenced by the simulation, as a simulation of a
+  * subsequent packet of the same connection would. Building a key reads the
+  * packet fields it is made of, such that a simulation with flow state is
+  * only replayed for packets of the same connection, and a replay never
+  * allocates new keys or NAT bindings. Traced packets are not cached, since
+  * the trace state is only written when recording a trace.
+  *
+  * Entries are invalidated with the flow tags of the simulation, and expire
+  * after a fixed interval to bound the lifetime of results depending on
+  * state without a flow tag. The cache is not thread-safe and must be used
+  * from the packet worker thread.
+  */
+class SimulationCache(capacity: Int, expirationNanos: Long, clock: NanoClock) {
+
+    import SimulationCache._
+
+    private val table = new Array[Entry](Integer.highestOneBit(
+        Math.max(capacity, 1) * 2 - 1) << 1)
+    private val tableMask = table.length - 1
+    private var entries = 0
+
+    private val maskUsedFields = new Array[Long](MaxMasks)
+    private val maskSeenFields = new Array[Long](MaxMasks)
+    private val maskRefs = new Array[Int](MaxMasks)
+    private var masks = 0
+
+    private val tagIndex = new HashMap[FlowTag, ArrayList[Entry]]()
+    private var tagReferences = 0
+
+    /** The number of cached simulations. */
+    def size: Int = entries
+
+    /**
+      * Looks up a cached simulation for the packet context, and replays it if
+      * found. The method returns the simulation result, or null if there is
+      * no cached simulation.
+      */
+    def replay(context: PacketContext): SimulationResult = {
+        val fmatch = context.origMatch
+        val usedFields = fmatch.getUsedFields
+        var index = 0
+        while (index < masks) {
+            if (maskUsedFields(index) == usedFields) {
+                val mask = maskSeenFields(index)
+                val entry = lookup(fmatch, usedFields, mask)
+                if (entry ne null) {
+                    if (clock.tick - entry.createdNanos > expirationNanos ||
+                        !stateMatches(context, entry)) {
+                        remove(entry)
+                        return null
+                    }
+                    return replay(context, entry)
+                }
+            }
+            index += 1
+        }
+        null
+    }
+
+    /**
+      * Adds the simulation of the given packet context to the cache, if the
+      * simulation can be replayed. The method must be called after the
+      * simulation with the number of flow tags, virtual actions and generated
+      * packets of the context before the simulation.
+      */
+    def add(context: PacketContext, result: SimulationResult,
+            tagsBefore: Int, actionsBefore: Int, generatedBefore: Int): Unit = {
+        if (!isCacheable(result) || context.tracingEnabled ||
+            context.conntrackTx.hasTouchesOrDeletes ||
+            context.natTx.hasTouchesOrDeletes || context.isRecirc ||
+            context.isRedirectedOut || !context.servicePorts.isEmpty ||
+            context.needsFip64 || !context.flowRemovedCallbacks.isEmpty ||
+            context.generatedPackets != generatedBefore ||
+            context.origMatch.userspaceFieldsSeen ||
+            context.wcmatch.userspaceFieldsSeen) {
+            return
+        }
+
+        val modified = modifiedFields(context.origMatch, context.wcmatch)
+        if ((modified & ~ReplayableFields) != 0)
+            return
+
+        val usedFields = context.origMatch.getUsedFields
+        val mask = (context.origMatch.getSeenFields |
+                    context.wcmatch.getSeenFields) & usedFields
+        val maskIndex = indexOfMask(usedFields, mask)
+        if (maskIndex < 0 && masks == MaxMasks)
+            return
+
+        val hashCode = hash(context.origMatch, usedFields, mask)
+        if (lookup(context.origMatch, usedFields, mask) ne null)
+            return
+
+        if (entries >= capacity || tagReferences >= capacity * 8)
+            clear()
+
+        val fmatch = new FlowMatch()
+        fmatch.reset(context.origMatch)
+        val modifiedMatch = if (modified != 0) {
+            val m = new FlowMatch()
+            m.reset(context.wcmatch)
+            m
+        } else null
+
+        val actions = new Array[FlowAction](
+            context.virtualFlowActions.size - actionsBefore)
+        var index = 0
+        while (index < actions.length) {
+            actions(index) = context.virtualFlowActions.get(actionsBefore + index)
+            index += 1
+        }
+        val tags = new Array[FlowTag](context.flowTags.size - tagsBefore)
+        index = 0
+        while (index < tags.length) {
+            tags(index) = context.flowTags.get(tagsBefore + index)
+            index += 1
+        }
+
+        val entry = new Entry(
+            usedFields, mask, hashCode, fmatch, result, actions, tags,
+            modified, modifiedMatch, context.inPortId, context.outPortId,
+            context.traversedRules.toArray(new Array[UUID](0)),
+            context.traversedRuleResults.toArray(new Array[RuleResult](0)),
+            toArray(context.traversedRulesMatched),
+            toArray(context.traversedRulesApplied),
+            stateKeys(context.conntrackTx, tags, classOf[ConnTrackKeyStore]),
+            stateKeys(context.natTx, tags, classOf[NatKeyStore]),
+            clock.tick)
+
+        val bucket = hashCode & tableMask
+        entry.next = table(bucket)
+        table(bucket) = entry
+        entries += 1
+        addMask(usedFields, mask)
+
+        index = 0
+        while (index < tags.length) {
+            var list = tagIndex.get(tags(index))
+            if (list eq null) {
+                list = new ArrayList[Entry](2)
+                tagIndex.put(tags(index), list)
+            }
+            list.add(entry)
+            tagReferences += 1
+            index += 1
+        }
+    }
+
+    /**
+      * Invalidates the cached simulations tagged with the given flow tag.
+      */
+    def invalidate(tag: FlowTag): Unit = {
+        val list = tagIndex.remove(tag)
+        if (list ne null) {
+            tagReferences -= list.size
+            var index = 0
+            while (index < list.size) {
+                val entry = list.get(index)
+                if (!entry.removed)
+                    remove(entry)
+                index += 1
+            }
+        }
+    }
+
+    /**
+      * Removes all cached simulations.
+      */
+    def clear(): Unit = {
+        java.util.Arrays.fill(table.asInstanceOf[Array[AnyRef]], null)
+        entries = 0
+        masks = 0
+        tagIndex.clear()
+        tagReferences = 0
+    }
+
+    private def lookup(fmatch: FlowMatch, usedFields: Long, mask: Long)
+    : Entry = {
+        var entry = table(hash(fmatch, usedFields, mask) & tableMask)
+        while (entry ne null) {
+            if (entry.usedFields == usedFields && entry.mask == mask &&
+                fieldsEqual(entry.fmatch, fmatch, mask)) {
+                return entry
+            }
+            entry = entry.next
+        }
+        null
+    }
+
+    private def stateMatches(context: PacketContext, entry: Entry): Boolean =
+        ((entry.conntrackState eq null) ||
+         entry.conntrackState.matches(context.conntrackTx)) &&
+        ((entry.natState eq null) || entry.natState.matches(context.natTx))
+
+    private def replay(context: PacketContext, entry: Entry)
+    : SimulationResult = {
+        if (entry.conntrackState ne null)
+            entry.conntrackState.replay(context.conntrackTx)
+        if (entry.natState ne null)
+            entry.natState.replay(context.natTx)
+
+        var index = 0
+        while (index < entry.actions.length) {
+            context.virtualFlowActions.add(entry.actions(index))
+            index += 1
+        }
+        index = 0
+        while (index < entry.tags.length) {
+            context.addFlowTag(entry.tags(index))
+            index += 1
+        }
+        index = 0
+        while (index < entry.traversedRules.length) {
+            context.recordTraversedRule(entry.traversedRules(index),
+                                        entry.traversedRuleResults(index))
+            index += 1
+        }
+        index = 0
+        while (index < entry.traversedRulesMatched.length) {
+            context.traversedRulesMatched.add(entry.traversedRulesMatched(index))
+            index += 1
+        }
+        index = 0
+        while (index < entry.traversedRulesApplied.length) {
+            context.traversedRulesApplied.add(entry.traversedRulesApplied(index))
+            index += 1
+        }
+        context.inPortId = entry.inPortId
+        context.outPortId = entry.outPortId
+
+        if (entry.modifiedFields != 0)
+            restoreModifiedFields(context.wcmatch, entry)
+
+        // Mark the fields read by the cached simulation as seen, such that
+        // the datapath flow uses the same wildcard mask.
+        var bits = entry.mask
+        while (bits != 0) {
+            context.origMatch.fieldSeen(Fields(JLong.numberOfTrailingZeros(bits)))
+            bits &= bits - 1
+        }
+        entry.result
+    }
+
+    private def restoreModifiedFields(wcmatch: FlowMatch, entry: Entry): Unit = {
+        val modified = entry.modifiedFields
+        val m = entry.modifiedMatch
+        wcmatch.doNotTrackSeenFields()
+        m.doNotTrackSeenFields()
+        if (isSet(modified, Field.EthSrc)) wcmatch.setEthSrc(m.getEthSrc)
+        if (isSet(modified, Field.EthDst)) wcmatch.setEthDst(m.getEthDst)
+        if (isSet(modified, Field.NetworkSrc)) wcmatch.setNetworkSrc(m.getNetworkSrcIP)
+        if (isSet(modified, Field.NetworkDst)) wcmatch.setNetworkDst(m.getNetworkDstIP)
+        if (isSet(modified, Field.NetworkTTL)) wcmatch.setNetworkTTL(m.getNetworkTTL)
+        if (isSet(modified, Field.NetworkTOS)) wcmatch.setNetworkTOS(m.getNetworkTOS)
+        if (isSet(modified, Field.SrcPort)) wcmatch.setSrcPort(m.getSrcPort)
+        if (isSet(modified, Field.DstPort)) wcmatch.setDstPort(m.getDstPort)
+        wcmatch.doTrackSeenFields()
+    }
+
+    @inline
+    private def isSet(fields: Long, field: Field): Boolean =
+        (fields & (1L << field.ordinal)) != 0
+
+    private def remove(entry: Entry): Unit = {
+        val bucket = entry.hash & tableMask
+        var previous: Entry = null
+        var current = table(bucket)
+        while ((current ne null) && (current ne entry)) {
+            previous = current
+            current = current.next
+        }
+        if (current eq null)
+            return
+        if (previous eq null) table(bucket) = entry.next
+        else previous.next = entry.next
+        entry.removed = true
+        entries -= 1
+        removeMask(entry.usedFields, entry.mask)
+    }
+
+    private def indexOfMask(usedFields: Long, mask: Long): Int = {
+        var index = 0
+        while (index < masks) {
+            if (maskUsedFields(index) == usedFields &&
+                maskSeenFields(index) == mask)
+                return index
+            index += 1
+        }
+        -1
+    }
+
+    private def addMask(usedFields: Long, mask: Long): Unit = {
+        val index = indexOfMask(usedFields, mask)
+        if (index >= 0) {
+            maskRefs(index) += 1
+        } else {
+            maskUsedFields(masks) = usedFields
+            maskSeenFields(masks) = mask
+            maskRefs(masks) = 1
+            masks += 1
+        }
+    }
+
+    private def removeMask(usedFields: Long, mask: Long): Unit = {
+        val index = indexOfMask(usedFields, mask)
+        if (index >= 0) {
+            maskRefs(index) -= 1
+            if (maskRefs(index) == 0) {
+                masks -= 1
+                maskUsedFields(index) = maskUsedFields(masks)
+                maskSeenFields(index) = maskSeenFields(masks)
+                maskRefs(index) = maskRefs(masks)
+            }
+        }
+    }
+
+    private def toArray(list: ArrayList[Boolean]): Array[Boolean] = {
+        val array = new Array[Boolean](list.size)
+        var index = 0
+        while (index < array.length) {
+            array(index) = list.get(index)
+            index += 1
+        }
+        array
+    }
+}
@@ -33,7 +33,7 @@ import org.midonet.packets.ConnTrackState.{ConnTrackKeyAllocator, ConnTrackKeySt
 import org.midonet.packets.FlowStateStore
 import org.midonet.packets.{ICMP, IPAddr, IPv4, IPv4Addr, TCP, UDP}
 import org.midonet.sdn.flows.FlowTagger.TagTypes
-import org.midonet.sdn.state.FlowStateTransaction
+import org.midonet.sdn.state.{FlowStateCodec, FlowStateTransaction}
 import org.midonet.util.collection.ReusablePool
 
 object ConnTrackState {
@@ -150,6 +150,64 @@ object ConnTrackState {
             }
     }
 
+    /**
+     * Encodes the connection tracking keys and values into the slots of a
+     * direct flow state table. Only IPv4 keys are supported.
+     */
+    object ConnTrackCodec extends FlowStateCodec[ConnTrackKey, ConnTrackValue] {
+        override val keySize = 33
+        override val valueSize = 1
+
+        override def hash(key: ConnTrackKey): Int = {
+            var hash = key.networkSrc.hashCode
+            hash = 31 * hash + key.icmpIdOrTransportSrc
+            hash = 31 * hash + key.networkDst.hashCode
+            hash = 31 * hash + key.icmpIdOrTransportDst
+            hash = 31 * hash + key.networkProtocol
+            31 * hash + key.deviceId.hashCode
+        }
+
+        override def keyEquals(key: ConnTrackKey, buf: ByteBuffer,
+                               offset: Int): Boolean = {
+            key.networkSrc.isInstanceOf[IPv4Addr] &&
+            key.networkDst.isInstanceOf[IPv4Addr] &&
+            buf.getInt(offset) == key.networkSrc.asInstanceOf[IPv4Addr].toInt &&
+            buf.getInt(offset + 4) == key.icmpIdOrTransportSrc &&
+            buf.getInt(offset + 8) == key.networkDst.asInstanceOf[IPv4Addr].toInt &&
+            buf.getInt(offset + 12) == key.icmpIdOrTransportDst &&
+            buf.get(offset + 16) == key.networkProtocol &&
+            buf.getLong(offset + 17) == key.deviceId.getMostSignificantBits &&
+            buf.getLong(offset + 25) == key.deviceId.getLeastSignificantBits
+        }
+
+        override def writeKey(key: ConnTrackKey, buf: ByteBuffer,
+                              offset: Int): Unit = {
+            buf.putInt(offset, key.networkSrc.asInstanceOf[IPv4Addr].toInt)
+            buf.putInt(offset + 4, key.icmpIdOrTransportSrc)
+            buf.putInt(offset + 8, key.networkDst.asInstanceOf[IPv4Addr].toInt)
+            buf.putInt(offset + 12, key.icmpIdOrTransportDst)
+            buf.put(offset + 16, key.networkProtocol)
+            buf.putLong(offset + 17, key.deviceId.getMostSignificantBits)
+            buf.putLong(offset + 25, key.deviceId.getLeastSignificantBits)
+        }
+
+        override def readKey(buf: ByteBuffer, offset: Int): ConnTrackKey =
+            ConnTrackKey(IPv4Addr(buf.getInt(offset)),
+                         buf.getInt(offset + 4),
+                         IPv4Addr(buf.getInt(offset + 8)),
+                         buf.getInt(offset + 12),
+                         buf.get(offset + 16),
+                         new UUID(buf.getLong(offset + 17),
+                                  buf.getLong(offset + 25)))
+
+        override def writeValue(value: ConnTrackValue, buf: ByteBuffer,
+                                offset: Int): Unit =
+            buf.put(offset, if (value.booleanValue()) 1.toByte else 0.toByte)
+
+        override def readValue(buf: ByteBuffer, offset: Int): ConnTrackValue =
+            java.lang.Boolean.valueOf(buf.get(offset) != 0)
+    }
+
     class ConnTrackValueSerializer
             extends FlowStateStore.StateSerializer[ConnTrackValue] {
         override def toBytes(value: ConnTrackValue): Array[Byte] =
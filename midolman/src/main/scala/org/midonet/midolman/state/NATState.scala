@@ -31,7 +31,7 @@ import org.midonet.odp.FlowMatch.Field
 import org.midonet.packets.NatState._
 import org.midonet.packets._
 import org.midonet.sdn.flows.FlowTagger.TagTypes
-import org.midonet.sdn.state.FlowStateTransaction
+import org.midonet.sdn.state.{FlowStateCodec, FlowStateTransaction}
 import org.midonet.util.collection.{Reducer, ReusablePool}
 
 
@@ -246,6 +246,67 @@ object NatState {
             }
     }
 
+    /**
+     * Encodes the NAT keys and bindings into the slots of a direct flow state
+     * table.
+     */
+    object NatCodec extends FlowStateCodec[NatKey, NatBinding] {
+        override val keySize = 34
+        override val valueSize = 8
+
+        override def hash(key: NatKey): Int = {
+            var hash = keyTypeToByte(key.keyType).toInt
+            hash = 31 * hash + key.networkSrc.toInt
+            hash = 31 * hash + key.transportSrc
+            hash = 31 * hash + key.networkDst.toInt
+            hash = 31 * hash + key.transportDst
+            hash = 31 * hash + key.networkProtocol
+            31 * hash + key.deviceId.hashCode
+        }
+
+        override def keyEquals(key: NatKey, buf: ByteBuffer,
+                               offset: Int): Boolean = {
+            buf.get(offset) == keyTypeToByte(key.keyType) &&
+            buf.getInt(offset + 1) == key.networkSrc.toInt &&
+            buf.getInt(offset + 5) == key.transportSrc &&
+            buf.getInt(offset + 9) == key.networkDst.toInt &&
+            buf.getInt(offset + 13) == key.transportDst &&
+            buf.get(offset + 17) == key.networkProtocol &&
+            buf.getLong(offset + 18) == key.deviceId.getMostSignificantBits &&
+            buf.getLong(offset + 26) == key.deviceId.getLeastSignificantBits
+        }
+
+        override def writeKey(key: NatKey, buf: ByteBuffer,
+                              offset: Int): Unit = {
+            buf.put(offset, keyTypeToByte(key.keyType))
+            buf.putInt(offset + 1, key.networkSrc.toInt)
+            buf.putInt(offset + 5, key.transportSrc)
+            buf.putInt(offset + 9, key.networkDst.toInt)
+            buf.putInt(offset + 13, key.transportDst)
+            buf.put(offset + 17, key.networkProtocol)
+            buf.putLong(offset + 18, key.deviceId.getMostSignificantBits)
+            buf.putLong(offset + 26, key.deviceId.getLeastSignificantBits)
+        }
+
+        override def readKey(buf: ByteBuffer, offset: Int): NatKey =
+            NatKey(byteToKeyType(buf.get(offset)),
+                   IPv4Addr(buf.getInt(offset + 1)),
+                   buf.getInt(offset + 5),
+                   IPv4Addr(buf.getInt(offset + 9)),
+                   buf.getInt(offset + 13),
+                   buf.get(offset + 17),
+                   new UUID(buf.getLong(offset + 18), buf.getLong(offset + 26)))
+
+        override def writeValue(value: NatBinding, buf: ByteBuffer,
+                                offset: Int): Unit = {
+            buf.putInt(offset, value.networkAddress.toInt)
+            buf.putInt(offset + 4, value.transportPort)
+        }
+
+        override def readValue(buf: ByteBuffer, offset: Int): NatBinding =
+            NatBinding(IPv4Addr(buf.getInt(offset)), buf.getInt(offset + 4))
+    }
+
     class NatBindingSerializer
             extends FlowStateStore.StateSerializer[NatBinding] {
         val Size = 8
@@ -16,6 +16,10 @@
 
 package org.midonet.midolman.tools
 
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.time.Instant
 import java.util.UUID
 
 import scala.util.control.NonFatal
@@ -28,10 +32,13 @@ import com.sun.security.auth.module.UnixSystem
 import org.apache.commons.cli._
 
 import org.midonet.cluster.backend.zookeeper.{StateAccessException, ZookeeperConnectionWatcher}
+import org.midonet.cluster.flowhistory._
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.storage.{MidonetBackendConfig, MidonetBackendModule}
 import org.midonet.conf.{HostIdGenerator, MidoNodeConfigurator}
 import org.midonet.midolman.cluster.zookeeper.ZookeeperConnectionModule
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.packets.IPv4Addr
 import org.midonet.services.rest_api.PortBinder
 
 object MmCtlResult {
@@ -116,6 +123,16 @@ object MmCtl {
                                  classOf[ZookeeperConnectionWatcher]))
     }
 
+    /** Returns the directory of the local flow history store, as configured
+      * by `agent.flow_history.local_store_directory` for the agent running
+      * on this host. */
+    def getFlowHistoryDirectory: File = {
+        val configurator = MidoNodeConfigurator.apply(LegacyConfFilePath)
+        val config = new MidolmanConfig(configurator.runtimeConfig,
+                                        configurator.mergedSchemas)
+        new File(config.flowHistory.localStoreDirectory)
+    }
+
     def getMutuallyExclusiveOptionGroup: OptionGroup = {
 
         val mutuallyExclusiveOptions = new OptionGroup
@@ -132,12 +149,83 @@ object MmCtl {
         OptionBuilder.withDescription("Unbind a port from an interface")
         mutuallyExclusiveOptions.addOption(OptionBuilder.create)
 
+        OptionBuilder.isRequired
+        OptionBuilder.withLongOpt("query-flows")
+        OptionBuilder.withDescription(
+            "Query the local flow history store, printing the matching " +
+            "flow records")
+        mutuallyExclusiveOptions.addOption(OptionBuilder.create)
+
         mutuallyExclusiveOptions.setRequired (true)
         mutuallyExclusiveOptions
 
         // TODO: add a debug mode
     }
 
+    def getFlowQueryOptions: Seq[Option] = {
+        def option(name: String, description: String): Option = {
+            OptionBuilder.hasArg
+            OptionBuilder.withLongOpt(name)
+            OptionBuilder.withDescription(description)
+            OptionBuilder.create
+        }
+        Seq(option("flow-history-dir", "Directory of the local flow " +
+                   "history store (default: the directory configured for " +
+                   "the agent)"),
+            option("from", "Start time of the flow query, as milliseconds " +
+                   "since the epoch or as an ISO-8601 instant"),
+            option("to", "End time of the flow query, as milliseconds " +
+                   "since the epoch or as an ISO-8601 instant"),
+            option("device", "Only query the flows traversing this device"),
+            option("proto", "Only query the flows with this network protocol"),
+            option("src-ip", "Only query the flows from this IPv4 address"),
+            option("dst-ip", "Only query the flows to this IPv4 address"),
+            option("src-port", "Only query the flows from this port"),
+            option("dst-port", "Only query the flows to this port"))
+    }
+
+    private def parseTime(value: String): Long = {
+        Try(value.toLong).getOrElse(Instant.parse(value).toEpochMilli)
+    }
+
+    def parseFlowQuery(cl: CommandLine): Try[FlowHistoryQuery] = Try {
+        def value(name: String) = scala.Option(cl.getOptionValue(name))
+        FlowHistoryQuery(
+            from = value("from").map(parseTime).getOrElse(0L),
+            to = value("to").map(parseTime).getOrElse(Long.MaxValue),
+            device = value("device").map(UUID.fromString),
+            networkProto = value("proto").map(_.toInt),
+            networkSrc = value("src-ip").map(IPv4Addr.fromString),
+            networkDst = value("dst-ip").map(IPv4Addr.fromString),
+            srcPort = value("src-port").map(_.toInt),
+            dstPort = value("dst-port").map(_.toInt))
+    }
+
+    /** Prints the flow records in the local flow history store that match
+      * the query, one JSON record per line, preceded by the record time. */
+    def queryFlows(directory: File, query: FlowHistoryQuery): MmCtlRetCode = {
+        val binary = new BinarySerialization
+        val json = new JsonSerialization
+        try {
+            val count = FlowHistoryStore.query(directory, query) {
+                (time: Long, record: ByteBuffer) =>
+                    val bytes = new Array[Byte](record.remaining())
+                    record.get(bytes)
+                    val flow = binary.bufferToFlowRecord(bytes)
+                    System.out.println(
+                        s"${Instant.ofEpochMilli(time)} " +
+                        new String(json.flowRecordToBuffer(flow),
+                                   StandardCharsets.UTF_8))
+            }
+            System.err.println(s"$count flow record(s) found")
+            SUCCESS
+        } catch {
+            case NonFatal(t) =>
+                t.printStackTrace(System.err)
+                UNKNOWN_ERROR
+        }
+    }
+
     def checkUserAccess() = {
         if (new UnixSystem().getUid != 0) {
             System.err.println("This command should be executed by root.")
@@ -152,12 +240,24 @@ object MmCtl {
         // Configure the CLI options
         val options = new Options
         options.addOptionGroup(getMutuallyExclusiveOptionGroup)
+        getFlowQueryOptions.foreach(options.addOption)
 
         val parser = new PosixParser
         val cl = parser.parse(options, args)
-        val mmctl = new MmCtl(getInjector)
+        lazy val mmctl = new MmCtl(getInjector)
+
+        val res: MmCtlRetCode = if (cl.hasOption("query-flows")) {
+            // Querying the local flow history does not require the backend.
+            val directory = scala.Option(cl.getOptionValue("flow-history-dir"))
+                .map(new File(_))
+                .getOrElse(getFlowHistoryDirectory)
+            parseFlowQuery(cl) match {
+                case Success(query) => queryFlows(directory, query)
+                case Failure(e) => BAD_COMMAND(
+                    s"Invalid flow query: ${e.getMessage}")
+            }
 
-        val res: MmCtlRetCode = if (cl.hasOption("bind-port")) {
+        } else if (cl.hasOption("bind-port")) {
             val opts = cl.getOptionValues("bind-port")
 
             if (opts != null && opts.length >= 2) {
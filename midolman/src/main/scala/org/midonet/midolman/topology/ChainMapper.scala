@@ -31,7 +31,7 @@ import org.midonet.cluster.data.storage.NotFoundException
 import org.midonet.cluster.models.Topology.{Chain => TopologyChain, Rule => TopologyRule}
 import org.midonet.cluster.util.UUIDUtil.asRichProtoUuid
 import org.midonet.midolman.logging.MidolmanLogging
-import org.midonet.midolman.rules.{JumpRule, Rule => SimRule}
+import org.midonet.midolman.rules.{JumpRule, RuleClassifier, Rule => SimRule}
 import org.midonet.midolman.simulation.{RuleLogger, Chain => SimChain, IPAddrGroup => SimIPAddrGroup}
 import org.midonet.midolman.topology.ChainMapper.{IpAddressGroupState, RuleState}
 import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1}
@@ -386,10 +386,14 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         val metadata = encodeMetadata(
             chainProto.getMetadataList.asScala.map(e => (e.getKey, e.getValue)))
 
-        ruleLoggerTracker.currentRefs.values.toSeq
+        val classifier =
+            if (vt.config.compiledChains) RuleClassifier.compile(ruleList)
+            else null
+
         val chain = new SimChain(chainId, ruleList, chainMap,
                                  chainProto.getName, metadata,
-                                 ruleLoggerTracker.currentRefs.values.toSeq)
+                                 ruleLoggerTracker.currentRefs.values.toSeq,
+                                 classifier)
         log.debug("Emitting {}", chain)
         chain
     }
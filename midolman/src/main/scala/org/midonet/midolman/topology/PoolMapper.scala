@@ -32,6 +32,7 @@ import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.simulation.{Pool => SimulationPool, PoolMember => SimulationPoolMember, Vip => SimulationVip}
 import org.midonet.midolman.state.l4lb.{LBStatus, PoolLBMethod, SessionPersistence}
 import org.midonet.midolman.topology.DeviceMapper.DeviceState
+import org.midonet.util.collection.MaglevTable
 import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1}
 
 /**
@@ -52,6 +53,9 @@ final class PoolMapper(poolId: UUID, vt: VirtualTopology)
         new mutable.HashMap[UUID, DeviceState[SimulationPoolMember]]
     private val vips =
         new mutable.HashMap[UUID, DeviceState[SimulationVip]]
+    // The Maglev lookup table for the active pool members, which is rebuilt
+    // only when the identifiers or the weights of the active members change.
+    private var maglevTable: MaglevTable[SimulationPoolMember] = null
 
     // A subject that emits a pool member observable for every pool member added
     // to the pool.
@@ -187,23 +191,51 @@ final class PoolMapper(poolId: UUID, vt: VirtualTopology)
         val activePoolMembers = allMembers.filter(_.isUp)
         val disabledPoolMembers = allMembers.filterNot(_.adminStateUp)
         val allVips = vipIds.flatMap(vips.get).map(_.device)
+        val lbMethod =
+            if (pool.hasLbMethod) PoolLBMethod.fromProto(pool.getLbMethod)
+            else null
 
         // Create the simulation pool.
         val device = new SimulationPool(
             pool.getId,
             pool.getAdminStateUp,
-            if (pool.hasLbMethod) PoolLBMethod.fromProto(pool.getLbMethod) else null,
+            lbMethod,
             if (pool.hasHealthMonitorId) pool.getHealthMonitorId else null,
             if (pool.hasLoadBalancerId) pool.getLoadBalancerId else null,
             if (pool.hasSessionPersistence) SessionPersistence.fromProto(pool.getSessionPersistence) else null,
             allMembers,
             activePoolMembers,
             disabledPoolMembers,
-            allVips.toArray)
+            allVips.toArray,
+            buildMaglevTable(lbMethod, activePoolMembers))
         log.debug("Building pool {}", device)
         device
     }
 
+    /**
+     * Returns the Maglev lookup table for the given active pool members, if
+     * the pool uses the Maglev load balancing method. The lookup entries of
+     * the current table are reused if the identifiers and the weights of the
+     * active members did not change.
+     */
+    private def buildMaglevTable(lbMethod: PoolLBMethod,
+                                 activePoolMembers: Array[SimulationPoolMember])
+    : MaglevTable[SimulationPoolMember] = {
+        if (lbMethod != PoolLBMethod.MAGLEV ||
+            !activePoolMembers.exists(_.weight > 0)) {
+            maglevTable = null
+        } else {
+            val start = System.nanoTime()
+            maglevTable =
+                if (maglevTable eq null) MaglevTable(activePoolMembers)(_.id)
+                else maglevTable.update(activePoolMembers)(_.id)
+            log.debug("Updated Maglev table for {} members in {} ms",
+                      Int.box(activePoolMembers.length),
+                      Long.box((System.nanoTime() - start) / 1000000))
+        }
+        maglevTable
+    }
+
     private def allMembersWithStatus: Array[SimulationPoolMember] = {
         memberIds.map { id =>
             val m = members(id).device
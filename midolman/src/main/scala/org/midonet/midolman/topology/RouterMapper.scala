@@ -30,11 +30,12 @@ import rx.subjects.{PublishSubject, Subject}
 import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.models.Commons.IPVersion
 import org.midonet.cluster.models.Topology.{Route => TopologyRoute, Router => TopologyRouter}
+import org.midonet.cluster.state.RouteTableUpdate
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.CallbackRegistry
 import org.midonet.midolman.CallbackRegistry.{CallbackSpec, SerializableCallback}
-import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
+import org.midonet.midolman.layer3.{IPv4LpmRoutingTable, IPv4RoutingTable, Route, RoutingTableIfc}
 import org.midonet.midolman.simulation.Router.{Config, RoutingTable, TagManager}
 import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
@@ -89,6 +90,12 @@ object RouterMapper {
         // port.
         private val routesCache = new mutable.HashSet[Route]
 
+        // The learned routes from the port routes state key, and from the port
+        // bulk route table. A route is removed from the routes cache only when
+        // it is no longer learned from either.
+        private var learnedRoutes = EmptyRouteSet
+        private val tableRoutes = new mutable.HashSet[Route]
+
         private val portStateSubject = PublishSubject.create[UUID]
         private var portStateReady = false
 
@@ -102,6 +109,10 @@ object RouterMapper {
             .portRoutesObservable(portId, portStateSubject)
             .observeOn(vt.vtScheduler)
             .map[RouteUpdates](makeFunc1(learnedRoutesUpdated))
+        private val routeTableObservable = vt.stateStore
+            .portRouteTableObservable(portId, portStateSubject)
+            .observeOn(vt.vtScheduler)
+            .map[RouteUpdates](makeFunc1(routeTableUpdated))
 
         // The output observable for this port state. It merges the
         // notifications for port and route updates, and emits route updates
@@ -118,9 +129,14 @@ object RouterMapper {
         //                                                 |
         //                        +----------------------+ |
         // State[Port, Routes] -> | learnedRoutesUpdated |-+
-        //                        +----------------------+
+        //                        +----------------------+ |
+        //                                                 |
+        //                           +-------------------+ |
+        // State[Port, RouteTable] ->| routeTableUpdated |-+
+        //                           +-------------------+
         val observable = Observable.merge(routesObservable,
                                           learnedRoutesObservable,
+                                          routeTableObservable,
                                           portObservable)
             .onErrorResumeNext(Observable.just(RouteUpdates(EmptyRouteSet,
                                                             publishedRoutes)))
@@ -247,6 +263,7 @@ object RouterMapper {
             log.debug("Learned port routes updated: {} routes",
                       Int.box(routes.size))
             portStateReady = true
+            learnedRoutes = routes
 
             val added = new mutable.HashSet[Route]
             val removed = new mutable.HashSet[Route]
@@ -256,7 +273,8 @@ object RouterMapper {
             }
 
             for (route <- routesCache
-                 if route.learned && !routes.contains(route)) {
+                 if route.learned && !routes.contains(route) &&
+                    !tableRoutes.contains(route)) {
                 removed += route
             }
 
@@ -267,6 +285,30 @@ object RouterMapper {
             else EmptyRouteUpdates
         }
 
+        /** A method called when the bulk route table of the port is updated.
+          * Unlike the learned routes, the route table emits only the routes
+          * added and removed since the previous update, which are applied
+          * to the routes cache. */
+        private def routeTableUpdated(update: RouteTableUpdate): RouteUpdates = {
+            vt.assertThread()
+            log.debug("Port route table updated: {} routes added {} routes " +
+                      "removed", Int.box(update.added.size),
+                      Int.box(update.removed.size))
+
+            tableRoutes ++= update.added
+            tableRoutes --= update.removed
+
+            val added = update.added.filterNot(routesCache.contains)
+            val removed = update.removed.filter(route =>
+                routesCache.contains(route) && !learnedRoutes.contains(route))
+
+            routesCache ++= added
+            routesCache --= removed
+
+            if (isPublishingRoutes) RouteUpdates(added, removed)
+            else EmptyRouteUpdates
+        }
+
         /** Indicates whether the state has currently published routes. */
         private def isPublishingRoutes: Boolean = {
             (currentPort ne null) && currentPort.adminStateUp &&
@@ -384,13 +426,14 @@ object RouterMapper {
      * Provides an implementation for a router's [[RoutingTable]], wrapping an
      * underlying IPv4 routing table.
      */
-    private class RouterRoutingTable(routes: mutable.Set[Route])
+    private class RouterRoutingTable(ipv4RoutingTable: RoutingTableIfc[IPv4Addr])
         extends RoutingTable {
 
-        private val ipv4RoutingTable = new IPv4RoutingTable()
-
-        for (route <- routes) {
-            ipv4RoutingTable.addRoute(route)
+        def this(routes: mutable.Set[Route]) = {
+            this(new IPv4RoutingTable())
+            for (route <- routes) {
+                ipv4RoutingTable.addRoute(route)
+            }
         }
 
         override def lookup(flowMatch: FlowMatch): java.util.List[Route] = {
@@ -443,6 +486,12 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     // Stores all routes received via notifications from the replicated routing
     // table.
     private val routes = new mutable.HashSet[Route]
+    // Maintains incrementally the compressed routing table with the same
+    // routes, when enabled, such that building a router takes a snapshot
+    // sharing the unmodified trie chunks instead of inserting every route.
+    private val lpmRoutingTable =
+        if (vt.config.router.compressedRoutingTable) new IPv4LpmRoutingTable
+        else null
     // Stores routes received via the router's configuration in storage.
     private val localRoutes = new mutable.HashMap[UUID, RouteState]
     private var arpCache: ArpCache = null
@@ -719,6 +768,10 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         // Update the current routes.
         routes ++= routeUpdates.added
         routes --= routeUpdates.removed
+        if (lpmRoutingTable ne null) {
+            routeUpdates.added.foreach(lpmRoutingTable.addRoute)
+            routeUpdates.removed.foreach(lpmRoutingTable.deleteRoute)
+        }
         vt.tellBackChannel(InvalidateFlows(
             id, routeUpdates.added, routeUpdates.removed))
         config
@@ -769,7 +822,9 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         val device = new SimulationRouter(
             routerId,
             config2,
-            new RouterRoutingTable(routes),
+            if (lpmRoutingTable ne null)
+                new RouterRoutingTable(lpmRoutingTable.snapshot())
+            else new RouterRoutingTable(routes),
             tagManager,
             vniToPort.asJava,
             arpCache,
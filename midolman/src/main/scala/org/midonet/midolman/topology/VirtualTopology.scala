@@ -193,7 +193,8 @@ class VirtualTopology(val backend: MidonetBackend,
 
     private[topology] val metrics = new VirtualTopologyMetrics(
         metricRegistry, { devices.size() }, { observables.size() },
-        { cacheHits.get() }, {  cacheMisses.get() })
+        { cacheHits.get() }, {  cacheMisses.get() },
+        { snapshotCount(_.reconciledCount) }, { snapshotCount(_.staleCount) })
 
     private val traceChains = mutable.Map[UUID, Subject[Chain, Chain]]()
 
@@ -264,25 +265,33 @@ class VirtualTopology(val backend: MidonetBackend,
                     .roundRobin[MidonetServiceURI](client)
                 val cacheClient = new TopologyCacheClientDiscovery(
                     discoverySelector,
-                    None)
-                val init = System.nanoTime()
+                    None,
+                    config.initialStorageCache.compression,
+                    config.initialStorageCache.snapshotTimeoutMs)
 
                 retry(log.underlying, "Fetch topology snapshot from cluster") {
+                    val init = System.nanoTime()
                     val snapshotArray = cacheClient.fetch()
-                    val elapsedReceived = (System.nanoTime() - init) / 1000000
-                    log.debug("Topology snapshot received from cluster " +
-                              s"in $elapsedReceived ms.")
+                    val received = System.nanoTime()
+                    metrics.snapshotDownloadTimer.update(
+                        received - init, TimeUnit.NANOSECONDS)
+                    log.debug(s"Topology snapshot of ${snapshotArray.length} " +
+                              "bytes received from cluster in " +
+                              s"${(received - init) / 1000000} ms.")
 
                     val snapshotDecoded = new TopologySnapshotDeserializer()
                         .deserialize(snapshotArray)
-                    val elapsedDecoded =
-                        ((System.nanoTime() - init) / 1000000) - elapsedReceived
-                    log.debug(s"Topology snapshot decoded in $elapsedDecoded ms.")
+                    val decoded = System.nanoTime()
+                    metrics.snapshotDecodeTimer.update(
+                        decoded - received, TimeUnit.NANOSECONDS)
+                    log.debug("Topology snapshot decoded in " +
+                              s"${(decoded - received) / 1000000} ms.")
                     snapshotDecoded
                 }
             } catch {
                 case NonFatal(e) =>
                     log.warn("Unable to get topology snapshot from cluster", e)
+                    metrics.snapshotFailureCounter.inc()
                     null
             }
         } else null
@@ -292,7 +301,18 @@ class VirtualTopology(val backend: MidonetBackend,
             val wrapper = new StorageWrapper(config.initialStorageCache.ttlMs,
                                              backend.store,
                                              snapshot.objectSnapshot)
-            worker.schedule(makeAction0(wrapper.invalidateCache()),
+            val serving = System.nanoTime()
+            worker.schedule(makeAction0 {
+                                wrapper.invalidateCache()
+                                metrics.snapshotServingTimer.update(
+                                    System.nanoTime() - serving,
+                                    TimeUnit.NANOSECONDS)
+                                log.info("Topology snapshot served for " +
+                                         s"${config.initialStorageCache.ttlMs} " +
+                                         s"ms: ${wrapper.reconciledCount} " +
+                                         "objects reconciled unchanged and " +
+                                         s"${wrapper.staleCount} stale")
+                            },
                             config.initialStorageCache.ttlMs,
                             TimeUnit.MILLISECONDS)
             wrapper
@@ -310,6 +330,11 @@ class VirtualTopology(val backend: MidonetBackend,
         notifyStopped()
     }
 
+    private def snapshotCount(f: StorageWrapper => Long): Long = store match {
+        case wrapper: StorageWrapper => f(wrapper)
+        case _ => 0L
+    }
+
     private def observableOf[D <: Device](clazz: Class[D], id: UUID)
     : Observable[D] = {
         val factory = factories.getOrElse(
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.sdn.state
+
+import java.nio.{ByteBuffer, ByteOrder}
+
+import scala.concurrent.duration.Duration
+
+import org.midonet.Util
+import org.midonet.util.collection.{IntTimerWheel, Reducer}
+import org.midonet.util.concurrent.TimedExpirationMap
+import org.midonet.util.logging.Logger
+
+/**
+ * Encodes the keys and values of a flow state table into the fixed-width
+ * slots of a [[DirectFlowStateMap]]. Keys are hashed and compared in place,
+ * such that looking up a key neither allocates nor materializes the stored
+ * keys.
+ */
+trait FlowStateCodec[K, V] {
+    /** The size in bytes of an encoded key. */
+    def keySize: Int
+
+    /** The size in bytes of an encoded value. */
+    def valueSize: Int
+
+    /** Computes the hash of a key, which must be consistent with the encoded
+      * key equality. */
+    def hash(key: K): Int
+
+    /** Returns whether the key equals the key encoded at the given offset. */
+    def keyEquals(key: K, buf: ByteBuffer, offset: Int): Boolean
+
+    def writeKey(key: K, buf: ByteBuffer, offset: Int): Unit
+
+    def readKey(buf: ByteBuffer, offset: Int): K
+
+    def writeValue(value: V, buf: ByteBuffer, offset: Int): Unit
+
+    def readValue(buf: ByteBuffer, offset: Int): V
+}
+
+object DirectFlowStateMap {
+    private final val Empty = 0
+    private final val Used = 1
+    private final val Deleted = 2
+
+    // Slot header: state, key hash, reference count and expiration time.
+    private final val StateOffset = 0
+    private final val HashOffset = 4
+    private final val RefCountOffset = 8
+    private final val ExpirationOffset = 16
+    private final val HeaderSize = 24
+
+    private final val MinCapacity = 16
+    private final val MaxBufferSize = Int.MaxValue
+
+    @inline private def spread(hash: Int): Int = {
+        val h = hash * 0x9e3779b9
+        h ^ (h >>> 16)
+    }
+}
+
+/**
+ * A [[TimedExpirationMap]] storing its entries in fixed-width slots of a
+ * direct buffer, such that the table does not contribute objects to the JVM
+ * heap regardless of the number of entries. Each slot contains a header with
+ * the reference count and the expiration time of the entry, followed by the
+ * encoded key and value.
+ *
+ * The slots are indexed by open addressing with linear probing, and the
+ * buffer is reallocated with twice the capacity when the load factor exceeds
+ * 3/4. Idle entries are scheduled by slot index in an [[IntTimerWheel]],
+ * such that obliterateIdleEntries() only visits the entries due since its
+ * previous call, without allocating an object per idle entry.
+ *
+ * All operations synchronize on the map. The map is meant to back a shard
+ * of a [[DirectShardedFlowStateTable]], which is mostly accessed by the
+ * owning packet worker, such that the lock is rarely contended. Like the
+ * other maps, an entry being expired has a reference count of -1 while the
+ * reducer is called, and is only removed afterwards.
+ */
+final class DirectFlowStateMap[K <: AnyRef, V >: Null](
+        log: Logger,
+        expirationFor: K => Duration,
+        codec: FlowStateCodec[K, V],
+        initialCapacity: Int)
+    extends TimedExpirationMap[K, V] {
+
+    import DirectFlowStateMap._
+
+    private val keyOffset = HeaderSize
+    private val valueOffset = HeaderSize + codec.keySize
+    private val slotSize = (HeaderSize + codec.keySize + codec.valueSize + 7) & ~7
+    private val maxCapacity = Integer.highestOneBit(MaxBufferSize / slotSize)
+
+    private var capacity = Math.min(maxCapacity, Util.findNextPositivePowerOfTwo(
+        Math.max(initialCapacity, MinCapacity)))
+    private var mask = capacity - 1
+    private var slots = allocate(capacity)
+    private var entries = 0
+    private var occupied = 0
+
+    private val wheel =
+        new IntTimerWheel(TimedExpirationMap.WheelResolutionMillis)
+    private var lastTimeMillis = 0L
+    private var expiring = false
+
+    private def logger = log.wrapper
+
+    /** The number of entries in the map. */
+    def size: Int = synchronized { entries }
+
+    override def putAndRef(key: K, value: V): V = synchronized {
+        val hash = spread(codec.hash(key))
+        val index = find(key, hash)
+        if (index >= 0) {
+            val offset = index * slotSize
+            val count = slots.getInt(offset + RefCountOffset)
+            val oldValue = if (count < 0) null
+                           else codec.readValue(slots, offset + valueOffset)
+            slots.putInt(offset + RefCountOffset, Math.max(count, 0) + 1)
+            codec.writeValue(value, slots, offset + valueOffset)
+            oldValue
+        } else {
+            insert(key, hash, value)
+            null
+        }
+    }
+
+    override def putIfAbsentAndRef(key: K, value: V): Int = synchronized {
+        val hash = spread(codec.hash(key))
+        val index = find(key, hash)
+        if (index >= 0) {
+            val offset = index * slotSize
+            val count = slots.getInt(offset + RefCountOffset)
+            if (count < 0) {
+                codec.writeValue(value, slots, offset + valueOffset)
+                slots.putInt(offset + RefCountOffset, 1)
+                1
+            } else {
+                slots.putInt(offset + RefCountOffset, count + 1)
+                count + 1
+            }
+        } else {
+            insert(key, hash, value)
+            1
+        }
+    }
+
+    override def get(key: K): V = synchronized {
+        val index = find(key, spread(codec.hash(key)))
+        if (index >= 0 &&
+            slots.getInt(index * slotSize + RefCountOffset) >= 0) {
+            codec.readValue(slots, index * slotSize + valueOffset)
+        } else null
+    }
+
+    override def fold[U](seed: U, func: Reducer[K, V, U]): U = synchronized {
+        var acc = seed
+        var index = 0
+        while (index < capacity) {
+            val offset = index * slotSize
+            if (slots.getInt(offset + StateOffset) == Used) {
+                acc = func(acc, codec.readKey(slots, offset + keyOffset),
+                           codec.readValue(slots, offset + valueOffset))
+            }
+            index += 1
+        }
+        acc
+    }
+
+    override def ref(key: K): V = synchronized {
+        val index = find(key, spread(codec.hash(key)))
+        if (index >= 0) {
+            val offset = index * slotSize
+            val count = slots.getInt(offset + RefCountOffset)
+            if (count >= 0) {
+                slots.putInt(offset + RefCountOffset, count + 1)
+                codec.readValue(slots, offset + valueOffset)
+            } else null
+        } else null
+    }
+
+    override def refAndGetCount(key: K): Int = synchronized {
+        val index = find(key, spread(codec.hash(key)))
+        if (index >= 0) {
+            val offset = index * slotSize
+            val count = slots.getInt(offset + RefCountOffset)
+            if (count >= 0) {
+                slots.putInt(offset + RefCountOffset, count + 1)
+                count + 1
+            } else 0
+        } else 0
+    }
+
+    override def refCount(key: K): Int = synchronized {
+        val index = find(key, spread(codec.hash(key)))
+        if (index >= 0) slots.getInt(index * slotSize + RefCountOffset)
+        else 0
+    }
+
+    override def unref(key: K, currentTimeMillis: Long): V = synchronized {
+        val index = find(key, spread(codec.hash(key)))
+        if (index < 0) {
+            return null
+        }
+        val offset = index * slotSize
+        val value = codec.readValue(slots, offset + valueOffset)
+        val count = slots.getInt(offset + RefCountOffset)
+        if (count <= 0) {
+            logger.error(log.marker, s"Decrement a ref count past 0 for $key")
+        } else if (count == 1) {
+            logger.debug(log.marker, s"Scheduling removal of $key")
+            val expiration = currentTimeMillis + expirationFor(key).toMillis
+            slots.putInt(offset + RefCountOffset, 0)
+            slots.putLong(offset + ExpirationOffset, expiration)
+            lastTimeMillis = currentTimeMillis
+            wheel.schedule(index, expiration, currentTimeMillis)
+        } else {
+            slots.putInt(offset + RefCountOffset, count - 1)
+        }
+        value
+    }
+
+    override def obliterateIdleEntries[U](currentTimeMillis: Long): Unit =
+        obliterateIdleEntries(currentTimeMillis, (), identityReducer)
+
+    override def obliterateIdleEntries[U](currentTimeMillis: Long, seed: U,
+                                          reducer: Reducer[K, V, U])
+    : U = synchronized {
+        lastTimeMillis = currentTimeMillis
+        var acc = seed
+        expiring = true
+        try {
+            var index = wheel.poll(currentTimeMillis)
+            while (index >= 0) {
+                // The slot may have been referenced, expired or reused since
+                // it was scheduled, in which case it is either not idle or
+                // scheduled again with its current expiration.
+                val offset = index * slotSize
+                if (slots.getInt(offset + StateOffset) == Used &&
+                    slots.getInt(offset + RefCountOffset) == 0 &&
+                    slots.getLong(offset + ExpirationOffset) <=
+                        currentTimeMillis) {
+                    acc = expire(index, acc, reducer)
+                }
+                index = wheel.poll(currentTimeMillis)
+            }
+        } finally {
+            expiring = false
+        }
+        acc
+    }
+
+    private def expire[U](index: Int, seed: U, reducer: Reducer[K, V, U]): U = {
+        val offset = index * slotSize
+        val key = codec.readKey(slots, offset + keyOffset)
+        logger.debug(log.marker, s"Forgetting entry $key")
+        // The entry is removed after calling the reducer, as explained in
+        // the TimedExpirationMap header.
+        slots.putInt(offset + RefCountOffset, -1)
+        val acc = reducer(seed, key,
+                          codec.readValue(slots, offset + valueOffset))
+        if (slots.getInt(offset + RefCountOffset) == -1) {
+            slots.putInt(offset + StateOffset, Deleted)
+            entries -= 1
+        }
+        acc
+    }
+
+    private def find(key: K, hash: Int): Int = {
+        var index = hash & mask
+        var probes = 0
+        while (probes < capacity) {
+            val offset = index * slotSize
+            val state = slots.getInt(offset + StateOffset)
+            if (state == Empty) {
+                return -1
+            }
+            if (state == Used && slots.getInt(offset + HashOffset) == hash &&
+                codec.keyEquals(key, slots, offset + keyOffset)) {
+                return index
+            }
+            index = (index + 1) & mask
+            probes += 1
+        }
+        -1
+    }
+
+    private def insert(key: K, hash: Int, value: V): Unit = {
+        // Entries added by a reducer while expiring do not resize the slots
+        // being visited, unless they are full.
+        if ((occupied + 1) * 4L > capacity * 3L &&
+            (!expiring || occupied + 1 >= capacity)) {
+            resize(if ((entries + 1) * 2L > capacity) capacity << 1
+                   else capacity)
+        }
+        var index = hash & mask
+        var state = slots.getInt(index * slotSize + StateOffset)
+        while (state == Used) {
+            index = (index + 1) & mask
+            state = slots.getInt(index * slotSize + StateOffset)
+        }
+        if (state == Empty) {
+            occupied += 1
+        }
+        val offset = index * slotSize
+        slots.putInt(offset + StateOffset, Used)
+        slots.putInt(offset + HashOffset, hash)
+        slots.putInt(offset + RefCountOffset, 1)
+        slots.putLong(offset + ExpirationOffset, Long.MaxValue)
+        codec.writeKey(key, slots, offset + keyOffset)
+        codec.writeValue(value, slots, offset + valueOffset)
+        entries += 1
+        logger.debug(log.marker, s"Incrementing reference count of $key to 1")
+    }
+
+    /**
+     * Reallocates the slots with the given capacity, which removes the
+     * deleted slots, and reschedules the idle entries since their indices
+     * change.
+     */
+    private def resize(newCapacity: Int): Unit = {
+        if (newCapacity > maxCapacity) {
+            throw new IllegalStateException(
+                s"Flow state table cannot grow beyond $maxCapacity entries")
+        }
+        val oldSlots = slots
+        val oldCapacity = capacity
+        capacity = newCapacity
+        mask = newCapacity - 1
+        slots = allocate(newCapacity)
+        occupied = 0
+        wheel.clear()
+
+        var oldIndex = 0
+        while (oldIndex < oldCapacity) {
+            val oldOffset = oldIndex * slotSize
+            if (oldSlots.getInt(oldOffset + StateOffset) == Used) {
+                var index = oldSlots.getInt(oldOffset + HashOffset) & mask
+                while (slots.getInt(index * slotSize + StateOffset) != Empty) {
+                    index = (index + 1) & mask
+                }
+                val offset = index * slotSize
+                var i = 0
+                while (i < slotSize) {
+                    slots.putLong(offset + i, oldSlots.getLong(oldOffset + i))
+                    i += 8
+                }
+                occupied += 1
+                if (slots.getInt(offset + RefCountOffset) == 0) {
+                    wheel.schedule(index,
+                                   slots.getLong(offset + ExpirationOffset),
+                                   lastTimeMillis)
+                }
+            }
+            oldIndex += 1
+        }
+        logger.debug(log.marker, s"Resized flow state table to $newCapacity " +
+                                 s"slots with $entries entries")
+    }
+
+    private def allocate(capacity: Int): ByteBuffer =
+        ByteBuffer.allocateDirect(capacity * slotSize)
+                  .order(ByteOrder.nativeOrder())
+}
@@ -236,3 +236,18 @@ class OffHeapShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         }
     }
 }
+
+class DirectShardedFlowStateTable[K <: IdleExpiration, V >: Null]
+    (clock: NanoClock = NanoClock.DEFAULT,
+     codec: FlowStateCodec[K, V],
+     initialCapacity: Int)
+        extends BaseShardedFlowStateTable[K, V](clock) {
+
+    override protected def newShard(workerId: Int,
+                                    log: Logger): FlowStateShard = {
+        new FlowStateShard(workerId, log) {
+            override val map = new DirectFlowStateMap[K, V](
+                log, _.expiresAfter, codec, initialCapacity)
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+import java.util.{ArrayList => JArrayList, Collections, UUID}
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.rules.{Condition, LiteralRule, Rule, RuleClassifier, RuleResult}
+import org.midonet.midolman.simulation.{Chain, PacketContext}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, IPv4Subnet, TCP}
+import org.midonet.util.Range
+
+/**
+  * Compares the linear evaluation of a chain modelling a security group with
+  * the evaluation using a compiled rule classifier. The packet matches none
+  * of the rules, which is the worst case for the linear evaluation.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+@State(Scope.Benchmark)
+class ChainBenchmark {
+
+    @Param(Array("10", "100", "1000"))
+    var rulesCount: Int = _
+
+    var linearChain: Chain = _
+    var compiledChain: Chain = _
+    var context: PacketContext = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val random = new Random(0x5eed)
+        val rules = new JArrayList[Rule](rulesCount)
+        for (index <- 0 until rulesCount) {
+            val cond = new Condition()
+            cond.etherType = IPv4.ETHERTYPE.toInt
+            cond.nwProto = TCP.PROTOCOL_NUMBER
+            cond.nwSrcIp = new IPv4Subnet(0x0a000000 | (index << 8), 24)
+            val port = 1024 + random.nextInt(30000)
+            cond.tpDst = new Range[Integer](port, port + random.nextInt(16))
+            val rule = new LiteralRule(cond, Action.ACCEPT)
+            rule.id = UUID.randomUUID()
+            rules.add(rule)
+        }
+
+        linearChain = new Chain(UUID.randomUUID(), rules,
+                                Collections.emptyMap(), "linear")
+        compiledChain = new Chain(UUID.randomUUID(), rules,
+                                  Collections.emptyMap(), "compiled",
+                                  classifier = RuleClassifier.compile(rules))
+
+        val fmatch = new FlowMatch()
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString("192.168.0.1"))
+            .setNetworkDst(IPv4Addr.fromString("192.168.0.2"))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(40000)
+            .setDstPort(80)
+        context = PacketContext.generated(1, null, fmatch)
+    }
+
+    private def process(chain: Chain): RuleResult = {
+        context.resetRecordedContext()
+        context.flowTags.clear()
+        chain.process(context)
+    }
+
+    @Benchmark
+    def linear(): RuleResult = process(linearChain)
+
+    @Benchmark
+    def compiled(): RuleResult = process(compiledChain)
+}
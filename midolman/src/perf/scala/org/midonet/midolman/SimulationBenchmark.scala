@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+import java.util.{LinkedList => JLinkedList, UUID}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.PacketWorkflow.SimulationResult
+import org.midonet.midolman.layer3.Route.{NO_GATEWAY, NextHop}
+import org.midonet.midolman.rules.{Condition, NatTarget, RuleResult}
+import org.midonet.midolman.simulation.{Bridge, ForwardingDevice, PacketContext, Router, RouterPort}
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
+import org.midonet.midolman.state.NatState.NatKey
+import org.midonet.midolman.util.MockPacketWorkflow
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.packets.NatState.NatBinding
+import org.midonet.packets._
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.sdn.state.{FlowStateTransaction, OnHeapShardedFlowStateTable}
+import org.midonet.util.Range
+
+/**
+  * Measures the simulation of a TCP packet through synthetic topologies:
+  *
+  *  - bridge: a bridge forwarding between two exterior ports.
+  *  - router: a router forwarding between two exterior ports.
+  *  - nat: the router topology with a SNAT rule on the router outbound
+  *    chain.
+  *  - securitygroup: the bridge topology with a security group chain of
+  *    100 rules on the ingress port, where only the last rule matches.
+  *  - l4lb: the router topology with a load balancer, where the packet is
+  *    sent to a VIP.
+  *
+  * For every topology, the `simulation` benchmark measures the simulation of
+  * the packet from the ingress port, the `ingressDevice` benchmark measures
+  * only the ingress bridge or router, and the `workflow` benchmark measures
+  * the packet workflow handling the packet from the datapath upcall to the
+  * flow creation. Run with the `gc` profiler to measure the allocation rate.
+  */
+@BenchmarkMode(Array(Mode.Throughput, Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+@State(Scope.Benchmark)
+class SimulationBenchmark extends MidolmanBenchmark {
+
+    @Param(Array("bridge", "router", "nat", "securitygroup", "l4lb"))
+    var topology: String = _
+
+    val securityGroupRules = 100
+
+    val clientMac = MAC.random()
+    val serverMac = MAC.random()
+    val clientIp = IPv4Addr.fromString("10.0.0.1")
+    val serverIp = IPv4Addr.fromString("10.0.1.1")
+    val vipIp = IPv4Addr.fromString("10.0.2.1")
+    val clientPortSubnet = new IPv4Subnet("10.0.0.254", 24)
+    val serverPortSubnet = new IPv4Subnet("10.0.1.254", 24)
+
+    var ingressPortId: UUID = _
+    var egressPortId: UUID = _
+    var ingressDeviceId: UUID = _
+    var frame: Ethernet = _
+
+    var device: ForwardingDevice = _
+    var context: PacketContext = _
+    var pktWorkflow: MockPacketWorkflow = _
+    val packetCtxTrap = new JLinkedList[PacketContext]()
+
+    implicit var conntrackTx: FlowStateTransaction[ConnTrackKey, ConnTrackValue] = _
+    implicit var natTx: FlowStateTransaction[NatKey, NatBinding] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        newHost("myself", hostId)
+        topology match {
+            case "bridge" => buildBridge(withSecurityGroup = false)
+            case "securitygroup" => buildBridge(withSecurityGroup = true)
+            case "router" => buildRouter(withNat = false, withLoadBalancer = false)
+            case "nat" => buildRouter(withNat = true, withLoadBalancer = false)
+            case "l4lb" => buildRouter(withNat = false, withLoadBalancer = true)
+        }
+
+        val conntrackTable =
+            new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](clock)
+        val natTable =
+            new OnHeapShardedFlowStateTable[NatKey, NatBinding](clock)
+        conntrackTx = new FlowStateTransaction(conntrackTable.addShard())
+        natTx = new FlowStateTransaction(natTable.addShard())
+
+        context = packetContextFor(frame, ingressPortId)
+        pktWorkflow = packetWorkflow(
+            dpPortToVport = Map(1 -> ingressPortId, 2 -> egressPortId),
+            packetCtxTrap = packetCtxTrap,
+            conntrackTable = conntrackTable.addShard(),
+            natTable = natTable.addShard())
+    }
+
+    private def buildBridge(withSecurityGroup: Boolean): Unit = {
+        ingressDeviceId = newBridge("bridge")
+        ingressPortId = newBridgePort(ingressDeviceId)
+        egressPortId = newBridgePort(ingressDeviceId)
+        materializePort(ingressPortId, hostId, "port0")
+        materializePort(egressPortId, hostId, "port1")
+
+        if (withSecurityGroup) {
+            val chain = newInboundChainOnPort("security-group", ingressPortId)
+            for (index <- 0 until securityGroupRules - 1) {
+                val cond = new Condition()
+                cond.nwProto = TCP.PROTOCOL_NUMBER
+                cond.nwSrcIp = new IPv4Subnet(0xac100000 | (index << 8), 24)
+                cond.tpDst = new Range[Integer](1024 + index)
+                newLiteralRuleOnChain(chain, index + 1, cond,
+                                      RuleResult.Action.ACCEPT)
+            }
+            val cond = new Condition()
+            cond.nwProto = TCP.PROTOCOL_NUMBER
+            cond.nwSrcIp = new IPv4Subnet(clientIp, 24)
+            cond.tpDst = new Range[Integer](80)
+            newLiteralRuleOnChain(chain, securityGroupRules, cond,
+                                  RuleResult.Action.ACCEPT)
+            fetchChains(chain)
+        }
+        fetchPorts(ingressPortId, egressPortId)
+
+        val bridge = fetchDevice[Bridge](ingressDeviceId)
+        feedMacTable(bridge, clientMac, ingressPortId)
+        feedMacTable(bridge, serverMac, egressPortId)
+        device = bridge
+
+        frame = { eth src clientMac dst serverMac } <<
+                { ip4 src clientIp dst serverIp } <<
+                { tcp src 40000.toShort dst 80 }
+    }
+
+    private def buildRouter(withNat: Boolean,
+                            withLoadBalancer: Boolean): Unit = {
+        ingressDeviceId = newRouter("router")
+        ingressPortId = newRouterPort(ingressDeviceId, MAC.random(),
+                                      clientPortSubnet)
+        egressPortId = newRouterPort(ingressDeviceId, MAC.random(),
+                                     serverPortSubnet)
+        materializePort(ingressPortId, hostId, "port0")
+        materializePort(egressPortId, hostId, "port1")
+        newRoute(ingressDeviceId, "0.0.0.0", 0, "10.0.0.0", 24,
+                 NextHop.PORT, ingressPortId,
+                 new IPv4Addr(NO_GATEWAY).toString, 10)
+        newRoute(ingressDeviceId, "0.0.0.0", 0, "10.0.1.0", 24,
+                 NextHop.PORT, egressPortId,
+                 new IPv4Addr(NO_GATEWAY).toString, 10)
+
+        if (withNat) {
+            val outChain = newOutboundChainOnRouter("snat", ingressDeviceId)
+            val cond = new Condition()
+            cond.nwProto = TCP.PROTOCOL_NUMBER
+            cond.nwSrcIp = new IPv4Subnet(clientIp, 24)
+            val snat = new NatTarget(serverPortSubnet.getAddress,
+                                     serverPortSubnet.getAddress, 11000, 30000)
+            newForwardNatRuleOnChain(outChain, 1, cond,
+                                     RuleResult.Action.ACCEPT, Set(snat),
+                                     isDnat = false)
+            fetchChains(outChain)
+        }
+
+        val dstIp = if (withLoadBalancer) {
+            val loadBalancer = newLoadBalancer()
+            setLoadBalancerOnRouter(loadBalancer, ingressDeviceId)
+            val pool = newPool(loadBalancer)
+            newVip(pool, vipIp.toString, 80)
+            newPoolMember(pool, serverIp.toString, 80)
+            vipIp
+        } else {
+            serverIp
+        }
+        fetchPorts(ingressPortId, egressPortId)
+
+        val router = fetchDevice[Router](ingressDeviceId)
+        feedArpTable(router, clientIp, clientMac)
+        feedArpTable(router, serverIp, serverMac)
+        device = router
+
+        val portMac = fetchDevice[RouterPort](ingressPortId).portMac
+        frame = { eth src clientMac dst portMac } <<
+                { ip4 src clientIp dst dstIp } <<
+                { tcp src 40000.toShort dst 80 }
+    }
+
+    @Benchmark
+    def simulation(): (SimulationResult, PacketContext) =
+        simulate(context)
+
+    @Benchmark
+    def ingressDevice(): SimulationResult = {
+        context.clear()
+        context.wcmatch.reset(context.origMatch)
+        val result = device.process(context)
+        flushTransactions(conntrackTx, natTx)
+        result
+    }
+
+    @Benchmark
+    def workflow(): Int = {
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        fmatch.setInputPortNumber(1)
+        pktWorkflow.handlePackets(new Packet(frame, fmatch)
+                                   .setReason(Packet.Reason.FlowTableMiss))
+        val handled = packetCtxTrap.size()
+        packetCtxTrap.clear()
+        mockDpChannel.contextsSeen.clear()
+        mockDpChannel.packetsSent.clear()
+        handled
+    }
+}
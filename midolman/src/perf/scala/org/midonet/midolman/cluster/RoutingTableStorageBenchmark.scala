@@ -17,6 +17,7 @@
 package org.midonet.midolman.cluster
 
 import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
 
 import scala.collection.mutable
@@ -43,6 +44,7 @@ import org.midonet.cluster.data.storage.{StateResult, ZookeeperObjectMapper}
 import org.midonet.cluster.models.Topology.Port
 import org.midonet.cluster.services.MidonetBackend._
 import org.midonet.cluster.state.RoutingTableStorage._
+import org.midonet.cluster.state.{RouteTablePublisher, RouteTableUpdate}
 import org.midonet.cluster.storage.{CuratorZkConnection, MidonetBackendConfig}
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil._
@@ -54,6 +56,18 @@ import org.midonet.util.reactivex._
 
 import ch.qos.logback.classic.Logger
 
+object RoutingTableStorageBenchmark {
+
+    /** The number of routes for the route table benchmarks, which is a
+      * separate state such that it does not apply to the other benchmarks. */
+    @State(Scope.Benchmark)
+    class RouteTableState {
+        @Param(Array("100000", "1000000"))
+        var routeCount: Int = _
+    }
+
+}
+
 @BenchmarkMode(Array(Mode.SingleShotTime))
 @OutputTimeUnit(TimeUnit.MILLISECONDS)
 @Warmup(iterations = 1)
@@ -62,6 +76,8 @@ import ch.qos.logback.classic.Logger
 @State(Scope.Benchmark)
 class RoutingTableStorageBenchmark extends TopologyBuilder {
 
+    import RoutingTableStorageBenchmark._
+
     private final val zkServer = "127.0.0.1:2181"
     private final val zkRoot = "/midonet/benchmark"
     private final val hostId = UUID.randomUUID()
@@ -82,9 +98,13 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
     private final val benchmarkTimeout = 1800 seconds
     private final val count = 10000
 
+    private final val chunkSize = 500
+    private final val flushDelayMs = 100L
+
     private val executor = Executors.newSingleThreadExecutor()
     private implicit val executionContext =
         ExecutionContext.fromExecutorService(executor)
+    private val publisherExecutor = Executors.newSingleThreadScheduledExecutor()
 
     private class RoutesObserver(count: Int) extends Observer[Set[Route]] {
 
@@ -106,8 +126,34 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
         }
     }
 
+    private class RouteTableObserver(count: Int)
+        extends Observer[RouteTableUpdate] {
+
+        private val latch = new CountDownLatch(1)
+        private val routes = new AtomicInteger
+
+        override def onNext(update: RouteTableUpdate): Unit = {
+            if (routes.addAndGet(update.added.size - update.removed.size) ==
+                count) {
+                latch.countDown()
+            }
+        }
+        override def onCompleted(): Unit = {
+            latch.countDown()
+        }
+        override def onError(e: Throwable): Unit = {
+            latch.countDown()
+        }
+        def await(duration: Duration): Boolean = {
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
     @Setup
     def setup(): Unit = {
+        // The per-route benchmarks read about 72 bytes per route, and the
+        // route table benchmarks about 10 bytes per route, in a single
+        // getChildren response.
         System.setProperty("jute.maxbuffer", Integer.toString(40 * 1024 * 1024))
         curator = CuratorFrameworkFactory.newClient(zkServer,
                                                     sessionTimeoutMs,
@@ -122,6 +168,7 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
                                             new StorageMetrics(new MetricRegistry))
         storage.registerClass(classOf[Port])
         storage.registerKey(classOf[Port], RoutesKey, Multiple)
+        storage.registerKey(classOf[Port], RouteTableKey, Multiple)
         storage.build()
         def root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
         root.setLevel(ch.qos.logback.classic.Level.OFF)
@@ -129,6 +176,7 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
 
     @TearDown
     def tearDown(): Unit = {
+        publisherExecutor.shutdown()
         curator.close()
     }
 
@@ -236,6 +284,85 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
         storage.delete(classOf[Port], port.getId)
     }
 
+    @Benchmark
+    def addRouteTable(state: RouteTableState, blackhole: Blackhole): Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val publisher = new RouteTablePublisher(storage, port.getId, chunkSize,
+                                                flushDelayMs, publisherExecutor)
+        val routerId = UUID.randomUUID
+        val futures = new mutable.ArrayBuffer[Future[Route]](state.routeCount)
+
+        for (index <- 1 to state.routeCount) {
+            futures += publisher.add(createLearnedRoute(port.getId, routerId))
+        }
+
+        Future.sequence(futures).await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], port.getId)
+    }
+
+    @Benchmark
+    def addRemoveRouteTable(state: RouteTableState, blackhole: Blackhole)
+    : Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val publisher = new RouteTablePublisher(storage, port.getId, chunkSize,
+                                                flushDelayMs, publisherExecutor)
+        val routerId = UUID.randomUUID
+        val futuresAdd = new mutable.ArrayBuffer[Future[Route]](state.routeCount)
+        val futuresRem = new mutable.ArrayBuffer[Future[Route]](state.routeCount)
+        val routes = new mutable.HashSet[Route]
+
+        for (index <- 1 to state.routeCount) {
+            val route = createLearnedRoute(port.getId, routerId)
+            futuresAdd += publisher.add(route)
+            routes += route
+        }
+
+        Future.sequence(futuresAdd).await(benchmarkTimeout)
+
+        for (route <- routes) {
+            futuresRem += publisher.remove(route)
+        }
+
+        Future.sequence(futuresRem).await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], port.getId)
+    }
+
+    @Benchmark
+    def addRouteTableAndObserver(state: RouteTableState, blackhole: Blackhole)
+    : Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+
+        val obs = new RouteTableObserver(state.routeCount)
+        storage.portRouteTableObservable(port.getId, Observable.just(hostId))
+               .subscribe(obs)
+
+        val publisher = new RouteTablePublisher(storage, port.getId, chunkSize,
+                                                flushDelayMs, publisherExecutor)
+        val routerId = UUID.randomUUID
+
+        for (index <- 1 to state.routeCount) {
+            publisher.add(createLearnedRoute(port.getId, routerId))
+        }
+
+        obs.await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], port.getId)
+    }
+
+    /** Creates a route as learned from a BGP peer, where all routes of the
+      * port share the router and the next hop gateway. */
+    private def createLearnedRoute(portId: UUID, routerId: UUID) = {
+        new Route(0, 0, random.nextInt(), 24, NextHop.PORT, portId,
+                  0x0a000001, 100, "", routerId, true)
+    }
+
     private def createPortRoute(portId: UUID = UUID.randomUUID) = {
         new Route(random.nextInt(), 24, random.nextInt(), 24, NextHop.PORT,
                   portId, random.nextInt(), random.nextInt(), "",
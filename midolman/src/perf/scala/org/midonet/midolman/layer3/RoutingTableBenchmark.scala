@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.packets.IPv4Addr
+
+/**
+  * Compares the lookup and update cost of the trie-based [[IPv4RoutingTable]]
+  * with the [[IPv4LpmRoutingTable]], for routing tables similar to those
+  * learned from BGP peers.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+@State(Scope.Benchmark)
+class RoutingTableBenchmark {
+
+    @Param(Array("1000", "50000"))
+    var routesCount: Int = _
+
+    private final val addressCount = 4096
+
+    var routes: Array[Route] = _
+    var trieTable: IPv4RoutingTable = _
+    var lpmTable: IPv4LpmRoutingTable = _
+    var addresses: Array[IPv4Addr] = _
+    var index = 0
+
+    @Setup
+    def setup(): Unit = {
+        val random = new Random(0x5eed)
+        val portId = UUID.randomUUID()
+        routes = Array.fill(routesCount) {
+            // Most BGP prefixes are between /16 and /24.
+            val length = 16 + random.nextInt(9)
+            val mask = ~0 << (32 - length)
+            new Route(0, 0, random.nextInt() & mask, length, NextHop.PORT,
+                      portId, random.nextInt(), 100, null, null)
+        }
+        trieTable = new IPv4RoutingTable
+        lpmTable = new IPv4LpmRoutingTable
+        for (route <- routes) {
+            trieTable.addRoute(route)
+            lpmTable.addRoute(route)
+        }
+        addresses = Array.fill(addressCount) {
+            new IPv4Addr(routes(random.nextInt(routesCount)).dstNetworkAddr |
+                         random.nextInt(256))
+        }
+    }
+
+    private def nextAddress(): IPv4Addr = {
+        index = (index + 1) & (addressCount - 1)
+        addresses(index)
+    }
+
+    @Benchmark
+    def lookupTrie(bh: Blackhole): Unit = {
+        val address = nextAddress()
+        bh.consume(trieTable.lookup(address, address))
+    }
+
+    @Benchmark
+    def lookupLpm(bh: Blackhole): Unit = {
+        val address = nextAddress()
+        bh.consume(lpmTable.lookup(address, address))
+    }
+
+    @Benchmark
+    def buildTrie(bh: Blackhole): Unit = {
+        val table = new IPv4RoutingTable
+        for (route <- routes) {
+            table.addRoute(route)
+        }
+        bh.consume(table)
+    }
+
+    @Benchmark
+    def snapshotLpm(bh: Blackhole): Unit = {
+        bh.consume(lpmTable.snapshot())
+    }
+}
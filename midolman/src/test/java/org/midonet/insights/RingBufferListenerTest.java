@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.insights;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.midonet.midolman.PacketWorkflow;
+import org.midonet.midolman.config.MidolmanConfig;
+import org.midonet.midolman.simulation.PacketContext;
+import org.midonet.odp.FlowMatch;
+import org.midonet.odp.FlowMetadata;
+import org.midonet.odp.flows.FlowStats;
+import org.midonet.packets.IPv4Addr;
+import org.midonet.sdn.flows.FlowTagger;
+
+public class RingBufferListenerTest {
+
+    private RingBufferListener listener;
+
+    private RingBufferListener listener(int ringSize) {
+        return listener(ringSize, 100);
+    }
+
+    private RingBufferListener listener(int ringSize, int maxDevices) {
+        MidolmanConfig config = MidolmanConfig.forTests(
+            "agent.insights.ring_buffer_size = " + ringSize + "\n" +
+            "agent.insights.drain_interval = 1h\n" +
+            "agent.insights.top_talkers = 2\n" +
+            "agent.insights.max_tracked_devices = " + maxDevices);
+        listener = new RingBufferListener(
+            config, Mockito.mock(CuratorFramework.class),
+            new MetricRegistry());
+        listener.startAsync().awaitRunning();
+        return listener;
+    }
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            listener.stopAsync().awaitTerminated();
+        }
+    }
+
+    private static FlowMatch flowMatch(String src, int bytes) {
+        return new FlowMatch()
+            .setNetworkSrc(IPv4Addr.fromString(src))
+            .setNetworkDst(IPv4Addr.fromString("10.0.0.100"))
+            .setNetworkProto((byte) 6)
+            .setSrcPort(1000 + bytes % 1000)
+            .setDstPort(80);
+    }
+
+    @Test
+    public void testAggregation() throws Exception {
+        // Given a running listener.
+        RingBufferListener listener = listener(16);
+        Assert.assertSame(listener, RingBufferListener.current());
+
+        UUID bridge = UUID.randomUUID();
+        UUID router = UUID.randomUUID();
+        UUID port = UUID.randomUUID();
+
+        // When adding a flow traversing a bridge and a router.
+        listener.flowAdded(flowMatch("10.0.0.1", 0),
+                           Arrays.asList(FlowTagger.tagForBridge(bridge),
+                                         FlowTagger.tagForRouter(router)),
+                           0L);
+
+        // And simulating a forwarded and a dropped packet.
+        PacketContext context = new PacketContext();
+        context.inputPort_$eq(port);
+        context.flowTags().add(FlowTagger.tagForBridge(bridge));
+        listener.flowSimulation(context, PacketWorkflow.FlowCreated$.MODULE$);
+        listener.flowSimulation(context, PacketWorkflow.Drop$.MODULE$);
+
+        // And deleting flows from three source addresses.
+        listener.flowDeleted(flowMatch("10.0.0.1", 100),
+                             new FlowMetadata(new FlowStats(1, 100)));
+        listener.flowDeleted(flowMatch("10.0.0.2", 300),
+                             new FlowMetadata(new FlowStats(3, 300)));
+        listener.flowDeleted(flowMatch("10.0.0.3", 200),
+                             new FlowMetadata(new FlowStats(2, 200)));
+
+        // Then the records are not aggregated before draining.
+        Assert.assertEquals(0L, listener.getFlowsAdded());
+
+        // When draining the rings.
+        listener.drain();
+
+        // Then the counters are aggregated.
+        Assert.assertEquals(1L, listener.getFlowsAdded());
+        Assert.assertEquals(3L, listener.getFlowsDeleted());
+        Assert.assertEquals(2L, listener.getSimulations());
+        Assert.assertEquals(1L, listener.getDroppedSimulations());
+        Assert.assertEquals(0L, listener.getDroppedRecords());
+
+        // And per device and per port.
+        Assert.assertEquals(Long.valueOf(1L),
+                            listener.getDeviceFlows().get(bridge.toString()));
+        Assert.assertEquals(Long.valueOf(1L),
+                            listener.getDeviceFlows().get(router.toString()));
+        Assert.assertEquals(Long.valueOf(2L),
+                            listener.getPortSimulations().get(port.toString()));
+
+        // And the top talkers are ordered by bytes.
+        Assert.assertEquals(Arrays.asList("10.0.0.2", "10.0.0.3"),
+                            Arrays.asList(listener.getTopTalkers().keySet()
+                                              .toArray(new String[0])));
+        Assert.assertEquals(Long.valueOf(300L),
+                            listener.getTopTalkers().get("10.0.0.2"));
+
+        // And the HTTP handler writes the counters.
+        StringWriter output = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(output);
+        new InsightsHTTPHandler().writeResponse(writer);
+        writer.flush();
+        Assert.assertTrue(output.toString().contains("flows_added\t1\n"));
+        Assert.assertTrue(output.toString().contains(
+            "device\t" + bridge + "\t1\t2\t1\n"));
+        Assert.assertTrue(output.toString().contains(
+            "talker\t10.0.0.2\t3\t300\n"));
+    }
+
+    @Test
+    public void testFullRingDropsRecords() {
+        // Given a listener with a ring of two records.
+        RingBufferListener listener = listener(2);
+
+        // When adding three flows without draining.
+        for (int index = 0; index < 3; index++) {
+            listener.flowAdded(flowMatch("10.0.0.1", 0),
+                               Collections.emptyList(), 0L);
+        }
+
+        // Then the last record is dropped.
+        Assert.assertEquals(1L, listener.getDroppedRecords());
+
+        // And the first two records are aggregated.
+        listener.drain();
+        Assert.assertEquals(2L, listener.getFlowsAdded());
+
+        // And the ring accepts new records after draining.
+        listener.flowAdded(flowMatch("10.0.0.1", 0), Collections.emptyList(),
+                           0L);
+        listener.drain();
+        Assert.assertEquals(3L, listener.getFlowsAdded());
+        Assert.assertEquals(1L, listener.getDroppedRecords());
+    }
+
+    @Test
+    public void testTrackedDevicesAreBounded() {
+        // Given a listener tracking at most two devices and ports.
+        RingBufferListener listener = listener(16, 2);
+
+        UUID bridge1 = UUID.randomUUID();
+        UUID bridge2 = UUID.randomUUID();
+        UUID bridge3 = UUID.randomUUID();
+        UUID port1 = UUID.randomUUID();
+        UUID port2 = UUID.randomUUID();
+        UUID port3 = UUID.randomUUID();
+
+        // When simulating packets on the first two devices and ports.
+        simulate(listener, port1, bridge1);
+        simulate(listener, port2, bridge2);
+        listener.drain();
+
+        // And the first device and port are active again.
+        simulate(listener, port1, bridge1);
+        listener.drain();
+
+        // And simulating a packet on a third device and port.
+        simulate(listener, port3, bridge3);
+        listener.drain();
+
+        // Then the least recently active device and port are discarded.
+        Assert.assertEquals(2, listener.getDeviceFlows().size());
+        Assert.assertTrue(listener.getDeviceFlows()
+                              .containsKey(bridge1.toString()));
+        Assert.assertTrue(listener.getDeviceFlows()
+                              .containsKey(bridge3.toString()));
+        Assert.assertEquals(2, listener.getPortSimulations().size());
+        Assert.assertEquals(Long.valueOf(2L),
+                            listener.getPortSimulations()
+                                .get(port1.toString()));
+        Assert.assertFalse(listener.getPortSimulations()
+                               .containsKey(port2.toString()));
+
+        // And the global counters include all simulations.
+        Assert.assertEquals(4L, listener.getSimulations());
+    }
+
+    private static void simulate(RingBufferListener listener, UUID port,
+                                 UUID bridge) {
+        PacketContext context = new PacketContext();
+        context.inputPort_$eq(port);
+        context.flowTags().add(FlowTagger.tagForBridge(bridge));
+        listener.flowSimulation(context, PacketWorkflow.FlowCreated$.MODULE$);
+    }
+
+    @Test
+    public void testStoppedListenerIgnoresRecords() {
+        // Given a stopped listener.
+        RingBufferListener listener = listener(2);
+        listener.stopAsync().awaitTerminated();
+        this.listener = null;
+        Assert.assertNull(RingBufferListener.current());
+
+        // When adding a flow.
+        listener.flowAdded(flowMatch("10.0.0.1", 0), Collections.emptyList(),
+                           0L);
+        listener.drain();
+
+        // Then the flow is ignored.
+        Assert.assertEquals(0L, listener.getFlowsAdded());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingSizeMustBePowerOfTwo() {
+        new InsightsRingBuffer(3);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.midonet.midolman.layer3.Route.NextHop;
+
+public class TestIPv4LpmRoutingTable {
+
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(0x5eed);
+    }
+
+    private Route randomRoute() {
+        int dstLength = random.nextInt(33);
+        int srcLength = random.nextInt(4) == 0 ? random.nextInt(9) : 0;
+        int dstMask = dstLength == 0 ? 0 : ~0 << (32 - dstLength);
+        return new Route(0x0a000000 | random.nextInt(0x1000000), srcLength,
+                         (0x0a000000 | random.nextInt(0x1000000)) & dstMask,
+                         dstLength,
+                         NextHop.PORT, UUID.randomUUID(), 0,
+                         random.nextInt(3), null, null);
+    }
+
+    private void assertSameLookups(RoutingTable expected,
+                                   IPv4LpmRoutingTable actual) {
+        for (int index = 0; index < 5000; index++) {
+            int src = 0x0a000000 | random.nextInt(0x1000000);
+            int dst = 0x0a000000 | random.nextInt(0x1000000);
+            Assert.assertEquals(new HashSet<>(expected.lookup(src, dst)),
+                                new HashSet<>(actual.lookup(src, dst)));
+        }
+    }
+
+    @Test
+    public void testEmptyRoutingTable() {
+        IPv4LpmRoutingTable table = new IPv4LpmRoutingTable();
+        Assert.assertTrue(table.lookup(0x0a010108, 0x0a010106).isEmpty());
+        Assert.assertTrue(table.lookup(0x00000009, 0xfffffffe).isEmpty());
+    }
+
+    @Test
+    public void testLongestPrefixMatch() {
+        Route defaultRoute = new Route(0, 0, 0, 0, NextHop.PORT,
+                                       UUID.randomUUID(), 0, 100, null, null);
+        Route route16 = new Route(0, 0, 0x0a010000, 16, NextHop.PORT,
+                                  UUID.randomUUID(), 0, 100, null, null);
+        Route route20 = new Route(0, 0, 0x0a010000, 20, NextHop.PORT,
+                                  UUID.randomUUID(), 0, 100, null, null);
+        IPv4LpmRoutingTable table = new IPv4LpmRoutingTable();
+        table.addRoute(defaultRoute);
+        table.addRoute(route16);
+        table.addRoute(route20);
+
+        Assert.assertEquals(route20, table.lookup(0, 0x0a010f01).get(0));
+        Assert.assertEquals(route16, table.lookup(0, 0x0a011001).get(0));
+        Assert.assertEquals(defaultRoute, table.lookup(0, 0x0b000001).get(0));
+
+        table.deleteRoute(route20);
+        Assert.assertEquals(route16, table.lookup(0, 0x0a010f01).get(0));
+        table.deleteRoute(route16);
+        Assert.assertEquals(defaultRoute, table.lookup(0, 0x0a010f01).get(0));
+        table.deleteRoute(defaultRoute);
+        Assert.assertTrue(table.lookup(0, 0x0a010f01).isEmpty());
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testEqualCostRoutesDoNotAllocate() {
+        Route route1 = new Route(0, 0, 0x0a010000, 24, NextHop.PORT,
+                                 UUID.randomUUID(), 0, 100, null, null);
+        Route route2 = new Route(0, 0, 0x0a010000, 24, NextHop.PORT,
+                                 UUID.randomUUID(), 0, 100, null, null);
+        Route route3 = new Route(0, 0, 0x0a010000, 24, NextHop.PORT,
+                                 UUID.randomUUID(), 0, 200, null, null);
+        IPv4LpmRoutingTable table = new IPv4LpmRoutingTable();
+        table.addRoute(route1);
+        table.addRoute(route2);
+        table.addRoute(route3);
+
+        List<Route> routes = table.lookup(0, 0x0a010001);
+        Assert.assertEquals(2, routes.size());
+        Assert.assertTrue(routes.contains(route1));
+        Assert.assertTrue(routes.contains(route2));
+        Assert.assertSame(routes, table.lookup(0x01020304, 0x0a0100ff));
+    }
+
+    @Test
+    public void testRandomRoutesMatchRoutingTable() {
+        List<Route> routes = new ArrayList<>();
+        for (int index = 0; index < 2000; index++) {
+            routes.add(randomRoute());
+        }
+
+        RoutingTable expected = new RoutingTable();
+        IPv4LpmRoutingTable actual = new IPv4LpmRoutingTable();
+        for (Route route : routes) {
+            expected.addRoute(route);
+            actual.addRoute(route);
+        }
+        assertSameLookups(expected, actual);
+
+        // Delete half of the routes and compare with a new table.
+        Set<Route> remaining = new HashSet<>(routes);
+        for (int index = 0; index < routes.size(); index += 2) {
+            actual.deleteRoute(routes.get(index));
+            remaining.remove(routes.get(index));
+        }
+        expected = new RoutingTable();
+        for (Route route : remaining) {
+            expected.addRoute(route);
+        }
+        assertSameLookups(expected, actual);
+        Assert.assertEquals(remaining.size(), actual.size());
+    }
+
+    @Test
+    public void testSnapshotIsIndependent() {
+        Route route = new Route(0, 0, 0x0a010000, 16, NextHop.PORT,
+                                UUID.randomUUID(), 0, 100, null, null);
+        IPv4LpmRoutingTable table = new IPv4LpmRoutingTable();
+        table.addRoute(route);
+        IPv4LpmRoutingTable snapshot = table.snapshot();
+        table.deleteRoute(route);
+
+        Assert.assertTrue(table.lookup(0, 0x0a010001).isEmpty());
+        Assert.assertEquals(route, snapshot.lookup(0, 0x0a010001).get(0));
+    }
+
+    @Test
+    public void testSnapshotsAreUnaffectedByUpdates() {
+        List<Route> routes = new ArrayList<>();
+        IPv4LpmRoutingTable table = new IPv4LpmRoutingTable();
+        for (int index = 0; index < 1000; index++) {
+            Route route = randomRoute();
+            routes.add(route);
+            table.addRoute(route);
+        }
+        IPv4LpmRoutingTable snapshot = table.snapshot();
+        RoutingTable expected = new RoutingTable();
+        for (Route route : routes) {
+            expected.addRoute(route);
+        }
+
+        // Update both tables, which share the trie chunks until modified.
+        for (int index = 0; index < 500; index++) {
+            table.addRoute(randomRoute());
+            table.deleteRoute(routes.get(index));
+            snapshot.snapshot().addRoute(randomRoute());
+        }
+        IPv4LpmRoutingTable other = snapshot.snapshot();
+        for (int index = 500; index < routes.size(); index++) {
+            other.deleteRoute(routes.get(index));
+        }
+
+        assertSameLookups(expected, snapshot);
+        Assert.assertEquals(routes.size(), snapshot.size());
+        Assert.assertEquals(500, other.size());
+    }
+}
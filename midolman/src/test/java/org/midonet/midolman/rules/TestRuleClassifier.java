@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.midonet.midolman.rules.RuleResult.Action;
+import org.midonet.midolman.simulation.PacketContext;
+import org.midonet.odp.FlowMatch;
+import org.midonet.packets.IPv4;
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+import org.midonet.util.Range;
+
+public class TestRuleClassifier {
+
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(0x5eed);
+    }
+
+    private Condition randomCondition() {
+        Condition cond = new Condition();
+        if (random.nextInt(3) == 0) {
+            cond.nwProto = random.nextBoolean() ? (byte) 6 : (byte) 17;
+            cond.nwProtoInv = random.nextInt(5) == 0;
+        }
+        if (random.nextInt(2) == 0) {
+            cond.nwSrcIp = new IPv4Subnet(0x0a000000 | random.nextInt(0x10000),
+                                          16 + random.nextInt(17));
+            cond.nwSrcInv = random.nextInt(5) == 0;
+        }
+        if (random.nextInt(3) == 0) {
+            cond.nwDstIp = new IPv4Subnet(0x0a000000 | random.nextInt(0x10000),
+                                          random.nextInt(33));
+            cond.nwDstInv = random.nextInt(5) == 0;
+        }
+        if (random.nextInt(2) == 0) {
+            int start = random.nextInt(1024);
+            cond.tpDst = new Range<>(random.nextInt(4) == 0 ? null : start,
+                                     random.nextInt(4) == 0 ? null :
+                                     start + random.nextInt(64));
+            cond.tpDstInv = random.nextInt(5) == 0;
+        }
+        cond.conjunctionInv = random.nextInt(10) == 0;
+        return cond;
+    }
+
+    private PacketContext randomPacket() {
+        FlowMatch match = new FlowMatch();
+        match.setEtherType(IPv4.ETHERTYPE);
+        match.setNetworkSrc(new IPv4Addr(0x0a000000 | random.nextInt(0x10000)));
+        match.setNetworkDst(new IPv4Addr(0x0a000000 | random.nextInt(0x10000)));
+        match.setNetworkProto(random.nextBoolean() ? (byte) 6 : (byte) 17);
+        match.setSrcPort(random.nextInt(0x10000));
+        match.setDstPort(random.nextInt(1100));
+        return PacketContext.generatedForJava(1, null, match, null);
+    }
+
+    @Test
+    public void testNoIndexedConditions() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new LiteralRule(Condition.TRUE, Action.ACCEPT));
+        rules.add(new LiteralRule(new Condition(), Action.DROP));
+        Assert.assertNull(RuleClassifier.compile(rules));
+    }
+
+    @Test
+    public void testCandidatesIncludeAllMatchingRules() {
+        List<Rule> rules = new ArrayList<>();
+        for (int index = 0; index < 300; index++) {
+            rules.add(new LiteralRule(randomCondition(), Action.ACCEPT));
+        }
+        RuleClassifier classifier = RuleClassifier.compile(rules);
+        Assert.assertNotNull(classifier);
+        Assert.assertEquals(rules.size(), classifier.size());
+
+        for (int packet = 0; packet < 2000; packet++) {
+            PacketContext pktCtx = randomPacket();
+            long[] candidates = classifier.classify(pktCtx.wcmatch());
+            for (int index = 0; index < rules.size(); index++) {
+                boolean candidate =
+                    classifier.nextCandidate(candidates, index) == index;
+                if (rules.get(index).getCondition().matches(pktCtx)) {
+                    Assert.assertTrue(candidate);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMissingAddress() {
+        Condition inverted = new Condition();
+        inverted.nwSrcIp = IPv4Subnet.fromCidr("10.0.0.0/8");
+        inverted.nwSrcInv = true;
+        Condition normal = new Condition();
+        normal.nwSrcIp = IPv4Subnet.fromCidr("10.0.0.0/8");
+
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new LiteralRule(normal, Action.DROP));
+        rules.add(new LiteralRule(inverted, Action.ACCEPT));
+        RuleClassifier classifier = RuleClassifier.compile(rules);
+
+        FlowMatch match = new FlowMatch();
+        long[] candidates = classifier.classify(match);
+        Assert.assertEquals(1, classifier.nextCandidate(candidates, 0));
+        Assert.assertEquals(2, classifier.nextCandidate(candidates, 2));
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.state
+
+import java.util.UUID
+import java.util.concurrent.{Executors, ScheduledExecutorService}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+import scala.util.Random
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+import rx.Observable
+import rx.observers.TestObserver
+
+import org.midonet.cluster.data.storage.KeyType._
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.models.Topology.Port
+import org.midonet.cluster.services.MidonetBackend.RouteTableKey
+import org.midonet.cluster.state.RoutingTableStorage._
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.MidonetBackendTest
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.util.reactivex._
+
+@RunWith(classOf[JUnitRunner])
+class RouteTableTest extends FlatSpec with MidonetBackendTest
+                             with Matchers with GivenWhenThen
+                             with TopologyBuilder {
+
+    private var storage: ZookeeperObjectMapper = _
+    private var executor: ScheduledExecutorService = _
+    private val hostId = UUID.randomUUID
+    private val random = new Random
+    private final val timeout = 5 seconds
+
+    protected override def setup(): Unit = {
+        storage = new ZookeeperObjectMapper(config, hostId.toString, curator,
+                                            curator, null, reactor,
+                                            new StorageMetrics(new MetricRegistry))
+        storage.registerClass(classOf[Port])
+        storage.registerKey(classOf[Port], RouteTableKey, Multiple)
+        storage.build()
+        executor = Executors.newSingleThreadScheduledExecutor()
+    }
+
+    protected override def teardown(): Unit = {
+        executor.shutdownNow()
+    }
+
+    private def createPortRoute(portId: UUID = UUID.randomUUID) = {
+        new Route(random.nextInt(), 24, random.nextInt(), 24, NextHop.PORT,
+                  portId, random.nextInt(), random.nextInt(), "",
+                  UUID.randomUUID, true)
+    }
+
+    private def await[T](futures: Seq[Future[T]]): Seq[T] = {
+        futures.map(Await.result(_, timeout))
+    }
+
+    "Route table" should "encode and decode a chunk" in {
+        val routes = Seq.fill(100)(createPortRoute())
+        val chunk = RouteTable.decode(RouteTable.encode(10L, routes)).get
+
+        chunk.sequence shouldBe 10L
+        chunk.routes.toSeq shouldBe routes
+        chunk.routes.map(_.weight).toSeq shouldBe routes.map(_.weight)
+    }
+
+    "Route table" should "compress chunks with a common port and router" in {
+        val portId = UUID.randomUUID
+        val routerId = UUID.randomUUID
+        val routes = for (index <- 0 until 500) yield
+            new Route(0, 0, index << 8, 24, NextHop.PORT, portId, 0, 100, "",
+                      routerId, true)
+
+        RouteTable.encode(0L, routes).length should be < 50 * routes.size / 4
+    }
+
+    "Route table" should "ignore invalid chunks" in {
+        RouteTable.decode("") shouldBe None
+        RouteTable.decode("0.AAAA") shouldBe None
+        RouteTable.decode("1.not-a-chunk") shouldBe None
+        RouteTable.decode(RouteTable.encode(0L, Seq(createPortRoute()))
+                                    .dropRight(4)) shouldBe None
+    }
+
+    "Route table" should "reject routes without a next hop port" in {
+        val route = new Route(0, 0, 0, 0, NextHop.BLACKHOLE, null, 0, 0, "",
+                              UUID.randomUUID, true)
+        intercept[IllegalArgumentException] {
+            RouteTable.encode(0L, Seq(route))
+        }
+    }
+
+    "Route table reader" should "emit the routes added and removed" in {
+        val reader = new RouteTableReader
+        val routes = Seq.fill(4)(createPortRoute())
+        val chunk1 = RouteTable.encode(0L, routes.take(2))
+        val chunk2 = RouteTable.encode(1L, routes.drop(2))
+
+        reader.update(Set(chunk1)) shouldBe RouteTableUpdate(
+            routes.take(2).toSet, Set.empty)
+        reader.update(Set(chunk1, chunk2)) shouldBe RouteTableUpdate(
+            routes.drop(2).toSet, Set.empty)
+        reader.routes shouldBe routes.toSet
+        reader.update(Set(chunk2)) shouldBe RouteTableUpdate(
+            Set.empty, routes.take(2).toSet)
+        reader.update(Set.empty) shouldBe RouteTableUpdate(
+            Set.empty, routes.drop(2).toSet)
+        reader.routes shouldBe Set.empty
+    }
+
+    "Route table reader" should "not emit routes moved between chunks" in {
+        val reader = new RouteTableReader
+        val routes = Seq.fill(3)(createPortRoute())
+        val chunk1 = RouteTable.encode(0L, routes.take(2))
+        val chunk2 = RouteTable.encode(1L, routes.drop(1))
+
+        reader.update(Set(chunk1))
+        reader.update(Set(chunk1, chunk2)) shouldBe RouteTableUpdate(
+            Set(routes(2)), Set.empty)
+        reader.update(Set(chunk2)) shouldBe RouteTableUpdate(
+            Set.empty, Set(routes.head))
+
+        val chunk3 = RouteTable.encode(2L, routes)
+        reader.update(Set(chunk3)) shouldBe RouteTableUpdate(
+            Set(routes.head), Set.empty)
+    }
+
+    "Route table publisher" should "publish routes in chunks" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+
+        Given("25 routes added to the route table")
+        val routes = Seq.fill(25)(createPortRoute(port.getId))
+        await(routes.map(publisher.add)) shouldBe routes
+
+        Then("The route table stores the routes in chunks of at most 10")
+        val chunks = storage.getPortRouteTable(port.getId, hostId)
+                            .await(timeout)
+        chunks.size should be >= 3
+        chunks foreach { RouteTable.decode(_).get.routes.length should be <= 10 }
+        chunks.flatMap(RouteTable.decode(_).get.routes) shouldBe routes.toSet
+        publisher.routes shouldBe routes.toSet
+
+        When("Removing a route")
+        await(Seq(publisher.remove(routes.head)))
+
+        Then("Only the chunk of the route is replaced")
+        val newChunks = storage.getPortRouteTable(port.getId, hostId)
+                               .await(timeout)
+        (newChunks intersect chunks) should have size chunks.size - 1
+        newChunks.flatMap(RouteTable.decode(_).get.routes) shouldBe
+            routes.tail.toSet
+    }
+
+    "Route table publisher" should "merge added routes into the partial chunk" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+        def chunkSizes = storage.getPortRouteTable(port.getId, hostId)
+                                .await(timeout).toSeq
+                                .map(RouteTable.decode(_).get.routes.length)
+
+        Given("A partial chunk with 4 routes")
+        val routes = Seq.fill(13)(createPortRoute(port.getId))
+        await(routes.take(4).map(publisher.add))
+        chunkSizes shouldBe Seq(4)
+
+        When("Adding 3 routes")
+        await(routes.slice(4, 7).map(publisher.add))
+
+        Then("The routes are merged into the partial chunk")
+        chunkSizes shouldBe Seq(7)
+
+        When("Adding 6 routes")
+        await(routes.drop(7).map(publisher.add))
+
+        Then("The routes fill the partial chunk before using a new chunk")
+        chunkSizes.sorted shouldBe Seq(3, 10)
+        publisher.routes shouldBe routes.toSet
+    }
+
+    "Route table publisher" should "coalesce sparse chunks" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+
+        Given("A route table with three sparse chunks")
+        val routes = Seq.fill(9)(createPortRoute(port.getId))
+        val chunks = for (index <- 0 until 3) yield
+            RouteTable.encode(index, routes.slice(index * 3, index * 3 + 3))
+        for (chunk <- chunks) {
+            storage.addRouteTableChunk(port.getId, chunk).await(timeout)
+        }
+        publisher.restore(chunks.toSet) shouldBe routes.toSet
+
+        When("Removing a route")
+        await(Seq(publisher.remove(routes.head)))
+
+        Then("The remaining routes are coalesced in a single chunk")
+        val newChunks = storage.getPortRouteTable(port.getId, hostId)
+                               .await(timeout)
+        newChunks should have size 1
+        RouteTable.decode(newChunks.head).get.routes.toSet shouldBe
+            routes.tail.toSet
+    }
+
+    "Route table publisher" should "restore the route table" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher1 = new RouteTablePublisher(storage, port.getId, 10,
+                                                 10L, executor)
+        val routes = Seq.fill(5)(createPortRoute(port.getId))
+        await(routes.map(publisher1.add))
+
+        val publisher2 = new RouteTablePublisher(storage, port.getId, 10,
+                                                 10L, executor)
+        val chunks = storage.getPortRouteTable(port.getId, hostId)
+                            .await(timeout)
+        publisher2.restore(chunks) shouldBe routes.toSet
+
+        await(Seq(publisher2.remove(routes.head)))
+        storage.getPortRouteTable(port.getId, hostId).await(timeout)
+               .flatMap(RouteTable.decode(_).get.routes) shouldBe
+            routes.tail.toSet
+    }
+
+    "Route table publisher" should "reload the route table after a failed write" in {
+        val port = createRouterPort()
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+
+        Given("A route added for a port that does not exist")
+        val route = createPortRoute(port.getId)
+        intercept[Exception] {
+            await(Seq(publisher.add(route)))
+        }
+
+        Then("The publisher is dirty")
+        publisher.isDirty shouldBe true
+
+        When("The port is created and the route added again")
+        storage.create(port)
+        await(Seq(publisher.add(route))) shouldBe Seq(route)
+
+        Then("The route table contains the route")
+        publisher.isDirty shouldBe false
+        storage.getPortRouteTable(port.getId, hostId).await(timeout)
+               .flatMap(RouteTable.decode(_).get.routes) shouldBe Set(route)
+    }
+
+    "Route table publisher" should "publish the routes again after a re-sync" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+        val routes = Seq.fill(5)(createPortRoute(port.getId))
+        await(routes.map(publisher.add))
+
+        Given("The route table chunks are lost as with a session loss")
+        val chunks = storage.getPortRouteTable(port.getId, hostId)
+                            .await(timeout)
+        for (chunk <- chunks) {
+            storage.removeRouteTableChunk(port.getId, chunk).await(timeout)
+        }
+
+        When("The publisher re-syncs with the storage")
+        publisher.restore(storage.getPortRouteTable(port.getId, hostId)
+                                 .await(timeout)) shouldBe Set.empty
+        publisher.routes shouldBe Set.empty
+
+        And("The routes are added again")
+        await(routes.map(publisher.add)) shouldBe routes
+
+        Then("The route table contains the routes")
+        storage.getPortRouteTable(port.getId, hostId).await(timeout)
+               .flatMap(RouteTable.decode(_).get.routes) shouldBe routes.toSet
+    }
+
+    "Route table publisher" should "drop stale chunks when restoring" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+        val routes = Seq.fill(4)(createPortRoute(port.getId))
+        val chunk1 = RouteTable.encode(0L, routes.take(2))
+        val chunk2 = RouteTable.encode(1L, routes.drop(2))
+
+        publisher.restore(Set(chunk1, chunk2)) shouldBe routes.toSet
+        publisher.restore(Set(chunk2)) shouldBe routes.drop(2).toSet
+        publisher.routes shouldBe routes.drop(2).toSet
+    }
+
+    "Route table observable" should "emit the route table updates" in {
+        val port = createRouterPort()
+        storage.create(port)
+        val publisher = new RouteTablePublisher(storage, port.getId, 10,
+                                                10L, executor)
+
+        val routes = Seq.fill(15)(createPortRoute(port.getId))
+        await(routes.map(publisher.add))
+
+        Given("An observer subscribed after adding the routes")
+        val obs = new TestObserver[RouteTableUpdate]
+                      with AwaitableObserver[RouteTableUpdate]
+        storage.portRouteTableObservable(port.getId, Observable.just(hostId))
+               .subscribe(obs)
+
+        Then("The observer receives all routes")
+        obs.awaitOnNext(1, timeout) shouldBe true
+        obs.getOnNextEvents.get(0) shouldBe RouteTableUpdate(
+            routes.toSet, Set.empty)
+
+        When("Removing a route")
+        await(Seq(publisher.remove(routes.head)))
+
+        Then("The observer receives only the removed route")
+        obs.awaitOnNext(2, timeout) shouldBe true
+        obs.getOnNextEvents.get(1) shouldBe RouteTableUpdate(
+            Set.empty, Set(routes.head))
+    }
+}
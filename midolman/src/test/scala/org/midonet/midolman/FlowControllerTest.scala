@@ -16,6 +16,8 @@
 
 package org.midonet.midolman
 
+import java.util.UUID
+
 import com.google.common.collect.Lists
 
 import org.junit.runner.RunWith
@@ -23,9 +25,11 @@ import org.scalatest.junit.JUnitRunner
 
 import org.midonet.insights.Insights
 import org.midonet.midolman.CallbackRegistry.{CallbackSpec, SerializableCallback}
+import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.flows.{FlowExpirationIndexer, ManagedFlowImpl}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.odp.FlowMatch
+import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 
 @RunWith(classOf[JUnitRunner])
@@ -183,6 +187,80 @@ class FlowControllerTest extends MidolmanSpec {
         }
     }
 
+    feature("The flow controller invalidates flows") {
+        scenario("Flows are invalidated all at once by default") {
+            Given("Three flows with the same tag")
+            val tag = FlowTagger.tagForBridge(UUID.randomUUID())
+            val flows = for (index <- 0 until 3) yield new TestableFlow()
+            val managedFlows = flows.map(_.add(tag))
+
+            When("The tag is invalidated")
+            flowController.invalidateFlowsFor(tag)
+
+            Then("All flows are removed")
+            metrics.currentDpFlowsMetric.getValue shouldBe 0
+            flowController.hasPendingInvalidations shouldBe false
+            flows.forall(_.callbackCalled) shouldBe true
+            managedFlows.exists(
+                flow => flowController.flowExists(flow.mark)) shouldBe false
+
+            And("The invalidation latency is recorded")
+            metrics.flowInvalidationLatency.getCount shouldBe 1
+        }
+
+        scenario("Flows are invalidated in chunks") {
+            Given("A flow controller invalidating two flows at a time")
+            val preallocation = new MockFlowTablePreallocation(config)
+            flowController = new FlowControllerImpl(
+                MidolmanConfig.forTests(
+                    "agent.midolman.flow_invalidation_chunk_size : 2"),
+                clock, flowProcessor, 0, 0, metrics,
+                preallocation.takeMeterRegistry(),
+                preallocation, cbRegistry, Insights.NONE)
+
+            And("Five flows with the same tag")
+            val tag = FlowTagger.tagForBridge(UUID.randomUUID())
+            val flows = for (index <- 0 until 5) yield new TestableFlow()
+            flows.foreach(_.add(tag))
+
+            When("The tag is invalidated")
+            flowController.invalidateFlowsFor(tag)
+
+            Then("The flows are pending invalidation")
+            flowController.hasPendingInvalidations shouldBe true
+            flowController.shouldProcess shouldBe true
+            metrics.currentDpFlowsMetric.getValue shouldBe 5
+            metrics.flowsPendingInvalidation.getCount shouldBe 5
+
+            When("The flow controller processes the first chunk")
+            flowController.process()
+
+            Then("Two flows are removed")
+            metrics.currentDpFlowsMetric.getValue shouldBe 3
+            metrics.flowsPendingInvalidation.getCount shouldBe 3
+            flows.count(_.callbackCalled) shouldBe 2
+
+            When("A flow is removed before its chunk is processed")
+            val flow = flows.find(!_.callbackCalled).get
+            flow.remove(flow.managedFlow)
+            metrics.currentDpFlowsMetric.getValue shouldBe 2
+
+            And("The flow controller processes the remaining chunks")
+            flowController.process()
+            flowController.process()
+
+            Then("All flows are removed once")
+            metrics.currentDpFlowsMetric.getValue shouldBe 0
+            metrics.dpFlowsRemovedMetric.getCount shouldBe 5
+            flows.forall(_.callbackCalled) shouldBe true
+            flowController.hasPendingInvalidations shouldBe false
+            metrics.flowsPendingInvalidation.getCount shouldBe 0
+
+            And("The invalidation latency is recorded")
+            metrics.flowInvalidationLatency.getCount shouldBe 1
+        }
+    }
+
     final class TestableFlow(val fmatch: FlowMatch = new FlowMatch(),
                              val linked: FlowMatch = null) {
         var callbackCalled = false
@@ -201,6 +279,8 @@ class FlowControllerTest extends MidolmanSpec {
                     linkedCallbackCalled = true
                 }
             })
+        var managedFlow: ManagedFlowImpl = _
+
         def add(tags: FlowTag*): ManagedFlowImpl = {
             val flow = (linked match {
                 case null =>
@@ -222,6 +302,7 @@ class FlowControllerTest extends MidolmanSpec {
                 flow.linkedFlow.callbacks.add(
                     new CallbackSpec(linkedCallbackCalledCbId, new Array[Byte](0)))
             }
+            managedFlow = flow
             flow
         }
 
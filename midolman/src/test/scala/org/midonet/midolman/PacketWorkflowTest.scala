@@ -541,6 +541,38 @@ class PacketWorkflowTest extends MidolmanSpec {
             metrics.contextsAllocated.getCount shouldBe 1200
             metrics.contextsPooled.getCount shouldBe 1023
         }
+
+        scenario("Pooled contexts are fully reset") {
+            Given("A context with simulation state")
+            val context = new PacketContext()
+            context.inputPort = UUID.randomUUID()
+            context.currentDevice = UUID.randomUUID()
+            context.nwDstRewritten = true
+            context.flowTags.add(FlowTagger.tagForDpPort(1))
+
+            When("The context is reset")
+            context.resetContext()
+
+            Then("The simulation state is cleared")
+            context.inputPort shouldBe null
+            context.currentDevice shouldBe null
+            context.routeTo shouldBe null
+            context.nwDstRewritten shouldBe false
+            isCleared(context)
+        }
+
+        scenario("Allocations are measured per packet") {
+            Given("A successful simulation")
+            metrics.sampleAllocations()
+            packetWorkflow.handlePackets(makePacket(1))
+            packetWorkflow.complete(null)
+
+            When("The workflow processes")
+            packetWorkflow.process()
+
+            Then("The allocations per packet are recorded")
+            metrics.bytesAllocatedPerPacket.getCount shouldBe 1
+        }
     }
 
     private def isCleared(context: PacketContext): Unit = {
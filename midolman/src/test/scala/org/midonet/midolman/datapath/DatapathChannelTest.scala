@@ -144,6 +144,51 @@ class DatapathChannelTest extends MidolmanSpec {
                                      FlowActions.reader.deserializeFrom, actions)
         }
 
+        scenario ("Can batch flow creates within a Disruptor batch") {
+            val metrics = new DatapathMetrics(metricRegistry)
+            val batchingFp = new FlowProcessor(
+                new DatapathStateDriver(datapath), ovsFamilies, maxPendingRequests = 1024,
+                maxRequestSize = 2048, factory, factory.selectorProvider,
+                simBackChannel, metrics, clock, flowBatchSize = 16)
+            val contexts = (0 until 3) map { _ =>
+                val context = packetContextFor(ethernet, UUID.randomUUID())
+                context.flowActions.addAll(actions)
+                context.flow = new ManagedFlowImpl(null)
+                context
+            }
+
+            batchingFp.onEvent(new PacketContextHolder(null, contexts(0)), 0,
+                               endOfBatch = false)
+            batchingFp.onEvent(new PacketContextHolder(null, contexts(1)), 1,
+                               endOfBatch = false)
+            nlChannel.packetsWritten.get() should be (0)
+
+            val flowDelete = new FlowOperation(new ArrayObjectPool(0, _ => null),
+                                               new SpscArrayQueue(16))
+            flowDelete.reset(FlowOperation.DELETE, contexts(0).origMatch, 1,
+                             retries = 0)
+            batchingFp.tryEject(0, datapathId, contexts(0).origMatch,
+                                flowDelete) should be (false)
+
+            batchingFp.onEvent(new PacketContextHolder(null, contexts(2)), 2,
+                               endOfBatch = true)
+            nlChannel.packetsWritten.get() should be (1)
+            batchingFp.tryEject(0, datapathId, contexts(0).origMatch,
+                                flowDelete) should be (true)
+
+            val bb = nlChannel.written.poll()
+            bb.flip()
+            var messages = 0
+            var start = 0
+            while (start < bb.limit()) {
+                bb.getInt(start + NetlinkMessage.NLMSG_PID_OFFSET) should be (10)
+                start += bb.getInt(start + NetlinkMessage.NLMSG_LEN_OFFSET)
+                messages += 1
+            }
+            messages should be (3)
+            metrics.flowCreateBatchSize.getSnapshot.getMax should be (3)
+        }
+
         scenario ("Channel is bounded and thread spins when ring buffer is full") {
             var i = 0
             val context = packetContextFor(ethernet, UUID.randomUUID())
@@ -16,7 +16,7 @@
 
 package org.midonet.midolman.datapath
 
-import java.util.UUID
+import java.util.{ArrayList => JArrayList, UUID}
 import java.util.concurrent.atomic.AtomicBoolean
 
 import scala.annotation.tailrec
@@ -31,6 +31,7 @@ import org.scalatest.{FlatSpec, Matchers}
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.flows.{FlowKey, FlowKeys}
 import org.midonet.odp.{FlowMatch, Packet}
 import org.midonet.packets._
 import org.midonet.packets.util.PacketBuilder
@@ -186,6 +187,39 @@ class MSSClampTest extends FlatSpec with Matchers {
         success.get shouldBe true
     }
 
+    it should "Reduce MSS for encapsulated TCP SYN in a VLAN-tagged frame" in {
+        val pkt = { eth src srcMac2 dst dstMac2 vlan 10 } <<
+                  { ip4 src srcIp2 dst dstIp2 } <<
+                  { udp src srcPort2 dst UDP.VXLAN.toShort } <<
+                  { vxlan vni 5 } <<
+                  { eth src srcMac1 dst dstMac1 } <<
+                  { ip4 src srcIp1 dst dstIp2 } <<
+                  { tcp src srcPort1 dst dstPort1 flags synFlags mss 1460 }
+        val ctx = makeUnparsedCtx(pkt, List(
+            FlowKeys.etherType(IPv4.ETHERTYPE),
+            FlowKeys.udp(srcPort2, UDP.VXLAN)))
+
+        PacketExecutor.clampMss(ctx, log)
+
+        ctx.packet.isParsed shouldBe true
+        checkMss(ctx.packet.getEthernet, 1406)
+        checkChecksumCleared(ctx.packet.getEthernet, cleared = true)
+    }
+
+    it should "not deserialize TCP ACK packets in a VLAN-tagged frame" in {
+        val pkt = { eth src srcMac1 dst dstMac1 vlan 10 } <<
+                  { ip4 src srcIp1 dst dstIp1 } <<
+                  { tcp src srcPort1 dst dstPort1 flags ackFlags mss 1460 }
+        val ctx = makeUnparsedCtx(pkt, List(
+            FlowKeys.etherType(IPv4.ETHERTYPE),
+            FlowKeys.tcp(srcPort1, dstPort1),
+            FlowKeys.tcpFlags(ackFlags)))
+
+        PacketExecutor.clampMss(ctx, log)
+
+        ctx.packet.isParsed shouldBe false
+    }
+
     private def clampAndCheck(ctx: PacketContext, mss: Short,
                               checksumCleared: Boolean): Unit = {
         val eth = ctx.packet.getEthernet
@@ -206,6 +240,21 @@ class MSSClampTest extends FlatSpec with Matchers {
         ctx
     }
 
+    /** Creates a context for a packet that has not been deserialized, whose
+      * flow match has the keys of a VLAN-tagged frame. */
+    private def makeUnparsedCtx(bldr: PacketBuilder[Ethernet],
+                                encapKeys: List[FlowKey]): PacketContext = {
+        val keys = new JArrayList[FlowKey]()
+        keys.add(FlowKeys.etherType(Ethernet.VLAN_TAGGED_FRAME))
+        keys.add(FlowKeys.vlan(10))
+        keys.add(FlowKeys.encap(encapKeys))
+        val pkt = Packet.fromData(bldr.packet.serialize(), new FlowMatch(keys))
+        val ctx = PacketContext.generated(cookie, pkt, pkt.getMatch)
+        cookie += 1
+        ctx.inputPort = UUID.randomUUID()
+        ctx
+    }
+
     @tailrec
     private def checkMss(pkt: IPacket, mss: Short): Unit = pkt match {
         case t: TCP if t.getOptions ne null =>
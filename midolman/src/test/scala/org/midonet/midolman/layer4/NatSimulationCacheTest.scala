@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer4
+
+import java.{util => ju}
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import com.typesafe.config.{Config, ConfigValueFactory}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.midolman.rules.{Condition, NatTarget, RuleResult}
+import org.midonet.midolman.simulation.{Router => SimRouter}
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
+import org.midonet.midolman.state.NatState.NatKey
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.MockPacketWorkflow
+import org.midonet.odp.{FlowMatches, Packet}
+import org.midonet.odp.flows._
+import org.midonet.packets.NatState.{FWD_SNAT, NatBinding}
+import org.midonet.packets._
+import org.midonet.packets.util.AddressConversions._
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.sdn.state.{FlowStateTable, OnHeapShardedFlowStateTable}
+import org.midonet.util.collection.Reducer
+
+@RunWith(classOf[JUnitRunner])
+class NatSimulationCacheTest extends MidolmanSpec {
+
+    private val vmMac = MAC.fromString("02:aa:bb:cc:dd:d1")
+    private val vmIp = IPv4Addr("10.0.0.1")
+    private val vmNetwork = new IPv4Subnet("10.0.0.0", 24)
+    private val vmRouterMac = MAC.fromString("22:aa:aa:ff:ff:ff")
+    private val vmRouterIp = IPv4Addr("10.0.0.254")
+
+    private val uplinkGatewayIp = IPv4Addr("180.0.1.1")
+    private val uplinkGatewayMac = MAC.fromString("02:0b:09:07:05:03")
+    private val uplinkNetwork = new IPv4Subnet("180.0.1.0", 24)
+    private val uplinkPortIp = IPv4Addr("180.0.1.2")
+    private val uplinkPortMac = MAC.fromString("02:0a:08:06:04:02")
+
+    private val snatAddress = IPv4Addr("180.0.1.200")
+    private val remoteIp = IPv4Addr("62.72.82.1")
+
+    private var router: UUID = null
+    private var vmPort: UUID = null
+    private var uplinkPort: UUID = null
+    private var portMap = Map[Int, UUID]()
+
+    private val conntrackTable =
+        new OnHeapShardedFlowStateTable[ConnTrackKey, ConnTrackValue](clock)
+            .addShard()
+    private val natTable =
+        new OnHeapShardedFlowStateTable[NatKey, NatBinding](clock).addShard()
+
+    private var pktWkfl: MockPacketWorkflow = null
+    private val packetOutQueue: ju.Queue[(Packet, ju.List[FlowAction])] =
+        new ju.LinkedList[(Packet, ju.List[FlowAction])]
+
+    override protected def fillConfig(config: Config) = {
+        super.fillConfig(config)
+            .withValue("agent.midolman.simulation_cache_size",
+                       ConfigValueFactory.fromAnyRef(64))
+            .withValue("agent.midolman.simulation_cache_expiration",
+                       ConfigValueFactory.fromAnyRef("1h"))
+    }
+
+    override def beforeTest(): Unit = {
+        router = newRouter("router")
+
+        vmPort = newRouterPort(router, vmRouterMac, vmRouterIp.toString,
+                               vmNetwork.getAddress.toString,
+                               vmNetwork.getPrefixLen)
+        materializePort(vmPort, hostId, "vmPort")
+        portMap += 1 -> vmPort
+        newRoute(router, "0.0.0.0", 0, vmNetwork.getAddress.toString,
+                 vmNetwork.getPrefixLen, NextHop.PORT, vmPort,
+                 new IPv4Addr(Route.NO_GATEWAY).toString, 10)
+
+        uplinkPort = newRouterPort(router, uplinkPortMac, uplinkPortIp.toString,
+                                   uplinkNetwork.getAddress.toString,
+                                   uplinkNetwork.getPrefixLen)
+        materializePort(uplinkPort, hostId, "uplinkPort")
+        portMap += 2 -> uplinkPort
+        newRoute(router, "0.0.0.0", 0, "0.0.0.0", 0, NextHop.PORT, uplinkPort,
+                 uplinkGatewayIp.toString, 1)
+
+        val inChain = newInboundChainOnRouter("rtrInChain", router)
+        val outChain = newOutboundChainOnRouter("rtrOutChain", router)
+
+        // Reverse the SNAT of return packets.
+        newReverseNatRuleOnChain(inChain, 1, new Condition(),
+                                 RuleResult.Action.CONTINUE, isDnat = false)
+
+        // Drop connections initiated from the uplink.
+        val dropCond = new Condition()
+        dropCond.matchForwardFlow = true
+        dropCond.inPortIds = new ju.HashSet[UUID]()
+        dropCond.inPortIds.add(uplinkPort)
+        newLiteralRuleOnChain(inChain, 2, dropCond, RuleResult.Action.DROP)
+
+        // SNAT the packets leaving the VM network.
+        val snatCond = new Condition()
+        snatCond.nwSrcIp = vmNetwork
+        snatCond.nwDstIp = vmNetwork
+        snatCond.nwDstInv = true
+        newForwardNatRuleOnChain(outChain, 1, snatCond,
+                                 RuleResult.Action.CONTINUE,
+                                 Set(new NatTarget(snatAddress, snatAddress,
+                                                   10001, 65535)),
+                                 isDnat = false)
+
+        val simRouter = fetchDevice[SimRouter](router)
+        feedArpTable(simRouter, uplinkGatewayIp, uplinkGatewayMac)
+        feedArpTable(simRouter, vmIp, vmMac)
+        fetchChains(inChain, outChain)
+        fetchPorts(vmPort, uplinkPort)
+
+        pktWkfl = packetWorkflow(portMap, conntrackTable = conntrackTable,
+                                 natTable = natTable)
+        pktWkfl.process()
+
+        mockDpChannel.packetsExecuteSubscribe(
+            (packet, actions) => packetOutQueue.add((packet, actions)))
+    }
+
+    feature("Simulations creating connection tracking and NAT state are " +
+            "cached") {
+        scenario("Packets of a SNAT connection replay the cached simulation") {
+            Given("A first forward packet of a connection")
+            injectTcp(vmPort, vmMac, vmIp, 30501, vmRouterMac, remoteIp, 22)
+
+            Then("The packet is simulated and SNAT'ed")
+            metrics.simulationCacheMisses.getCount shouldBe 1
+            metrics.simulationCacheHits.getCount shouldBe 0
+            val first = forwardedPacket(uplinkPort)
+            val firstIp = first.getPayload.asInstanceOf[IPv4]
+            val firstTcp = firstIp.getPayload.asInstanceOf[TCP]
+            IPv4Addr(firstIp.getSourceAddress) shouldBe snatAddress
+
+            And("The simulation creates the conntrack and NAT keys")
+            val snatKey = natKeys(FWD_SNAT).head
+            natTable.getRefCount(snatKey) shouldBe 1
+            val conntrackKeys = keys(conntrackTable)
+            conntrackKeys should have size 1
+            conntrackTable.getRefCount(conntrackKeys.head) shouldBe 1
+
+            When("A second forward packet of the connection is received")
+            injectTcp(vmPort, vmMac, vmIp, 30501, vmRouterMac, remoteIp, 22)
+
+            Then("The cached simulation is replayed")
+            metrics.simulationCacheMisses.getCount shouldBe 1
+            metrics.simulationCacheHits.getCount shouldBe 1
+
+            And("The packet is translated with the same binding")
+            val second = forwardedPacket(uplinkPort)
+            val secondIp = second.getPayload.asInstanceOf[IPv4]
+            val secondTcp = secondIp.getPayload.asInstanceOf[TCP]
+            IPv4Addr(secondIp.getSourceAddress) shouldBe snatAddress
+            secondTcp.getSourcePort shouldBe firstTcp.getSourcePort
+
+            And("The replay references the existing keys")
+            natKeys(FWD_SNAT) should contain only snatKey
+            natTable.getRefCount(snatKey) shouldBe 2
+            keys(conntrackTable) shouldBe conntrackKeys
+            conntrackTable.getRefCount(conntrackKeys.head) shouldBe 2
+
+            When("A return packet of the connection is received")
+            injectTcp(uplinkPort, uplinkGatewayMac, remoteIp, 22,
+                      uplinkPortMac, snatAddress,
+                      firstTcp.getSourcePort.toShort)
+
+            Then("The packet is reverse translated to the VM")
+            val reply = forwardedPacket(vmPort)
+            val replyIp = reply.getPayload.asInstanceOf[IPv4]
+            IPv4Addr(replyIp.getDestinationAddress) shouldBe vmIp
+            replyIp.getPayload.asInstanceOf[TCP].getDestinationPort shouldBe 30501
+
+            When("A packet of a connection initiated from the uplink is " +
+                 "received")
+            injectTcp(uplinkPort, uplinkGatewayMac, remoteIp, 23,
+                      uplinkPortMac, snatAddress,
+                      firstTcp.getSourcePort.toShort)
+
+            Then("The packet is dropped")
+            packetOutQueue shouldBe empty
+        }
+
+        scenario("A cached simulation is not replayed after its state expires") {
+            Given("A cached simulation of a SNAT connection")
+            injectTcp(vmPort, vmMac, vmIp, 30501, vmRouterMac, remoteIp, 22)
+            val snatKey = natKeys(FWD_SNAT).head
+            forwardedPacket(uplinkPort)
+
+            When("The NAT binding expires")
+            natTable.unref(snatKey)
+            natTable.unref(natKeys(NatState.REV_SNAT).head)
+            clock.time += FlowStateStore.DEFAULT_EXPIRATION.toNanos + 1
+            pktWkfl.process()
+            natKeys(FWD_SNAT) shouldBe empty
+
+            And("A packet of the same connection is received")
+            injectTcp(vmPort, vmMac, vmIp, 30501, vmRouterMac, remoteIp, 22)
+
+            Then("The packet is simulated again and creates a new binding")
+            metrics.simulationCacheHits.getCount shouldBe 0
+            metrics.simulationCacheMisses.getCount shouldBe 2
+            forwardedPacket(uplinkPort)
+            natKeys(FWD_SNAT) should have size 1
+            natTable.getRefCount(natKeys(FWD_SNAT).head) shouldBe 1
+        }
+    }
+
+    private def injectTcp(inPort: UUID, srcMac: MAC, srcIp: IPv4Addr,
+                          srcPort: Short, dstMac: MAC, dstIp: IPv4Addr,
+                          dstPort: Short): Unit = {
+        val frame = { eth src srcMac dst dstMac } <<
+            { ip4 src srcIp dst dstIp } <<
+            { tcp src srcPort dst dstPort flags TCP.Flag.Ack.bit.toShort } <<
+            payload("foobar")
+        val inPortNum = portMap.map(_.swap).apply(inPort)
+        val packet = new Packet(frame,
+                                FlowMatches.fromEthernetPacket(frame)
+                                    .addKey(FlowKeys.inPort(inPortNum))
+                                    .setInputPortNumber(inPortNum))
+        pktWkfl.handlePackets(packet)
+    }
+
+    private def forwardedPacket(outPort: UUID): Ethernet = {
+        packetOutQueue should have size 1
+        val (packet, actions) = packetOutQueue.remove()
+        val outPorts = actions.asScala.collect {
+            case o: FlowActionOutput => portMap(o.getPortNumber)
+        }
+        outPorts should contain only outPort
+        applyPacketActions(packet.getEthernet, actions)
+    }
+
+    private def natKeys(keyType: NatState.KeyType): Set[NatKey] =
+        keys(natTable).filter(_.keyType == keyType)
+
+    private def keys[K, V](table: FlowStateTable[K, V]): Set[K] = {
+        table.fold(Set.empty[K], new Reducer[K, V, Set[K]] {
+            override def apply(acc: Set[K], key: K, value: V): Set[K] =
+                acc + key
+        })
+    }
+}
@@ -375,6 +375,100 @@ class FlowSenderWorkerTest extends MidolmanSpec with MidonetEventually {
                 worker.stopAsync().awaitTerminated()
             }
         }
+        scenario("batched messages sent correctly") {
+            val target = HostAndPort.fromString("localhost:50027")
+
+            val confStr =
+                s"""
+                   |agent.flow_history.enabled=true
+                   |agent.flow_history.endpoint_service="$EndpointServiceName"
+                   |agent.flow_history.batch_max_bytes=1024
+                """.stripMargin
+            val conf = MidolmanConfig.forTests(confStr)
+
+            val (worker, discovery) = createWorker(conf)
+
+            worker.startAsync().awaitRunning()
+
+            discovery.registerServiceInstance(EndpointServiceName,
+                                              target)
+
+            val observer = new TestAwaitableObserver[Array[Byte]]
+
+            val srv = getDelimBytesServer(50027, observer)
+
+            srv.startAsync().awaitRunning(Timeout.toMillis,
+                                          TimeUnit.MILLISECONDS)
+
+            try {
+                val bufs = for (_ <- 0 until 100)
+                    yield randomBytes(Random.nextInt(400) + 1)
+
+                for (buf <- bufs) {
+                    eventually {
+                        worker.submit(ByteBuffer.wrap(buf)) shouldBe true
+                    }
+                }
+
+                observer.awaitOnNext(bufs.size, Timeout) shouldBe true
+
+                val receivedData = observer.getOnNextEvents.asScala
+
+                receivedData.size shouldBe bufs.size
+                for ((received, sent) <- receivedData.zip(bufs)) {
+                    received shouldBe sent
+                }
+            } finally {
+                srv.stopAsync().awaitTerminated(Timeout.toMillis,
+                                                TimeUnit.MILLISECONDS)
+                worker.stopAsync().awaitTerminated()
+            }
+        }
+        scenario("unbatched messages sent correctly") {
+            val target = HostAndPort.fromString("localhost:50028")
+
+            val confStr =
+                s"""
+                   |agent.flow_history.enabled=true
+                   |agent.flow_history.endpoint_service="$EndpointServiceName"
+                   |agent.flow_history.batch_max_bytes=0
+                """.stripMargin
+            val conf = MidolmanConfig.forTests(confStr)
+
+            val (worker, discovery) = createWorker(conf)
+
+            worker.startAsync().awaitRunning()
+
+            discovery.registerServiceInstance(EndpointServiceName,
+                                              target)
+
+            val observer = new TestAwaitableObserver[Array[Byte]]
+
+            val srv = getDelimBytesServer(50028, observer)
+
+            srv.startAsync().awaitRunning(Timeout.toMillis,
+                                          TimeUnit.MILLISECONDS)
+
+            try {
+                val buf1 = randomBytes(Random.nextInt(400) + 1)
+                val buf2 = randomBytes(Random.nextInt(400) + 1)
+
+                worker.submit(ByteBuffer.wrap(buf1))
+                worker.submit(ByteBuffer.wrap(buf2))
+
+                observer.awaitOnNext(2, Timeout) shouldBe true
+
+                val receivedData = observer.getOnNextEvents.asScala
+
+                receivedData.size shouldBe 2
+                receivedData.head shouldBe buf1
+                receivedData(1) shouldBe buf2
+            } finally {
+                srv.stopAsync().awaitTerminated(Timeout.toMillis,
+                                                TimeUnit.MILLISECONDS)
+                worker.stopAsync().awaitTerminated()
+            }
+        }
         scenario("too big messages should throw exception") {
             val target = HostAndPort.fromString("localhost:50024")
 
@@ -28,7 +28,7 @@ import org.midonet.odp.FlowMatches
 import org.midonet.packets.{IPv4Addr, MAC, Ethernet}
 import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.sdn.flows.FlowTagger.MeterTag
+import org.midonet.sdn.flows.FlowTagger.{FlowTag, MeterTag}
 
 abstract class MeterRegistryTest extends FeatureSpec with Matchers {
 
@@ -156,3 +156,43 @@ class OnHeapMeterRegistryTest extends MeterRegistryTest {
 class OffHeapMeterRegistryTest extends MeterRegistryTest {
     override def createRegistry(): MeterRegistry = MeterRegistry.newOffHeap()
 }
+
+@RunWith(classOf[JUnitRunner])
+class TopKMeterRegistryTest extends MeterRegistryTest {
+    override def createRegistry(): MeterRegistry =
+        MeterRegistry.newTopK(16, 64, 4, 10)
+
+    private def tags(meters: MeterTag*) = new ArrayList[FlowTag](meters.asJava)
+
+    feature("Top-K meter registry") {
+        scenario("reports only the top meters") {
+            val registry = MeterRegistry.newTopK(2, 64, 4, 10)
+
+            registry.recordPacket(100, tags(deviceA))
+            registry.recordPacket(10, tags(deviceB))
+            registry.getMeterKeys should have size 2
+
+            registry.recordPacket(1000, tags(commonDevice))
+            registry.getMeterKeys should have size 2
+            registry.getMeterKeys should contain (deviceA.meterName)
+            registry.getMeterKeys should contain (commonDevice.meterName)
+            registry.getMeter(deviceB.meterName) shouldBe null
+
+            val stats = registry.getMeter(commonDevice.meterName)
+            stats.packets should === (1)
+            stats.bytes should === (1000)
+        }
+
+        scenario("evicted meters keep their counts in the sketch") {
+            val registry = MeterRegistry.newTopK(1, 64, 4, 10)
+
+            registry.recordPacket(100, tags(deviceA))
+            registry.recordPacket(300, tags(deviceB))
+            registry.getMeterKeys.asScala.toSeq shouldBe Seq(deviceB.meterName)
+
+            registry.recordPacket(250, tags(deviceA))
+            registry.getMeterKeys.asScala.toSeq shouldBe Seq(deviceA.meterName)
+            registry.getMeter(deviceA.meterName).bytes should be >= 350L
+        }
+    }
+}
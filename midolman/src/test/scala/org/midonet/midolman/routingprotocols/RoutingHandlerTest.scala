@@ -435,6 +435,24 @@ class RoutingHandlerTest extends FeatureSpecLike
             verify(routingStorage).addRoute(argThat(matchRoute(dst2, gw)),
                                             Eq(rport.id))
         }
+
+        scenario("routes lost by the storage are published again") {
+            val dst = "10.10.10.0/24"
+            val gw = "192.168.80.254"
+
+            pushRoute(dst, gw)
+            verify(routingStorage).addRoute(argThat(matchRoute(dst, gw)),
+                                            Eq(rport.id))
+
+            reset(routingStorage)
+
+            // The storage reports no learned routes, such as after a session
+            // loss removed the ephemeral routes.
+            routingHandler ! RoutingHandler.SyncPeerRoutes
+
+            verify(routingStorage).addRoute(argThat(matchRoute(dst, gw)),
+                                            Eq(rport.id))
+        }
     }
 
     feature("reacts to changes in the bgp session configuration") {
@@ -18,7 +18,7 @@ package org.midonet.midolman.simulation
 import org.midonet.midolman.rules._
 import org.midonet.midolman.rules.RuleResult.Action
 import org.midonet.odp.FlowMatch
-import org.midonet.packets.IPAddr
+import org.midonet.packets.{IPAddr, IPv4Addr, IPv4Subnet}
 
 import java.util.UUID
 import org.junit.runner.RunWith
@@ -272,6 +272,51 @@ class ChainTest extends Suite
         applyChain(innerAndOuterChain).action should be (Action.REJECT)
     }
 
+    /*
+     * compiledChain (with classifier):
+     *   DNAT 1.2.3.4 -> 10.0.0.1, Continue
+     *   Drop if destination is 10.0.0.1 <-- Stop here
+     *   Accept
+     */
+    def testDnatThenDropOnTranslatedAddress(): Unit = {
+        val c = makeChain(List(makeDnatRule("1.2.3.4", "10.0.0.1"),
+                               makeDstRule("10.0.0.1", Action.DROP),
+                               acceptRule), compiled = true)
+        c.classifier should not be null
+        applyChain(c).action shouldBe Action.DROP
+        pktMatch.getNetworkDstIP shouldBe IPAddr.fromString("10.0.0.1")
+    }
+
+    /*
+     * outerChain (with classifier):
+     *   Jump to innerChain:
+     *     DNAT 1.2.3.4 -> 10.0.0.1, Continue
+     *   Drop if destination is 10.0.0.1 <-- Stop here
+     *   Accept
+     */
+    def testJumpDnatThenDropOnTranslatedAddress(): Unit = {
+        val innerChain = makeChain(List(makeDnatRule("1.2.3.4", "10.0.0.1")))
+        val outerChain = makeChain(List(makeJumpRule(innerChain),
+                                        makeDstRule("10.0.0.1", Action.DROP),
+                                        acceptRule),
+                                   List(innerChain), compiled = true)
+        outerChain.classifier should not be null
+        applyChain(outerChain).action shouldBe Action.DROP
+    }
+
+    /*
+     * compiledChain (with classifier):
+     *   DNAT 1.2.3.4 -> 10.0.0.1, Continue
+     *   Drop if destination is 1.2.3.4 <-- Not matched after the DNAT
+     *   Accept <-- Stop here
+     */
+    def testDnatThenSkipRuleOnOriginalAddress(): Unit = {
+        val c = makeChain(List(makeDnatRule("1.2.3.4", "10.0.0.1"),
+                               makeDstRule("1.2.3.4", Action.DROP),
+                               acceptRule), compiled = true)
+        applyChain(c).action shouldBe Action.ACCEPT
+    }
+
     private def applyChain(c: Chain) = {
         pktCtx.currentDevice = ownerId
         if (c ne null)
@@ -281,12 +326,29 @@ class ChainTest extends Suite
     }
 
     private def makeChain(rules: List[Rule],
-                          jumpTargets: List[Chain] = Nil): Chain = {
+                          jumpTargets: List[Chain] = Nil,
+                          compiled: Boolean = false): Chain = {
         val chainId = UUID.randomUUID
         val jumpTargetMap = jumpTargets.map(c => (c.id, c)).toMap.asJava
         val name = "Chain-" + chainId.toString
         rules.foreach(_.chainId = chainId)
-        new Chain(chainId, rules.asJava, jumpTargetMap, name)
+        val classifier =
+            if (compiled) RuleClassifier.compile(rules.asJava) else null
+        new Chain(chainId, rules.asJava, jumpTargetMap, name,
+                  classifier = classifier)
+    }
+
+    private def makeDstRule(dst: String, action: Action): Rule = {
+        val cond = new Condition()
+        cond.nwDstIp = IPv4Subnet.fromCidr(s"$dst/32")
+        new LiteralRule(cond, action)
+    }
+
+    private def makeDnatRule(dst: String, target: String): Rule = {
+        val cond = new Condition()
+        cond.nwDstIp = IPv4Subnet.fromCidr(s"$dst/32")
+        new StaticForwardNatRule(cond, Action.CONTINUE, null, true,
+                                 Set(new NatTarget(IPv4Addr(target))).asJava)
     }
 
     private def makeJumpRule(target: Chain) =
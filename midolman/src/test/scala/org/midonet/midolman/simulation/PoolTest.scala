@@ -27,7 +27,7 @@ import org.scalatest.junit.JUnitRunner
 import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, SimulationResult}
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.state.NatState.NatKey
-import org.midonet.midolman.state.l4lb.LBStatus
+import org.midonet.midolman.state.l4lb.{LBStatus, PoolLBMethod}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.odp.flows.{FlowActionSetKey, FlowKeyIPv4}
 import org.midonet.packets.NatState.NatBinding
@@ -584,6 +584,102 @@ class PoolTest extends MidolmanSpec {
         }
     }
 
+    feature("Maglev selection of pool members") {
+        scenario("Connections are balanced to the same member without NAT state") {
+            Given("A pool with the Maglev method and all members enabled")
+            setPoolLbMethod(pool, PoolLBMethod.MAGLEV)
+            enableAllBackends
+
+            When("Several connections are sent to the VIP")
+            val first = sendConnectionsAndGetDestIps(timesRun)
+
+            Then("The connections are balanced to several members")
+            first.toSet.size should be > 1
+
+            When("The same connections are sent without the NAT state")
+            resetNatState()
+            val second = sendConnectionsAndGetDestIps(timesRun)
+
+            Then("Every connection is balanced to the same member")
+            second shouldBe first
+        }
+
+        scenario("Only the connections of a disabled member are remapped") {
+            Given("A pool with the Maglev method and all members enabled")
+            setPoolLbMethod(pool, PoolLBMethod.MAGLEV)
+            enableAllBackends
+            val first = sendConnectionsAndGetDestIps(timesRun)
+
+            When("Disabling the member of the first connection")
+            setPoolMemberDisabledByIp(first.head)
+            resetNatState()
+            val second = sendConnectionsAndGetDestIps(timesRun)
+
+            Then("No connection is balanced to the disabled member")
+            second should not contain first.head
+
+            And("Most connections of other members are not remapped")
+            val others = (first zip second).filter(_._1 != first.head)
+            others.count(c => c._1 == c._2) should be > others.size / 2
+        }
+
+        scenario("With sticky source IP, connections go to the same member") {
+            Given("A pool with the Maglev method and sticky source IP")
+            setPoolLbMethod(pool, PoolLBMethod.MAGLEV)
+            vipEnableStickySourceIP(vip)
+            enableAllBackends
+
+            When("Several connections are sent to the VIP")
+            val destIps = sendConnectionsAndGetDestIps(timesRun)
+
+            Then("All connections are balanced to the same member")
+            destIps.toSet.size shouldBe 1
+        }
+    }
+
+    feature("VIPs are found by address and port") {
+        scenario("Packets are balanced by the VIP of their address and port") {
+            Given("Other VIPs with the same address or the same port")
+            val otherPort: Short = 80
+            val otherIp = "200.200.200.201"
+            newVip(pool, vipIp.toUnicastString, otherPort)
+            newVip(pool, otherIp, vipPort)
+
+            Then("Packets to every VIP are load balanced")
+            sendPacket((exteriorClientPort,
+                        clientToPkt(vipIp.toUnicastString, otherPort))) should be (
+                toPort(exteriorBackendPorts(0)) {
+                    FlowTagger.tagForRouter(router)})
+            sendPacket((exteriorClientPort,
+                        clientToPkt(otherIp, vipPort))) should be (
+                toPort(exteriorBackendPorts(0)) {
+                    FlowTagger.tagForRouter(router)})
+
+            And("Packets to another port of a VIP address are dropped")
+            sendPacket((exteriorClientPort,
+                        clientToPkt(vipIp.toUnicastString, 23))) should be (
+                dropped {FlowTagger.tagForRouter(router)})
+        }
+    }
+
+    private def clientToPkt(dstIp: String, dstPort: Short): Ethernet =
+        { eth src macClientSide dst fetchDevice[RouterPort](exteriorClientPort).portMac } <<
+                { ip4 src ipClientSide.toUnicastString dst dstIp } <<
+                { tcp src clientSrcPort dst dstPort }
+
+    private def resetNatState(): Unit = {
+        natTx = new FlowStateTransaction(
+            new OnHeapShardedFlowStateTable[NatKey, NatBinding]().addShard())
+    }
+
+    /** Sends a connection from each source port offset, and returns the
+      * destination address of each connection in order. */
+    private[this] def sendConnectionsAndGetDestIps(numConnections: Int)
+    : Seq[Int] =
+        (1 to numConnections) map { n =>
+            getDestIpsFromResult(sendPacket(fromClientToVipOffset(n.toShort))).head
+        }
+
     private def clientToVipPkt(srcTpPort: Short): Ethernet =
         { eth src macClientSide dst fetchDevice[RouterPort](exteriorClientPort).portMac } <<
                 { ip4 src ipClientSide.toUnicastString dst vipIp.toUnicastString } <<
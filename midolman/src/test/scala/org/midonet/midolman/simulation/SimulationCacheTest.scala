@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, NoOp}
+import org.midonet.midolman.simulation.Simulator.ToPortAction
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
+import org.midonet.midolman.state.{ConnTrackState, HappyGoLuckyLeaser}
+import org.midonet.midolman.state.NatState
+import org.midonet.midolman.state.NatState.NatKey
+import org.midonet.midolman.state.TraceState.{TraceContext, TraceKey}
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.odp.flows.FlowKeys
+import org.midonet.odp.{FlowMatch, Packet}
+import org.midonet.packets.NatState.{NatBinding, REV_SNAT}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC, TCP}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.state.{FlowStateTable, FlowStateTransaction, OnHeapShardedFlowStateTable}
+import org.midonet.util.concurrent.MockClock
+
+@RunWith(classOf[JUnitRunner])
+class SimulationCacheTest extends FeatureSpec with Matchers
+                          with GivenWhenThen {
+
+    private val srcMac = MAC.random()
+    private val dstMac = MAC.random()
+    private val portId = UUID.randomUUID()
+    private val bridgeTag = FlowTagger.tagForBridge(UUID.randomUUID())
+
+    private def context(dst: String, srcPort: Short, ttl: Byte = 64,
+                        conntrackTable: FlowStateTable[ConnTrackKey,
+                                                       ConnTrackValue] = null,
+                        natTable: FlowStateTable[NatKey, NatBinding] = null)
+    : PacketContext = {
+        val frame: Ethernet = { eth src srcMac dst dstMac } <<
+                              { ip4 src "10.0.0.1" dst dst ttl ttl } <<
+                              { tcp src srcPort dst 80 }
+        val fmatch = new FlowMatch(FlowKeys.fromEthernetPacket(frame))
+        val context = PacketContext.generated(1, new Packet(frame, fmatch),
+                                              fmatch)
+        context.initialize(
+            new FlowStateTransaction(conntrackTable),
+            new FlowStateTransaction(natTable),
+            HappyGoLuckyLeaser,
+            new FlowStateTransaction[TraceKey, TraceContext](null))
+        context
+    }
+
+    /** Simulates a device that forwards the packet according to its network
+      * destination, and optionally decrements the TTL. */
+    private def simulate(context: PacketContext,
+                         decrementTtl: Boolean = false): Unit = {
+        context.wcmatch.getNetworkDstIP
+        if (decrementTtl) {
+            context.wcmatch.setNetworkTTL(
+                (context.wcmatch.getNetworkTTL - 1).toByte)
+        }
+        context.addVirtualAction(ToPortAction(portId))
+        context.addFlowTag(bridgeTag)
+    }
+
+    feature("Simulation cache replays simulations") {
+        scenario("A simulation is replayed for matching packets") {
+            Given("A simulation cache")
+            val clock = new MockClock
+            val cache = new SimulationCache(16, 1000L, clock)
+
+            When("Adding a simulation")
+            val context1 = context("10.0.0.2", 1000)
+            cache.replay(context1) shouldBe null
+            simulate(context1)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            Then("The cache contains the simulation")
+            cache.size shouldBe 1
+
+            And("The simulation is replayed for a different source port")
+            val context2 = context("10.0.0.2", 2000)
+            cache.replay(context2) shouldBe AddVirtualWildcardFlow
+            context2.virtualFlowActions should contain only ToPortAction(portId)
+            context2.flowTags should contain only bridgeTag
+            context2.origMatch.isSeen(Field.NetworkDst) shouldBe true
+            context2.origMatch.isSeen(Field.SrcPort) shouldBe false
+
+            And("The simulation is not replayed for a different destination")
+            cache.replay(context("10.0.0.3", 1000)) shouldBe null
+        }
+
+        scenario("Modified fields are restored") {
+            Given("A simulation cache with a simulation decrementing the TTL")
+            val cache = new SimulationCache(16, 1000L, new MockClock)
+            val context1 = context("10.0.0.2", 1000, ttl = 10)
+            context1.wcmatch.getNetworkTTL
+            simulate(context1, decrementTtl = true)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            When("Replaying the simulation")
+            val context2 = context("10.0.0.2", 2000, ttl = 10)
+            cache.replay(context2) shouldBe AddVirtualWildcardFlow
+
+            Then("The TTL is decremented")
+            context2.wcmatch.getNetworkTTL shouldBe 9
+            context2.wcmatch.getSrcPort shouldBe 2000
+
+            And("The simulation is not replayed for a different TTL")
+            cache.replay(context("10.0.0.2", 2000, ttl = 20)) shouldBe null
+        }
+
+        scenario("Simulations are invalidated by flow tags") {
+            Given("A simulation cache with a simulation")
+            val cache = new SimulationCache(16, 1000L, new MockClock)
+            val context1 = context("10.0.0.2", 1000)
+            simulate(context1)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            When("Invalidating a different tag")
+            cache.invalidate(FlowTagger.tagForBridge(UUID.randomUUID()))
+
+            Then("The simulation is cached")
+            cache.size shouldBe 1
+
+            When("Invalidating the simulation tag")
+            cache.invalidate(bridgeTag)
+
+            Then("The simulation is removed")
+            cache.size shouldBe 0
+            cache.replay(context("10.0.0.2", 2000)) shouldBe null
+        }
+
+        scenario("Simulations expire") {
+            Given("A simulation cache with a simulation")
+            val clock = new MockClock
+            val cache = new SimulationCache(16, 1000L, clock)
+            val context1 = context("10.0.0.2", 1000)
+            simulate(context1)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            When("The expiration interval elapses")
+            clock.time += 1001L
+
+            Then("The simulation is not replayed")
+            cache.replay(context("10.0.0.2", 2000)) shouldBe null
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations with side effects are not cached") {
+            Given("A simulation cache")
+            val cache = new SimulationCache(16, 1000L, new MockClock)
+
+            When("Adding a simulation emitting a generated packet")
+            val context1 = context("10.0.0.2", 1000)
+            simulate(context1)
+            context1.generatedPackets += 1
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            And("Adding a simulation consuming the packet")
+            val context2 = context("10.0.0.2", 1000)
+            simulate(context2)
+            cache.add(context2, NoOp, 0, 0, 0)
+
+            Then("The cache is empty")
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations creating flow state reference the state") {
+            Given("A simulation cache and a connection tracking table")
+            val cache = new SimulationCache(16, 1000L, new MockClock)
+            val table = new OnHeapShardedFlowStateTable[ConnTrackKey,
+                                                        ConnTrackValue]()
+                .addShard()
+            val deviceId = UUID.randomUUID()
+
+            When("Adding a forward flow simulation creating a conntrack key")
+            val context1 = context("10.0.0.2", 1000, conntrackTable = table)
+            val key = ConnTrackKey(context1.wcmatch, deviceId)
+            context1.conntrackTx.putAndRef(key, ConnTrackState.RETURN_FLOW)
+            simulate(context1)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+            context1.conntrackTx.commit()
+
+            Then("The cache contains the simulation")
+            cache.size shouldBe 1
+
+            When("Replaying the simulation for the same connection")
+            val context2 = context("10.0.0.2", 1000, conntrackTable = table)
+            cache.replay(context2) shouldBe AddVirtualWildcardFlow
+
+            Then("The replay references the conntrack key")
+            context2.containsFlowState shouldBe true
+            context2.conntrackTx.putCount shouldBe 0
+            context2.conntrackTx.refCount shouldBe 1
+            context2.conntrackTx.refKey(0) shouldBe key
+            context2.conntrackTx.commit()
+            table.getRefCount(key) shouldBe 2
+
+            And("The simulation is not replayed for other connections")
+            cache.replay(context("10.0.0.2", 2000,
+                                 conntrackTable = table)) shouldBe null
+
+            And("The simulation is not replayed without the conntrack key")
+            val emptyTable = new OnHeapShardedFlowStateTable[ConnTrackKey,
+                                                             ConnTrackValue]()
+                .addShard()
+            cache.replay(context("10.0.0.2", 1000,
+                                 conntrackTable = emptyTable)) shouldBe null
+            cache.size shouldBe 0
+        }
+
+        scenario("Simulations reading flow state check the state") {
+            Given("A simulation cache and a NAT table with a binding")
+            val cache = new SimulationCache(16, 1000L, new MockClock)
+            val table = new OnHeapShardedFlowStateTable[NatKey, NatBinding]()
+                .addShard()
+            val deviceId = UUID.randomUUID()
+            val key = NatState.NatKey(REV_SNAT, IPv4Addr("10.0.0.2"), 80,
+                                      IPv4Addr("10.0.0.1"), 1000,
+                                      TCP.PROTOCOL_NUMBER, deviceId)
+            table.putAndRef(key, NatBinding(IPv4Addr("192.168.0.1"), 2000))
+
+            When("Adding a return flow simulation reading the binding")
+            val context1 = context("10.0.0.2", 1000, natTable = table)
+            context1.wcmatch.getSrcPort
+            context1.natTx.get(key)
+            context1.addFlowTag(key)
+            simulate(context1)
+            cache.add(context1, AddVirtualWildcardFlow, 0, 0, 0)
+
+            Then("The simulation is replayed while the binding is unchanged")
+            val context2 = context("10.0.0.2", 1000, natTable = table)
+            cache.replay(context2) shouldBe AddVirtualWildcardFlow
+            context2.natTx.size shouldBe 0
+            context2.flowTags should contain (key)
+
+            When("The binding changes")
+            table.putAndRef(key, NatBinding(IPv4Addr("192.168.0.2"), 2000))
+
+            Then("The simulation is not replayed")
+            cache.replay(context("10.0.0.2", 1000,
+                                 natTable = table)) shouldBe null
+            cache.size shouldBe 0
+        }
+
+        scenario("The cache is cleared when full") {
+            Given("A simulation cache")
+            val cache = new SimulationCache(2, 1000L, new MockClock)
+
+            When("Adding more simulations than the cache capacity")
+            for (index <- 1 to 3) {
+                val ctx = context(s"10.0.0.$index", 1000)
+                simulate(ctx)
+                cache.add(ctx, AddVirtualWildcardFlow, 0, 0, 0)
+            }
+
+            Then("The cache contains the last simulation")
+            cache.size shouldBe 1
+            cache.replay(context("10.0.0.3", 2000)) shouldBe AddVirtualWildcardFlow
+        }
+    }
+}
@@ -35,7 +35,7 @@ import org.midonet.packets.NatState.NatBinding
 import org.midonet.packets.{IPv4Addr, MAC, Ethernet}
 import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.state.{BaseShardedFlowStateTable, FlowStateTransaction}
-import org.midonet.sdn.state.{OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable}
+import org.midonet.sdn.state.{DirectShardedFlowStateTable, OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.util.collection.Reducer
 import org.midonet.util.concurrent.MockClock
@@ -201,3 +201,9 @@ class OffHeapConntrackStateTest extends ConntrackStateTest {
         new MockClock, new ConnTrackKeySerializer, new ConnTrackValueSerializer).addShard()
     override val connTrackTx = new FlowStateTransaction(connTrackStateTable)
 }
+
+class DirectConntrackStateTest extends ConntrackStateTest {
+    override val connTrackStateTable = new DirectShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
+        new MockClock, ConnTrackCodec, 16).addShard()
+    override val connTrackTx = new FlowStateTransaction(connTrackStateTable)
+}
@@ -36,6 +36,7 @@ import org.midonet.packets._
 import org.midonet.packets.NatState._
 import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.state.{OnHeapShardedFlowStateTable, OffHeapShardedFlowStateTable, FlowStateTransaction}
+import org.midonet.sdn.state.DirectShardedFlowStateTable
 import org.midonet.sdn.state.BaseShardedFlowStateTable
 import org.midonet.util.collection.Reducer
 import org.midonet.util.concurrent.MockClock
@@ -513,3 +514,9 @@ class OffHeapNatStateTest extends NatStateTest {
         new MockClock(), new NatKeySerializer, new NatBindingSerializer).addShard()
     override val natTx = new FlowStateTransaction(natStateTable)
 }
+
+class DirectNatStateTest extends NatStateTest {
+    override val natStateTable = new DirectShardedFlowStateTable[NatKey, NatBinding](
+        new MockClock(), NatCodec, 16).addShard()
+    override val natTx = new FlowStateTransaction(natStateTable)
+}
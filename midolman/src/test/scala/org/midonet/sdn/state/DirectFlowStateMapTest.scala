@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.sdn.state
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets.UTF_8
+
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.util.collection.Reducer
+import org.midonet.util.concurrent.TimedExpirationMapTest
+import org.midonet.util.logging.Logger
+
+object DirectFlowStateMapTest {
+
+    /** Encodes strings of up to 15 bytes. */
+    object StringCodec extends FlowStateCodec[String, String] {
+        override val keySize = 16
+        override val valueSize = 16
+
+        override def hash(key: String): Int = key.hashCode
+
+        override def keyEquals(key: String, buf: ByteBuffer,
+                               offset: Int): Boolean =
+            read(buf, offset) == key
+
+        override def writeKey(key: String, buf: ByteBuffer, offset: Int): Unit =
+            write(key, buf, offset)
+
+        override def readKey(buf: ByteBuffer, offset: Int): String =
+            read(buf, offset)
+
+        override def writeValue(value: String, buf: ByteBuffer,
+                                offset: Int): Unit =
+            write(value, buf, offset)
+
+        override def readValue(buf: ByteBuffer, offset: Int): String =
+            read(buf, offset)
+
+        private def write(str: String, buf: ByteBuffer, offset: Int): Unit = {
+            val bytes = str.getBytes(UTF_8)
+            buf.put(offset, bytes.length.toByte)
+            var index = 0
+            while (index < bytes.length) {
+                buf.put(offset + 1 + index, bytes(index))
+                index += 1
+            }
+        }
+
+        private def read(buf: ByteBuffer, offset: Int): String = {
+            val bytes = new Array[Byte](buf.get(offset))
+            var index = 0
+            while (index < bytes.length) {
+                bytes(index) = buf.get(offset + 1 + index)
+                index += 1
+            }
+            new String(bytes, UTF_8)
+        }
+    }
+
+}
+
+class DirectTimedExpirationMapTest extends TimedExpirationMapTest {
+    override val map = new DirectFlowStateMap[String, String](
+        Logger(NOPLogger.NOP_LOGGER), expirationFor,
+        DirectFlowStateMapTest.StringCodec, 16)
+}
+
+@RunWith(classOf[JUnitRunner])
+class DirectFlowStateMapTest extends FeatureSpec with Matchers
+                             with GivenWhenThen {
+
+    import DirectFlowStateMapTest._
+
+    private val keyCollector = new Reducer[String, String, List[String]] {
+        override def apply(acc: List[String], key: String,
+                           value: String): List[String] = key :: acc
+    }
+
+    private def newMap(expiration: Duration = 1 second) =
+        new DirectFlowStateMap[String, String](
+            Logger(NOPLogger.NOP_LOGGER), _ => expiration, StringCodec, 16)
+
+    feature("Direct flow state map stores entries in slots") {
+        scenario("The map grows beyond its initial capacity") {
+            Given("A map with 16 slots")
+            val map = newMap()
+
+            When("Adding 1000 entries")
+            for (index <- 0 until 1000) {
+                map.putAndRef(s"key$index", s"value$index") shouldBe null
+            }
+
+            Then("The map contains all entries")
+            map.size shouldBe 1000
+            for (index <- 0 until 1000) {
+                map.get(s"key$index") shouldBe s"value$index"
+                map.refCount(s"key$index") shouldBe 1
+            }
+        }
+
+        scenario("Deleted slots are reused") {
+            Given("A map")
+            val map = newMap()
+
+            When("Repeatedly adding and expiring entries")
+            for (round <- 0 until 100) {
+                for (index <- 0 until 10) {
+                    map.putAndRef(s"key$round-$index", "value")
+                    map.unref(s"key$round-$index", round * 10000L)
+                }
+                map.obliterateIdleEntries(round * 10000L + 1000L)
+            }
+
+            Then("The map is empty")
+            map.size shouldBe 0
+            map.fold(List.empty[String], keyCollector) shouldBe empty
+        }
+    }
+
+    feature("Direct flow state map expires entries with a timer wheel") {
+        scenario("Entries expire after their idle expiration") {
+            Given("A map with a 1 second expiration")
+            val map = newMap()
+
+            When("Unreferencing two entries at different times")
+            map.putAndRef("A", "X")
+            map.putAndRef("B", "Y")
+            map.unref("A", 10000L)
+            map.unref("B", 10500L)
+
+            Then("No entries expire before their expiration")
+            map.obliterateIdleEntries(10999L, List.empty[String],
+                                      keyCollector) shouldBe empty
+
+            And("The first entry expires after its expiration")
+            map.obliterateIdleEntries(11000L, List.empty[String],
+                                      keyCollector) shouldBe List("A")
+            map.get("A") shouldBe null
+            map.get("B") shouldBe "Y"
+
+            And("The second entry expires after its expiration")
+            map.obliterateIdleEntries(11600L, List.empty[String],
+                                      keyCollector) shouldBe List("B")
+            map.size shouldBe 0
+        }
+
+        scenario("Referenced entries do not expire") {
+            Given("A map with an idle entry")
+            val map = newMap()
+            map.putAndRef("A", "X")
+            map.unref("A", 0L)
+
+            When("The entry is referenced again")
+            map.ref("A") shouldBe "X"
+
+            Then("The entry does not expire")
+            map.obliterateIdleEntries(5000L, List.empty[String],
+                                      keyCollector) shouldBe empty
+            map.get("A") shouldBe "X"
+
+            And("The entry expires when unreferenced")
+            map.unref("A", 6000L)
+            map.obliterateIdleEntries(7000L, List.empty[String],
+                                      keyCollector) shouldBe List("A")
+        }
+
+        scenario("Entries expire after more than a wheel round") {
+            Given("A map with a 5 minutes expiration")
+            val map = newMap(5 minutes)
+            map.putAndRef("A", "X")
+            map.unref("A", 0L)
+
+            When("Expiring entries every 10 seconds")
+            var expired = List.empty[String]
+            var time = 0L
+            while (time < (5 minutes).toMillis) {
+                expired = map.obliterateIdleEntries(time, expired, keyCollector)
+                time += 10000L
+            }
+
+            Then("The entry is not expired before its expiration")
+            expired shouldBe empty
+            map.get("A") shouldBe "X"
+
+            And("The entry expires after its expiration")
+            map.obliterateIdleEntries((5 minutes).toMillis, expired,
+                                      keyCollector) shouldBe List("A")
+        }
+    }
+}
@@ -30,7 +30,7 @@ import com.google.protobuf.Message;
 import org.midonet.cluster.data.ZoomClass;
 import org.midonet.cluster.data.ZoomObject;
 
-public abstract class UriResource extends ZoomObject {
+public abstract class UriResource extends ZoomObject implements Cloneable {
 
     private URI baseUri = null;
 
@@ -103,6 +103,17 @@ public abstract class UriResource extends ZoomObject {
 
     public void create() { }
 
+    /** Returns a shallow copy of this resource. A resource shared between
+      * requests, such as a cached resource, must be copied before setting
+      * the state of the current request. */
+    public UriResource copy() {
+        try {
+            return (UriResource) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static Class<? extends Message> getZoomClass(Class<?> clazz) {
         Class<?> c = clazz;
         while (UriResource.class.isAssignableFrom(c)) {
@@ -119,6 +119,7 @@ class C3POConfig(val conf: Config) extends ScheduledMinionConfig[C3POMinion] {
     def jdbcDriver = conf.getString(s"$prefix.jdbc_driver_class")
     def user = conf.getString(s"$prefix.user")
     def password = conf.getString(s"$prefix.password")
+    def translationParallelism = conf.getInt(s"$prefix.translation_parallelism")
 }
 
 class HeartbeatConfig(val conf: Config) extends ScheduledMinionConfig[Heartbeat] {
@@ -173,6 +174,7 @@ class RestApiConfig(val conf: Config) extends MinionConfig[RestApi] {
         conf.getDuration(s"$prefix.http_idle_timeout", TimeUnit.MILLISECONDS)
     def httpsIdleTimeoutMs =
         conf.getDuration(s"$prefix.https_idle_timeout", TimeUnit.MILLISECONDS)
+    def listCacheEnabled = conf.getBoolean(s"$prefix.list_cache_enabled")
 }
 
 class ContainersConfig(val conf: Config) extends MinionConfig[ContainerService] {
@@ -193,6 +195,8 @@ class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
         conf.getInt(s"$prefix.initial_subscriber_queue_size")
     def notifyBatchSize =
         conf.getInt(s"$prefix.notify_batch_size")
+    def notifyCompactBatchSize =
+        conf.getInt(s"$prefix.notify_compact_batch_size")
     def cacheThreads = conf.getInt(s"$prefix.cache_threads")
     def serverAddress = conf.getString(s"$prefix.server.address")
     def serverPort = conf.getInt(s"$prefix.server.port")
@@ -211,6 +215,10 @@ class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
         conf.getDuration(s"$prefix.server.shutdown_quiet_period", TimeUnit.MILLISECONDS) millis
     def serverShutdownTimeout =
         conf.getDuration(s"$prefix.server.shutdown_timeout", TimeUnit.MILLISECONDS) millis
+    def serverEpollEnabled =
+        conf.getBoolean(s"$prefix.server.epoll_enabled")
+    def serverMaxBatchSize =
+        conf.getInt(s"$prefix.server.max_batch_size")
 }
 
 class RecyclerConfig(val conf: Config) extends MinionConfig[Recycler] {
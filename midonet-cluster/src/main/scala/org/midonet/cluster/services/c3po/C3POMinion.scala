@@ -17,11 +17,14 @@
 package org.midonet.cluster.services.c3po
 
 import java.sql.Driver
+import java.util.concurrent.Executors
 
 import javax.sql.DataSource
 
+import scala.collection.mutable
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 import com.google.protobuf.Message
 
@@ -36,6 +39,7 @@ import org.midonet.cluster.services.c3po.NeutronDeserializer.toMessage
 import org.midonet.cluster.services.c3po.NeutronTranslatorManager._
 import org.midonet.cluster.storage.MidonetBackendConfig
 import org.midonet.cluster.util.{SequenceDispenser, UUIDUtil}
+import org.midonet.util.concurrent.NamedThreadFactory
 import org.midonet.cluster.{C3POConfig, C3poLog, ClusterConfig}
 import org.midonet.minion.MinionService.TargetNode
 import org.midonet.minion.ScheduledMinion.checkConfigParamDefined
@@ -50,6 +54,7 @@ import org.midonet.minion.{Context, MinionService, ScheduledMinion}
   * @param backend The MidoNet backend service
   * @param curator API for access to ZK for internal uses of the C3PO service
   * @param backendCfg the Backend configuration
+  * @param metrics the metrics registry
   */
 @MinionService(name = "neutron-importer", runsOn = TargetNode.CLUSTER)
 class C3POMinion @Inject()(nodeContext: Context,
@@ -57,7 +62,8 @@ class C3POMinion @Inject()(nodeContext: Context,
                            dataSrc: DataSource,
                            backend: MidonetBackend,
                            curator: CuratorFramework,
-                           backendCfg: MidonetBackendConfig)
+                           backendCfg: MidonetBackendConfig,
+                           metrics: MetricRegistry)
     extends ScheduledMinion(nodeContext, config.c3po) {
 
     protected override val log = LoggerFactory.getLogger(C3poLog)
@@ -74,10 +80,21 @@ class C3POMinion @Inject()(nodeContext: Context,
     private val leaderLatch = new LeaderLatch(curator, LEADER_LATCH_PATH,
                                               nodeContext.nodeId.toString)
 
+    private val APPLIED_TASKS_PATH = backendCfg.rootKey + "/neutron-applied-tasks"
+    private val parallelism = math.max(config.c3po.translationParallelism, 1)
+    private val translatorExecutor = Executors.newFixedThreadPool(
+        parallelism, new NamedThreadFactory("neutron-translator", isDaemon = true))
+    private val translator = new PipelinedTranslator(dataMgr, curator,
+                                                     APPLIED_TASKS_PATH,
+                                                     parallelism,
+                                                     translatorExecutor,
+                                                     metrics)
+
     override def isEnabled = config.c3po.isEnabled
 
     override def doStart(): Unit = {
         leaderLatch.start()
+        translator.init()
         super.doStart()
     }
     override def doStop(): Unit = {
@@ -87,6 +104,7 @@ class C3POMinion @Inject()(nodeContext: Context,
             log.info("Non leader shutting down, removing myself from pool")
         }
         leaderLatch.close()
+        translatorExecutor.shutdownNow()
         super.doStop()
     }
 
@@ -110,15 +128,21 @@ class C3POMinion @Inject()(nodeContext: Context,
             val txns = neutronImporter.getTasksSince(lastTaskId)
             log.debug(".. {} transaction(s) to import: {}", txns.size, txns)
 
+            // Consecutive non-flush transactions are executed together, such
+            // that independent tasks can be translated concurrently.
+            val pending = new mutable.ArrayBuffer[Transaction]
             for (txn <- txns) {
                 if (txn.isFlushTxn) {
+                    translator.execute(pending)
+                    pending.clear()
                     log.info(".. flushing storage")
                     dataMgr.flushTopology()
                     neutronImporter.deleteTask(txn.lastTaskId)
                 } else {
-                    dataMgr.interpretAndExecTxn(translateTxn(txn))
+                    pending += translateTxn(txn)
                 }
             }
+            translator.execute(pending)
 
             val newLastTaskId = dataMgr.lastProcessedTaskId
             log.debug(".. updating last processed task ID: {}.", newLastTaskId)
@@ -169,12 +169,33 @@ class C3POStorageManager(config: ClusterConfig,
         // committed yet, the topology store can't find it. We plan to address
         // this in the future, but it will likely involve significant changes to
         // Storage interface and implementing classes.
-        for (task <- txn.tasks) try {
-            val newState = C3POState.at(task.taskId)
+        for (task <- txn.tasks) {
+            execTask(txn.txnId, task, marker = None)
+        }
+    }
+
+    /** Translates and executes a single task in its own storage transaction.
+      * By default, the transaction also updates the ID of the last processed
+      * task. When a marker path is given, the transaction creates the marker
+      * node instead, such that independent tasks can execute concurrently
+      * without conflicting on the C3PO state. In this case, the transaction
+      * also validates the version of every object it read, such that it
+      * fails if a concurrent task modified any of them. */
+    @throws[ProcessingException]
+    private[c3po] def execTask(txnId: String, task: Task[_ <: Message],
+                               marker: Option[String]): Unit = {
+        assert(initialized)
+        try {
             val tx = backend.store.transaction(ZoomOwner.ClusterNeutron)
             try {
+                if (marker.isDefined) {
+                    tx.validateReads()
+                }
                 translate(tx, task.op)
-                tx.update(newState)
+                marker match {
+                    case Some(path) => tx.createNode(path)
+                    case None => tx.update(C3POState.at(task.taskId))
+                }
                 tx.commit()
             } finally {
                 tx.close()
@@ -183,13 +204,53 @@ class C3POStorageManager(config: ClusterConfig,
         } catch {
             case te: TranslationException => throw new ProcessingException(
                 s"Failed to translate task ${task.taskId} " +
-                s"in transaction ${txn.txnId}.", te)
+                s"in transaction $txnId.", te)
             case se: StorageException => throw new ProcessingException(
                 s"Failed to persist task ${task.taskId} " +
-                s"in transaction ${txn.txnId}.", se)
+                s"in transaction $txnId.", se)
             case NonFatal(e) => throw new ProcessingException(
                 s"Failed to execute task ${task.taskId} " +
-                s"in transaction ${txn.txnId}.", e)
+                s"in transaction $txnId.", e)
+        }
+    }
+
+    /** Returns the model currently in storage with the same class and
+      * identifier as the given model, or `None` if the model does not exist
+      * or cannot be read. */
+    private[c3po] def storedModel(model: Message): Option[Message] = {
+        val idField = model.getDescriptorForType.findFieldByName("id")
+        if ((idField eq null) || !model.hasField(idField)) {
+            return None
+        }
+        try {
+            Some(Await.result(backend.store.get(model.getClass,
+                                                model.getField(idField)),
+                              TIMEOUT))
+        } catch {
+            case NonFatal(e) => None
+        }
+    }
+
+    /** Updates the ID of the last processed task, and deletes the marker
+      * nodes of the tasks executed concurrently up to that task. */
+    @throws[ProcessingException]
+    private[c3po] def updateLastProcessedTask(taskId: Int,
+                                              markers: Seq[String]): Unit = {
+        assert(initialized)
+        try {
+            val tx = backend.store.transaction(ZoomOwner.ClusterNeutron)
+            try {
+                tx.update(C3POState.at(taskId))
+                for (marker <- markers) {
+                    tx.deleteNode(marker)
+                }
+                tx.commit()
+            } finally {
+                tx.close()
+            }
+        } catch {
+            case NonFatal(e) => throw new ProcessingException(
+                s"Failed to update the last processed task to $taskId.", e)
         }
     }
 }
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.util.concurrent.{CountDownLatch, ExecutorService, TimeUnit}
+import java.util.{UUID, List => JList}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, MetricRegistry, Timer}
+import com.google.protobuf.Message
+
+import org.apache.curator.framework.CuratorFramework
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.C3poStorageManagerLog
+import org.midonet.cluster.models.Commons
+import org.midonet.cluster.services.c3po.C3POStorageManager.{ProcessingException, Task, Transaction}
+import org.midonet.cluster.services.c3po.NeutronTranslatorManager.{Create, Delete, Operation, Update}
+import org.midonet.cluster.util.UUIDUtil
+
+object PipelinedTranslator {
+
+    private final val UuidStringLength = 36
+
+    /** A task with the identifier of its Neutron transaction. */
+    case class PendingTask(txnId: String, task: Task[_ <: Message]) {
+        def taskId = task.taskId
+    }
+
+    /** Returns the identifiers of the objects referenced by a Neutron
+      * operation, including the object itself and any other object referenced
+      * by its fields, either as a UUID message or as a UUID string. For an
+      * update, the footprint also includes the objects referenced by the
+      * `current` model in storage, which the translation may modify.
+      *
+      * An empty footprint means that the objects touched by the operation are
+      * not known: this is the case for deletions, since the deleted object and
+      * its references are only known when the task is translated, and for
+      * updates whose current model is not known. */
+    def footprint(op: Operation[_ <: Message],
+                  current: Option[Message] = None): Set[Commons.UUID] = {
+        op match {
+            case Create(model) => references(model)
+            case Update(model, _) if current.isDefined =>
+                references(model) ++ references(current.get)
+            case _ => Set.empty
+        }
+    }
+
+    private def references(message: Message): Set[Commons.UUID] = {
+        val ids = Set.newBuilder[Commons.UUID]
+        def collect(value: Any): Unit = value match {
+            case id: Commons.UUID => ids += id
+            case msg: Message =>
+                for ((_, fieldValue) <- msg.getAllFields) fieldValue match {
+                    case list: JList[_] => list.foreach(collect)
+                    case other => collect(other)
+                }
+            case str: String if str.length == UuidStringLength =>
+                // Some Neutron fields reference objects by a string ID, such
+                // as the device ID of router ports.
+                try ids += UUIDUtil.toProto(UUID.fromString(str))
+                catch { case e: IllegalArgumentException => }
+            case _ =>
+        }
+        collect(message)
+        ids.result()
+    }
+
+    /** Splits a sequence of tasks into groups of consecutive tasks that
+      * reference disjoint sets of objects, and that belong to different
+      * Neutron transactions, with at most `maxSize` tasks per group. The
+      * `current` function returns the model in storage updated by an update
+      * operation. Tasks with an unknown footprint are always in a group of
+      * their own. */
+    def groups(tasks: Seq[PendingTask], maxSize: Int,
+               current: Message => Option[Message] = _ => None)
+    : Seq[Seq[PendingTask]] = {
+        val result = Seq.newBuilder[Seq[PendingTask]]
+        var group = Vector.empty[PendingTask]
+        val groupIds = mutable.Set.empty[Commons.UUID]
+        val groupTxns = mutable.Set.empty[String]
+
+        def flush(): Unit = {
+            if (group.nonEmpty) result += group
+            group = Vector.empty
+            groupIds.clear()
+            groupTxns.clear()
+        }
+
+        for (task <- tasks) {
+            val ids = task.task.op match {
+                case Update(model, _) if maxSize > 1 =>
+                    footprint(task.task.op, current(model))
+                case op => footprint(op)
+            }
+            if (ids.isEmpty) {
+                flush()
+                result += Seq(task)
+            } else {
+                if (group.size >= maxSize || groupTxns.contains(task.txnId) ||
+                    ids.exists(groupIds.contains)) {
+                    flush()
+                }
+                group :+= task
+                groupIds ++= ids
+                groupTxns += task.txnId
+            }
+        }
+        flush()
+        result.result()
+    }
+}
+
+/** Executes the Neutron tasks in groups of consecutive tasks that touch
+  * disjoint object graphs, where the tasks of the same group are translated
+  * and committed concurrently, each in its own storage transaction.
+  *
+  * Concurrent tasks do not update the C3PO state, which would conflict, but
+  * create a marker node for the task in the same storage transaction. After
+  * all tasks in a group complete, a single transaction updates the last
+  * processed task and deletes the markers. If the service fails before that,
+  * the tasks with a marker are skipped when the backlog is processed again.
+  *
+  * The storage transactions of concurrent tasks validate the version of
+  * every object they read, and not only of the objects they modify, such
+  * that tasks that were wrongly assumed independent fail with a storage
+  * exception rather than corrupting the topology. Failed tasks are then
+  * executed again serially, in task order, after all concurrent tasks of
+  * the group have finished, and unless their marker shows that they were
+  * committed.
+  */
+class PipelinedTranslator(manager: C3POStorageManager,
+                          curator: CuratorFramework,
+                          markersPath: String,
+                          parallelism: Int,
+                          executor: ExecutorService,
+                          metrics: MetricRegistry,
+                          taskTimeoutMillis: Long = 60000L) {
+
+    import PipelinedTranslator._
+
+    private val log = LoggerFactory.getLogger(C3poStorageManagerLog)
+
+    @volatile private var backlog = 0
+
+    metrics.register(name(classOf[PipelinedTranslator], "backlog"),
+                     new Gauge[Int] {
+                         override def getValue: Int = backlog
+                     })
+
+    private val timers = new mutable.HashMap[Class[_], Timer]
+
+    /** Creates the parent node for the task markers. */
+    def init(): Unit = {
+        if (curator.checkExists().forPath(markersPath) eq null) {
+            try curator.create().creatingParentsIfNeeded().forPath(markersPath)
+            catch { case NonFatal(e) =>
+                log.debug(s"Task markers path $markersPath already exists", e)
+            }
+        }
+    }
+
+    /** Translates and executes the given Neutron transactions. */
+    @throws[ProcessingException]
+    def execute(txns: Seq[Transaction]): Unit = {
+        if (txns.isEmpty) return
+
+        val applied = appliedTasks()
+        val tasks = for (txn <- txns; task <- txn.tasks) yield {
+            PendingTask(txn.txnId, task)
+        }
+        backlog = tasks.size
+
+        try {
+            for (group <- groups(tasks, parallelism, manager.storedModel)) {
+                group.filterNot(task => applied.contains(task.taskId)) match {
+                    case Seq() =>
+                        // All tasks in the group were executed before a
+                        // restart.
+                        complete(group)
+                    case Seq(task) if group.size == 1 =>
+                        timed(task) {
+                            manager.execTask(task.txnId, task.task, None)
+                        }
+                    case pending =>
+                        executeConcurrently(pending)
+                        complete(group)
+                }
+                backlog -= group.size
+            }
+        } finally {
+            backlog = 0
+        }
+    }
+
+    private def executeConcurrently(tasks: Seq[PendingTask]): Unit = {
+        val executions = tasks.map(new Execution(_))
+        for (execution <- executions) {
+            executor.execute(execution)
+        }
+
+        // Interrupt the tasks that did not complete before the timeout, and
+        // wait for all tasks to finish, such that a task retried serially
+        // cannot commit concurrently with its timed-out execution.
+        val deadline = System.nanoTime() +
+                       TimeUnit.MILLISECONDS.toNanos(taskTimeoutMillis *
+                                                     tasks.size)
+        for (execution <- executions) {
+            execution.await(deadline - System.nanoTime())
+        }
+
+        val failed = executions.filterNot(_.succeeded).map(_.task)
+        if (failed.nonEmpty) {
+            log.info(s"${failed.size} of ${tasks.size} concurrent tasks " +
+                     "failed: executing them serially")
+            // A task may fail after its transaction committed, for instance
+            // on timeout: such tasks have a marker and are not executed again.
+            for (task <- failed if !isApplied(task)) timed(task) {
+                manager.execTask(task.txnId, task.task,
+                                 Some(markerPath(task)))
+            }
+        }
+    }
+
+    /** The concurrent execution of a task, which is interrupted on timeout
+      * and awaited until it finishes. */
+    private class Execution(val task: PendingTask) extends Runnable {
+
+        private val done = new CountDownLatch(1)
+        private var thread: Thread = null
+        private var abandoned = false
+        @volatile var succeeded = false
+
+        override def run(): Unit = {
+            val start = synchronized {
+                if (!abandoned) thread = Thread.currentThread()
+                !abandoned
+            }
+            try {
+                if (start) timed(task) {
+                    manager.execTask(task.txnId, task.task,
+                                     Some(markerPath(task)))
+                    succeeded = true
+                }
+            } catch {
+                case NonFatal(e) => log.debug("Concurrent task failed", e)
+            } finally {
+                synchronized {
+                    thread = null
+                    // Clear the interrupt flag before returning the thread to
+                    // the executor.
+                    Thread.interrupted()
+                }
+                done.countDown()
+            }
+        }
+
+        /** Waits for the task to finish. If the task does not finish within
+          * the timeout, the method interrupts the task if it is running and
+          * waits for it to finish, or prevents it from starting otherwise. */
+        def await(timeoutNanos: Long): Unit = {
+            if (!done.await(Math.max(timeoutNanos, 0L), TimeUnit.NANOSECONDS)) {
+                val running = synchronized {
+                    abandoned = true
+                    if (thread ne null) thread.interrupt()
+                    thread ne null
+                }
+                if (running) {
+                    log.warn(s"Task ${task.taskId} timed out: waiting for " +
+                             "the interrupted task to finish")
+                    done.await()
+                }
+            }
+        }
+    }
+
+    private def complete(group: Seq[PendingTask]): Unit = {
+        val markers = group.map(markerPath).filter { path =>
+            curator.checkExists().forPath(path) ne null
+        }
+        manager.updateLastProcessedTask(group.last.taskId, markers)
+    }
+
+    /** Returns the tasks executed concurrently that have a marker, and
+      * which therefore must not be executed again. The method fails if the
+      * markers cannot be read, since the applied tasks are then unknown. */
+    @throws[ProcessingException]
+    private def appliedTasks(): Set[Int] = {
+        try curator.getChildren.forPath(markersPath).map(_.toInt).toSet
+        catch { case NonFatal(e) =>
+            throw new ProcessingException(
+                s"Failed to read the task markers at $markersPath", e)
+        }
+    }
+
+    @throws[ProcessingException]
+    private def isApplied(task: PendingTask): Boolean = {
+        try curator.checkExists().forPath(markerPath(task)) ne null
+        catch { case NonFatal(e) =>
+            throw new ProcessingException(
+                s"Failed to read the marker of task ${task.taskId}", e)
+        }
+    }
+
+    private def markerPath(task: PendingTask): String =
+        s"$markersPath/${task.taskId}"
+
+    private def timed[T](task: PendingTask)(f: => T): T = {
+        val context = timer(modelClass(task.task.op)).time()
+        try f finally context.stop()
+    }
+
+    private def timer(clazz: Class[_]): Timer = timers.synchronized {
+        timers.getOrElseUpdate(clazz, metrics.timer(
+            name(classOf[PipelinedTranslator], "translation",
+                 clazz.getSimpleName)))
+    }
+
+    private def modelClass(op: Operation[_ <: Message]): Class[_] = op match {
+        case Create(model) => model.getClass
+        case Update(model, _) => model.getClass
+        case Delete(clazz, _) => clazz
+        case _ => op.getClass
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.{ArrayList => JArrayList}
+
+import javax.ws.rs.core.HttpHeaders
+
+import scala.collection.JavaConverters._
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.sun.jersey.spi.container.{ContainerRequest, ContainerResponse, ContainerResponseFilter}
+
+import org.midonet.cluster.rest_api.serialization.ObjectMapperProvider
+import org.midonet.cluster.rest_api.version.VersionParser
+import org.midonet.cluster.services.rest_api.resources.ResourceList
+
+/** Adds the metadata of a [[ResourceList]] to the list responses: the entity
+  * tag, a link to the next page when the list is paginated, and the
+  * projection of the listed resources to the fields selected by the client.
+  * The projection uses the same object mapper as the JSON provider for the
+  * media type version of the response, such that the selected fields have the
+  * same representation as in the full resources.
+  */
+class ResourceListFilter extends ContainerResponseFilter {
+
+    private val versionParser = new VersionParser
+    private val mapperProvider = new ObjectMapperProvider
+
+    override def filter(request: ContainerRequest,
+                        response: ContainerResponse): ContainerResponse = {
+        response.getEntity match {
+            case list: ResourceList[_] =>
+                if (list.entityTag ne null) {
+                    response.getHttpHeaders.putSingle(HttpHeaders.ETAG,
+                                                      list.entityTag)
+                }
+                if (list.nextUri ne null) {
+                    response.getHttpHeaders.add("Link",
+                                                s"""<${list.nextUri}>; rel="next"""")
+                }
+                if (list.fields.nonEmpty) {
+                    response.setEntity(project(list, response))
+                }
+            case _ =>
+        }
+        response
+    }
+
+    private def project(list: ResourceList[_], response: ContainerResponse)
+    : JArrayList[JsonNode] = {
+        val version = if (response.getMediaType ne null) {
+            versionParser.getVersion(response.getMediaType)
+        } else -1
+        val mapper = mapperProvider.get(if (version > 0) version else 1)
+        val fields = list.fields.asJava
+        val nodes = new JArrayList[JsonNode](list.size())
+        for (resource <- list.asScala) {
+            mapper.valueToTree[JsonNode](resource) match {
+                case node: ObjectNode => nodes.add(node.retain(fields))
+                case node => nodes.add(node)
+            }
+        }
+        nodes
+    }
+
+}
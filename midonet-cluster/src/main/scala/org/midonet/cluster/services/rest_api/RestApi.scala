@@ -102,6 +102,7 @@ object RestApi {
                 .toInstance(new NeutronTranslatorManager(config, backend,
                                                          sequenceDispenser))
             bind(classOf[ResourceProvider]).toInstance(resProvider)
+            bind(classOf[ResourceCache])
             bind(classOf[ApplicationResource])
             bind(classOf[Validator])
                 .toProvider(classOf[ValidatorProvider])
@@ -116,6 +117,7 @@ object RestApi {
                 ContainerRequestFiltersClass ->
                     s"$GzipFilterClass;$LoggingFilterClass",
                 ContainerResponseFiltersClass ->
+                    s"${classOf[ResourceListFilter].getName};" +
                     s"$GzipFilterClass;$LoggingFilterClass",
                 PojoMappingFeatureClass -> "true"
             )
@@ -125,9 +125,11 @@ class HostResource @Inject()(resContext: ResourceContext)
         initHost(host)
     }
 
-    protected override def listFilter(hosts: Seq[Host]): Seq[Host] = {
-        hosts foreach initHost
-        hosts
+    protected override def listEntityTag: Boolean = false
+
+    protected override def pageFilter(hosts: Seq[Host]): Seq[Host] = {
+        // The listed hosts may be shared by the resource cache.
+        hosts map { host => initHost(host.copy().asInstanceOf[Host]) }
     }
 
     private def initHost(host: Host): Host = {
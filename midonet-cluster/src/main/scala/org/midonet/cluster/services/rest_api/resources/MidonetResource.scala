@@ -131,7 +131,18 @@ object MidonetResource {
                                           executionContext: ExecutionContext,
                                           uriInfo: UriInfo,
                                           validator: Validator,
-                                          seqDispenser: SequenceDispenser)
+                                          seqDispenser: SequenceDispenser,
+                                          request: Request = null,
+                                          cache: ResourceCache = null)
+
+    /** The key of a resource in a paginated list, which is the last segment
+      * of the resource URI, usually the resource identifier. */
+    private def resourceKey(resource: UriResource): String = {
+        val uri = resource.getUri
+        if (uri eq null) return ""
+        val path = uri.getPath
+        path.substring(path.lastIndexOf('/') + 1)
+    }
 
 }
 
@@ -214,16 +225,52 @@ abstract class MidonetResource[T >: Null <: UriResource]
         getFilter(getResource(tag.runtimeClass.asInstanceOf[Class[T]], id))
     }
 
+    /** Lists the resources. The list request supports the following query
+      * parameters:
+      *  - `limit`: the maximum number of resources returned, in which case
+      *    the list is ordered by resource identifier, and the response
+      *    includes a `Link` header with the URI of the next page, if any
+      *  - `marker`: the identifier of the last resource of the previous page,
+      *    such that the list starts with the next resource
+      *  - `fields`: a comma-separated list of the resource fields returned
+      *    for each resource
+      * When the resources are cached, see [[listCacheable]] and
+      * [[listEntityTag]], the response includes an entity tag, and the
+      * request returns 304 Not Modified if the `If-None-Match` header matches
+      * the current entity tag.
+      */
     @GET
     def list(@HeaderParam("Accept") accept: String): JList[T] = {
         validateMediaType(accept, getAnnotation(classOf[AllowList]).value())
+        val clazz = tag.runtimeClass.asInstanceOf[Class[T]]
         val ids = listIds
-        val list = if (ids eq null) {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]]))
+        val cache = resContext.cache
+        val cached = (ids eq null) && listCacheable && (cache ne null) &&
+                     cache.isEnabled
+
+        // The entity tag is computed before listing the resources, such that
+        // it does not match any change made while listing.
+        val entityTag = if (cached && listEntityTag) {
+            val entityTag = cache.entityTag(clazz,
+                                            s"${uriInfo.getRequestUri} $accept")
+            val builder = if (resContext.request ne null)
+                resContext.request.evaluatePreconditions(entityTag) else null
+            if (builder ne null) {
+                throw new WebApplicationException(builder.tag(entityTag).build())
+            }
+            entityTag
+        } else null
+
+        val list = if (ids ne null) {
+            listFilter(listResources(clazz, ids))
+        } else if (cached) {
+            listFilter(cache.list(clazz, uriInfo.getBaseUri) {
+                sortResources(listResources(clazz))
+            })
         } else {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]], ids))
+            listFilter(listResources(clazz))
         }
-        list.asJava
+        paginate(list, sorted = cached, entityTag)
     }
 
     @POST
@@ -291,6 +338,25 @@ abstract class MidonetResource[T >: Null <: UriResource]
 
     protected def listFilter(list: Seq[T]): Seq[T] = list
 
+    /** Decorates the resources returned by a list request, after pagination,
+      * such that decorations requiring additional reads apply only to the
+      * resources of the current page. */
+    protected def pageFilter(list: Seq[T]): Seq[T] = list
+
+    /** Indicates whether the resources listed by this resource can be served
+      * from the [[ResourceCache]]. This requires the resources to depend only
+      * on their storage object, and the list and page filters not to modify
+      * the resources, since cached resources are shared between requests. A
+      * page filter setting other state must set it on copies of the
+      * resources, see [[UriResource.copy]]. */
+    protected def listCacheable: Boolean = true
+
+    /** Indicates whether the list responses served from the [[ResourceCache]]
+      * include an entity tag. This requires the page filter not to set state
+      * that changes without invalidating the cache, such as the runtime state
+      * of the resources. */
+    protected def listEntityTag: Boolean = listCacheable
+
     protected def createFilter(t: T, tx: ResourceTransaction): Unit = {
         tx.create(t)
     }
@@ -363,6 +429,53 @@ abstract class MidonetResource[T >: Null <: UriResource]
                   .getOrThrow
     }
 
+    private def sortResources[U >: Null <: UriResource](list: Seq[U]): Seq[U] = {
+        list.map(resource => (resourceKey(resource), resource))
+            .sortBy(_._1)
+            .map(_._2)
+    }
+
+    /** Selects the page of resources requested by the `limit` and `marker`
+      * query parameters, and returns it as a [[ResourceList]] if the response
+      * requires additional metadata. */
+    private def paginate(list: Seq[T], sorted: Boolean, entityTag: EntityTag)
+    : JList[T] = {
+        val params = uriInfo.getQueryParameters
+        if (params eq null) {
+            return pageFilter(list).asJava
+        }
+        val limit = params.getFirst("limit") match {
+            case null => 0
+            case value =>
+                try value.toInt catch { case _: NumberFormatException => -1 }
+        }
+        if (limit < 0) {
+            throw new BadRequestHttpException(s"Invalid limit: ${params.getFirst("limit")}")
+        }
+        val marker = params.getFirst("marker")
+        val fields = params.getFirst("fields") match {
+            case null => Seq.empty[String]
+            case value => value.split(',').map(_.trim).filter(_.nonEmpty).toSeq
+        }
+
+        if (limit == 0 && (marker eq null)) {
+            val page = pageFilter(list)
+            return if ((entityTag eq null) && fields.isEmpty) page.asJava
+                   else new ResourceList(page.asJava, entityTag, null, fields)
+        }
+
+        val ordered = if (sorted) list else sortResources(list)
+        val remaining = if (marker eq null) ordered
+                        else ordered.dropWhile(resourceKey(_) <= marker)
+        val page = if (limit > 0) remaining.take(limit) else remaining
+        val nextUri = if (limit > 0 && remaining.lengthCompare(limit) > 0) {
+            uriInfo.getRequestUriBuilder
+                   .replaceQueryParam("marker", resourceKey(page.last))
+                   .build()
+        } else null
+        new ResourceList(pageFilter(page).asJava, entityTag, nextUri, fields)
+    }
+
     private def fromProto[U >: Null <: UriResource](message: Message,
                                                     clazz: Class[U]): U = {
         val resource = try {
@@ -429,6 +542,13 @@ abstract class MidonetResource[T >: Null <: UriResource]
             case NonFatal(e) =>
                 log.error("Unhandled exception", e)
                 buildErrorResponse(INTERNAL_SERVER_ERROR, e.getMessage)
+        } finally {
+            // Invalidate the cached resources, such that the following list
+            // requests include the changes of this transaction, without
+            // waiting for the storage notifications.
+            if (resContext.cache ne null) {
+                resContext.cache.invalidateAll()
+            }
         }
     }
 
@@ -77,7 +77,11 @@ class PoolMemberResource @Inject()(resContext: ResourceContext)
         pm
     }
 
-    override protected def listFilter(pms: Seq[PoolMember]): Seq[PoolMember] = {
+    override protected def listEntityTag: Boolean = false
+
+    override protected def pageFilter(list: Seq[PoolMember]): Seq[PoolMember] = {
+        // The listed pool members may be shared by the resource cache.
+        val pms = list.map(_.copy().asInstanceOf[PoolMember])
         val updates = Observable.merge(pms.map(getStatus).asJava)
             .toList.toBlocking.first().asScala
         updates.foreach { case (m, sk) => m.status = toStatus(sk) }
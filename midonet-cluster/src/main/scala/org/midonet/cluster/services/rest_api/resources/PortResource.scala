@@ -54,9 +54,16 @@ class AbstractPortResource[P >: Null <: Port] (resContext: ResourceContext)
         port
     }
 
-    protected override def listFilter(ports: Seq[P]): Seq[P] = {
-        ports foreach { port => setActive(port); setBgpStatus(port) }
-        ports
+    protected override def listEntityTag: Boolean = false
+
+    protected override def pageFilter(ports: Seq[P]): Seq[P] = {
+        // The listed ports may be shared by the resource cache.
+        ports map { cached =>
+            val port = cached.copy().asInstanceOf[P]
+            setActive(port)
+            setBgpStatus(port)
+            port
+        }
     }
 
     private def isActive(port: Port): Boolean = {
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api.resources
+
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import javax.ws.rs.core.EntityTag
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+import com.google.inject.{Inject, Singleton}
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory.getLogger
+
+import rx.subjects.PublishSubject
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.{RestApiConfig, restApiResourceLog}
+import org.midonet.cluster.rest_api.models.UriResource
+import org.midonet.cluster.services.MidonetBackend
+
+/**
+  * An in-process read-through cache of the resources returned by the list
+  * requests of the REST API. The cache monitors every ZOOM class that was
+  * listed at least once using the class observable, and it invalidates the
+  * cached resources of the class whenever an object of the class is created,
+  * updated or deleted. In addition, the API invalidates the whole cache after
+  * every write transaction, such that a client always lists its own writes.
+  *
+  * Every class has a version that changes when its resources are invalidated,
+  * and which is used to compute the entity tag of the list responses. The
+  * version includes a random epoch, such that different cluster nodes do not
+  * return the same entity tag for different content.
+  *
+  * The cached resources are shared between requests, and therefore they must
+  * not be modified. For this reason, resources are cached per base URI, and
+  * the resources that decorate the listed resources with runtime state, such
+  * as ports and hosts, decorate per-request copies of the current page. The
+  * list responses of these resources do not include an entity tag, since the
+  * runtime state does not invalidate the cache, see
+  * [[MidonetResource.listCacheable]] and [[MidonetResource.listEntityTag]].
+  */
+@Singleton
+class ResourceCache @Inject()(backend: MidonetBackend, config: RestApiConfig) {
+
+    private val log = Logger(getLogger(restApiResourceLog(getClass)))
+    private val classes = new ConcurrentHashMap[Class[_], ClassCache]
+
+    /**
+      * Caches the resources of a ZOOM class, and invalidates them on any
+      * notification from the class observable.
+      */
+    private class ClassCache(clazz: Class[_]) {
+
+        private val epoch = Random.nextLong()
+        private val counter = new AtomicLong
+        private val resources =
+            new ConcurrentHashMap[(Class[_], URI), (Long, Seq[UriResource])]
+        private val stop = PublishSubject.create[AnyRef]
+
+        private val objectObserver = new Observer[Any] {
+            override def onNext(obj: Any): Unit = invalidate()
+            override def onCompleted(): Unit = invalidate()
+            override def onError(e: Throwable): Unit = invalidate()
+        }
+
+        def start(): Unit = {
+            backend.store.observable(clazz)
+                .takeUntil(stop)
+                .subscribe(new Observer[Observable[_]] {
+                    override def onNext(observable: Observable[_]): Unit = {
+                        invalidate()
+                        observable.asInstanceOf[Observable[Any]]
+                                  .takeUntil(stop)
+                                  .subscribe(objectObserver)
+                    }
+                    override def onCompleted(): Unit = {
+                        remove()
+                    }
+                    override def onError(e: Throwable): Unit = {
+                        log.info(s"Class ${clazz.getSimpleName} observable " +
+                                 s"error: stop caching resources", e)
+                        remove()
+                    }
+                })
+        }
+
+        def entityTag(key: String): EntityTag = {
+            new EntityTag(s"${java.lang.Long.toHexString(epoch)}-" +
+                          s"${java.lang.Long.toHexString(counter.get)}-" +
+                          s"${Integer.toHexString(key.hashCode)}")
+        }
+
+        def invalidate(): Unit = {
+            counter.incrementAndGet()
+            resources.clear()
+        }
+
+        def list[U >: Null <: UriResource](clazz: Class[U], baseUri: URI)
+                                          (load: => Seq[U]): Seq[U] = {
+            val key = (clazz, baseUri)
+            val version = counter.get
+            val cached = resources.get(key)
+            if ((cached ne null) && cached._1 == version) {
+                return cached._2.asInstanceOf[Seq[U]]
+            }
+            val loaded = load
+            if (counter.get == version) {
+                resources.put(key, (version, loaded))
+            }
+            loaded
+        }
+
+        private def remove(): Unit = {
+            stop.onNext(null)
+            invalidate()
+            classes.remove(clazz, this)
+        }
+    }
+
+    /**
+      * @return True if the cache is enabled.
+      */
+    def isEnabled: Boolean = config.listCacheEnabled
+
+    /**
+      * Returns the entity tag for the list of resources of the given class,
+      * where the `key` identifies the representation of the list, such as the
+      * request URI and the media type. The entity tag must be computed before
+      * listing the resources, such that it never matches resources that
+      * changed during the request.
+      */
+    def entityTag(clazz: Class[_ <: UriResource], key: String): EntityTag = {
+        classCache(UriResource.getZoomClass(clazz)).entityTag(key)
+    }
+
+    /**
+      * Lists the resources of the given class for the specified base URI,
+      * returning the cached resources if they are still valid, or calling the
+      * `load` function otherwise.
+      */
+    def list[U >: Null <: UriResource](clazz: Class[U], baseUri: URI)
+                                      (load: => Seq[U]): Seq[U] = {
+        classCache(UriResource.getZoomClass(clazz)).list(clazz, baseUri)(load)
+    }
+
+    /**
+      * Invalidates the cached resources of all classes.
+      */
+    def invalidateAll(): Unit = {
+        for (classCache <- classes.values().asScala) {
+            classCache.invalidate()
+        }
+    }
+
+    private def classCache(clazz: Class[_]): ClassCache = {
+        var classCache = classes.get(clazz)
+        if (classCache eq null) {
+            classCache = new ClassCache(clazz)
+            val current = classes.putIfAbsent(clazz, classCache)
+            if (current eq null) {
+                classCache.start()
+            } else {
+                classCache = current
+            }
+        }
+        classCache
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api.resources
+
+import java.net.URI
+import java.util.{ArrayList => JArrayList, Collection => JCollection}
+
+import javax.ws.rs.core.EntityTag
+
+/**
+  * A list of resources returned by a list request, which includes the response
+  * metadata that the [[org.midonet.cluster.services.rest_api.ResourceListFilter]]
+  * adds to the response: the entity tag of the list, the URI of the next
+  * page, and the resource fields selected by the client.
+  */
+class ResourceList[T](resources: JCollection[T],
+                      val entityTag: EntityTag,
+                      val nextUri: URI,
+                      val fields: Seq[String])
+    extends JArrayList[T](resources)
@@ -73,7 +73,9 @@ class ServiceContainerResource @Inject()(resContext: ResourceContext)
         } else null
     }
 
-    protected override def listFilter(list: Seq[ServiceContainer])
+    protected override def listCacheable: Boolean = false
+
+    protected override def pageFilter(list: Seq[ServiceContainer])
     : Seq[ServiceContainer] = {
         list.map(setStatus)
     }
@@ -83,7 +83,9 @@ class TunnelZoneResource @Inject()(resContext: ResourceContext)
         tz
     }
 
-    override protected def listFilter(list: Seq[TunnelZone]): Seq[TunnelZone] = {
+    override protected def listCacheable: Boolean = false
+
+    override protected def pageFilter(list: Seq[TunnelZone]): Seq[TunnelZone] = {
         list.foreach(fillTzDetails)
         list
     }
@@ -68,7 +68,9 @@ class VtepResource @Inject()(resContext: ResourceContext,
         initVtep(vtep)
     }
 
-    protected override def listFilter(vteps: Seq[Vtep]): Seq[Vtep] = {
+    protected override def listCacheable: Boolean = false
+
+    protected override def pageFilter(vteps: Seq[Vtep]): Seq[Vtep] = {
         for (vtep <- vteps) yield initVtep(vtep)
     }
 
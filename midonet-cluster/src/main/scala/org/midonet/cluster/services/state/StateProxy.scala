@@ -20,6 +20,7 @@ import java.net.{InetAddress, NetworkInterface}
 
 import scala.collection.JavaConverters._
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 import com.typesafe.scalalogging.Logger
 
@@ -40,7 +41,8 @@ import org.midonet.minion.{Context, Minion, MinionService}
 @MinionService(name = "state-proxy", runsOn = TargetNode.CLUSTER)
 class StateProxy @Inject()(context: Context,
                            config: ClusterConfig,
-                           backend: MidonetBackend)
+                           backend: MidonetBackend,
+                           metrics: MetricRegistry)
     extends Minion(context) {
 
     private val log = Logger(LoggerFactory.getLogger(StateProxyLog))
@@ -56,7 +58,8 @@ class StateProxy @Inject()(context: Context,
         discovery = new MidonetDiscoveryImpl(backend.curator, executor = null,
                                              config.backend)
         manager = new StateTableManager(config.stateProxy, backend)
-        server = new StateProxyServer(config.stateProxy, manager, discovery)
+        server = new StateProxyServer(config.stateProxy, manager, discovery,
+                                      metrics)
 
         notifyStarted()
     }
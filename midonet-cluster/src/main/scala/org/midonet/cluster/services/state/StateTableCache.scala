@@ -52,7 +52,8 @@ object StateTableCache {
       */
     private class Subscription(override val id: Long,
                                cache: StateTableCache,
-                               observer: StateTableObserver)
+                               observer: StateTableObserver,
+                               val compact: Boolean)
         extends StateTableSubscription {
 
         private val unsubscribed = new AtomicBoolean()
@@ -365,6 +366,8 @@ class StateTableCache(val config: StateProxyConfig,
         config.initialSubscriberQueueSize
     private[state] val notifyBatchSize =
         config.notifyBatchSize
+    private[state] val notifyCompactBatchSize =
+        config.notifyCompactBatchSize
 
     // The local cache map.
     @volatile private var cache = new TableEntries
@@ -418,16 +421,21 @@ class StateTableCache(val config: StateProxyConfig,
       *   the observer will receive the differential updates since the specified
       *   version.
       * - Otherwise, the observer will receive a snapshot with all the entries
+      *
+      * If `compact` is set, the updates sent to the observer include the
+      * entries in the compact encoding of [[CompactEntries]].
       */
     @throws[StateTableCacheClosedException]
     def subscribe(observer: StateTableObserver,
-                  lastVersion: Option[Long]): StateTableSubscription = {
+                  lastVersion: Option[Long],
+                  compact: Boolean = false): StateTableSubscription = {
         // If the state table is closed throw an exception.
         if (state.get.closed) {
             throw new StateTableCacheClosedException(logId)
         }
         val subscriptionId = subscriptionCounter.incrementAndGet()
-        val subscription = new Subscription(subscriptionId, this, observer)
+        val subscription = new Subscription(subscriptionId, this, observer,
+                                            compact)
 
         addSubscription(subscription)
 
@@ -817,12 +825,21 @@ class StateTableCache(val config: StateProxyConfig,
             NoUpdates
         }
 
+        // The compact updates are only computed if there are compact
+        // subscriptions.
+        lazy val compactUpdates = compact(updates)
+        def updatesFor(subscription: Subscription): Array[Update] = {
+            if (subscription.compact) compactUpdates else updates
+        }
+
         if (pending.get eq null) {
             // Send the updates to all current subscribers.
             val currentSubscriptions = subscriptions
             var subIndex = 0
             while (subIndex < currentSubscriptions.length) {
-                currentSubscriptions(subIndex).diff(updates, lastVersion, version)
+                val subscription = currentSubscriptions(subIndex)
+                subscription.diff(updatesFor(subscription), lastVersion,
+                                  version)
                 subIndex += 1
             }
         } else {
@@ -842,15 +859,57 @@ class StateTableCache(val config: StateProxyConfig,
             val currentSubscriptions = subscriptions
             var subIndex = 0
             while (subIndex < currentSubscriptions.length) {
-                if (!pendingSubscriptions.contains(currentSubscriptions(subIndex))) {
-                    currentSubscriptions(subIndex).diff(updates, lastVersion,
-                                                        version)
+                val subscription = currentSubscriptions(subIndex)
+                if (!pendingSubscriptions.contains(subscription)) {
+                    subscription.diff(updatesFor(subscription), lastVersion,
+                                      version)
                 }
                 subIndex += 1
             }
         }
     }
 
+    /**
+      * Re-encodes the given updates using the compact encoding of
+      * [[CompactEntries]]. Because compact entries are considerably smaller,
+      * the entries are batched using the `notifyCompactBatchSize`, such that
+      * the updates may be merged in fewer updates. The type and version of
+      * the updates are preserved.
+      */
+    private def compact(updates: Array[Update]): Array[Update] = {
+        if (updates.length == 0) {
+            return updates
+        }
+        val entries = new util.ArrayList[Notify.Entry]()
+        var index = 0
+        while (index < updates.length) {
+            entries.addAll(updates(index).getEntriesList)
+            index += 1
+        }
+
+        val batchCount =
+            if (entries.isEmpty) 1
+            else (entries.size() - 1) / notifyCompactBatchSize + 1
+        val compactUpdates = new Array[Update](batchCount)
+        index = 0
+        while (index < batchCount) {
+            val from = index * notifyCompactBatchSize
+            val to = Math.min(from + notifyCompactBatchSize, entries.size())
+            val builder = Update.newBuilder()
+                .setType(updates(0).getType)
+                .setCurrentVersion(updates(0).getCurrentVersion)
+                .setCompactEntries(
+                    CompactEntries.encode(entries.subList(from, to)))
+            if (index == 0)
+                builder.setBegin(true)
+            if (index == batchCount - 1)
+                builder.setEnd(true)
+            compactUpdates(index) = builder.build()
+            index += 1
+        }
+        compactUpdates
+    }
+
     /**
       * Computes the latency of a state table operation assuming that the
       * context includes the start timestamp. Returns -1 otherwise.
@@ -991,7 +1050,8 @@ class StateTableCache(val config: StateProxyConfig,
             updates(index) = builder.build()
         }
 
-        subscription.snapshot(updates, version)
+        subscription.snapshot(if (subscription.compact) compact(updates)
+                              else updates, version)
     }
 
 }
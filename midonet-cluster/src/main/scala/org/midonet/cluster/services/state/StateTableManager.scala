@@ -227,14 +227,16 @@ class StateTableManager(config: StateProxyConfig, backend: MidonetBackend) {
         val lastVersion =
             if (request.hasLastVersion) Some(request.getLastVersion)
             else None
+        val compact = request.getCompact
         log debug s"Client $clientAddress subscribing to table $tableKey for " +
-                  s"version $lastVersion (request ID: $requestId)"
+                  s"version $lastVersion compact $compact " +
+                  s"(request ID: $requestId)"
 
         var subscriptionId = -1L
         do {
             subscriptionId = try {
                 context.subscribeTo(tableKey, getOrCreateTableCache(tableKey),
-                                    requestId, lastVersion)
+                                    requestId, lastVersion, compact)
             } catch {
                 case e: StateTableCacheClosedException => -1L
             }
@@ -31,13 +31,14 @@ import org.midonet.cluster.services.state.server.ClientHandler
 class StateTableSubscriber(val key: StateTableKey, handler: ClientHandler,
                            cache: StateTableCache, requestId: Long,
                            lastVersion: Option[Long],
-                           onComplete: (StateTableSubscriber) => Unit)
+                           onComplete: (StateTableSubscriber) => Unit,
+                           compact: Boolean = false)
     extends StateTableObserver {
 
     // The promise completes with the delivery of the subscribe
     // acknowledgment. This permits subsequent table updates.
     private val promise = Promise[AnyRef]()
-    private val subscription = cache.subscribe(this, lastVersion)
+    private val subscription = cache.subscribe(this, lastVersion, compact)
 
     /**
       * @return The subscription identifier.
@@ -16,19 +16,79 @@
 
 package org.midonet.cluster.services.state.server
 
-import scala.concurrent.Future
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+import java.util.concurrent.{ConcurrentLinkedQueue, RejectedExecutionException}
 
-import io.netty.channel.Channel
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.{Future, Promise}
+
+import io.netty.channel.{Channel, ChannelFuture, ChannelFutureListener}
 
 import org.midonet.cluster.rpc.State.ProxyResponse
+import org.midonet.cluster.rpc.State.ProxyResponse.Batch
+import org.midonet.cluster.services.state.server.ChannelClientHandler.Pending
+import org.midonet.cluster.services.state.server.StateProxyMetrics.ClientMetrics
+
+object ChannelClientHandler {
+
+    /**
+      * A response queued for writing, with the promise completed when the
+      * response is written to the channel.
+      */
+    private case class Pending(message: ProxyResponse,
+                               promise: Promise[AnyRef])
+
+}
 
 /**
   * An implementation of a [[ClientHandler]] using an underlying Netty channel.
+  *
+  * The handler coalesces the writes to the channel: the responses are queued
+  * and written by a single task on the channel event loop, which flushes the
+  * channel once after writing all responses queued when the task started.
+  * If the client accepts batched notifications, see [[enableBatching()]],
+  * consecutive NOTIFY responses are combined in BATCH responses of at most
+  * `maxBatchSize` notifications. The responses are always written in the
+  * order they were sent.
   */
-class ChannelClientHandler(channel: Channel) extends ClientHandler {
+class ChannelClientHandler(channel: Channel, maxBatchSize: Int = 1,
+                           metrics: ClientMetrics = null)
+    extends ClientHandler {
 
     import ChannelUtil._
 
+    private val queue = new ConcurrentLinkedQueue[Pending]
+    private val queueSize = new AtomicInteger
+    private val flushScheduled = new AtomicBoolean
+    private val batch = new ArrayBuffer[Pending]
+    @volatile private var batching = false
+
+    private val flushTask = new Runnable {
+        override def run(): Unit = flush()
+    }
+
+    if (metrics ne null) {
+        channel.closeFuture().addListener(new ChannelFutureListener {
+            override def operationComplete(future: ChannelFuture): Unit = {
+                metrics.close()
+            }
+        })
+    }
+
+    /**
+      * Enables combining the notifications sent to this client in BATCH
+      * responses, if the maximum batch size allows more than one notification
+      * per batch.
+      */
+    def enableBatching(): Unit = {
+        batching = maxBatchSize > 1
+    }
+
+    /**
+      * @return True if the notifications are combined in BATCH responses.
+      */
+    def isBatching: Boolean = batching
+
     /**
       * @see [[ClientHandler.close()]]
       */
@@ -40,7 +100,113 @@ class ChannelClientHandler(channel: Channel) extends ClientHandler {
       * @see [[ClientHandler.send()]]
       */
     override def send(message: ProxyResponse): Future[AnyRef] = {
-        channel.writeAndFlush(message).asScala
+        val promise = Promise[AnyRef]()
+        queue.offer(Pending(message, promise))
+        val size = queueSize.incrementAndGet()
+        if (metrics ne null) {
+            metrics.queueDepth(size)
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            try channel.eventLoop().execute(flushTask)
+            catch {
+                case e: RejectedExecutionException =>
+                    flushScheduled.set(false)
+                    fail(e)
+            }
+        }
+        promise.future
+    }
+
+    /**
+      * Writes the queued responses to the channel and flushes the channel.
+      * The method writes at most the number of responses queued when the
+      * method starts, such that a client sending continuously does not
+      * starve the other channels of the event loop: any response queued
+      * afterwards schedules a new flush.
+      */
+    private def flush(): Unit = {
+        flushScheduled.set(false)
+
+        var count = queueSize.get
+        var pending = if (count > 0) queue.poll() else null
+        while (pending ne null) {
+            if (batching && pending.message.hasNotify) {
+                batch += pending
+                if (batch.size >= maxBatchSize) {
+                    writeBatch()
+                }
+            } else {
+                writeBatch()
+                write(pending.message, Seq(pending))
+            }
+            count -= 1
+            pending = if (count > 0) queue.poll() else null
+        }
+        writeBatch()
+        channel.flush()
+
+        if (metrics ne null) {
+            metrics.queueDepth(queueSize.get)
+            metrics.flushes.mark()
+        }
+    }
+
+    /**
+      * Writes the current batch of notifications as a single BATCH response.
+      */
+    private def writeBatch(): Unit = {
+        if (batch.size == 1) {
+            write(batch.head.message, batch.toList)
+        } else if (batch.size > 1) {
+            val builder = Batch.newBuilder()
+            for (pending <- batch) {
+                builder.addResponses(pending.message)
+            }
+            val message = ProxyResponse.newBuilder()
+                .setRequestId(0L)
+                .setBatch(builder)
+                .build()
+            write(message, batch.toList)
+            if (metrics ne null) {
+                metrics.batches.mark()
+            }
+        }
+        batch.clear()
+    }
+
+    /**
+      * Writes a message to the channel, completing the promises of the
+      * given queued responses when the write completes.
+      */
+    private def write(message: ProxyResponse, responses: Seq[Pending]): Unit = {
+        queueSize.addAndGet(-responses.size)
+        if (metrics ne null) {
+            metrics.responses.mark(responses.size)
+        }
+        channel.write(message).addListener(new ChannelFutureListener {
+            override def operationComplete(future: ChannelFuture): Unit = {
+                if (future.isSuccess) {
+                    for (pending <- responses)
+                        pending.promise trySuccess future.channel()
+                } else {
+                    for (pending <- responses)
+                        pending.promise tryFailure future.cause()
+                }
+            }
+        })
+    }
+
+    /**
+      * Fails all queued responses when the channel event loop does not accept
+      * new tasks, which happens when the server shuts down.
+      */
+    private def fail(e: Throwable): Unit = {
+        var pending = queue.poll()
+        while (pending ne null) {
+            queueSize.decrementAndGet()
+            pending.promise tryFailure e
+            pending = queue.poll()
+        }
     }
 
 }
@@ -41,9 +41,13 @@ object StateProxyClientInitializer {
   * - A [[ProtobufEncoder]] that handler outbound protocol messages and encodes
   *   them to a byte buffer.
   * - A [[StateProxyProtocolHandler]] that handles the request in the context
-  *   of the server internal state machine.
+  *   of the server internal state machine, and which writes the responses
+  *   with a [[ChannelClientHandler]] batching up to `maxBatchSize`
+  *   notifications.
   */
-class StateProxyClientInitializer(manager: StateTableManager)
+class StateProxyClientInitializer(manager: StateTableManager,
+                                  maxBatchSize: Int = 1,
+                                  metrics: StateProxyMetrics = null)
     extends ChannelInitializer[SocketChannel] {
 
     @throws[Exception]
@@ -54,7 +58,8 @@ class StateProxyClientInitializer(manager: StateTableManager)
                 ProxyRequest.getDefaultInstance))
             .addLast(FrameEncoder, new ProtobufVarint32LengthFieldPrepender)
             .addLast(MessageEncoder, new ProtobufEncoder)
-            .addLast(ProtocolHandler, new StateProxyProtocolHandler(manager))
+            .addLast(ProtocolHandler, new StateProxyProtocolHandler(
+                manager, maxBatchSize, metrics))
     }
 
 }
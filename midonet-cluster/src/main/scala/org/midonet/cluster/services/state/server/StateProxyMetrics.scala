@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state.server
+
+import java.net.SocketAddress
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics._
+
+import org.midonet.cluster.services.state.server.StateProxyMetrics._
+
+object StateProxyMetrics {
+
+    final val Prefix = "state-proxy"
+
+    /**
+      * The metrics of a client connection: the number of responses queued
+      * for the client and not yet written to the channel, and meters for
+      * the responses, the batches and the flushes written to the channel.
+      */
+    class ClientMetrics private[server](registry: MetricRegistry,
+                                        prefix: String,
+                                        clients: AtomicInteger) {
+
+        private val depth = new AtomicInteger
+
+        val responses = registry.meter(name(prefix, "responses"))
+        val batches = registry.meter(name(prefix, "batches"))
+        val flushes = registry.meter(name(prefix, "flushes"))
+
+        registry.remove(name(prefix, "queueDepth"))
+        registry.register(name(prefix, "queueDepth"), new Gauge[Int] {
+            override def getValue: Int = depth.get
+        })
+
+        /**
+          * Updates the number of responses queued for this client.
+          */
+        def queueDepth(value: Int): Unit = depth.set(value)
+
+        /**
+          * Removes the metrics of this client from the registry.
+          */
+        def close(): Unit = {
+            clients.decrementAndGet()
+            registry.removeMatching(new MetricFilter {
+                override def matches(metricName: String, metric: Metric) =
+                    metricName.startsWith(prefix + ".")
+            })
+        }
+    }
+
+    /**
+      * @return The name of the client metrics for the given address, where
+      *         the characters that are not valid in a metric name component
+      *         are replaced by an underscore.
+      */
+    private def clientName(address: SocketAddress): String = {
+        String.valueOf(address).replaceAll("[^A-Za-z0-9-]", "_")
+    }
+
+}
+
+/**
+  * Registers the metrics of the state proxy server: the number of connected
+  * clients, and the per-connection throughput and queue depth, see
+  * [[ClientMetrics]]. The metrics of a client are removed when its connection
+  * closes.
+  */
+class StateProxyMetrics(registry: MetricRegistry) {
+
+    private val clients = new AtomicInteger
+
+    registry.remove(name(Prefix, "clients"))
+    registry.register(name(Prefix, "clients"), new Gauge[Int] {
+        override def getValue: Int = clients.get
+    })
+
+    /**
+      * Creates the metrics for the client connected from the given address.
+      */
+    def client(address: SocketAddress): ClientMetrics = {
+        clients.incrementAndGet()
+        new ClientMetrics(registry,
+                          name(Prefix, "clients", clientName(address)),
+                          clients)
+    }
+
+    /**
+      * Removes all state proxy metrics from the registry.
+      */
+    def close(): Unit = {
+        registry.removeMatching(new MetricFilter {
+            override def matches(metricName: String, metric: Metric) =
+                metricName.startsWith(Prefix + ".")
+        })
+    }
+
+}
@@ -51,18 +51,28 @@ object StateProxyProtocolHandler {
 
 /**
   * A [[ChannelInboundHandlerAdapter]] instance that handles the State Proxy
-  * protocol messages.
+  * protocol messages. The `maxBatchSize` and `metrics` configure the
+  * [[ChannelClientHandler]] of the channel.
   */
-class StateProxyProtocolHandler(manager: StateTableManager)
+class StateProxyProtocolHandler(manager: StateTableManager,
+                                maxBatchSize: Int = 1,
+                                metrics: StateProxyMetrics = null)
     extends ChannelInboundHandlerAdapter {
 
+    @volatile private var handler: ChannelClientHandler = _
+
     @throws[Exception]
     override def channelRegistered(context: ChannelHandlerContext): Unit = {
         // Register a new client handler for the new channel.
         Log debug s"Register client=${context.channel().remoteAddress()}"
 
         try {
-            val handler = new ChannelClientHandler(context.channel())
+            val clientMetrics =
+                if (metrics ne null)
+                    metrics.client(context.channel().remoteAddress())
+                else null
+            handler = new ChannelClientHandler(context.channel(), maxBatchSize,
+                                               clientMetrics)
             manager.register(context.channel().remoteAddress(), handler)
         } catch {
             case NonFatal(e) =>
@@ -139,6 +149,11 @@ class StateProxyProtocolHandler(manager: StateTableManager)
                   s"tableName=${subscribe.getTableName} " +
                   s"tableArgs=${subscribe.getTableArgumentsList.asByteStringList()}"
 
+        // The client accepts batched notifications for all its subscriptions.
+        if (subscribe.getBatch && (handler ne null) && !handler.isBatching) {
+            handler.enableBatching()
+        }
+
         try {
             manager.subscribe(context.channel().remoteAddress(), requestId,
                               subscribe)
@@ -18,19 +18,22 @@ package org.midonet.cluster.services.state.server
 
 import java.net.{Inet4Address, InetAddress, InetSocketAddress, NetworkInterface}
 import java.util.concurrent.atomic.AtomicReference
-import java.util.concurrent.{Executors, ScheduledFuture, ThreadFactory, TimeUnit}
+import java.util.concurrent.{Executor, Executors, ScheduledFuture, ThreadFactory, TimeUnit}
 
 import scala.collection.JavaConverters._
 import scala.concurrent.{Future, Promise}
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
+import com.codahale.metrics.MetricRegistry
 import com.typesafe.scalalogging.Logger
 
 import io.netty.bootstrap.ServerBootstrap
+import io.netty.channel.epoll.{Epoll, EpollEventLoopGroup, EpollServerSocketChannel}
 import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.ServerSocketChannel
 import io.netty.channel.socket.nio.NioServerSocketChannel
-import io.netty.channel.{Channel, ChannelFuture, ChannelOption}
+import io.netty.channel.{Channel, ChannelFuture, ChannelOption, EventLoopGroup}
 import io.netty.handler.logging.{LogLevel, LoggingHandler}
 import org.apache.commons.lang3.StringUtils
 import org.slf4j.LoggerFactory
@@ -86,10 +89,13 @@ object StateProxyServer {
 }
 
 /**
-  * Implements a Netty server for the State Proxy service.
+  * Implements a Netty server for the State Proxy service. The server uses the
+  * native epoll transport when enabled and available, and the NIO transport
+  * otherwise.
   */
 class StateProxyServer(config: StateProxyConfig, manager: StateTableManager,
-                       discovery: MidonetDiscovery) {
+                       discovery: MidonetDiscovery,
+                       metricRegistry: MetricRegistry = new MetricRegistry) {
 
     private val log = Logger(LoggerFactory.getLogger(StateProxyLog))
 
@@ -108,10 +114,14 @@ class StateProxyServer(config: StateProxyConfig, manager: StateTableManager,
         workerThreads,
         new NamedThreadFactory("state-proxy-worker", isDaemon = true))
 
+    private val epoll = useEpoll
+
     private val supervisorEventLoopGroup =
-        new NioEventLoopGroup(supervisorThreads, supervisorExecutor)
+        newEventLoopGroup(supervisorThreads, supervisorExecutor)
     private val messageEventLoopGroup =
-        new NioEventLoopGroup(workerThreads, workerExecutor)
+        newEventLoopGroup(workerThreads, workerExecutor)
+
+    private val metrics = new StateProxyMetrics(metricRegistry)
 
     private val state = new AtomicReference[State](Init)
     private val bootstrap = new ServerBootstrap
@@ -139,10 +149,12 @@ class StateProxyServer(config: StateProxyConfig, manager: StateTableManager,
     bootstrap.handler(new LoggingHandler(LogLevel.DEBUG))
 
     // Set the channel class.
-    bootstrap.channel(classOf[NioServerSocketChannel])
+    bootstrap.channel(serverChannelClass)
 
     // Set the child handler.
-    bootstrap.childHandler(new StateProxyClientInitializer(manager))
+    bootstrap.childHandler(new StateProxyClientInitializer(manager,
+                                                           maxBatchSize,
+                                                           metrics))
 
     bootstrap.validate()
 
@@ -200,6 +212,8 @@ class StateProxyServer(config: StateProxyConfig, manager: StateTableManager,
                      s"${config.serverShutdownTimeout.toMillis} milliseconds"
         }
 
+        metrics.close()
+
         workerExecutor.shutdown()
         supervisorExecutor.shutdown()
         mainExecutor.shutdown()
@@ -246,6 +260,51 @@ class StateProxyServer(config: StateProxyConfig, manager: StateTableManager,
         if (config.serverWorkerThreads > 0) config.serverWorkerThreads else 4
     }
 
+    /**
+      * @return The maximum number of notifications per BATCH response, or 1,
+      *         if batching is disabled.
+      */
+    private def maxBatchSize: Int = {
+        if (config.serverMaxBatchSize > 1) config.serverMaxBatchSize else 1
+    }
+
+    /**
+      * @return True if the server uses the native epoll transport, which
+      *         requires the transport to be enabled in the configuration and
+      *         to be available on the current platform.
+      */
+    private def useEpoll: Boolean = {
+        if (!config.serverEpollEnabled) {
+            log info "Using NIO transport"
+            false
+        } else if (!Epoll.isAvailable) {
+            log info "Native epoll transport not available, using NIO " +
+                     s"transport: ${Epoll.unavailabilityCause().getMessage}"
+            false
+        } else {
+            log info "Using native epoll transport"
+            true
+        }
+    }
+
+    /**
+      * @return A new event loop group for the current transport.
+      */
+    private def newEventLoopGroup(threads: Int,
+                                  executor: Executor)
+    : EventLoopGroup = {
+        if (epoll) new EpollEventLoopGroup(threads, executor)
+        else new NioEventLoopGroup(threads, executor)
+    }
+
+    /**
+      * @return The server channel class for the current transport.
+      */
+    private def serverChannelClass: Class[_ <: ServerSocketChannel] = {
+        if (epoll) classOf[EpollServerSocketChannel]
+        else classOf[NioServerSocketChannel]
+    }
+
     /**
       * @return The maximum number of pending half-opened inbound connections
       *         that the server accepts.
@@ -135,14 +135,17 @@ class TopologySnapshotProvider(objectCache: ObjectCache,
         refs.set(0)
         log.debug(s"Notifying ${pendingRequests.size()} pending requests " +
                   s"that the snapshot is ready.")
-        val requests = pendingRequests.iterator()
-        while (requests.hasNext) {
-            val request = requests.next()
+        var request = pendingRequests.poll()
+        while (request ne null) {
+            // Take a reference for the request, which is released with the
+            // unref issued after sending the snapshot.
+            refs.incrementAndGet()
             serializedTopology.synchronized {
                 val buf = Unpooled.wrappedBuffer(
                     serializedTopology, 0, serializedLength)
                 request.success(buf)
             }
+            request = pendingRequests.poll()
         }
     }
 
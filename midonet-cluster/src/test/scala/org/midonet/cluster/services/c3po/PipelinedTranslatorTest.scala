@@ -0,0 +1,365 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CyclicBarrier, Executors, ExecutorService, TimeUnit}
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+import com.google.protobuf.Message
+
+import org.junit.runner.RunWith
+import org.mockito.Matchers.{any, anyInt}
+import org.mockito.Mockito.{doAnswer, mock, when}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.models.Neutron.NeutronPort.IPAllocation
+import org.midonet.cluster.models.Neutron.{NeutronNetwork, NeutronPort}
+import org.midonet.cluster.services.c3po.C3POStorageManager.{ProcessingException, Task, Transaction}
+import org.midonet.cluster.services.c3po.NeutronTranslatorManager.{Create, Delete, Operation, Update}
+import org.midonet.cluster.services.c3po.PipelinedTranslator._
+import org.midonet.cluster.util.{CuratorTestFramework, UUIDUtil}
+import org.midonet.cluster.util.UUIDUtil.randomUuidProto
+
+@RunWith(classOf[JUnitRunner])
+class PipelinedTranslatorTest extends FeatureSpec with Matchers
+                              with GivenWhenThen
+                              with CuratorTestFramework {
+
+    private var taskId = 0
+    private val markersPath = zkRoot + "/neutron-applied-tasks"
+    private var manager: C3POStorageManager = _
+    private var executor: ExecutorService = _
+    private val executed = new ConcurrentLinkedQueue[Int]
+    private val completed = new ConcurrentLinkedQueue[(Int, Seq[String])]
+    @volatile private var onExecute: (Int, Option[String]) => Unit = _
+
+    protected override def setup(): Unit = {
+        executed.clear()
+        completed.clear()
+        onExecute = (_, marker) => commit(marker)
+        executor = Executors.newFixedThreadPool(4)
+        manager = mock(classOf[C3POStorageManager])
+        when(manager.storedModel(any[Message]())).thenReturn(None)
+        doAnswer(new Answer[Unit] {
+            override def answer(invocation: InvocationOnMock): Unit = {
+                val task = invocation.getArguments()(1).asInstanceOf[Task[_]]
+                val marker =
+                    invocation.getArguments()(2).asInstanceOf[Option[String]]
+                executed add task.taskId
+                onExecute(task.taskId, marker)
+            }
+        }).when(manager).execTask(any[String](), any[Task[_ <: Message]](),
+                                  any[Option[String]]())
+        doAnswer(new Answer[Unit] {
+            override def answer(invocation: InvocationOnMock): Unit = {
+                val taskId = invocation.getArguments()(0).asInstanceOf[Int]
+                val markers =
+                    invocation.getArguments()(1).asInstanceOf[Seq[String]]
+                for (marker <- markers) {
+                    curator.delete().forPath(marker)
+                }
+                completed add ((taskId, markers))
+            }
+        }).when(manager).updateLastProcessedTask(anyInt(),
+                                                 any[Seq[String]]())
+    }
+
+    protected override def teardown(): Unit = {
+        executor.shutdownNow()
+    }
+
+    /** Simulates the commit of the task transaction, which creates the marker
+      * of a concurrent task. */
+    private def commit(marker: Option[String]): Unit = {
+        marker foreach { curator.create().forPath(_) }
+    }
+
+    private def translator(parallelism: Int, timeoutMillis: Long = 10000L)
+    : PipelinedTranslator = {
+        val translator = new PipelinedTranslator(manager, curator, markersPath,
+                                                 parallelism, executor,
+                                                 new MetricRegistry,
+                                                 timeoutMillis)
+        translator.init()
+        translator
+    }
+
+    private def transaction(tasks: PendingTask*): Seq[Transaction] = {
+        tasks.map(task => Transaction(task.txnId, List(task.task)))
+    }
+
+    private def markerOf(task: PendingTask) = s"$markersPath/${task.taskId}"
+
+    private def task(txnId: String, op: Operation[_ <: Message])
+    : PendingTask = {
+        taskId += 1
+        PendingTask(txnId, Task(taskId, op))
+    }
+
+    private def network() =
+        NeutronNetwork.newBuilder().setId(randomUuidProto).build()
+
+    private def port(network: NeutronNetwork) =
+        NeutronPort.newBuilder()
+            .setId(randomUuidProto)
+            .setNetworkId(network.getId)
+            .build()
+
+    feature("Footprint of Neutron operations") {
+        scenario("Create and update reference the object and its references") {
+            Given("A port with a fixed IP and a device ID")
+            val subnetId = randomUuidProto
+            val routerId = java.util.UUID.randomUUID()
+            val net = network()
+            val p = port(net).toBuilder
+                .addFixedIps(IPAllocation.newBuilder().setSubnetId(subnetId))
+                .setDeviceId(routerId.toString)
+                .build()
+
+            Then("The footprint contains all referenced objects")
+            val expected = Set(p.getId, net.getId, subnetId,
+                               UUIDUtil.toProto(routerId))
+            footprint(Create(p)) shouldBe expected
+        }
+
+        scenario("Update references the objects of the current model") {
+            Given("A port moved to another network")
+            val net1 = network()
+            val net2 = network()
+            val current = port(net1)
+            val updated = current.toBuilder.setNetworkId(net2.getId).build()
+
+            Then("The footprint contains the old and new references")
+            footprint(Update(updated), Some(current)) shouldBe
+                Set(current.getId, net1.getId, net2.getId)
+
+            And("The footprint is unknown without the current model")
+            footprint(Update(updated)) shouldBe empty
+        }
+
+        scenario("Delete has an unknown footprint") {
+            footprint(Delete(classOf[NeutronPort], randomUuidProto)) shouldBe empty
+        }
+    }
+
+    feature("Grouping of Neutron tasks") {
+        scenario("Independent tasks are grouped") {
+            Given("Tasks creating unrelated networks")
+            val tasks = for (i <- 1 to 3) yield task(s"txn$i", Create(network()))
+
+            Then("The tasks are in the same group")
+            groups(tasks, maxSize = 4) shouldBe Seq(tasks)
+        }
+
+        scenario("Groups are limited by the maximum size") {
+            Given("Tasks creating unrelated networks")
+            val tasks = for (i <- 1 to 5) yield task(s"txn$i", Create(network()))
+
+            Then("The groups do not exceed the maximum size")
+            groups(tasks, maxSize = 2) shouldBe Seq(tasks.slice(0, 2),
+                                                    tasks.slice(2, 4),
+                                                    tasks.slice(4, 5))
+
+            And("A maximum size of one executes the tasks serially")
+            groups(tasks, maxSize = 1) shouldBe tasks.map(Seq(_))
+        }
+
+        scenario("Tasks referencing the same object are not grouped") {
+            Given("A network, a port of the network and another network")
+            val net = network()
+            val t1 = task("txn1", Create(net))
+            val t2 = task("txn2", Create(port(net)))
+            val t3 = task("txn3", Create(network()))
+
+            Then("The port starts a new group")
+            groups(Seq(t1, t2, t3), maxSize = 4) shouldBe Seq(Seq(t1),
+                                                              Seq(t2, t3))
+        }
+
+        scenario("Tasks of the same transaction are not grouped") {
+            Given("Two tasks of the same Neutron transaction")
+            val t1 = task("txn1", Create(network()))
+            val t2 = task("txn1", Create(network()))
+
+            Then("The tasks are in different groups")
+            groups(Seq(t1, t2), maxSize = 4) shouldBe Seq(Seq(t1), Seq(t2))
+        }
+
+        scenario("Updates are not grouped with tasks of their old references") {
+            Given("A port moved from a network created in the same batch")
+            val net = network()
+            val current = port(net)
+            val updated = current.toBuilder.setNetworkId(randomUuidProto)
+                                 .build()
+            val t1 = task("txn1", Create(net))
+            val t2 = task("txn2", Update(updated))
+
+            Then("The update starts a new group")
+            groups(Seq(t1, t2), maxSize = 4, _ => Some(current)) shouldBe
+                Seq(Seq(t1), Seq(t2))
+        }
+
+        scenario("Tasks with an unknown footprint are barriers") {
+            Given("A deletion between independent tasks")
+            val t1 = task("txn1", Create(network()))
+            val t2 = task("txn2", Delete(classOf[NeutronNetwork],
+                                         randomUuidProto))
+            val t3 = task("txn3", Create(network()))
+            val t4 = task("txn4", Create(network()))
+
+            Then("The deletion is in a group of its own")
+            groups(Seq(t1, t2, t3, t4), maxSize = 4) shouldBe
+                Seq(Seq(t1), Seq(t2), Seq(t3, t4))
+        }
+    }
+
+    feature("Execution of Neutron tasks") {
+        scenario("Independent tasks execute concurrently") {
+            Given("Three tasks that wait for each other")
+            val barrier = new CyclicBarrier(3)
+            onExecute = (_, marker) => {
+                barrier.await(5, TimeUnit.SECONDS)
+                commit(marker)
+            }
+            val tasks = for (i <- 1 to 3) yield task(s"txn$i", Create(network()))
+
+            When("Executing the tasks")
+            translator(parallelism = 3).execute(transaction(tasks: _*))
+
+            Then("All tasks executed concurrently")
+            executed.asScala.toSet shouldBe tasks.map(_.taskId).toSet
+
+            And("The last processed task is updated once with all markers")
+            completed.asScala.toSeq shouldBe Seq(
+                (tasks.last.taskId, tasks.map(markerOf)))
+            curator.getChildren.forPath(markersPath) shouldBe empty
+        }
+
+        scenario("Failed concurrent tasks are retried serially") {
+            Given("Three tasks where the second fails the first time")
+            val tasks = for (i <- 1 to 3) yield task(s"txn$i", Create(network()))
+            var failed = false
+            onExecute = (id, marker) => {
+                if (id == tasks(1).taskId && !failed) {
+                    failed = true
+                    throw new ProcessingException("conflict")
+                }
+                commit(marker)
+            }
+
+            When("Executing the tasks")
+            translator(parallelism = 3).execute(transaction(tasks: _*))
+
+            Then("The failed task executed twice")
+            executed.asScala.count(_ == tasks(1).taskId) shouldBe 2
+            executed.asScala.count(_ == tasks(0).taskId) shouldBe 1
+            executed.asScala.count(_ == tasks(2).taskId) shouldBe 1
+            completed.asScala.toSeq shouldBe Seq(
+                (tasks.last.taskId, tasks.map(markerOf)))
+        }
+
+        scenario("Timed out tasks that committed are not retried") {
+            Given("A task that commits after the timeout")
+            val tasks = for (i <- 1 to 2) yield task(s"txn$i", Create(network()))
+            onExecute = (id, marker) => {
+                if (id == tasks(0).taskId) {
+                    try Thread.sleep(5000)
+                    catch { case e: InterruptedException => }
+                    commit(marker)
+                    throw new ProcessingException("interrupted")
+                }
+                commit(marker)
+            }
+
+            When("Executing the tasks")
+            translator(parallelism = 2, timeoutMillis = 100L)
+                .execute(transaction(tasks: _*))
+
+            Then("The timed out task is not executed again")
+            executed.asScala.count(_ == tasks(0).taskId) shouldBe 1
+            completed.asScala.toSeq shouldBe Seq(
+                (tasks.last.taskId, tasks.map(markerOf)))
+        }
+
+        scenario("Tasks with a marker are skipped after a restart") {
+            Given("Three tasks where the first was applied before a restart")
+            val tasks = for (i <- 1 to 3) yield task(s"txn$i", Create(network()))
+            val translator1 = translator(parallelism = 3)
+            curator.create().forPath(markerOf(tasks(0)))
+
+            When("Executing the tasks")
+            translator1.execute(transaction(tasks: _*))
+
+            Then("The first task is not executed again")
+            executed.asScala.toSet shouldBe Set(tasks(1).taskId,
+                                                tasks(2).taskId)
+
+            And("Its marker is deleted with the others")
+            completed.asScala.toSeq shouldBe Seq(
+                (tasks.last.taskId, tasks.map(markerOf)))
+        }
+
+        scenario("Markers of a failed group remain for the restart") {
+            Given("Three tasks where the third always fails")
+            val tasks = for (i <- 1 to 3) yield task(s"txn$i", Create(network()))
+            onExecute = (id, marker) => {
+                if (id == tasks(2).taskId) {
+                    throw new ProcessingException("failure")
+                }
+                commit(marker)
+            }
+
+            When("Executing the tasks")
+            intercept[ProcessingException] {
+                translator(parallelism = 3).execute(transaction(tasks: _*))
+            }
+
+            Then("The markers of the applied tasks remain")
+            curator.getChildren.forPath(markersPath).asScala.toSet shouldBe
+                Set(tasks(0).taskId.toString, tasks(1).taskId.toString)
+            completed shouldBe empty
+
+            When("The tasks are executed again after a restart")
+            executed.clear()
+            onExecute = (_, marker) => commit(marker)
+            translator(parallelism = 3).execute(transaction(tasks: _*))
+
+            Then("Only the failed task is executed")
+            executed.asScala.toSeq shouldBe Seq(tasks(2).taskId)
+            completed.asScala.toSeq shouldBe Seq(
+                (tasks.last.taskId, tasks.map(markerOf)))
+        }
+
+        scenario("Execution fails if the markers cannot be read") {
+            Given("A translator without the markers path")
+            val translator = new PipelinedTranslator(manager, curator,
+                                                     markersPath, 3, executor,
+                                                     new MetricRegistry)
+
+            Then("Executing tasks fails without executing them")
+            intercept[ProcessingException] {
+                translator.execute(transaction(task("txn1", Create(network()))))
+            }
+            executed shouldBe empty
+        }
+    }
+}
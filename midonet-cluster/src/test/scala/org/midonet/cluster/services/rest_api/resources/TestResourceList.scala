@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api.resources
+
+import java.net.URI
+import java.util.UUID
+
+import javax.ws.rs.WebApplicationException
+import javax.ws.rs.core.{EntityTag, Request, Response, UriBuilder, UriInfo}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext
+
+import com.sun.jersey.core.util.MultivaluedMapImpl
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.mockito.Matchers.any
+import org.mockito.Mockito
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FlatSpec, Matchers}
+
+import org.midonet.cluster.ClusterConfig
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.data.storage.KeyType.SingleLastWriteWins
+import org.midonet.cluster.models.Topology.{Network, Port => TopologyPort}
+import org.midonet.cluster.rest_api.BadRequestHttpException
+import org.midonet.cluster.rest_api.models.{Bridge, Port}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.MidonetBackend.{ActiveKey, BgpKey}
+import org.midonet.cluster.services.rest_api.MidonetMediaTypes.{APPLICATION_BRIDGE_COLLECTION_JSON_V4, APPLICATION_PORT_V3_COLLECTION_JSON}
+import org.midonet.cluster.services.rest_api.resources.MidonetResource.ResourceContext
+import org.midonet.cluster.storage.MidonetTestBackend
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.reactivex._
+
+@RunWith(classOf[JUnitRunner])
+class TestResourceList extends FlatSpec with BeforeAndAfter with Matchers {
+
+    private val baseUri = new URI("http://test")
+    private val accept = APPLICATION_BRIDGE_COLLECTION_JSON_V4
+
+    private var backend: MidonetBackend = _
+    private var cache: ResourceCache = _
+    private var uriInfo: UriInfo = _
+    private var request: Request = _
+    private var params: MultivaluedMapImpl = _
+    private var resource: BridgeResource = _
+    private var portResource: PortResource = _
+
+    before {
+        val config = ClusterConfig.forTests(ConfigFactory.empty)
+
+        backend = new MidonetTestBackend
+        backend.store.registerClass(classOf[Network])
+        backend.store.registerClass(classOf[TopologyPort])
+        backend.stateStore.registerKey(classOf[TopologyPort], ActiveKey,
+                                       SingleLastWriteWins)
+        backend.stateStore.registerKey(classOf[TopologyPort], BgpKey,
+                                       SingleLastWriteWins)
+        backend.store.build()
+
+        params = new MultivaluedMapImpl
+        uriInfo = Mockito.mock(classOf[UriInfo])
+        Mockito.when(uriInfo.getBaseUri).thenReturn(baseUri)
+        Mockito.when(uriInfo.getQueryParameters).thenReturn(params)
+        request = Mockito.mock(classOf[Request])
+
+        cache = new ResourceCache(backend, config.restApi)
+        val resContext = ResourceContext(config.restApi, backend,
+                                         ExecutionContext.global, uriInfo,
+                                         null, null, request, cache)
+        resource = new BridgeResource(resContext, null)
+        portResource = new PortResource(resContext)
+    }
+
+    private def setQuery(query: (String, String)*): Unit = {
+        params.clear()
+        for ((key, value) <- query) params.add(key, value)
+        val builder = UriBuilder.fromUri(baseUri).path("bridges")
+        for ((key, value) <- query) builder.queryParam(key, value)
+        val uri = builder.build()
+        Mockito.when(uriInfo.getRequestUri).thenReturn(uri)
+        Mockito.when(uriInfo.getRequestUriBuilder).thenAnswer(
+            new Answer[UriBuilder] {
+                override def answer(invocation: InvocationOnMock): UriBuilder =
+                    UriBuilder.fromUri(uri)
+            })
+    }
+
+    private def createNetworks(count: Int): Seq[UUID] = {
+        for (index <- 0 until count) yield {
+            val id = UUID.randomUUID()
+            backend.store.create(Network.newBuilder()
+                                        .setId(id.asProto)
+                                        .setName(s"network-$index")
+                                        .build())
+            id
+        }
+    }
+
+    "List" should "return all resources without query parameters" in {
+        val ids = createNetworks(5)
+        setQuery()
+
+        val list = resource.list(accept)
+        list.asScala.map(_.id).toSet shouldBe ids.toSet
+    }
+
+    "List" should "return the resources in pages" in {
+        val ids = createNetworks(5).map(_.toString).sorted
+        setQuery("limit" -> "2")
+
+        val page1 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        page1.asScala.map(_.id.toString) shouldBe ids.take(2)
+        page1.nextUri.getQuery should include (s"marker=${ids(1)}")
+
+        setQuery("limit" -> "2", "marker" -> ids(1))
+        val page2 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        page2.asScala.map(_.id.toString) shouldBe ids.slice(2, 4)
+
+        setQuery("limit" -> "2", "marker" -> ids(3))
+        val page3 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        page3.asScala.map(_.id.toString) shouldBe ids.drop(4)
+        page3.nextUri shouldBe null
+    }
+
+    "List" should "reject an invalid limit" in {
+        setQuery("limit" -> "-1")
+        intercept[BadRequestHttpException] {
+            resource.list(accept)
+        }
+    }
+
+    "List" should "return the selected fields" in {
+        createNetworks(1)
+        setQuery("fields" -> "id, name")
+
+        val list = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        list.fields shouldBe Seq("id", "name")
+    }
+
+    "List" should "return the same entity tag while resources do not change" in {
+        createNetworks(2)
+        setQuery()
+
+        val list1 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        val list2 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        list1.entityTag should not be null
+        list2.entityTag shouldBe list1.entityTag
+        list2.asScala.zip(list1.asScala).forall(p => p._1 eq p._2) shouldBe true
+
+        createNetworks(1)
+        val list3 = resource.list(accept).asInstanceOf[ResourceList[Bridge]]
+        list3.entityTag should not be list1.entityTag
+        list3 should have size 3
+    }
+
+    "List" should "return not modified when the entity tag matches" in {
+        createNetworks(2)
+        setQuery()
+
+        val entityTag =
+            resource.list(accept).asInstanceOf[ResourceList[Bridge]].entityTag
+        Mockito.when(request.evaluatePreconditions(entityTag))
+               .thenReturn(Response.notModified())
+
+        val e = intercept[WebApplicationException] {
+            resource.list(accept)
+        }
+        e.getResponse.getStatus shouldBe Response.Status.NOT_MODIFIED.getStatusCode
+        Mockito.verify(request, Mockito.atLeastOnce())
+               .evaluatePreconditions(any(classOf[EntityTag]))
+    }
+
+    "List" should "set the runtime state on copies of the cached ports" in {
+        val hostId = UUID.randomUUID()
+        val portId = UUID.randomUUID()
+        backend.store.create(TopologyPort.newBuilder()
+                                         .setId(portId.asProto)
+                                         .setNetworkId(UUID.randomUUID().asProto)
+                                         .setHostId(hostId.asProto)
+                                         .build())
+        setQuery()
+
+        val list1 = portResource.list(APPLICATION_PORT_V3_COLLECTION_JSON)
+        list1 should have size 1
+        list1.get(0).active shouldBe false
+        list1 should not be a [ResourceList[_]]
+
+        backend.stateStore.asInstanceOf[InMemoryStorage]
+               .addValueAs(hostId.toString, classOf[TopologyPort], portId,
+                           ActiveKey, ActiveKey).await()
+
+        val list2 = portResource.list(APPLICATION_PORT_V3_COLLECTION_JSON)
+        list2.get(0).active shouldBe true
+        list2.get(0) should not be theSameInstanceAs (list1.get(0))
+
+        val cached = cache.list(classOf[Port], baseUri) {
+            fail("The ports are not cached")
+        }
+        cached.head.id shouldBe portId
+        cached.head.active shouldBe false
+    }
+
+}
@@ -19,6 +19,7 @@ package org.midonet.cluster.services.state
 import java.util.UUID
 import java.util.concurrent.TimeUnit
 
+import com.codahale.metrics.MetricRegistry
 import com.typesafe.config.ConfigFactory
 
 import org.junit.runner.RunWith
@@ -53,7 +54,8 @@ class StateProxyTest extends FeatureSpec with GivenWhenThen with Matchers
     }
 
     private def newService(): StateProxy = {
-        new StateProxy(new Context(UUID.randomUUID()), stateProxyConfig, backend)
+        new StateProxy(new Context(UUID.randomUUID()), stateProxyConfig, backend,
+                       new MetricRegistry)
     }
 
     feature("Test service lifecycle") {
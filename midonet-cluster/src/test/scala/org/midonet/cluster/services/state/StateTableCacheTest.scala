@@ -150,6 +150,7 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
             s"""
                |cluster.state_proxy.initial_subscriber_queue_size : 16
                |cluster.state_proxy.notify_batch_size : 4
+               |cluster.state_proxy.notify_compact_batch_size : 8
              """.stripMargin))
     }
 
@@ -842,6 +843,72 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
             cache.close()
         }
 
+        scenario("Cache batches compact notifications") {
+            Given("A state table cache")
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { }
+
+            And("Ten entries")
+            val entries = for (index <- 0 until 10) yield {
+                val key = MAC.random()
+                val value = UUID.randomUUID()
+                addEntry(id, key, value)
+                key -> value
+            }
+
+            And("A compact observer and a regular observer")
+            val compactObserver = new TestObserver
+            val observer = new TestObserver
+
+            When("The observers subscribe")
+            cache.subscribe(compactObserver, lastVersion = None,
+                            compact = true)
+            cache.subscribe(observer, lastVersion = None)
+
+            Then("The compact observer receives two snapshot messages")
+            compactObserver.awaitOnNext(2, timeout) shouldBe true
+            val first = compactObserver.getOnNextEvents.get(0).getUpdate
+            val second = compactObserver.getOnNextEvents.get(1).getUpdate
+            first.getType shouldBe Notify.Update.Type.SNAPSHOT
+            first.getBegin shouldBe true
+            first.getEnd shouldBe false
+            first.getEntriesCount shouldBe 0
+            second.getBegin shouldBe false
+            second.getEnd shouldBe true
+
+            And("The compact entries contain all table entries")
+            val decoded =
+                CompactEntries.decode(first.getCompactEntries).asScala ++
+                CompactEntries.decode(second.getCompactEntries).asScala
+            decoded.map(e => e.getKey -> e.getValue) should
+                contain theSameElementsAs entries.map(e => {
+                    StateEntryDecoder.get(classOf[MAC]).decode(e._1.toString) ->
+                    StateEntryDecoder.get(classOf[UUID]).decode(e._2.toString)
+                })
+
+            And("The regular observer receives three snapshot messages")
+            observer.awaitOnNext(3, timeout) shouldBe true
+            observer.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = false, 4)
+
+            When("Removing an entry")
+            removeEntry(id, entries.head._1, entries.head._2, 0)
+
+            Then("The compact observer receives a relative update")
+            compactObserver.awaitOnNext(3, timeout) shouldBe true
+            val update = compactObserver.getOnNextEvents.get(2).getUpdate
+            update.getType shouldBe Notify.Update.Type.RELATIVE
+            update.getBegin shouldBe true
+            update.getEnd shouldBe true
+            val removed = CompactEntries.decode(update.getCompactEntries)
+            removed.size() shouldBe 1
+            removed.get(0).hasValue shouldBe false
+            removed.get(0).getKey shouldBe StateEntryDecoder.get(classOf[MAC])
+                .decode(entries.head._1.toString)
+
+            cache.close()
+        }
+
         scenario("Cache handles back-pressure") {
             Given("A state table cache")
             var closed = false
@@ -81,7 +81,8 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
                                            lastVersion = Some(lastVersion))
 
             Then("The subscriber should subscribe")
-            Mockito.verify(cache).subscribe(subscriber, Some(lastVersion))
+            Mockito.verify(cache).subscribe(subscriber, Some(lastVersion),
+                                            compact = false)
         }
 
         scenario("Subscriber returns correct subscription information") {
@@ -95,7 +96,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             Mockito.when(subscription.id).thenReturn(subscriptionId)
 
             And("Cache returns a subscription identifier")
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                        .thenReturn(subscription)
 
             When("Creating a subscriber")
@@ -125,7 +128,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             val subscriptionId = random.nextLong()
             val subscription = Mockito.mock(classOf[StateTableSubscription])
             Mockito.when(subscription.id).thenReturn(subscriptionId)
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                    .thenReturn(subscription)
 
             And("A subscriber")
@@ -176,7 +181,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             val subscriptionId = random.nextLong()
             val subscription = Mockito.mock(classOf[StateTableSubscription])
             Mockito.when(subscription.id).thenReturn(subscriptionId)
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                 .thenReturn(subscription)
 
             And("A subscriber")
@@ -212,7 +219,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             val subscriptionId = random.nextLong()
             val subscription = Mockito.mock(classOf[StateTableSubscription])
             Mockito.when(subscription.id).thenReturn(subscriptionId)
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                 .thenReturn(subscription)
 
             And("A subscriber")
@@ -244,7 +253,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             val subscriptionId = random.nextLong()
             val subscription = Mockito.mock(classOf[StateTableSubscription])
             Mockito.when(subscription.id).thenReturn(subscriptionId)
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                 .thenReturn(subscription)
 
             And("A subscriber")
@@ -278,7 +289,9 @@ class StateTableSubscriberTest extends FeatureSpec with Matchers
             val subscriptionId = random.nextLong()
             val subscription = Mockito.mock(classOf[StateTableSubscription])
             Mockito.when(subscription.id).thenReturn(subscriptionId)
-            Mockito.when(cache.subscribe(MockMatchers.any(), MockMatchers.any()))
+            Mockito.when(cache.subscribe(MockMatchers.any(),
+                                         MockMatchers.any(),
+                                         MockMatchers.anyBoolean()))
                 .thenReturn(subscription)
 
             And("A subscriber")
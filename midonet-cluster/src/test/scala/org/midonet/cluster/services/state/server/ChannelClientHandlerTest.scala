@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state.server
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+
+import io.netty.channel.embedded.EmbeddedChannel
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.rpc.State.ProxyResponse
+import org.midonet.cluster.rpc.State.ProxyResponse.{Acknowledge, Notify}
+
+@RunWith(classOf[JUnitRunner])
+class ChannelClientHandlerTest extends FlatSpec with Matchers
+                               with GivenWhenThen {
+
+    private def notify(requestId: Long): ProxyResponse = {
+        ProxyResponse.newBuilder()
+            .setRequestId(requestId)
+            .setNotify(Notify.newBuilder()
+                           .setSubscriptionId(requestId)
+                           .setUpdate(Notify.Update.newBuilder()
+                                          .setType(Notify.Update.Type.RELATIVE)))
+            .build()
+    }
+
+    private def acknowledge(requestId: Long): ProxyResponse = {
+        ProxyResponse.newBuilder()
+            .setRequestId(requestId)
+            .setAcknowledge(Acknowledge.newBuilder().setSubscriptionId(requestId))
+            .build()
+    }
+
+    private def outbound(channel: EmbeddedChannel): Seq[ProxyResponse] = {
+        val messages = channel.outboundMessages()
+        val result = messages.asScala.toList.map(_.asInstanceOf[ProxyResponse])
+        messages.clear()
+        result
+    }
+
+    "Handler" should "write the responses in a single flush" in {
+        Given("A channel and a handler without batching")
+        val channel = new EmbeddedChannel()
+        val handler = new ChannelClientHandler(channel, maxBatchSize = 4)
+
+        When("Sending several responses")
+        val responses = (0 until 5).map(notify(_)) :+ acknowledge(5)
+        val futures = responses.map(handler.send)
+
+        Then("The responses are not written before the flush task runs")
+        outbound(channel) shouldBe empty
+        futures.exists(_.isCompleted) shouldBe false
+
+        When("The event loop runs the flush task")
+        channel.runPendingTasks()
+
+        Then("All responses are written in order")
+        outbound(channel) shouldBe responses
+        futures.forall(_.isCompleted) shouldBe true
+    }
+
+    "Handler" should "combine notifications in batches" in {
+        Given("A channel and a handler with batching")
+        val channel = new EmbeddedChannel()
+        val handler = new ChannelClientHandler(channel, maxBatchSize = 4)
+        handler.enableBatching()
+        handler.isBatching shouldBe true
+
+        When("Sending notifications with an interleaved acknowledge")
+        val responses = (0 until 6).map(notify(_)) ++
+                        Seq(acknowledge(6), notify(7))
+        val futures = responses.map(handler.send)
+        channel.runPendingTasks()
+
+        Then("The notifications are batched without reordering responses")
+        val written = outbound(channel)
+        written should have size 4
+        written(0).hasBatch shouldBe true
+        written(0).getBatch.getResponsesList.asScala shouldBe responses.slice(0, 4)
+        written(1).hasBatch shouldBe true
+        written(1).getBatch.getResponsesList.asScala shouldBe responses.slice(4, 6)
+        written(2) shouldBe responses(6)
+        written(3) shouldBe responses(7)
+        futures.forall(_.isCompleted) shouldBe true
+    }
+
+    "Handler" should "not batch if the batch size is one" in {
+        val channel = new EmbeddedChannel()
+        val handler = new ChannelClientHandler(channel, maxBatchSize = 1)
+        handler.enableBatching()
+        handler.isBatching shouldBe false
+
+        val responses = (0 until 3).map(notify(_))
+        responses.foreach(handler.send)
+        channel.runPendingTasks()
+
+        outbound(channel) shouldBe responses
+    }
+
+    "Handler" should "fail the responses when the channel is closed" in {
+        val channel = new EmbeddedChannel()
+        val handler = new ChannelClientHandler(channel, maxBatchSize = 4)
+        channel.close()
+
+        val future = handler.send(notify(0))
+        channel.runPendingTasks()
+
+        future.isCompleted shouldBe true
+        future.value.get.isFailure shouldBe true
+    }
+
+    "Handler" should "update and remove the client metrics" in {
+        Given("A channel and a handler with metrics")
+        val registry = new MetricRegistry
+        val metrics = new StateProxyMetrics(registry)
+        val channel = new EmbeddedChannel()
+        val clientMetrics = metrics.client(channel.remoteAddress())
+        val handler = new ChannelClientHandler(channel, maxBatchSize = 4,
+                                               clientMetrics)
+        handler.enableBatching()
+        registry.getGauges.get("state-proxy.clients").getValue shouldBe 1
+
+        When("Sending notifications")
+        (0 until 6).foreach(index => handler.send(notify(index)))
+
+        Then("The queue depth includes the queued notifications")
+        registry.getGauges.asScala.collectFirst {
+            case (name, gauge) if name.endsWith(".queueDepth") => gauge.getValue
+        } shouldBe Some(6)
+
+        When("The event loop runs the flush task")
+        channel.runPendingTasks()
+
+        Then("The meters count the responses, batches and flushes")
+        clientMetrics.responses.getCount shouldBe 6
+        clientMetrics.batches.getCount shouldBe 2
+        clientMetrics.flushes.getCount shouldBe 1
+
+        When("The channel closes")
+        channel.close()
+
+        Then("The client metrics are removed")
+        registry.getNames.asScala shouldBe Set("state-proxy.clients")
+        registry.getGauges.get("state-proxy.clients").getValue shouldBe 0
+
+        When("Closing the server metrics")
+        metrics.close()
+
+        Then("All metrics are removed")
+        registry.getNames shouldBe empty
+    }
+
+}
@@ -25,7 +25,7 @@ import scala.util.Random
 
 import org.junit.runner.RunWith
 import org.mockito.Mockito
-import org.mockito.Matchers.any
+import org.mockito.Matchers.{any, anyBoolean}
 import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
 import org.scalatest.junit.JUnitRunner
 
@@ -109,7 +109,8 @@ class ClientContextTest extends FlatSpec with Matchers with GivenWhenThen {
         val key = randomKey()
         val cache = Mockito.mock(classOf[StateTableCache])
         val subscription = new TestStateTableSubscription
-        Mockito.when(cache.subscribe(any(), any())).thenReturn(subscription)
+        Mockito.when(cache.subscribe(any(), any(), anyBoolean()))
+               .thenReturn(subscription)
         val requestId1 = random.nextLong()
         val lastVersion = Some(random.nextLong())
         val subscriptionId = context.subscribeTo(key, cache, requestId1,
@@ -181,7 +182,8 @@ class ClientContextTest extends FlatSpec with Matchers with GivenWhenThen {
         When("A first client subscribes to a table")
         val subscription1 = new TestStateTableSubscription
         val key1 = randomKey()
-        Mockito.when(cache.subscribe(any(), any())).thenReturn(subscription1)
+        Mockito.when(cache.subscribe(any(), any(), anyBoolean()))
+               .thenReturn(subscription1)
         val subscriptionId1 = context.subscribeTo(key1, cache, 0L, None)
 
         Then("The subscription identifier should match the subscription")
@@ -196,7 +198,8 @@ class ClientContextTest extends FlatSpec with Matchers with GivenWhenThen {
         When("A second client subscribes to a table")
         val subscription2 = new TestStateTableSubscription
         val key2 = randomKey()
-        Mockito.when(cache.subscribe(any(), any())).thenReturn(subscription2)
+        Mockito.when(cache.subscribe(any(), any(), anyBoolean()))
+               .thenReturn(subscription2)
         val subscriptionId2 = context.subscribeTo(key2, cache, 0L, None)
 
         Then("The subscription identifier should match the subscription")
@@ -226,7 +229,8 @@ class ClientContextTest extends FlatSpec with Matchers with GivenWhenThen {
         val key = randomKey()
         val cache = Mockito.mock(classOf[StateTableCache])
         val subscription = new TestStateTableSubscription
-        Mockito.when(cache.subscribe(any(), any())).thenReturn(subscription)
+        Mockito.when(cache.subscribe(any(), any(), anyBoolean()))
+               .thenReturn(subscription)
         Mockito.when(cache.dispatcher).thenReturn(ImmediateExecutionContext)
         val requestId1 = random.nextLong()
         val lastVersion1 = Some(random.nextLong())
@@ -270,7 +274,8 @@ class ClientContextTest extends FlatSpec with Matchers with GivenWhenThen {
         val key = randomKey()
         val cache = Mockito.mock(classOf[StateTableCache])
         val subscription = new MultiStateTableSubscription
-        Mockito.when(cache.subscribe(any(), any())).thenReturn(subscription)
+        Mockito.when(cache.subscribe(any(), any(), anyBoolean()))
+               .thenReturn(subscription)
         Mockito.when(cache.dispatcher).thenReturn(ImmediateExecutionContext)
         val requestId = random.nextLong()
         val lastVersion = Some(random.nextLong())
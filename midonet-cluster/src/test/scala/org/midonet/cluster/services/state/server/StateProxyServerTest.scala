@@ -21,6 +21,7 @@ import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicLong
 
+import scala.collection.JavaConverters._
 import scala.concurrent.Await
 import scala.concurrent.duration._
 import scala.util.Random
@@ -31,6 +32,7 @@ import com.typesafe.config.ConfigFactory
 import io.netty.bootstrap.Bootstrap
 import io.netty.buffer.Unpooled
 import io.netty.channel._
+import io.netty.channel.epoll.{Epoll, EpollServerSocketChannel}
 import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.channel.socket.SocketChannel
 import io.netty.channel.socket.nio.NioSocketChannel
@@ -216,7 +218,9 @@ class StateProxyServerTest extends FeatureSpec with Matchers
     private def newConfig(supervisorThreads: Int = 1,
                           workerThreads: Int = 1,
                           maxPendingConnections: Int = 10,
-                          bindRetryInterval: Int = 1): StateProxyConfig = {
+                          bindRetryInterval: Int = 1,
+                          epollEnabled: Boolean = false,
+                          maxBatchSize: Int = 64): StateProxyConfig = {
         //val address = localAddress
         val port = localPort
         new StateProxyConfig(ConfigFactory.parseString(
@@ -231,6 +235,8 @@ class StateProxyServerTest extends FeatureSpec with Matchers
                |cluster.state_proxy.server.channel_timeout : 15s
                |cluster.state_proxy.server.shutdown_quiet_period : 0s
                |cluster.state_proxy.server.shutdown_timeout : 15s
+               |cluster.state_proxy.server.epoll_enabled : $epollEnabled
+               |cluster.state_proxy.server.max_batch_size : $maxBatchSize
              """.stripMargin))
     }
 
@@ -247,7 +253,8 @@ class StateProxyServerTest extends FeatureSpec with Matchers
 
     private def subscribe(requestId: Long, objectClass: Class[_], objectId: UUID,
                           keyClass: Class[_], valueClass: Class[_],
-                          tableName: String, lastVersion: Option[Long])
+                          tableName: String, lastVersion: Option[Long],
+                          batch: Boolean = false)
     : ProxyRequest = {
         val subscribe = Subscribe.newBuilder()
             .setObjectClass(objectClass.getName)
@@ -255,6 +262,7 @@ class StateProxyServerTest extends FeatureSpec with Matchers
             .setKeyClass(keyClass.getName)
             .setValueClass(valueClass.getName)
             .setTableName(tableName)
+            .setBatch(batch)
         if (lastVersion.isDefined)
             subscribe.setLastVersion(lastVersion.get)
         ProxyRequest.newBuilder()
@@ -335,6 +343,31 @@ class StateProxyServerTest extends FeatureSpec with Matchers
             channel.isOpen shouldBe false
         }
 
+        scenario("Server uses the epoll transport if available") {
+            Given("A state proxy server with the epoll transport enabled")
+            val config = newConfig(epollEnabled = true)
+            val server = newServer(config)
+
+            When("The server binds to the local port")
+            val channel = server.serverChannel.await(timeout)
+
+            Then("The channel uses the available transport")
+            channel.isOpen shouldBe true
+            channel.isInstanceOf[EpollServerSocketChannel] shouldBe
+                Epoll.isAvailable
+
+            And("A client can exchange messages with the server")
+            val client = newClient(config)
+            val requestId = random.nextLong()
+            client.channel.writeAndFlush(ping(requestId))
+            client.observer.awaitOnNext(1, timeout)
+            client.observer.getOnNextEvents.get(0)
+                  .asInstanceOf[ProxyResponse].hasPong shouldBe true
+
+            client.close()
+            server.close()
+        }
+
         scenario("Server retries to bind if port in use") {
             Given("A state proxy server")
             val config = newConfig()
@@ -691,6 +724,59 @@ class StateProxyServerTest extends FeatureSpec with Matchers
             server.close()
         }
 
+        scenario("Server batches notifications for a client") {
+            Given("A state proxy server with a mock manager")
+            val config = newConfig(maxBatchSize = 8)
+            val manager = new MockManager
+            val server = newServer(config, manager.underlying)
+
+            When("The server starts")
+            server.serverChannel.await(timeout)
+
+            And("A client connects to the server")
+            val client = newClient(config)
+            eventually { manager.clients should have size 1 }
+
+            When("The client sends a SUBSCRIBE request accepting batches")
+            val requestId = random.nextLong()
+            val request = subscribe(requestId, classOf[Network], UUID.randomUUID(),
+                                    classOf[MAC], classOf[UUID], "mac_table",
+                                    None, batch = true)
+            client.channel.writeAndFlush(request)
+
+            Then("The client should receive the acknowledge")
+            client.observer.awaitOnNext(1, timeout)
+
+            When("The server sends several notifications")
+            val handler = manager.clients.get(client.channel.localAddress())
+                                 .handler
+            val notifications = for (index <- 0 until 100) yield
+                notifyCompleted(requestId, index)
+            val futures = notifications.map(handler.send)
+            futures.foreach(Await.ready(_, timeout))
+
+            Then("The client receives all notifications in order")
+            def received: Seq[ProxyResponse] = {
+                client.observer.getOnNextEvents.asScala.drop(1).flatMap {
+                    case response: ProxyResponse if response.hasBatch =>
+                        response.getBatch.getResponsesList.asScala
+                    case response: ProxyResponse => Seq(response)
+                }
+            }
+            eventually { received should have size notifications.size }
+            received shouldBe notifications
+
+            And("Every batch has at most the maximum batch size")
+            client.observer.getOnNextEvents.asScala.foreach {
+                case response: ProxyResponse if response.hasBatch =>
+                    response.getBatch.getResponsesCount should be <= 8
+                case _ =>
+            }
+
+            client.close()
+            server.close()
+        }
+
         scenario("Server handles subscribe state table exception") {
             Given("A state proxy server with a mock manager")
             val config = newConfig()
@@ -111,6 +111,8 @@ public final class CLibrary {
     public static final int NETLINK_BROADCAST_ERROR = 4;
     public static final int NETLINK_NO_ENOBUFS = 5;
 
+    public static final int MSG_DONTWAIT = 0x40;
+
     public static final int MCL_CURRENT = 1;
     public static final int MCL_FUTURE = 2;
 
@@ -348,6 +350,27 @@ public final class CLibrary {
                                   int len,
                                   int flags);
 
+    /**
+     * Receives multiple messages from a socket using a single system call.
+     * @param fd The socket file descriptor.
+     * @param msgvec A direct buffer with an array of {@code struct mmsghdr},
+     *               where the method sets the length of each received
+     *               message.
+     * @param vlen The number of elements in the {@code msgvec} array.
+     * @param flags Operations flags, see:
+     *              http://man7.org/linux/man-pages/man2/recvmmsg.2.html
+     * @param timeout The timeout, or null to block until {@code vlen}
+     *                messages are received, unless the socket is
+     *                non-blocking or {@code MSG_DONTWAIT} is set.
+     * @return The number of messages received, if successful. On error, it
+     * returns -1 and errno indicates the last error.
+     */
+    public static native int recvmmsg(int fd,
+                                      ByteBuffer msgvec,
+                                      int vlen,
+                                      int flags,
+                                      Pointer timeout);
+
     /**
      * Returns the number of bytes in a memory page.
      */
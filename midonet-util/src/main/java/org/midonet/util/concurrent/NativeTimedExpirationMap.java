@@ -27,6 +27,13 @@ public class NativeTimedExpirationMap {
     public native byte[] unref(long mapPointer, byte[] key,
                                long expireIn,
                                long currentTimeMillis);
+    public native byte[] unrefAndCheckIdle(long mapPointer, byte[] key,
+                                           long expireIn,
+                                           long currentTimeMillis,
+                                           boolean[] becameIdle);
+    public native byte[] expire(long mapPointer, byte[] key,
+                                long currentTimeMillis);
+    public native void removeExpired(long mapPointer, byte[] key);
     public native void destroy(long mapPointer);
 
     public native long iterator(long mapPointer);
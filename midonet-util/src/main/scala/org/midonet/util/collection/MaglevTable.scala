@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.UUID
+
+import scala.reflect.ClassTag
+
+/**
+ * Constructs a MaglevTable for a collection of objects with weights, each
+ * identified by a UUID.
+ *
+ * Throws an IllegalArgumentException if ts does not have any element with
+ * weight > 0.
+ */
+object MaglevTable {
+
+    /**
+     * The default size of the lookup table, which is a prime number large
+     * enough to provide an even distribution for pools of up to several
+     * hundred backends.
+     */
+    final val DefaultSize = 65537
+
+    private final val OffsetSeed = 0x5bd1e9955bd1e995L
+    private final val SkipSeed = 0x9e3779b97f4a7c15L
+
+    def apply[T <: HasWeight : ClassTag](ts: Traversable[T],
+                                         size: Int = DefaultSize)
+                                        (id: T => UUID): MaglevTable[T] = {
+        build(sortedBackends(ts, id), size, id)
+    }
+
+    private def build[T <: HasWeight](backends: Array[T], size: Int,
+                                      id: T => UUID): MaglevTable[T] = {
+        new MaglevTable[T](backends, backends.map(id), backends.map(_.weight),
+                           populate(backends, size, id), size)
+    }
+
+    private def sortedBackends[T <: HasWeight : ClassTag](ts: Traversable[T],
+                                                          id: T => UUID)
+    : Array[T] = {
+        val backends = ts.filter(_.weight > 0).toArray
+                         .sortWith((a, b) => id(a).compareTo(id(b)) < 0)
+        if (backends.isEmpty)
+            throw new IllegalArgumentException(
+                "Ts must have at least one element with weight > 0.")
+        if (backends.length > Short.MaxValue)
+            throw new IllegalArgumentException(
+                s"Ts must have at most ${Short.MaxValue} elements.")
+        backends
+    }
+
+    /**
+     * Returns a deterministic 64-bit hash of the given values, which does not
+     * depend on the JVM instance and therefore it is the same on all agents.
+     */
+    def hash(a: Long, b: Long): Long = mix(mix(a) ^ b)
+
+    private def mix(value: Long): Long = {
+        // The finalizer of the 64-bit MurmurHash3.
+        var h = value
+        h ^= h >>> 33
+        h *= 0xff51afd7ed558ccdL
+        h ^= h >>> 33
+        h *= 0xc4ceb9fe1a85ec53L
+        h ^= h >>> 33
+        h
+    }
+
+    /**
+     * Fills the lookup table following the Maglev algorithm: every backend
+     * has a permutation of the table positions derived from its identifier,
+     * and the backends take turns to claim the next free position in their
+     * permutation until the table is full. In each turn, a backend claims a
+     * number of positions proportional to its weight, such that the backend
+     * with the largest weight claims one position.
+     */
+    private def populate[T <: HasWeight](backends: Array[T], size: Int,
+                                         id: T => UUID): Array[Short] = {
+        val count = backends.length
+        val offsets = new Array[Long](count)
+        val skips = new Array[Long](count)
+        val next = new Array[Long](count)
+        val credits = new Array[Int](count)
+        var maxWeight = 0
+        var index = 0
+        while (index < count) {
+            val uuid = id(backends(index))
+            offsets(index) = Math.floorMod(
+                hash(uuid.getMostSignificantBits ^ OffsetSeed,
+                     uuid.getLeastSignificantBits), size.toLong)
+            skips(index) = Math.floorMod(
+                hash(uuid.getMostSignificantBits ^ SkipSeed,
+                     uuid.getLeastSignificantBits), size.toLong - 1) + 1
+            maxWeight = Math.max(maxWeight, backends(index).weight)
+            index += 1
+        }
+
+        val entries = Array.fill[Short](size)(-1)
+        var filled = 0
+        while (filled < size) {
+            index = 0
+            while (index < count && filled < size) {
+                credits(index) += backends(index).weight
+                while (credits(index) >= maxWeight && filled < size) {
+                    credits(index) -= maxWeight
+                    var position =
+                        (offsets(index) + next(index) * skips(index)) % size
+                    while (entries(position.toInt) >= 0) {
+                        next(index) += 1
+                        position =
+                            (offsets(index) + next(index) * skips(index)) % size
+                    }
+                    entries(position.toInt) = index.toShort
+                    next(index) += 1
+                    filled += 1
+                }
+                index += 1
+            }
+        }
+        entries
+    }
+}
+
+/**
+ * A consistent hashing lookup table built with the Maglev algorithm, which
+ * maps a hash value to one of the backends in constant time. The table
+ * depends only on the identifiers and the weights of the backends, such that
+ * every instance built from the same backends selects the same backend for
+ * a given hash. When a backend is added or removed, only a small fraction of
+ * the hash values are mapped to a different backend.
+ *
+ * Constructor is private; use companion object to create instances.
+ */
+class MaglevTable[T <: HasWeight] private (backends: Array[T],
+                                           ids: Array[UUID],
+                                           weights: Array[Int],
+                                           entries: Array[Short],
+                                           val size: Int) {
+
+    import MaglevTable._
+
+    /**
+     * Returns a table for the given backends. Since the lookup entries only
+     * depend on the identifiers and the weights of the backends, the entries
+     * of this table are reused when those did not change, and only the
+     * backend objects are replaced. Otherwise, the table is built again,
+     * because the Maglev algorithm fills every position from the
+     * permutations of all backends.
+     *
+     * Throws an IllegalArgumentException if ts does not have any element with
+     * weight > 0.
+     */
+    def update(ts: Traversable[T])(id: T => UUID)
+              (implicit tag: ClassTag[T]): MaglevTable[T] = {
+        val updated = sortedBackends(ts, id)
+        if (updated.length != backends.length) {
+            return build(updated, size, id)
+        }
+        var changed = false
+        var index = 0
+        while (index < updated.length) {
+            if (id(updated(index)) != ids(index) ||
+                updated(index).weight != weights(index)) {
+                return build(updated, size, id)
+            }
+            changed |= updated(index) != backends(index)
+            index += 1
+        }
+        if (changed) new MaglevTable[T](updated, ids, weights, entries, size)
+        else this
+    }
+
+    /**
+     * Selects the backend for the given hash value.
+     */
+    def select(hash: Long): T = {
+        backends(entries(Math.floorMod(hash, size.toLong).toInt))
+    }
+}
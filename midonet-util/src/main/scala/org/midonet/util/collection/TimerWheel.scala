@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.Arrays
+
+object TimerWheel {
+
+    final val LevelBits = 8
+    final val Slots = 1 << LevelBits
+    final val Levels = 4
+
+    private[collection] final val SlotMask = Slots - 1
+    private[collection] final val WordsPerLevel = Slots / 64
+    private[collection] final val MaxDelta = (1L << (LevelBits * Levels)) - 1
+    private[collection] final val Nil = -1
+    private[collection] final val MinCapacity = 16
+
+}
+
+/**
+ * A hierarchical timer wheel that schedules entries for a deadline and
+ * returns them once the deadline has passed.
+ *
+ * The wheel has [[TimerWheel.Levels]] levels of [[TimerWheel.Slots]] slots
+ * each, where a slot of level `n` spans `Slots^n` ticks of `resolutionMillis`.
+ * An entry is placed in the lowest level whose range covers its deadline, and
+ * the entries in a higher level slot cascade to the lower levels when the
+ * current tick enters the range of that slot. Scheduling and polling are
+ * therefore O(1) amortized, and the wheel skips empty slots using an occupancy
+ * bitmap, such that the work done by a poll is bounded by the number of due
+ * entries plus the cascades of the non-empty slots that it crosses.
+ *
+ * The entries are kept in primitive arrays indexed by an entry handle: the
+ * deadline and the next entry in the same slot. The subclasses store the
+ * payload of an entry under the same handle, see [[TimerWheel]] and
+ * [[IntTimerWheel]]. Released handles are reused through a free list, and
+ * the arrays double in size when they are full, such that a steady state of
+ * scheduling and polling does not allocate.
+ *
+ * An entry is never returned before its deadline, but it may be returned up
+ * to one tick after it. The same payload may be scheduled several times, in
+ * which case it is returned once for every time it was scheduled.
+ *
+ * This class is not thread-safe.
+ */
+abstract class AbstractTimerWheel(resolutionMillis: Long,
+                                  initialCapacity: Int) {
+
+    import TimerWheel._
+
+    require(resolutionMillis > 0, "The resolution must be positive")
+
+    private var deadlines = new Array[Long](
+        Math.max(initialCapacity, MinCapacity))
+    private var nexts = new Array[Int](deadlines.length)
+
+    private val heads = new Array[Int](Levels * Slots)
+    private val occupied = new Array[Long](Levels * WordsPerLevel)
+
+    private var free = Nil
+    private var allocated = 0
+    private var count = 0
+    private var currentTick = -1L
+
+    Arrays.fill(heads, Nil)
+
+    /**
+     * @return The number of scheduled entries.
+     */
+    def size: Int = count
+
+    def isEmpty: Boolean = count == 0
+
+    /**
+     * Removes all scheduled entries.
+     */
+    def clear(): Unit = {
+        Arrays.fill(heads, Nil)
+        Arrays.fill(occupied, 0L)
+        clearPayloads()
+        free = Nil
+        allocated = 0
+        count = 0
+    }
+
+    /** Grows the payload storage to the given number of handles. */
+    protected def growPayloads(capacity: Int): Unit
+
+    /** Releases the payloads of all handles. */
+    protected def clearPayloads(): Unit
+
+    /**
+     * Schedules a new entry for the given deadline, and returns its handle,
+     * under which the subclass stores the payload.
+     */
+    protected final def scheduleHandle(deadlineMillis: Long,
+                                       currentTimeMillis: Long): Int = {
+        if (currentTick < 0) {
+            currentTick = tickOf(currentTimeMillis)
+        }
+        val handle = allocate()
+        deadlines(handle) = deadlineMillis
+        insert(handle)
+        count += 1
+        handle
+    }
+
+    /**
+     * Removes the next entry whose deadline is not after the current time,
+     * and returns its handle, or [[TimerWheel.Nil]] if there is none. The
+     * handle is released, but its payload remains readable until the next
+     * call to `scheduleHandle`. The wheel advances to the current time only
+     * as far as needed to find the next due entry, such that a caller can
+     * stop polling at any moment and resume later.
+     */
+    protected final def pollHandle(currentTimeMillis: Long): Int = {
+        val nowTick = tickOf(currentTimeMillis)
+        if (count == 0) {
+            if (nowTick > currentTick) {
+                currentTick = nowTick
+            }
+            return Nil
+        }
+        advance(nowTick)
+        if (currentTick > nowTick) {
+            return Nil
+        }
+        val slot = (currentTick & SlotMask).toInt
+        val handle = heads(slot)
+        if (handle == Nil) {
+            return Nil
+        }
+        unlink(slot, handle)
+        release(handle)
+        count -= 1
+        handle
+    }
+
+    /** Rounds up, such that the tick of a deadline is never before it. */
+    private def deadlineTick(deadlineMillis: Long): Long = {
+        if (deadlineMillis <= 0) 0L
+        else if (deadlineMillis > Long.MaxValue - resolutionMillis)
+            Long.MaxValue / resolutionMillis
+        else (deadlineMillis + resolutionMillis - 1) / resolutionMillis
+    }
+
+    private def tickOf(timeMillis: Long): Long = {
+        if (timeMillis <= 0) 0L else timeMillis / resolutionMillis
+    }
+
+    private def insert(handle: Int): Unit = {
+        val delta = Math.min(deadlineTick(deadlines(handle)) - currentTick,
+                             MaxDelta)
+        if (delta <= 0) {
+            link((currentTick & SlotMask).toInt, handle)
+        } else {
+            var level = 0
+            while (delta >= (1L << (LevelBits * (level + 1)))) {
+                level += 1
+            }
+            val tick = currentTick + delta
+            link(level * Slots +
+                 ((tick >>> (LevelBits * level)) & SlotMask).toInt, handle)
+        }
+    }
+
+    /**
+     * Advances the current tick towards the given tick until the current slot
+     * of the first level has due payloads, jumping over the empty slots of
+     * the first level and over the rotation boundaries whose cascade would
+     * not move any payload.
+     */
+    private def advance(nowTick: Long): Unit = {
+        while (currentTick < nowTick &&
+               heads((currentTick & SlotMask).toInt) == Nil) {
+            val position = (currentTick & SlotMask).toInt
+            val next = nextOccupied(0, position + 1)
+            if (next >= 0) {
+                currentTick = Math.min(nowTick, currentTick - position + next)
+            } else {
+                val boundary = nextCascade()
+                if (boundary > nowTick) {
+                    currentTick = nowTick
+                } else {
+                    currentTick = boundary
+                    cascade()
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The first tick after the current tick at which a cascade moves
+     *         payloads to the lower levels, assuming that the first level has
+     *         no payloads after the current position. The occupied slots of a
+     *         level after the current index cascade at the start of their
+     *         range, whereas the ones at or before the current index belong
+     *         to the next rotation of the level, and cannot cascade before the
+     *         next boundary of the level above.
+     */
+    private def nextCascade(): Long = {
+        var tick = Long.MaxValue
+        var level = 0
+        while (level < Levels) {
+            val shift = LevelBits * level
+            val index = ((currentTick >>> shift) & SlotMask).toInt
+            val next = if (level == 0) -1 else nextOccupied(level, index + 1)
+            if (next >= 0) {
+                tick = Math.min(tick,
+                                ((currentTick >>> shift) - index + next) << shift)
+            } else if (isOccupied(level)) {
+                val rotationShift = shift + LevelBits
+                tick = Math.min(tick,
+                                ((currentTick >>> rotationShift) + 1) << rotationShift)
+            }
+            level += 1
+        }
+        tick
+    }
+
+    /**
+     * Moves the payloads of the higher level slots that start at the current
+     * tick to the lower levels, from the highest level down, such that a
+     * payload may cascade through several levels at the same boundary.
+     */
+    private def cascade(): Unit = {
+        var level = 1
+        while (level < Levels &&
+               (currentTick & ((1L << (LevelBits * level)) - 1)) == 0) {
+            level += 1
+        }
+        level -= 1
+        while (level > 0) {
+            val slot = level * Slots +
+                       ((currentTick >>> (LevelBits * level)) & SlotMask).toInt
+            var handle = heads(slot)
+            heads(slot) = Nil
+            occupied(slot >>> 6) &= ~(1L << (slot & 63))
+            while (handle != Nil) {
+                val next = nexts(handle)
+                insert(handle)
+                handle = next
+            }
+            level -= 1
+        }
+    }
+
+    /**
+     * @return The first occupied slot of the given level at or after the
+     *         given index, or -1 if there is none.
+     */
+    private def nextOccupied(level: Int, from: Int): Int = {
+        if (from >= Slots) {
+            return -1
+        }
+        val first = level * WordsPerLevel
+        var word = first + (from >>> 6)
+        var bits = occupied(word) & (-1L << (from & 63))
+        while (bits == 0) {
+            word += 1
+            if (word == first + WordsPerLevel) {
+                return -1
+            }
+            bits = occupied(word)
+        }
+        ((word - first) << 6) + java.lang.Long.numberOfTrailingZeros(bits)
+    }
+
+    private def isOccupied(level: Int): Boolean = {
+        var word = level * WordsPerLevel
+        while (word < (level + 1) * WordsPerLevel) {
+            if (occupied(word) != 0) {
+                return true
+            }
+            word += 1
+        }
+        false
+    }
+
+    private def link(slot: Int, handle: Int): Unit = {
+        nexts(handle) = heads(slot)
+        heads(slot) = handle
+        occupied(slot >>> 6) |= 1L << (slot & 63)
+    }
+
+    /** Unlinks the head of the given slot. */
+    private def unlink(slot: Int, handle: Int): Unit = {
+        val next = nexts(handle)
+        heads(slot) = next
+        if (next == Nil) {
+            occupied(slot >>> 6) &= ~(1L << (slot & 63))
+        }
+    }
+
+    private def allocate(): Int = {
+        if (free != Nil) {
+            val handle = free
+            free = nexts(handle)
+            return handle
+        }
+        if (allocated == deadlines.length) {
+            val capacity = deadlines.length << 1
+            deadlines = Arrays.copyOf(deadlines, capacity)
+            nexts = Arrays.copyOf(nexts, capacity)
+            growPayloads(capacity)
+        }
+        val handle = allocated
+        allocated += 1
+        handle
+    }
+
+    private def release(handle: Int): Unit = {
+        nexts(handle) = free
+        free = handle
+    }
+
+}
+
+/**
+ * A [[AbstractTimerWheel]] of object payloads.
+ */
+final class TimerWheel[T <: AnyRef](resolutionMillis: Long,
+                                    initialCapacity: Int = 64)
+    extends AbstractTimerWheel(resolutionMillis, initialCapacity) {
+
+    import TimerWheel._
+
+    private var payloads = new Array[AnyRef](
+        Math.max(initialCapacity, MinCapacity))
+
+    /**
+     * Schedules the payload to be returned by `poll` when the current time
+     * reaches the given deadline.
+     */
+    def schedule(payload: T, deadlineMillis: Long,
+                 currentTimeMillis: Long): Unit = {
+        payloads(scheduleHandle(deadlineMillis, currentTimeMillis)) = payload
+    }
+
+    /**
+     * Returns the next payload whose deadline is not after the current time,
+     * or `null` if there is none.
+     */
+    def poll(currentTimeMillis: Long): T = {
+        val handle = pollHandle(currentTimeMillis)
+        if (handle == Nil) {
+            return null.asInstanceOf[T]
+        }
+        val payload = payloads(handle).asInstanceOf[T]
+        payloads(handle) = null
+        payload
+    }
+
+    protected override def growPayloads(capacity: Int): Unit = {
+        payloads = Arrays.copyOf(payloads, capacity)
+    }
+
+    protected override def clearPayloads(): Unit = {
+        Arrays.fill(payloads, null)
+    }
+
+}
+
+/**
+ * A [[AbstractTimerWheel]] of non-negative integer payloads, such as the
+ * indices of the entries of an off-heap table, which does not allocate an
+ * object per scheduled payload.
+ */
+final class IntTimerWheel(resolutionMillis: Long, initialCapacity: Int = 64)
+    extends AbstractTimerWheel(resolutionMillis, initialCapacity) {
+
+    import TimerWheel._
+
+    private var payloads = new Array[Int](
+        Math.max(initialCapacity, MinCapacity))
+
+    /**
+     * Schedules the payload to be returned by `poll` when the current time
+     * reaches the given deadline.
+     */
+    def schedule(payload: Int, deadlineMillis: Long,
+                 currentTimeMillis: Long): Unit = {
+        require(payload >= 0, "The payload must be non-negative")
+        payloads(scheduleHandle(deadlineMillis, currentTimeMillis)) = payload
+    }
+
+    /**
+     * Returns the next payload whose deadline is not after the current time,
+     * or -1 if there is none.
+     */
+    def poll(currentTimeMillis: Long): Int = {
+        val handle = pollHandle(currentTimeMillis)
+        if (handle == Nil) -1 else payloads(handle)
+    }
+
+    protected override def growPayloads(capacity: Int): Unit = {
+        payloads = Arrays.copyOf(payloads, capacity)
+    }
+
+    protected override def clearPayloads(): Unit = { }
+
+}
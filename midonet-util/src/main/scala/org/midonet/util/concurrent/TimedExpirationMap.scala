@@ -16,14 +16,14 @@
 
 package org.midonet.util.concurrent
 
-import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue}
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
 
 import scala.annotation.tailrec
 import scala.concurrent.duration.Duration
 
 import org.midonet.util.PaddedAtomicInteger
-import org.midonet.util.collection.Reducer
+import org.midonet.util.collection.{Reducer, TimerWheel}
 import org.midonet.util.logging.Logger
 
 /**
@@ -55,13 +55,14 @@ import org.midonet.util.logging.Logger
  *
  *   + At reference expiration time
  *      - When unref decrements a count to zero, it will calculate the
- *        expiration time and put it in the expiring queue. Because the counts
- *        could vary (to one and back to zero) in the expiration interval, the
- *        canonical expiration time is kept in the ref count map. The queue
- *        simply marks that a key should be checked for expiration when
- *        doDeletions() is invoked. Note that change the expiration interval
- *        associated with the entry races with its removal, so it's possible an
- *        entry will be expired sooner than it should.
+ *        expiration time and schedule the key in the expiration timer wheel.
+ *        Because the counts could vary (to one and back to zero) in the
+ *        expiration interval, the canonical expiration time is kept in the ref
+ *        count map. The wheel simply marks that a key should be checked for
+ *        expiration when obliterateIdleEntries() is invoked. Note that change
+ *        the expiration interval associated with the entry races with its
+ *        removal, so it's possible an entry will be expired sooner than it
+ *        should.
  *
  *      - When obliterateIdleEntries() goes through the queue and sees that
  *        an entry has a ref count of zero and is expired, it will atomically
@@ -98,6 +99,17 @@ trait TimedExpirationMap[K <: AnyRef, V >: Null] {
     }
 }
 
+object TimedExpirationMap {
+
+    /**
+     * The resolution of the timer wheels that schedule the expiration of the
+     * idle entries. A resolution of one millisecond preserves the exact
+     * expiration times of the entries.
+     */
+    final val WheelResolutionMillis = 1L
+
+}
+
 final class OnHeapTimedExpirationMap[K <: AnyRef, V >: Null]
     (log: Logger, expirationFor: K => Duration) extends TimedExpirationMap[K, V] {
 
@@ -110,16 +122,16 @@ final class OnHeapTimedExpirationMap[K <: AnyRef, V >: Null]
      * Track entries that need to be deleted and the time at which they
      * should be deleted.
      *
-     * A queue provides traversal using insertion order. Expiring entries means
-     * iterating the queue until an non-expired time is found. When an entry is
-     * taken from the queue, the canonical up-to-date expiration time is found
-     * in the ref count map. The queue is just a flag to say "check this entry,
-     * it's probably expired".
+     * Expiring entries means polling the wheel for the keys whose expiration
+     * time has passed. When a key is taken from the wheel, the canonical
+     * up-to-date expiration time is found in the ref count map. The wheel is
+     * just a flag to say "check this entry, it's probably expired", and a key
+     * may be scheduled several times if its count goes back to zero.
      *
-     * An entry will only be present in this queue if it is also present
+     * An entry will only be present in this wheel if it is also present
      * in the refCountMap.
      */
-    private val expiring = new ConcurrentHashMap[Long, ConcurrentLinkedQueue[(K, Long)]]()
+    private val expiring = new TimerWheel[K](TimedExpirationMap.WheelResolutionMillis)
 
     private def tryIncIfGreaterThan(atomic: AtomicInteger, threshold: Int): Int = {
         do {
@@ -247,7 +259,9 @@ final class OnHeapTimedExpirationMap[K <: AnyRef, V >: Null]
                     logger.debug(log.marker, s"Scheduling removal of $key")
                     val expirationPeriod = expirationFor(key).toMillis
                     m.expiration = currentTimeMillis + expirationPeriod
-                    getExpirationQueueFor(expirationPeriod).offer((key, m.expiration))
+                    expiring.synchronized {
+                        expiring.schedule(key, m.expiration, currentTimeMillis)
+                    }
                 } else if (newVal < 0) {
                     logger.warn(log.marker,
                                 s"Decrement a ref count past 0 for $key")
@@ -257,18 +271,6 @@ final class OnHeapTimedExpirationMap[K <: AnyRef, V >: Null]
                 value
         }
 
-    private def getExpirationQueueFor(expirationPeriod: Long) = {
-        var expirationQ = expiring.get(expirationPeriod)
-        if (expirationQ eq null) {
-            expirationQ = new ConcurrentLinkedQueue[(K, Long)]()
-            val oldQ = expiring.putIfAbsent(expirationPeriod, expirationQ)
-            if (oldQ ne null)
-                expirationQ = oldQ
-        }
-        expirationQ
-    }
-
-
     /**
      * Cleans up resources that have had their reference count at 0 for longer
      * than the configured expiration.
@@ -281,41 +283,27 @@ final class OnHeapTimedExpirationMap[K <: AnyRef, V >: Null]
     override def obliterateIdleEntries[U](currentTimeMillis: Long, seed: U,
                                           reducer: Reducer[K, V, U]): U = {
         var acc = seed
-        val it = expiring.elements()
-        while (it.hasMoreElements) {
-            acc = obliterateIdleEntries(
-                it.nextElement(), currentTimeMillis, acc, reducer)
-        }
-        acc
-    }
-
-    private def obliterateIdleEntries[U](
-            expirationQ: ConcurrentLinkedQueue[(K, Long)],
-            currentTimeMillis: Long,
-            seed: U,
-            reducer: Reducer[K, V, U]): U = {
-        var acc = seed
-        while (true) {
-            val pair = expirationQ.peek()
-            if ((pair eq null) || (pair._2 > currentTimeMillis))
-                return acc
-
-            val metadata = refCountMap.get(pair._1)
+        var key = pollExpiring(currentTimeMillis)
+        while (key ne null) {
+            val metadata = refCountMap.get(key)
 
             if (metadata != null &&
                 metadata.expiration <= currentTimeMillis &&
                 metadata.refCount.compareAndSet(0, -1)) {
 
-                logger.debug(log.marker, s"Forgetting entry ${pair._1}")
+                logger.debug(log.marker, s"Forgetting entry $key")
                 /* The following operations are precisely ordered as explained
                  * in the header. */
-                acc = reducer(acc, pair._1, metadata.value)
-                refCountMap.remove(pair._1)
+                acc = reducer(acc, key, metadata.value)
+                refCountMap.remove(key)
             }
-            expirationQ.poll()
+            key = pollExpiring(currentTimeMillis)
         }
         acc
     }
+
+    private def pollExpiring(currentTimeMillis: Long): K =
+        expiring.synchronized { expiring.poll(currentTimeMillis) }
 }
 
 object OffHeapTimedExpirationMap {
@@ -342,6 +330,16 @@ final class OffHeapTimedExpirationMap[K <: AnyRef, V >: Null]
     val native = new NativeTimedExpirationMap()
     val pointer = native.create()
 
+    /*
+     * The serialized keys whose reference count reached zero, see the
+     * corresponding wheel in the OnHeapTimedExpirationMap. The native map
+     * keeps the canonical expiration time and only sets it when an entry
+     * becomes idle, such that the keys are scheduled and expired here in
+     * the same way as for the on-heap entries.
+     */
+    private val expiring =
+        new TimerWheel[Array[Byte]](TimedExpirationMap.WheelResolutionMillis)
+
     override def putAndRef(key: K, value: V): V = {
         deserializeValue(native.putAndRef(
             pointer, serializeKey(key), serializeValue(value)))
@@ -367,9 +365,19 @@ final class OffHeapTimedExpirationMap[K <: AnyRef, V >: Null]
         native.refCount(pointer, serializeKey(key))
 
     override def unref(key: K, currentTimeMillis: Long): V = {
-        val value = native.unref(pointer, serializeKey(key),
-                                 expirationFor(key).toMillis,
-                                 currentTimeMillis)
+        val keyBytes = serializeKey(key)
+        val expirationPeriod = expirationFor(key).toMillis
+        val becameIdle = new Array[Boolean](1)
+        val value = native.unrefAndCheckIdle(pointer, keyBytes,
+                                             expirationPeriod,
+                                             currentTimeMillis, becameIdle)
+        if (becameIdle(0)) {
+            expiring.synchronized {
+                expiring.schedule(keyBytes,
+                                  currentTimeMillis + expirationPeriod,
+                                  currentTimeMillis)
+            }
+        }
         deserializeValue(value)
     }
 
@@ -379,10 +387,25 @@ final class OffHeapTimedExpirationMap[K <: AnyRef, V >: Null]
 
     override def obliterateIdleEntries[U](currentTimeMillis: Long, seed: U,
                                           func: Reducer[K, V, U]): U = {
-        val iterator = native.obliterate(pointer, currentTimeMillis)
-        foldOverIterator(iterator, seed, func)
+        var acc = seed
+        var keyBytes = pollExpiring(currentTimeMillis)
+        while (keyBytes ne null) {
+            val value = native.expire(pointer, keyBytes, currentTimeMillis)
+            if (value ne null) {
+                /* The native map prevents referencing the key again until it
+                 * is removed, after the call into the reducer. */
+                acc = func(acc, deserializeKey(keyBytes),
+                           deserializeValue(value))
+                native.removeExpired(pointer, keyBytes)
+            }
+            keyBytes = pollExpiring(currentTimeMillis)
+        }
+        acc
     }
 
+    private def pollExpiring(currentTimeMillis: Long): Array[Byte] =
+        expiring.synchronized { expiring.poll(currentTimeMillis) }
+
     private def foldOverIterator[U](iterator: Long, seed: U,
                                     func: Reducer[K, V, U]): U = {
         var ret = seed
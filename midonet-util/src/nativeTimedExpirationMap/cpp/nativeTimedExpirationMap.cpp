@@ -108,6 +108,43 @@ Java_org_midonet_util_concurrent_NativeTimedExpirationMap_unref
   }
 }
 
+jbyteArray
+Java_org_midonet_util_concurrent_NativeTimedExpirationMap_unrefAndCheckIdle
+(JNIEnv *env, jobject, jlong ptr, jbyteArray keyBytes,
+ jlong expire_in, jlong current_time_millis, jbooleanArray becameIdle) {
+  auto map = reinterpret_cast<NativeTimedExpirationMap*>(ptr);
+  bool idle = false;
+  auto ret = map->unref_and_check_idle(jba2str(env, keyBytes), expire_in,
+                                       current_time_millis, idle);
+  jboolean idleFlag = idle ? JNI_TRUE : JNI_FALSE;
+  env->SetBooleanArrayRegion(becameIdle, 0, 1, &idleFlag);
+  if (ret) {
+    return str2jba(env, ret.value());
+  } else {
+    return NULL;
+  }
+}
+
+jbyteArray
+Java_org_midonet_util_concurrent_NativeTimedExpirationMap_expire
+(JNIEnv *env, jobject, jlong ptr, jbyteArray keyBytes,
+ jlong current_time_millis) {
+  auto map = reinterpret_cast<NativeTimedExpirationMap*>(ptr);
+  auto ret = map->expire(jba2str(env, keyBytes), current_time_millis);
+  if (ret) {
+    return str2jba(env, ret.value());
+  } else {
+    return NULL;
+  }
+}
+
+void
+Java_org_midonet_util_concurrent_NativeTimedExpirationMap_removeExpired
+(JNIEnv *env, jobject, jlong ptr, jbyteArray keyBytes) {
+  auto map = reinterpret_cast<NativeTimedExpirationMap*>(ptr);
+  map->remove_expired(jba2str(env, keyBytes));
+}
+
 void
 Java_org_midonet_util_concurrent_NativeTimedExpirationMap_destroy
 (JNIEnv *, jobject, jlong ptr) {
@@ -282,6 +319,47 @@ NativeTimedExpirationMap::unref(const std::string key,
   }
 }
 
+const option<std::string>
+NativeTimedExpirationMap::unref_and_check_idle(const std::string key,
+                                               long expire_in,
+                                               long current_time_millis,
+                                               bool& became_idle) {
+  became_idle = false;
+  RefCountMap::accessor accessor;
+  if (ref_count_map.find(accessor, key)) {
+    if (accessor->second.ref_count() > 0 &&
+        accessor->second.dec_and_get() == 0) {
+      accessor->second.set_expiration(current_time_millis + expire_in);
+      became_idle = true;
+    }
+    return option<std::string>(accessor->second.value());
+  } else {
+    return option<std::string>::null_opt;
+  }
+}
+
+const option<std::string>
+NativeTimedExpirationMap::expire(const std::string key,
+                                 long current_time_millis) {
+  RefCountMap::accessor accessor;
+  if (ref_count_map.find(accessor, key)
+      && accessor->second.expiration() <= current_time_millis
+      && accessor->second.dec_if_zero()) {
+    return option<std::string>(accessor->second.value());
+  } else {
+    return option<std::string>::null_opt;
+  }
+}
+
+void
+NativeTimedExpirationMap::remove_expired(const std::string key) {
+  RefCountMap::accessor accessor;
+  if (ref_count_map.find(accessor, key)
+      && accessor->second.ref_count() == -1) {
+    ref_count_map.erase(accessor);
+  }
+}
+
 NativeTimedExpirationMap::Iterator* NativeTimedExpirationMap::iterator() const {
   return new NativeTimedExpirationMap::AllEntriesIterator(ref_count_map);
 }
@@ -105,6 +105,28 @@ public:
   const option<std::string> unref(const std::string key, long expire_in,
                                   long current_time_millis);
 
+  /**
+   * Decrements the reference count and sets the expiration time when it
+   * reaches zero, without queueing the key for obliterate(). The caller
+   * tracks the idle keys and expires them with expire() and remove_expired().
+   * Returns the value of the key, and sets became_idle if this call brought
+   * the reference count to zero. Both are read under the same accessor, such
+   * that the value cannot be expired in between.
+   */
+  const option<std::string> unref_and_check_idle(const std::string key,
+                                                 long expire_in,
+                                                 long current_time_millis,
+                                                 bool& became_idle);
+
+  /**
+   * Marks the key as expired if it is idle and its expiration time has
+   * passed, and returns its value. The key is not removed from the map, and
+   * cannot be referenced again, until remove_expired() is called.
+   */
+  const option<std::string> expire(const std::string key,
+                                   long current_time_millis);
+  void remove_expired(const std::string key);
+
   class Iterator;
   NativeTimedExpirationMap::Iterator* iterator() const;
   NativeTimedExpirationMap::Iterator* obliterate(long current_time_millis);
@@ -190,6 +190,44 @@ TEST(NativeTimedExpirationMapTests, test_entry_resurrected) {
   ASSERT_EQ(expired.second, 1);
 }
 
+TEST(NativeTimedExpirationMapTests, test_unref_and_expire) {
+  auto map = new NativeTimedExpirationMap();
+  bool idle = true;
+  ASSERT_FALSE(map->unref_and_check_idle("K", 1, 0, idle));
+  ASSERT_FALSE(idle);
+
+  map->put_and_ref("K", "V");
+  map->ref("K");
+  ASSERT_EQ(map->unref_and_check_idle("K", 1, 0, idle).value(), "V");
+  ASSERT_FALSE(idle);
+  ASSERT_EQ(map->ref_count("K"), 1);
+  ASSERT_FALSE(map->expire("K", 1));
+  ASSERT_EQ(map->unref_and_check_idle("K", 1, 0, idle).value(), "V");
+  ASSERT_TRUE(idle);
+  ASSERT_EQ(map->unref_and_check_idle("K", 1, 0, idle).value(), "V");
+  ASSERT_FALSE(idle);
+  ASSERT_EQ(map->ref_count("K"), 0);
+
+  ASSERT_FALSE(map->expire("K", 0));
+  map->ref("K");
+  ASSERT_FALSE(map->expire("K", 1));
+  ASSERT_EQ(map->unref_and_check_idle("K", 2, 0, idle).value(), "V");
+  ASSERT_TRUE(idle);
+  ASSERT_FALSE(map->expire("K", 1));
+
+  auto expired = map->expire("K", 2);
+  ASSERT_EQ(expired.value(), "V");
+  ASSERT_EQ(map->ref_count("K"), -1);
+  ASSERT_FALSE(map->get("K"));
+  ASSERT_FALSE(map->ref("K"));
+
+  map->remove_expired("K");
+  ASSERT_EQ(map->ref_count("K"), 0);
+  ASSERT_EQ(map->put_if_absent_and_ref("K", "W"), 1);
+  map->remove_expired("K");
+  ASSERT_EQ(map->get("K").value(), "W");
+}
+
 int main(int argc, char **argv) {
   testing::InitGoogleTest(&argc, argv);
   return RUN_ALL_TESTS();
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+object TimerWheelBenchmark {
+
+    val PeriodsMillis = Array(1000L, 2000L, 3000L)
+
+    trait Expirations {
+        def schedule(key: AnyRef, periodMillis: Long, currentTimeMillis: Long): Unit
+        def expire(currentTimeMillis: Long): Int
+    }
+
+    /**
+     * The timer wheel, as used by the timed expiration maps.
+     */
+    class WheelExpirations extends Expirations {
+        private val wheel = new TimerWheel[AnyRef](1)
+
+        override def schedule(key: AnyRef, periodMillis: Long,
+                              currentTimeMillis: Long): Unit = {
+            wheel.schedule(key, currentTimeMillis + periodMillis,
+                           currentTimeMillis)
+        }
+
+        override def expire(currentTimeMillis: Long): Int = {
+            var count = 0
+            while (wheel.poll(currentTimeMillis) ne null) {
+                count += 1
+            }
+            count
+        }
+    }
+
+    /**
+     * The previous expiration queues of the timed expiration maps: a queue
+     * per expiration period, walked in insertion order.
+     */
+    class QueueExpirations extends Expirations {
+        private val expiring =
+            new ConcurrentHashMap[Long, ConcurrentLinkedQueue[(AnyRef, Long)]]()
+
+        override def schedule(key: AnyRef, periodMillis: Long,
+                              currentTimeMillis: Long): Unit = {
+            var queue = expiring.get(periodMillis)
+            if (queue eq null) {
+                queue = new ConcurrentLinkedQueue[(AnyRef, Long)]()
+                val oldQueue = expiring.putIfAbsent(periodMillis, queue)
+                if (oldQueue ne null)
+                    queue = oldQueue
+            }
+            queue.offer((key, currentTimeMillis + periodMillis))
+        }
+
+        override def expire(currentTimeMillis: Long): Int = {
+            var count = 0
+            val it = expiring.elements()
+            while (it.hasMoreElements) {
+                val queue = it.nextElement()
+                var pair = queue.peek()
+                while ((pair ne null) && pair._2 <= currentTimeMillis) {
+                    queue.poll()
+                    count += 1
+                    pair = queue.peek()
+                }
+            }
+            count
+        }
+    }
+
+}
+
+/**
+ * Compares the expiration of idle entries using the timer wheel with the
+ * expiration queues, in a steady state with the given number of pending
+ * entries. Every operation schedules an entry with one of several expiration
+ * periods, and the clock advances by one millisecond, expiring the due
+ * entries, every `entries / 2000` operations.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Xmx4g"))
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class TimerWheelBenchmark {
+
+    import TimerWheelBenchmark._
+
+    @Param(Array("1000000", "4000000"))
+    var entries: Int = _
+
+    @Param(Array("wheel", "queues"))
+    var engine: String = _
+
+    var expirations: Expirations = _
+    var keys: Array[AnyRef] = _
+    var opsPerMillis: Int = _
+
+    var index = 0
+    var ops = 0
+    var now = 0L
+
+    @JmhSetup
+    def setup(): Unit = {
+        expirations = engine match {
+            case "wheel" => new WheelExpirations
+            case "queues" => new QueueExpirations
+        }
+        keys = Array.tabulate[AnyRef](entries)(new Integer(_))
+        opsPerMillis = Math.max(1, entries / 2000)
+        index = 0
+        ops = 0
+        now = 0L
+        // Fill the engine until the entries expire as fast as they are added.
+        for (_ <- 0L until PeriodsMillis.max * opsPerMillis) {
+            scheduleAndExpire()
+        }
+    }
+
+    @Benchmark
+    def scheduleAndExpire(): Int = {
+        val key = keys(index)
+        expirations.schedule(key, PeriodsMillis(index % PeriodsMillis.length),
+                             now)
+        index += 1
+        if (index == keys.length) {
+            index = 0
+        }
+        ops += 1
+        if (ops == opsPerMillis) {
+            ops = 0
+            now += 1
+            expirations.expire(now)
+        } else 0
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class MaglevTableTest extends FeatureSpec with Matchers {
+
+    private val Size = 4093
+
+    private class Backend(val id: UUID, val weight: Int) extends HasWeight
+    private object Backend {
+        def apply(weight: Int = 1) = new Backend(UUID.randomUUID(), weight)
+    }
+
+    private def table(backends: Seq[Backend]): MaglevTable[Backend] =
+        MaglevTable(backends, Size)(_.id)
+
+    private def frequencies(table: MaglevTable[Backend])
+    : mutable.Map[Backend, Int] = {
+        val frequencies = mutable.Map[Backend, Int]().withDefaultValue(0)
+        for (hash <- 0 until Size) {
+            frequencies(table.select(hash)) += 1
+        }
+        frequencies
+    }
+
+    feature("Maglev table construction") {
+        scenario("Attempt to create a table without backends") {
+            intercept[IllegalArgumentException] {
+                table(Seq.empty)
+            }
+            intercept[IllegalArgumentException] {
+                table(Seq(Backend(0)))
+            }
+        }
+
+        scenario("Backends with zero weight are ignored") {
+            val backend = Backend()
+            val t = table(Seq(Backend(0), backend, Backend(0)))
+            frequencies(t) shouldBe Map(backend -> Size)
+        }
+
+        scenario("Backends receive an even share of the table") {
+            val backends = Seq.fill(10)(Backend())
+            val f = frequencies(table(backends))
+            f.keySet shouldBe backends.toSet
+            f.values foreach { count =>
+                count should (be > Size / 10 - Size / 100 and
+                              be < Size / 10 + Size / 100)
+            }
+        }
+
+        scenario("Backends receive a share proportional to their weight") {
+            val light = Backend(1)
+            val heavy = Backend(3)
+            val f = frequencies(table(Seq(light, heavy)))
+            f(light) should (be > Size / 4 - Size / 100 and
+                             be < Size / 4 + Size / 100)
+            f(heavy) shouldBe Size - f(light)
+        }
+    }
+
+    feature("Maglev table consistency") {
+        scenario("Tables with the same backends select the same backend") {
+            val backends = Seq.fill(5)(Backend(Random.nextInt(3) + 1))
+            val t1 = table(backends)
+            val t2 = table(Random.shuffle(backends))
+            for (_ <- 0 until 1000) {
+                val hash = Random.nextLong()
+                t1.select(hash) shouldBe t2.select(hash)
+            }
+        }
+
+        scenario("Removing a backend only remaps its share of the table") {
+            val backends = Seq.fill(10)(Backend())
+            val removed = backends.head
+            val t1 = table(backends)
+            val t2 = table(backends.tail)
+
+            var remapped = 0
+            for (hash <- 0 until Size) {
+                val before = t1.select(hash)
+                val after = t2.select(hash)
+                if (before ne removed) {
+                    if (before ne after) remapped += 1
+                } else {
+                    after should not be theSameInstanceAs (removed)
+                }
+            }
+            remapped should be < Size / 10
+        }
+
+        scenario("Updating a table with the same backends") {
+            val backends = Seq.fill(3)(Backend())
+            val t = table(backends)
+            t.update(backends.reverse)(_.id) should be theSameInstanceAs t
+            t.update(backends :+ Backend(0))(_.id) should be theSameInstanceAs t
+        }
+
+        scenario("Updating a table with modified backends") {
+            val backends = Seq.fill(3)(Backend())
+            val t1 = table(backends)
+
+            // A backend replaced by one with the same id and weight takes
+            // the same positions in the table.
+            val replaced = new Backend(backends.head.id, backends.head.weight)
+            val t2 = t1.update(replaced +: backends.tail)(_.id)
+
+            t2 should not be theSameInstanceAs (t1)
+            for (hash <- 0 until Size) {
+                val before = t1.select(hash)
+                val after = t2.select(hash)
+                if (before eq backends.head) after should be theSameInstanceAs (replaced)
+                else after should be theSameInstanceAs (before)
+            }
+        }
+
+        scenario("Updating a table with different backends") {
+            val backends = Seq.fill(3)(Backend())
+            val t = table(backends)
+            val added = Backend()
+            val reweighted = new Backend(backends.head.id, 2)
+
+            frequencies(t.update(backends.tail)(_.id)).keySet shouldBe
+                backends.tail.toSet
+            frequencies(t.update(backends :+ added)(_.id)).keySet shouldBe
+                (backends :+ added).toSet
+            val f = frequencies(t.update(reweighted +: backends.tail)(_.id))
+            f(reweighted) should be > f(backends(1))
+            intercept[IllegalArgumentException] {
+                t.update(Seq(Backend(0)))(_.id)
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class TimerWheelTest extends FeatureSpec with Matchers {
+
+    private def drain(wheel: TimerWheel[String], now: Long): Seq[String] = {
+        val payloads = mutable.ArrayBuffer[String]()
+        var payload = wheel.poll(now)
+        while (payload ne null) {
+            payloads += payload
+            payload = wheel.poll(now)
+        }
+        payloads
+    }
+
+    feature("Timer wheel scheduling") {
+        scenario("An empty wheel returns null") {
+            val wheel = new TimerWheel[String](1)
+            wheel.poll(0) shouldBe null
+            wheel.poll(Long.MaxValue / 2) shouldBe null
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Payloads are not returned before their deadline") {
+            val wheel = new TimerWheel[String](1)
+            wheel.schedule("A", 10, 0)
+            wheel.schedule("B", 20, 0)
+            wheel.size shouldBe 2
+
+            drain(wheel, 9) shouldBe empty
+            drain(wheel, 10) shouldBe Seq("A")
+            drain(wheel, 19) shouldBe empty
+            drain(wheel, 20) shouldBe Seq("B")
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Payloads past their deadline are due immediately") {
+            val wheel = new TimerWheel[String](1)
+            drain(wheel, 100) shouldBe empty
+            wheel.schedule("A", 50, 100)
+            drain(wheel, 100) shouldBe Seq("A")
+        }
+
+        scenario("Payloads are returned in deadline order across slots") {
+            val wheel = new TimerWheel[String](1)
+            wheel.schedule("C", 300, 0)
+            wheel.schedule("A", 5, 0)
+            wheel.schedule("B", 255, 0)
+            drain(wheel, 1000) shouldBe Seq("A", "B", "C")
+        }
+
+        scenario("The deadline is rounded up to the resolution") {
+            val wheel = new TimerWheel[String](10)
+            wheel.schedule("A", 15, 0)
+            drain(wheel, 15) shouldBe empty
+            drain(wheel, 19) shouldBe empty
+            drain(wheel, 20) shouldBe Seq("A")
+        }
+
+        scenario("A payload may be scheduled several times") {
+            val wheel = new TimerWheel[String](1)
+            wheel.schedule("A", 1, 0)
+            wheel.schedule("A", 2, 0)
+            drain(wheel, 2) shouldBe Seq("A", "A")
+        }
+
+        scenario("Polling can stop and resume") {
+            val wheel = new TimerWheel[String](1)
+            for (index <- 0 until 10) {
+                wheel.schedule(index.toString, index, 0)
+            }
+            wheel.poll(100) shouldBe "0"
+            wheel.poll(100) shouldBe "1"
+            drain(wheel, 100) shouldBe (2 until 10).map(_.toString)
+        }
+    }
+
+    feature("Timer wheel levels") {
+        scenario("Payloads cascade from every level") {
+            val wheel = new TimerWheel[String](1)
+            val deadlines = Seq(1L << 8, 1L << 16, 1L << 24, 1L << 31,
+                                (1L << 16) + 3, (1L << 24) + (1L << 8) + 7)
+            for (deadline <- deadlines) {
+                wheel.schedule(deadline.toString, deadline, 0)
+            }
+            for (deadline <- deadlines.sorted) {
+                drain(wheel, deadline - 1) shouldBe empty
+                drain(wheel, deadline) shouldBe Seq(deadline.toString)
+            }
+        }
+
+        scenario("Payloads beyond the wheel range are returned") {
+            val wheel = new TimerWheel[String](1)
+            val deadline = 1L << 40
+            wheel.schedule("A", deadline, 0)
+            drain(wheel, 1L << 33) shouldBe empty
+            drain(wheel, deadline - 1) shouldBe empty
+            drain(wheel, deadline) shouldBe Seq("A")
+        }
+
+        scenario("Random deadlines match a reference implementation") {
+            val random = new Random(0x5eed)
+            val wheel = new TimerWheel[String](1, initialCapacity = 1)
+            val pending = mutable.Map[String, Long]()
+            var now = 1000L
+            for (index <- 0 until 20000) {
+                val delay = random.nextInt(4) match {
+                    case 0 => random.nextInt(256)
+                    case 1 => random.nextInt(1 << 16)
+                    case _ => random.nextInt(1 << 20)
+                }
+                val payload = index.toString
+                wheel.schedule(payload, now + delay, now)
+                pending(payload) = now + delay
+                if (index % 16 == 0) {
+                    now += random.nextInt(1 << 12)
+                    val expired = drain(wheel, now)
+                    expired.toSet shouldBe pending.filter(_._2 <= now).keySet
+                    pending --= expired
+                }
+            }
+            drain(wheel, Long.MaxValue / 2).size shouldBe pending.size
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Released entries are reused") {
+            val wheel = new TimerWheel[String](1, initialCapacity = 16)
+            for (round <- 0 until 100; index <- 0 until 16) {
+                wheel.schedule(index.toString, round + 1, round)
+                if (index == 15) {
+                    drain(wheel, round + 1).size shouldBe 16
+                }
+            }
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Clearing the wheel removes all payloads") {
+            val wheel = new TimerWheel[String](1)
+            wheel.schedule("A", 1, 0)
+            wheel.schedule("B", 1000, 0)
+            wheel.clear()
+            wheel.isEmpty shouldBe true
+            drain(wheel, 2000) shouldBe empty
+            wheel.schedule("C", 2001, 2000)
+            drain(wheel, 2001) shouldBe Seq("C")
+        }
+    }
+
+    feature("Integer timer wheel scheduling") {
+        scenario("Integer payloads are returned after their deadline") {
+            val wheel = new IntTimerWheel(1, initialCapacity = 16)
+            wheel.poll(0) shouldBe -1
+
+            for (index <- 0 until 1000) {
+                wheel.schedule(index, 70000 + index, 0)
+            }
+            wheel.size shouldBe 1000
+            wheel.poll(69999) shouldBe -1
+
+            val payloads = mutable.ArrayBuffer[Int]()
+            var payload = wheel.poll(71000)
+            while (payload >= 0) {
+                payloads += payload
+                payload = wheel.poll(71000)
+            }
+            payloads.sorted shouldBe (0 until 1000)
+            wheel.isEmpty shouldBe true
+        }
+
+        scenario("Negative payloads are rejected") {
+            val wheel = new IntTimerWheel(1)
+            an [IllegalArgumentException] shouldBe thrownBy {
+                wheel.schedule(-1, 1, 0)
+            }
+        }
+    }
+}
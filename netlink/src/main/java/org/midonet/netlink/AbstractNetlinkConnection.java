@@ -65,6 +65,9 @@ public abstract class AbstractNetlinkConnection {
     private ByteBuffer reply =
         BytesUtil.instance.allocateDirect(NETLINK_READ_BUFSIZE);
 
+    // When set, the connection reads multiple datagrams per system call.
+    private DatagramBatch readBatch = null;
+
     private final BufferPool requestPool;
     private final NetlinkMetrics metrics;
     private final NetlinkChannel channel;
@@ -132,6 +135,28 @@ public abstract class AbstractNetlinkConnection {
         return this.maxBatchIoOps;
     }
 
+    /**
+     * Creates a batch for reading up to {@code size} datagrams with a single
+     * system call, or returns null if the size is not positive or if the
+     * platform does not support it.
+     */
+    public static DatagramBatch newReadBatch(int size) {
+        if (size <= 0 || !DatagramBatch.isSupported()) {
+            return null;
+        }
+        return new DatagramBatch(size, NETLINK_READ_BUFSIZE);
+    }
+
+    /**
+     * Sets the batch used to read multiple datagrams from the channel with a
+     * single system call, or null to read one datagram per system call. The
+     * batch may be shared by the connections whose read events are handled
+     * by the same thread.
+     */
+    public void setReadBatch(DatagramBatch batch) {
+        this.readBatch = batch;
+    }
+
     public SelectorInputQueue<NetlinkRequest> getSendQueue() {
         return writeQueue;
     }
@@ -323,7 +348,9 @@ public abstract class AbstractNetlinkConnection {
         try {
             bucket.prepare();
             for (int i = 0; i < maxBatchIoOps; i++) {
-                final int ret = processReadFromChannel(bucket);
+                final int ret = readBatch != null
+                                ? processBatchFromChannel(bucket, readBatch)
+                                : processReadFromChannel(bucket);
                 if (ret <= 0) {
                     if (ret < 0) {
                         log.info("NETLINK read() error: {}",
@@ -349,8 +376,27 @@ public abstract class AbstractNetlinkConnection {
 
         reply.clear();
         int nbytes = channel.read(reply);
+        metrics.netlinkReads().mark();
 
         reply.flip(); // sets the effective final limit for any number of msgs
+        processReply(reply, bucket);
+        return nbytes;
+    }
+
+    private synchronized int processBatchFromChannel(final Bucket bucket,
+                                                     final DatagramBatch batch)
+            throws IOException {
+
+        int count = channel.read(batch);
+        metrics.netlinkReads().mark();
+
+        for (int index = 0; index < count; index++) {
+            processReply(batch.buffer(index), bucket);
+        }
+        return count;
+    }
+
+    private void processReply(final ByteBuffer reply, final Bucket bucket) {
         reply.mark();
         int finalLimit = reply.limit();
 
@@ -407,6 +453,7 @@ public abstract class AbstractNetlinkConnection {
                     metrics.netlinkNotifications().mark();
                     if (seq == 0) {
                         // if the seq number is zero we are handling a PacketIn.
+                        metrics.netlinkUpcalls().mark();
                         if (bucket.consumeToken()) {
                             try {
                                 if (!handleNotification(type, cmd, seq,
@@ -430,7 +477,6 @@ public abstract class AbstractNetlinkConnection {
             reply.limit(finalLimit);
             reply.position(nextPosition);
         }
-        return nbytes;
     }
 
     private void processSuccessfulRequest(NetlinkRequest request) {
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.netlink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import org.midonet.jna.CLibrary;
+
+/**
+ * A preallocated array of direct buffers that can be filled with multiple
+ * datagrams from a socket using a single recvmmsg() system call. The class
+ * lays out the native {@code struct mmsghdr} and {@code struct iovec} arrays
+ * pointing to the buffers once, such that receiving a batch does not
+ * allocate.
+ *
+ * The native layout assumes the LP64 data model used by 64-bit Linux, see
+ * {@link #isSupported()}. A batch is not thread-safe, but it can be shared
+ * by the channels read from the same thread, since the buffers are only
+ * valid until the next call to {@link #receive(int)}.
+ */
+public final class DatagramBatch {
+
+    private static final int IOVEC_SIZE = 16;
+    private static final int IOVEC_LEN_OFFSET = 8;
+
+    private static final int MMSGHDR_SIZE = 64;
+    private static final int MSG_IOV_OFFSET = 16;
+    private static final int MSG_IOVLEN_OFFSET = 24;
+    private static final int MSG_LEN_OFFSET = 56;
+
+    private final ByteBuffer[] buffers;
+    private final ByteBuffer headers;
+    private final ByteBuffer iovecs;
+
+    /**
+     * @return True if the current platform supports receiving datagram
+     * batches.
+     */
+    public static boolean isSupported() {
+        return Platform.isLinux() && Native.POINTER_SIZE == 8;
+    }
+
+    public DatagramBatch(int size, int bufferSize) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                "Datagram batches are not supported on this platform");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException(
+                "The batch size must be positive");
+        }
+        buffers = new ByteBuffer[size];
+        headers = ByteBuffer.allocateDirect(size * MMSGHDR_SIZE)
+                            .order(ByteOrder.nativeOrder());
+        iovecs = ByteBuffer.allocateDirect(size * IOVEC_SIZE)
+                           .order(ByteOrder.nativeOrder());
+        long iovecsAddress = address(iovecs);
+        for (int index = 0; index < size; index++) {
+            buffers[index] = BytesUtil.instance.allocateDirect(bufferSize);
+            iovecs.putLong(index * IOVEC_SIZE, address(buffers[index]));
+            iovecs.putLong(index * IOVEC_SIZE + IOVEC_LEN_OFFSET, bufferSize);
+            headers.putLong(index * MMSGHDR_SIZE + MSG_IOV_OFFSET,
+                            iovecsAddress + index * IOVEC_SIZE);
+            headers.putLong(index * MMSGHDR_SIZE + MSG_IOVLEN_OFFSET, 1L);
+        }
+    }
+
+    private static long address(ByteBuffer buffer) {
+        return Pointer.nativeValue(Native.getDirectBufferPointer(buffer));
+    }
+
+    /**
+     * @return The maximum number of datagrams received in a batch.
+     */
+    public int size() {
+        return buffers.length;
+    }
+
+    /**
+     * @return The buffer with the datagram at the given index, which is
+     * valid until the next call to {@link #receive(int)}.
+     */
+    public ByteBuffer buffer(int index) {
+        return buffers[index];
+    }
+
+    /**
+     * Receives up to {@link #size()} datagrams from the given socket without
+     * blocking. After the call, the buffer of each received datagram is set
+     * with the position at zero and the limit at the datagram length.
+     *
+     * @return The number of datagrams received, or -1 on error, where errno
+     * indicates the last error.
+     */
+    public int receive(int fd) {
+        int count = CLibrary.recvmmsg(fd, headers, buffers.length,
+                                      CLibrary.MSG_DONTWAIT, null);
+        for (int index = 0; index < count; index++) {
+            buffers[index].clear();
+            buffers[index].limit(
+                headers.getInt(index * MMSGHDR_SIZE + MSG_LEN_OFFSET));
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of bytes in the first {@code count} datagrams.
+     */
+    public long bytes(int count) {
+        long bytes = 0L;
+        for (int index = 0; index < count; index++) {
+            bytes += buffers[index].limit();
+        }
+        return bytes;
+    }
+}
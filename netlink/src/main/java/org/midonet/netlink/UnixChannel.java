@@ -41,6 +41,7 @@ import sun.nio.ch.NativeThread;
 import sun.nio.ch.Net;
 import sun.nio.ch.SelectionKeyImpl;
 
+import org.midonet.ErrorCode;
 import org.midonet.jna.CLibrary;
 import org.midonet.netlink.hacks.IOUtil;
 import org.midonet.netlink.hacks.NativeDispatcher;
@@ -67,6 +68,9 @@ public abstract class UnixChannel<Address> extends AbstractSelectableChannel
     protected static final int ST_KILLED = 2;
     protected static final int ST_LISTENING = 3;
 
+    private static final int EINTR = ErrorCode.EINTR.ordinal();
+    private static final int EAGAIN = ErrorCode.EAGAIN.ordinal();
+
     // fd value needed for dev/poll. This value will remain valid
     // even after the value in the file descriptor object has been set to -1
     protected int fdVal;
@@ -221,6 +225,39 @@ public abstract class UnixChannel<Address> extends AbstractSelectableChannel
         }
     }
 
+    /**
+     * Reads multiple datagrams from this channel into the given batch using a
+     * single system call, without blocking.
+     *
+     * @return The number of datagrams read, or zero if none is available.
+     */
+    public int read(DatagramBatch batch) throws IOException {
+        synchronized (recvLock) {
+            ensureConnected();
+            int n = 0;
+            try {
+                if (!prepareRead())
+                    return n;
+                do {
+                    n = batch.receive(fdVal);
+                } while (n < 0 && Native.getLastError() == EINTR && isOpen());
+                if (n < 0) {
+                    int errno = Native.getLastError();
+                    if (errno == EAGAIN) {
+                        n = IOStatus.UNAVAILABLE;
+                        return 0;
+                    }
+                    throw new IOException("recvmmsg() failed: " +
+                                          CLibrary.strerror(errno));
+                }
+                rxBytes += batch.bytes(n);
+                return n;
+            } finally {
+                finishRead(n);
+            }
+        }
+    }
+
     private boolean prepareWrite() {
         begin();
         if (isOpen()) {
@@ -15,18 +15,26 @@
  */
 package org.midonet.odp;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.midonet.packets.Ethernet;
+import org.midonet.packets.MalformedPacketException;
 
 /**
  * An abstraction over the Ovs kernel datapath Packet entity. Contains an
  * {@link FlowMatch} object and a <code>byte[] data</code> member when triggered
  * via a kernel notification.
  *
+ * Packets received from the datapath keep the raw frame and only deserialize
+ * it into an {@link Ethernet} object the first time it is requested, since
+ * the flow match built from the datapath flow keys is enough for most
+ * simulations. Once deserialized, the {@link Ethernet} object is the source
+ * of truth because it may be modified by the simulation.
+ *
  * @see FlowMatch
  */
 public class Packet {
@@ -42,6 +50,7 @@ public class Packet {
     private Long userData;
     private Reason reason;
     private Ethernet eth;
+    private byte[] data;
     public final int packetLen;
 
     // user field used by midolman packet pipeline to track time statistics,
@@ -58,16 +67,73 @@ public class Packet {
         this(eth, match, (eth != null) ? eth.length() : 0);
     }
 
+    /**
+     * Creates a packet for the given raw frame, which is deserialized on
+     * demand. The packet takes ownership of the data array.
+     */
+    public static Packet fromData(byte[] data, FlowMatch match) {
+        Packet packet = new Packet(null, match, data.length);
+        packet.data = data;
+        return packet;
+    }
+
+    /**
+     * Checks whether a raw frame is too short to contain the Ethernet header
+     * and all its VLAN tags, which are the only malformations that fail the
+     * deserialization of the frame. Such frames must be dropped on receipt,
+     * before they are deserialized on demand.
+     */
+    public static boolean isTruncated(byte[] data) {
+        int offset = Ethernet.MIN_HEADER_LEN;
+        if (data.length < offset) {
+            return true;
+        }
+        short etherType = (short) (((data[offset - 2] & 0xFF) << 8) |
+                                   (data[offset - 1] & 0xFF));
+        while (etherType == Ethernet.VLAN_TAGGED_FRAME ||
+               etherType == Ethernet.PROVIDER_BRIDGING_TAG) {
+            offset += Ethernet.HEADER_TPID_LEN;
+            if (data.length < offset) {
+                return true;
+            }
+            etherType = (short) (((data[offset - 2] & 0xFF) << 8) |
+                                 (data[offset - 1] & 0xFF));
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the packet frame has been deserialized.
+     */
+    public boolean isParsed() {
+        return eth != null || data == null;
+    }
+
     public Ethernet getEthernet() {
+        if (eth == null && data != null) {
+            Ethernet ethernet = new Ethernet();
+            try {
+                ethernet.deserialize(ByteBuffer.wrap(data));
+            } catch (MalformedPacketException e) {
+                throw new IllegalStateException("Malformed packet", e);
+            }
+            eth = ethernet;
+            data = null;
+        }
         return eth;
     }
 
     public void setEthernet(Ethernet eth) {
         this.eth = eth;
+        this.data = null;
     }
 
+    /**
+     * @return The raw frame, which is serialized from the {@link Ethernet}
+     * object if the packet has been deserialized.
+     */
     public byte[] getData() {
-        return eth.serialize();
+        return (eth == null && data != null) ? data : eth.serialize();
     }
 
     public FlowMatch getMatch() {
@@ -99,7 +165,7 @@ public class Packet {
         @SuppressWarnings("unchecked")
         Packet that = (Packet) o;
 
-        return Objects.equals(this.eth, that.eth)
+        return Objects.equals(this.getEthernet(), that.getEthernet())
             && Objects.equals(this.match, that.match)
             && Objects.equals(this.userData, that.userData)
             && (this.reason == that.reason);
@@ -107,7 +173,7 @@ public class Packet {
 
     @Override
     public int hashCode() {
-        int result = Objects.hashCode(eth);
+        int result = Objects.hashCode(getEthernet());
         result = 31 * result + Objects.hashCode(match);
         result = 31 * result + Objects.hashCode(userData);
         result = 31 * result + Objects.hashCode(reason);
@@ -117,7 +183,7 @@ public class Packet {
     @Override
     public String toString() {
         return "Packet{" +
-            "data=" + eth +
+            "data=" + (isParsed() ? eth : packetLen + " bytes") +
             ", match=" + match +
             ", userData=" + userData +
             ", reason=" + reason +
@@ -16,7 +16,6 @@
 package org.midonet.odp.protos;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -47,6 +46,8 @@ import org.midonet.odp.Packet;
 import org.midonet.odp.family.PacketFamily;
 import org.midonet.odp.flows.FlowAction;
 import org.midonet.odp.flows.FlowKey;
+import org.midonet.odp.flows.FlowKeyEncap;
+import org.midonet.odp.flows.FlowKeyICMP;
 import org.midonet.odp.flows.FlowKeys;
 import org.midonet.packets.Ethernet;
 import org.midonet.util.BatchCollector;
@@ -74,42 +75,74 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
         packetFamily = ovsNetlinkFamilies.packetFamily();
     }
 
+    /**
+     * Builds the packets from the upcall messages. The frame is copied out of
+     * the receive buffer, which is reused for the next messages, but it is
+     * only deserialized when the flow keys require userspace keys (ICMP), or
+     * later when the simulation needs the packet contents.
+     */
     static class PacketBuilder implements AttributeHandler {
         private ArrayList<FlowKey> keys = new ArrayList<>(16);
-        private Ethernet eth;
+        private byte[] data;
         private Long userData;
-        private int packetLen = 0;
 
         public Packet buildFrom(ByteBuffer buf) {
             int datapathIndex = buf.getInt(); // ignored
             NetlinkMessage.scanAttributes(buf, this);
-            if (eth == null) {
+            if (data == null) {
                 keys.clear();
+                userData = null;
                 return null;
             }
-            FlowKeys.addUserspaceKeys(eth, keys);
-            Packet p = new Packet(eth, new FlowMatch(keys), packetLen);
+            Packet p;
+            if (needsUserspaceKeys(keys)) {
+                try {
+                    Ethernet eth = Ethernet.deserialize(data);
+                    FlowKeys.addUserspaceKeys(eth, keys);
+                    p = new Packet(eth, new FlowMatch(keys), data.length);
+                } catch (Exception e) {
+                    log.warn("Dropping malformed packet", e);
+                    data = null;
+                    keys.clear();
+                    userData = null;
+                    return null;
+                }
+            } else {
+                p = Packet.fromData(data, new FlowMatch(keys));
+            }
             p.setUserData(userData);
-            eth = null;
+            data = null;
             keys.clear();
             userData = null;
             return p;
         }
 
+        private static boolean needsUserspaceKeys(List<FlowKey> keys) {
+            for (int i = 0; i < keys.size(); ++i) {
+                FlowKey key = keys.get(i);
+                if (key instanceof FlowKeyICMP) {
+                    return true;
+                }
+                if (key instanceof FlowKeyEncap &&
+                    needsUserspaceKeys(((FlowKeyEncap) key).keys)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public void use(ByteBuffer buffer, short id) {
             switch(NetlinkMessage.unnest(id)) {
                 case OpenVSwitch.Packet.Attr.Packet:
-                    ByteOrder originalOrder = buffer.order();
-                    try {
-                        eth = new Ethernet();
-                        packetLen = buffer.remaining();
-                        eth.deserialize(buffer);
-                    } catch (Exception e) {
-                        log.warn("Dropping malformed packet", e);
-                        this.eth = null;
-                    } finally {
-                        buffer.order(originalOrder);
+                    data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    // Drop the frames that would fail to deserialize, since
+                    // they are deserialized on demand during the simulation.
+                    if (Packet.isTruncated(data)) {
+                        log.warn("Dropping malformed packet of {} bytes",
+                                 data.length);
+                        data = null;
                     }
                     break;
 
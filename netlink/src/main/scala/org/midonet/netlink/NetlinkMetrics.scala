@@ -16,7 +16,8 @@
 
 package org.midonet.netlink
 
-import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.RatioGauge.Ratio
+import com.codahale.metrics.{MetricRegistry, RatioGauge}
 import com.codahale.metrics.MetricRegistry.name
 
 trait NetlinkMeter
@@ -31,6 +32,27 @@ class NetlinkMetrics(val registry: MetricRegistry) {
 
     val htbDrops = registry.meter(
         name(classOf[NetlinkMeter], "htbDrops"))
+
+    val netlinkReads = registry.meter(
+        name(classOf[NetlinkMeter], "reads"))
+
+    val netlinkUpcalls = registry.meter(
+        name(classOf[NetlinkMeter], "upcalls"))
+
+    // The meters are shared by all connections using the same registry, and
+    // so is the gauge, which is registered by the first connection.
+    private val syscallsPerPacketName =
+        name(classOf[NetlinkMeter], "syscallsPerPacket")
+    if (!registry.getGauges.containsKey(syscallsPerPacketName)) {
+        try {
+            registry.register(syscallsPerPacketName, new RatioGauge {
+                override def getRatio: Ratio =
+                    Ratio.of(netlinkReads.getCount, netlinkUpcalls.getCount)
+            })
+        } catch {
+            case e: IllegalArgumentException => // Registered concurrently.
+        }
+    }
 }
 
 class NullNetlinkMetrics extends NetlinkMetrics(new MetricRegistry())
@@ -237,13 +237,7 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
             val pos = position(seq)
             val buf = buffers(pos)
             try {
-                expirations(pos) = {
-                    val timeout = clock.tick + timeoutNanos
-                    if (timeout == NO_TIMEOUT)
-                        timeout + 1
-                    else
-                        timeout
-                }
+                expirations(pos) = nextExpiration()
                 buf.putInt(buf.position() + NetlinkMessage.NLMSG_SEQ_OFFSET, pos)
                 nbytes += writer.write(buf)
             } catch { case e: Throwable =>
@@ -261,6 +255,63 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
         nbytes
     }
 
+    /**
+     * Writes all the new published requests, coalescing consecutive requests
+     * into the specified batch buffer such that up to maxBatchSize requests
+     * are written to the channel with a single system call. The capacity of
+     * the batch buffer must be at least the maximum request size. If a write
+     * fails, all the requests in the batch are failed. Returns the number of
+     * bytes written.
+     */
+    def writePublishedRequests(batchBuf: ByteBuffer, maxBatchSize: Int): Int = {
+        require(batchBuf.capacity() >= maxRequestSize && maxBatchSize > 0)
+        var seq = writtenSequence
+        var nbytes = 0
+        while (isAvailable(seq)) {
+            val first = seq
+            batchBuf.clear()
+            while (isAvailable(seq) && seq - first < maxBatchSize &&
+                   buffers(position(seq)).remaining() <= batchBuf.remaining()) {
+                val pos = position(seq)
+                val buf = buffers(pos)
+                expirations(pos) = nextExpiration()
+                buf.putInt(buf.position() + NetlinkMessage.NLMSG_SEQ_OFFSET, pos)
+                batchBuf.put(buf)
+                buf.clear()
+                seq += 1
+            }
+            batchBuf.flip()
+            try {
+                nbytes += writer.write(batchBuf)
+            } catch { case e: Throwable =>
+                var failed = first
+                while (failed < seq) {
+                    val pos = position(failed)
+                    val obs = observers(pos)
+                    freeObserver(pos)
+                    obs.onError(e)
+                    failed += 1
+                }
+            }
+        }
+        batchBuf.clear()
+        writtenSequence = seq
+        nbytes
+    }
+
+    /**
+     * The number of requests written so far. Confined to the writer thread.
+     */
+    def writtenRequests: Long = writtenSequence
+
+    private def nextExpiration(): Long = {
+        val timeout = clock.tick + timeoutNanos
+        if (timeout == NO_TIMEOUT)
+            timeout + 1
+        else
+            timeout
+    }
+
 
     /**
      * Processes a reply - a stream of ByteBuffers - if one is available.
@@ -111,6 +111,68 @@ class AbstractNetlinkConnectionTest extends FeatureSpecLike
             dispatcher.doneCBs.flatten.size should be (1)
         }
 
+        scenario("batched read") {
+            val metrics = new NullNetlinkMetrics
+            val conn = new TestableNetlinkConnection(
+                mockNetlinkChannel, mockBufferPool, metrics)
+            val dispatcher = getDispatcher
+            conn.setCallbackDispatcher(dispatcher)
+            val batch = AbstractNetlinkConnection.newReadBatch(4)
+            assume(batch ne null)
+            conn.setReadBatch(batch)
+
+            val callback = mock[Callback[Int]]
+            val buf = ByteBuffer.allocate(128)
+            val timeout = 1 * 1000  // 1 second
+            conn.sendTestMessage(buf, callback, reader, timeout)
+            eventually {
+                conn.handleWriteEvent()
+                verify(mockNetlinkChannel).write(buf)
+            }
+            val seq = readSequenceNumber(buf)
+
+            val payload = 1234
+            when(mockNetlinkChannel.read(any(classOf[DatagramBatch])))
+                .thenAnswer(new Answer[Int]() {
+                    def answer(invocation: InvocationOnMock): Int = {
+                        // Fake up a NOOP followed by a reply
+                        val noop = batch.buffer(0)
+                        noop.clear()
+                        NetlinkMessage.writeHeader(noop,
+                            NetlinkMessage.GENL_HEADER_SIZE,
+                            NLMessageType.NOOP, 0, 0, 0, 0, 0)
+                        noop.position(0)
+                        noop.limit(NetlinkMessage.GENL_HEADER_SIZE)
+
+                        val reply = batch.buffer(1)
+                        reply.clear()
+                        reply.position(NetlinkMessage.GENL_HEADER_SIZE)
+                        reply.putInt(payload)
+                        val size = reply.position()
+                        reply.position(0)
+                        NetlinkMessage.writeHeader(reply,
+                            size,
+                            (NLMessageType.NLMSG_MIN_TYPE + 1),
+                            0,  // flags
+                            seq,
+                            0,  // pid
+                            0,  // command
+                            0)  // version
+                        reply.position(0)
+                        reply.limit(size)
+                        2
+                    }
+                })
+                .thenReturn(0)  // No more datagrams
+            conn.handleReadEvent(mockBucket)
+            eventually {
+                verify(callback).onSuccess(payload)
+            }
+            metrics.netlinkReads.getCount shouldBe 2
+            dispatcher.currentCBs should be (Nil)
+            dispatcher.doneCBs.flatten.size should be (1)
+        }
+
         scenario("timeout") {
             val conn = getConnection
             val dispatcher = getDispatcher
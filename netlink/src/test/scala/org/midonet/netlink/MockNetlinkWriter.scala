@@ -22,6 +22,7 @@ class MockNetlinkWriter extends NetlinkBlockingWriter(
             new MockNetlinkChannel(Netlink.selectorProvider,
                                    NetlinkProtocol.NETLINK_GENERIC)) {
     var shouldThrow = false
+    var writes = 0
 
     val ERROR = new Exception
 
@@ -29,6 +30,7 @@ class MockNetlinkWriter extends NetlinkBlockingWriter(
         if (shouldThrow) {
             throw ERROR
         } else {
+            writes += 1
             src.remaining()
         }
 }
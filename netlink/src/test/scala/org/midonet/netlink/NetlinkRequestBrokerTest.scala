@@ -71,6 +71,41 @@ class NetlinkRequestBrokerTest extends FeatureSpec
             obs.onErrorCalls should be (1)
         }
 
+        scenario ("Published requests can be written in batches") {
+            val size = 64
+            val seqs = (0 until 3) map { _ =>
+                val seq = broker.nextSequence()
+                val buf = broker.get(seq)
+                NetlinkMessage.writeHeader(buf, size, 1, 2, 3, 4, 5, 6)
+                buf.limit(size)
+                broker.publishRequest(seq, new CountingObserver)
+                seq
+            }
+
+            val batchBuf = ByteBuffer.allocate(1024)
+            broker.writePublishedRequests(batchBuf, maxBatchSize = 2) should be (3 * size)
+            writer.writes should be (2)
+            broker.writtenRequests should be (3)
+            broker.hasRequestsToWrite should be (false)
+            seqs foreach { seq =>
+                broker.get(seq).getInt(NetlinkMessage.NLMSG_SEQ_OFFSET) should be (seq)
+            }
+        }
+
+        scenario ("Errors in a batch are communicated through the Observers") {
+            writer.shouldThrow = true
+            val observers = (0 until 2) map { _ =>
+                val obs = new CountingObserver
+                val seq = broker.nextSequence()
+                broker.get(seq).limit(64)
+                broker.publishRequest(seq, obs)
+                obs
+            }
+            broker.writePublishedRequests(ByteBuffer.allocate(1024),
+                                          maxBatchSize = 8) should be (0)
+            observers foreach { _.onErrorCalls should be (1) }
+        }
+
         scenario ("Number of in-flight requests is bounded") {
             (0 until maxRequests) foreach { i =>
                 broker.nextSequence() should be (i)
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class PacketTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private def frame(): Ethernet =
+        { eth src MAC.random() dst MAC.random() } <<
+        { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+        { tcp src 1000.toShort dst 80 }
+
+    feature("Packets deserialize the frame on demand") {
+        scenario("A packet created from data is not deserialized") {
+            Given("A packet created from a serialized frame")
+            val ethernet = frame()
+            val data = ethernet.serialize()
+            val packet = Packet.fromData(data,
+                                         FlowMatches.fromEthernetPacket(ethernet))
+
+            Then("The packet is not deserialized")
+            packet.isParsed shouldBe false
+            packet.packetLen shouldBe data.length
+
+            And("The packet data is the original frame")
+            packet.getData should be theSameInstanceAs data
+            packet.isParsed shouldBe false
+
+            When("Requesting the Ethernet frame")
+            val deserialized = packet.getEthernet
+
+            Then("The packet is deserialized")
+            packet.isParsed shouldBe true
+            deserialized shouldBe ethernet
+            packet.getEthernet should be theSameInstanceAs deserialized
+        }
+
+        scenario("The data reflects the changes to the deserialized frame") {
+            Given("A packet created from a serialized frame")
+            val ethernet = frame()
+            val packet = Packet.fromData(ethernet.serialize(),
+                                         FlowMatches.fromEthernetPacket(ethernet))
+
+            When("Modifying the Ethernet frame")
+            val mac = MAC.random()
+            packet.getEthernet.setSourceMACAddress(mac)
+
+            Then("The data contains the modification")
+            Ethernet.deserialize(packet.getData).getSourceMACAddress shouldBe mac
+
+            When("Replacing the Ethernet frame")
+            val other = frame()
+            packet.setEthernet(other)
+
+            Then("The data is the new frame")
+            packet.getData shouldBe other.serialize()
+        }
+
+        scenario("A malformed frame fails on demand") {
+            Given("A packet created from a truncated frame")
+            val packet = Packet.fromData(new Array[Byte](4), new FlowMatch())
+
+            Then("Requesting the Ethernet frame fails")
+            intercept[IllegalStateException] {
+                packet.getEthernet
+            }
+        }
+
+        scenario("Frames with truncated headers are detected") {
+            Given("A VLAN-tagged frame")
+            val data = ({ eth src MAC.random() dst MAC.random() vlan 10 } <<
+                        { ip4 src "10.0.0.1" dst "10.0.0.2" }).serialize()
+
+            Then("The frame is not truncated")
+            Packet.isTruncated(data) shouldBe false
+
+            And("The frame is truncated without the complete VLAN tag")
+            Packet.isTruncated(data.take(16)) shouldBe true
+            intercept[IllegalStateException] {
+                Packet.fromData(data.take(16), new FlowMatch()).getEthernet
+            }
+
+            And("The frame is truncated without the Ethernet header")
+            Packet.isTruncated(data.take(13)) shouldBe true
+            Packet.isTruncated(data.take(18)) shouldBe false
+        }
+    }
+}
@@ -37,6 +37,15 @@ public final class ObjectSerializer {
     private static final Logger LOG =
         LoggerFactory.getLogger(ObjectSerializer.class);
 
+    /**
+     * The header of binary encoded objects, which must match the header
+     * written by the ZOOM serializer: a zero byte, which cannot be the first
+     * byte of a text format message, followed by the encoding version.
+     */
+    private static final byte BINARY_MAGIC = 0x00;
+    private static final byte BINARY_VERSION = 0x01;
+    private static final int BINARY_HEADER_LENGTH = 2;
+
     private static final TextFormat.Parser TEXT_PARSER;
     private static final Charset CHARSET;
 
@@ -52,16 +61,26 @@ public final class ObjectSerializer {
     }
 
     /**
-     * Converts a data object from serialized text format to a Protocol Buffers
-     * message.
-     * @param textData The text serialized data.
-     * @return The binary serialized data.
+     * Converts a data object from its serialized storage format, either text
+     * or binary, to a Protocol Buffers message.
+     * @param data The serialized data.
+     * @return The Protocol Buffers message.
      */
-    public Message convertTextToMessage(byte[] textData) throws IOException {
+    public Message convertTextToMessage(byte[] data) throws IOException {
         try {
             Message.Builder builder =
                 (Message.Builder) clazz.getMethod("newBuilder").invoke(null);
-            TEXT_PARSER.merge(new String(textData, CHARSET), builder);
+            if (isBinary(data)) {
+                if (data[1] != BINARY_VERSION) {
+                    throw new IOException(
+                        "Unsupported binary encoding version " + data[1] +
+                        " for " + clazz.getSimpleName());
+                }
+                builder.mergeFrom(data, BINARY_HEADER_LENGTH,
+                                  data.length - BINARY_HEADER_LENGTH);
+            } else {
+                TEXT_PARSER.merge(new String(data, CHARSET), builder);
+            }
             return builder.build();
         } catch (NoSuchMethodException | IllegalAccessException |
                  InvocationTargetException | TextFormat.ParseException e) {
@@ -69,6 +88,14 @@ public final class ObjectSerializer {
         }
     }
 
+    /**
+     * Indicates whether the serialized data uses the binary encoding.
+     */
+    static boolean isBinary(byte[] data) {
+        return data != null && data.length >= BINARY_HEADER_LENGTH &&
+               data[0] == BINARY_MAGIC;
+    }
+
     /**
      * Creates a parser for Protocol Buffers text format.
      */
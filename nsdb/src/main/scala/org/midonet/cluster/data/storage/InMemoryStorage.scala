@@ -533,6 +533,9 @@ class InMemoryStorage extends Storage with StateStorage with StateTableStorage
                     case _ =>
                 }
             }
+            for ((Key(clazz, id), ver) <- readVersions) {
+                classes.get(clazz).validateUpdate(id, ver)
+            }
 
             // Apply the transaction ops.
             for ((Key(clazz, id), op) <- ops) {
@@ -35,6 +35,7 @@ import org.midonet.cluster.data.storage.ScalableStateTable.{PersistentVersion, T
 import org.midonet.cluster.data.storage.ScalableStateTableManager.{EmptySubscriber, KeyValue, ProtectedSubscriber}
 import org.midonet.cluster.data.storage.StateTable.{Key, Update}
 import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.state.CompactEntries
 import org.midonet.cluster.services.state.client.StateSubscriptionKey
 import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => ProxyConnectionState}
 import org.midonet.util.logging.Logger
@@ -737,6 +738,17 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
             return
         }
 
+        // Decode the compact entries, if any.
+        val entries = try {
+            if (update.hasCompactEntries)
+                CompactEntries.decode(update.getCompactEntries)
+            else update.getEntriesList
+        } catch {
+            case NonFatal(e) =>
+                log.warn("State proxy update with invalid compact entries", e)
+                return
+        }
+
         this.synchronized {
 
             // Drop all messages that are previous to the current version.
@@ -752,9 +764,9 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
 
             update.getType match {
                 case Notify.Update.Type.SNAPSHOT =>
-                    proxySnapshot(update)
+                    proxySnapshot(update, entries)
                 case Notify.Update.Type.RELATIVE =>
-                    proxyRelative(update)
+                    proxyRelative(update, entries)
                 case _ => // Ignore
             }
 
@@ -766,9 +778,10 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       * Processes a state proxy snapshot notification. This method must be
       * synchronized.
       */
-    private def proxySnapshot(update: Notify.Update): Unit = {
+    private def proxySnapshot(update: Notify.Update,
+                              entries: util.List[Notify.Entry]): Unit = {
         log trace s"Snapshot begin:${update.getBegin} end:${update.getEnd} " +
-                  s"entries:${update.getEntriesCount}"
+                  s"entries:${entries.size()}"
 
         // If this is the beginning of a snapshot, clear the update cache,
         // otherwise verify that a snapshot notification sequence is in
@@ -785,8 +798,8 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         // Add all entries to the update cache: the entries are added
         // without any processing, since this is performed at the server.
         var index = 0
-        while (index < update.getEntriesCount) {
-            val entry = table.decodeEntry(update.getEntries(index))
+        while (index < entries.size()) {
+            val entry = table.decodeEntry(entries.get(index))
             if (entry ne null) {
                 updateCache.put(entry.key, entry)
             }
@@ -816,17 +829,18 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
       * Processes a state proxy relative notification. This method must be
       * synchronized.
       */
-    private def proxyRelative(update: Notify.Update): Unit = {
+    private def proxyRelative(update: Notify.Update,
+                              entries: util.List[Notify.Entry]): Unit = {
         log trace s"Diff begin:${update.getBegin} end:${update.getEnd} " +
-                  s"entries:${update.getEntriesCount}"
+                  s"entries:${entries.size()}"
 
         updates.clear()
 
         // Apply all differential updates to the current cache: all updates
         // must be applied and notify (a sanity check is performed).
         var index = 0
-        while (index < update.getEntriesCount) {
-            val entry = update.getEntries(index)
+        while (index < entries.size()) {
+            val entry = entries.get(index)
             if (entry.hasValue) {
                 // This entry is added or updated.
                 val newEntry = table.decodeEntry(entry)
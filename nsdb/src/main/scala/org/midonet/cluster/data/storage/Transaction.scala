@@ -104,4 +104,12 @@ trait Transaction extends Closeable {
     @throws[StorageNodeNotFoundException]
     def commit(): Unit
 
+    /** Requests the transaction to validate, when committed, the version of
+      * every object it read without modifying it. By default, a transaction
+      * only validates the version of the objects it updates or deletes, such
+      * that it may commit after reading an object that a concurrent
+      * transaction modified. With this option, the commit fails instead with
+      * a [[ConcurrentModificationException]]. */
+    def validateReads(): Unit
+
 }
@@ -118,10 +118,23 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     protected val nodeOps = new PathMap[TxNodeOp]
     nodeOps("/") = TxNodeExists // The root node always exists.
 
+    private var validatingReads = false
+
     protected def assertRegistered(clazz: Class[_]): Unit
 
     protected def getSnapshot(clazz: Class[_], id: ObjId): ObjSnapshot
 
+    /**
+      * Gets the snapshots for the specified objects, in the same order as the
+      * identifiers. The default implementation reads every object in turn,
+      * and implementations should override this method to pipeline the reads
+      * to the storage backend.
+      */
+    protected def getSnapshots(clazz: Class[_], ids: Seq[ObjId])
+    : Seq[ObjSnapshot] = {
+        ids.map(getSnapshot(clazz, _))
+    }
+
     protected def getIds(clazz: Class[_]): Seq[ObjId]
 
     /**
@@ -138,6 +151,29 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
         cache.getOrElseUpdate(key, Some(getSnapshot(clazz, id)))
     }
 
+    /**
+     * Loads in a single batch the specified objects that are not found in the
+     * internal cache, and caches them.
+     */
+    @throws[NotFoundException]
+    @throws[InternalObjectMapperException]
+    @throws[ConcurrentModificationException]
+    private def cachedGetAll(clazz: Class[_], ids: Seq[ObjId]): Unit = {
+        val missing = new mutable.LinkedHashMap[Key, ObjId]
+        for (id <- ids) {
+            val key = getKey(clazz, id)
+            if (!cache.contains(key)) {
+                missing.getOrElseUpdate(key, id)
+            }
+        }
+        if (missing.size > 1) {
+            val snapshots = getSnapshots(clazz, missing.values.toSeq)
+            for ((key, snapshot) <- missing.keys.zip(snapshots)) {
+                cache.put(key, Some(snapshot))
+            }
+        }
+    }
+
     private def getObjectId(obj: Obj) = classes(obj.getClass).idOf(obj)
 
     private def isDeleted(key: Key): Boolean = ops.get(key) match {
@@ -213,6 +249,7 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
     @throws[InternalObjectMapperException]
     @throws[ConcurrentModificationException]
     override def getAll[T](clazz: Class[T], ids: Seq[ObjId]): Seq[T] = {
+        cachedGetAll(clazz, ids)
         for (id <- ids) yield get(clazz, id)
     }
 
@@ -415,6 +452,26 @@ abstract class TransactionManager(classes: ClassesMap, bindings: BindingsMap)
         }
     }
 
+    override def validateReads(): Unit = {
+        validatingReads = true
+    }
+
+    /**
+     * Returns the keys and versions of the objects read but not modified by
+     * the transaction, which the commit must validate if requested with
+     * `validateReads`, or an empty sequence otherwise.
+     */
+    protected def readVersions: Seq[(Key, Int)] = {
+        if (!validatingReads) {
+            return Seq.empty
+        }
+        cache.toSeq.collect {
+            case (key, Some(ObjSnapshot(_, version)))
+                if version != NewObjectVersion && !ops.contains(key) =>
+                (key, version)
+        }
+    }
+
     /**
      * Flattens the current operations in a single key-op sequence.
      */
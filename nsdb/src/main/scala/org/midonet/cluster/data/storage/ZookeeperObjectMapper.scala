@@ -17,13 +17,13 @@ package org.midonet.cluster.data.storage
 
 import java.util.ConcurrentModificationException
 import java.util.concurrent.Executors._
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{TimeUnit, Future => JFuture}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import scala.annotation.tailrec
 import scala.collection.JavaConverters._
 import scala.collection.concurrent.TrieMap
-import scala.collection.{breakOut, mutable}
+import scala.collection.mutable
 import scala.concurrent.{Future, Promise}
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
@@ -126,6 +126,8 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     private[storage] val modelPath = zoomPath + s"/models"
     private[storage] val objectsPath = zoomPath + s"/objects"
     @volatile private var lockFree = false
+    private val binaryEncoding = config.binaryEncoding
+    private val maxConcurrentReads = Math.max(config.maxConcurrentReads, 1)
 
     private val executor = newSingleThreadExecutor(
         new NamedThreadFactory("zoom", isDaemon = true))
@@ -225,15 +227,43 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         @throws[InternalObjectMapperException]
         protected override def getSnapshot(clazz: Class[_], id: ObjId)
         : ObjSnapshot = {
-            val objPath = objectPath(clazz, id)
-            val rawPath = altObjectPath(clazz, id)
-
-            val objectFuture = asyncGet(objPath)
-            val rawFuture = asyncGet(rawPath)
+            val objectFuture = asyncGet(objectPath(clazz, id))
+            val rawFuture = asyncGet(altObjectPath(clazz, id))
+            toSnapshot(clazz, id, objectFuture.get(), rawFuture.get())
+        }
 
-            val objectEvent = objectFuture.get()
-            val rawEvent = rawFuture.get()
+        /** Pipelines the reads of the specified objects, such that at most
+          * `maxConcurrentReads` requests are pending at any time. */
+        @throws[ConcurrentModificationException]
+        @throws[NotFoundException]
+        @throws[InternalObjectMapperException]
+        protected override def getSnapshots(clazz: Class[_], ids: Seq[ObjId])
+        : Seq[ObjSnapshot] = {
+            val start = System.nanoTime()
+            val window = Math.max(maxConcurrentReads / 2, 1)
+            val pending = new mutable.Queue[(ObjId, JFuture[CuratorEvent],
+                                             JFuture[CuratorEvent])]
+            val snapshots = new mutable.ArrayBuffer[ObjSnapshot](ids.size)
+            val iterator = ids.iterator
+            while (iterator.hasNext || pending.nonEmpty) {
+                while (iterator.hasNext && pending.size < window) {
+                    val id = iterator.next()
+                    pending.enqueue((id, asyncGet(objectPath(clazz, id)),
+                                     asyncGet(altObjectPath(clazz, id))))
+                }
+                val (id, objectFuture, rawFuture) = pending.dequeue()
+                snapshots += toSnapshot(clazz, id, objectFuture.get(),
+                                        rawFuture.get())
+            }
+            metrics.performance.addReadBatch(ids.size, System.nanoTime() - start)
+            snapshots
+        }
 
+        /** Builds the snapshot of an object from the events of the object and
+          * raw data reads, and caches the raw data. */
+        private def toSnapshot(clazz: Class[_], id: ObjId,
+                               objectEvent: CuratorEvent,
+                               rawEvent: CuratorEvent): ObjSnapshot = {
             if (objectEvent.getResultCode == Code.OK.intValue()) {
                 if (objectEvent.getStat.getMzxid > zxid ||
                     (rawEvent.getResultCode == Code.OK.intValue() &&
@@ -252,7 +282,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 } else if (rawEvent.getResultCode != Code.NONODE.intValue()) {
                     throw new InternalObjectMapperException(
                         KeeperException.create(Code.get(rawEvent.getResultCode),
-                                               rawPath))
+                                               altObjectPath(clazz, id)))
                 }
 
                 ObjSnapshot(deserialize(objectEvent.getData, clazz)
@@ -263,7 +293,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
             } else {
                 throw new InternalObjectMapperException(
                     KeeperException.create(Code.get(objectEvent.getResultCode),
-                                           objPath))
+                                           objectPath(clazz, id)))
             }
         }
 
@@ -280,13 +310,13 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
             }
         }
 
-        private def asyncGet(path: String): java.util.concurrent.Future[CuratorEvent] = {
+        private def asyncGet(path: String): JFuture[CuratorEvent] = {
             val future = SettableFuture.create[CuratorEvent]()
             curator.getData.inBackground(AsyncCallback, future).forPath(path)
             future
         }
 
-        private def asyncGetChildren(path: String): java.util.concurrent.Future[CuratorEvent] = {
+        private def asyncGetChildren(path: String): JFuture[CuratorEvent] = {
             val future = SettableFuture.create[CuratorEvent]()
             curator.getChildren.inBackground(AsyncCallback, future).forPath(path)
             future
@@ -309,7 +339,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 case TxCreate(obj, change) =>
                     var path = objectPath(key.clazz, key.id)
                     Log.debug(s"Create: $path")
-                    txn.create.forPath(path, serialize(obj))
+                    txn.create.forPath(path, serialize(obj, binaryEncoding))
 
                     path = altObjectPath(key.clazz, key.id)
                     Log.debug(s"Create: $path")
@@ -318,7 +348,8 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 case TxUpdate(obj, ver, change) =>
                     var path = objectPath(key.clazz, key.id)
                     Log.debug(s"Update ($ver): $path")
-                    txn.setData().withVersion(ver).forPath(path, serialize(obj))
+                    txn.setData().withVersion(ver).forPath(path,
+                                                           serialize(obj, binaryEncoding))
 
                     path = altObjectPath(key.clazz, key.id)
                     raw.get(key) match {
@@ -363,6 +394,12 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                         "TxNodeExists should have been filtered by flattenOps.")
             }
 
+            for ((key, ver) <- readVersions) {
+                val path = objectPath(key.clazz, key.id)
+                Log.debug(s"Check ($ver): $path")
+                txn.check().withVersion(ver).forPath(path)
+            }
+
             val startTime = System.nanoTime()
             try {
                 txn.commit()
@@ -435,8 +472,12 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
          */
         private def opForException(ops: Seq[(Key, TxOp)], e: KeeperException)
         : (Key, TxOp) = {
-            ops(e.getResults.asScala.indexWhere { case res: ErrorResult =>
-                res.getErr == e.code.intValue })
+            val index = e.getResults.asScala.indexWhere {
+                case res: ErrorResult => res.getErr == e.code.intValue
+            }
+            // The version checks of the objects read by the transaction do
+            // not have a corresponding operation.
+            if (index >= 0 && index < ops.size) ops(index) else (null, null)
         }
 
         /**
@@ -677,7 +718,72 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     : Future[Seq[T]] = {
         assertBuilt()
         assertRegistered(clazz)
-        Future.sequence(ids.map(get(clazz, _)))(breakOut, CallingThreadExecutionContext)
+        if (ids.isEmpty) {
+            Future.successful(Seq.empty)
+        } else {
+            new BatchRead(clazz, ids.toIndexedSeq).start()
+        }
+    }
+
+    /**
+      * Reads a batch of objects of the same class by pipelining the requests
+      * to ZooKeeper, such that at most `maxConcurrentReads` requests are
+      * pending at any time. A new request is sent whenever a previous one
+      * completes, and the batch fails on the first failed read.
+      */
+    private class BatchRead[T](clazz: Class[T], ids: IndexedSeq[_ <: ObjId]) {
+
+        private val promise = Promise[Seq[T]]()
+        private val results = new Array[Any](ids.size)
+        private val next = new AtomicInteger()
+        private val remaining = new AtomicInteger(ids.size)
+        private val startTime = System.nanoTime()
+
+        def start(): Future[Seq[T]] = {
+            var count = 0
+            while (count < maxConcurrentReads && readNext()) {
+                count += 1
+            }
+            promise.future
+        }
+
+        private def readNext(): Boolean = {
+            val index = next.getAndIncrement()
+            if (index >= ids.size) {
+                return false
+            }
+            val id = ids(index)
+            val readStart = System.nanoTime()
+            val cb = new BackgroundCallback {
+                override def processResult(client: CuratorFramework,
+                                           event: CuratorEvent): Unit = {
+                    metrics.performance.addLatency(event.getType,
+                                                   System.nanoTime() - readStart)
+                    try {
+                        results(index) = tryDeserialize(clazz, id, event)
+                        complete()
+                    } catch {
+                        case NonFatal(t) => promise.tryFailure(t)
+                    }
+                }
+            }
+            try {
+                curator.getData.inBackground(cb).forPath(objectPath(clazz, id))
+            } catch {
+                case NonFatal(t) => promise.tryFailure(t)
+            }
+            true
+        }
+
+        private def complete(): Unit = {
+            if (remaining.decrementAndGet() == 0) {
+                metrics.performance.addReadBatch(ids.size,
+                                                 System.nanoTime() - startTime)
+                promise.trySuccess(results.toSeq.asInstanceOf[Seq[T]])
+            } else if (!promise.isCompleted) {
+                readNext()
+            }
+        }
     }
 
     /**
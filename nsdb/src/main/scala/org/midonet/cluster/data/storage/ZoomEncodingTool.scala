@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import scala.collection.JavaConverters._
+import scala.util.control.NonFatal
+
+import com.google.protobuf.Message
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.ExponentialBackoffRetry
+import org.apache.zookeeper.KeeperException
+import org.apache.zookeeper.data.Stat
+import org.rogach.scallop._
+
+import org.midonet.cluster.data.Obj
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.conf.MidoNodeConfigurator
+
+/**
+  * An online tool that converts the topology objects stored in ZooKeeper
+  * between the text and the binary encoding. Every object is rewritten with a
+  * conditional update on its current version, such that objects modified
+  * concurrently are skipped and can be converted by running the tool again.
+  *
+  * For every class, the tool reports the number of objects, the total size
+  * of the objects in both encodings and the deserialization throughput of
+  * each encoding.
+  */
+object ZoomEncodingTool extends App {
+
+    System.setProperty("logback.configurationFile", "logback-disabled.xml")
+
+    val opts = new ScallopConf(args) {
+        val zk = opt[String]("zk", short = 'z', default = None,
+                             descr = "ZooKeeper connection string, by default " +
+                                     "read from the MidoNet configuration")
+        val text = opt[Boolean]("text", short = 't', default = Some(false),
+                                descr = "Convert the objects to the text " +
+                                        "encoding instead of binary")
+        val dryRun = opt[Boolean]("dry-run", short = 'n', default = Some(false),
+                                  descr = "Only report the object sizes and " +
+                                          "throughput, without converting")
+        val iterations = opt[Int]("iterations", short = 'i', default = Some(10),
+                                  descr = "Number of deserialization " +
+                                          "iterations used to measure the " +
+                                          "throughput")
+
+        printedName = "mm-zoom-encoding"
+
+        footer("Copyright (c) 2017 Midokura SARL, All Rights Reserved.")
+    }
+
+    case class ClassReport(clazz: Class[_], objects: Int, converted: Int,
+                           skipped: Int, textBytes: Long, binaryBytes: Long,
+                           textNanos: Long, binaryNanos: Long)
+
+    private val binary = !opts.text.get.get
+    private val dryRun = opts.dryRun.get.get
+    private val iterations = Math.max(1, opts.iterations.get.get)
+
+    private val bootstrap = MidoNodeConfigurator.bootstrapConfig()
+    private val zkHosts = opts.zk.get.getOrElse(
+        bootstrap.getString("zookeeper.zookeeper_hosts"))
+    private val modelPath =
+        s"${MidoNodeConfigurator.zkRootKey(bootstrap)}/zoom/0/models"
+
+    private def throughput(objects: Int, nanos: Long): String = {
+        if (nanos == 0) "n/a"
+        else f"${objects.toDouble * iterations * 1000000000d / nanos}%.0f obj/s"
+    }
+
+    private def measure(data: Seq[Array[Byte]], clazz: Class[_]): Long = {
+        val start = System.nanoTime()
+        var iteration = 0
+        while (iteration < iterations) {
+            data.foreach(ZoomSerializer.deserialize(_, clazz))
+            iteration += 1
+        }
+        System.nanoTime() - start
+    }
+
+    private def convertClass(curator: CuratorFramework, clazz: Class[_])
+    : ClassReport = {
+        val classPath = s"$modelPath/${clazz.getSimpleName}"
+        val ids =
+            try curator.getChildren.forPath(classPath).asScala
+            catch { case _: KeeperException.NoNodeException => Seq.empty }
+
+        var converted = 0
+        var skipped = 0
+        val texts = Seq.newBuilder[Array[Byte]]
+        val binaries = Seq.newBuilder[Array[Byte]]
+        for (id <- ids) {
+            val path = s"$classPath/$id"
+            try {
+                val stat = new Stat
+                val data = curator.getData.storingStatIn(stat).forPath(path)
+                val obj = ZoomSerializer.deserialize(data, clazz).asInstanceOf[Obj]
+                texts += ZoomSerializer.serialize(obj, binary = false)
+                binaries += ZoomSerializer.serialize(obj, binary = true)
+
+                val encoded = ZoomSerializer.reencode(data, clazz, binary)
+                if ((encoded ne null) && !dryRun) {
+                    curator.setData().withVersion(stat.getVersion)
+                        .forPath(path, encoded)
+                    converted += 1
+                }
+            } catch {
+                case _: KeeperException.NoNodeException |
+                     _: KeeperException.BadVersionException =>
+                    skipped += 1
+            }
+        }
+
+        val textData = texts.result()
+        val binaryData = binaries.result()
+        ClassReport(clazz, textData.size, converted, skipped,
+                    textData.map(_.length.toLong).sum,
+                    binaryData.map(_.length.toLong).sum,
+                    measure(textData, clazz), measure(binaryData, clazz))
+    }
+
+    private def printReport(name: String, report: ClassReport): Unit = {
+        println(f"$name%-32s " +
+                f"objects=${report.objects}%-6d " +
+                f"converted=${report.converted}%-6d " +
+                f"skipped=${report.skipped}%-4d " +
+                f"text=${report.textBytes}%d B " +
+                f"binary=${report.binaryBytes}%d B " +
+                s"text-read=${throughput(report.objects, report.textNanos)} " +
+                s"binary-read=${throughput(report.objects, report.binaryNanos)}")
+    }
+
+    val curator = CuratorFrameworkFactory.newClient(
+        zkHosts, new ExponentialBackoffRetry(1000, 10))
+    val status = try {
+        curator.start()
+        val reports = for (clazz <- MidonetBackend.ModelClasses
+                           if classOf[Message].isAssignableFrom(clazz)) yield {
+            val report = convertClass(curator, clazz)
+            if (report.objects > 0) printReport(clazz.getSimpleName, report)
+            report
+        }
+        printReport("Total", ClassReport(classOf[Obj],
+                                         reports.map(_.objects).sum,
+                                         reports.map(_.converted).sum,
+                                         reports.map(_.skipped).sum,
+                                         reports.map(_.textBytes).sum,
+                                         reports.map(_.binaryBytes).sum,
+                                         reports.map(_.textNanos).sum,
+                                         reports.map(_.binaryNanos).sum))
+        if (reports.exists(_.skipped > 0)) {
+            System.err.println("Some objects were modified concurrently: " +
+                               "run the tool again to convert them")
+        }
+        0
+    } catch {
+        case NonFatal(e) =>
+            System.err.println(s"Failed to convert the objects: ${e.getMessage}")
+            1
+    } finally {
+        curator.close()
+    }
+    System.exit(status)
+}
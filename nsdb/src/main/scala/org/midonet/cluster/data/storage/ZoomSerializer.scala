@@ -26,7 +26,7 @@ import scala.util.control.NonFatal
 
 import com.fasterxml.jackson.core.JsonFactory
 import com.fasterxml.jackson.databind.ObjectMapper
-import com.google.protobuf.{Message, TextFormat}
+import com.google.protobuf.{CodedOutputStream, Message, TextFormat}
 
 import org.apache.curator.framework.recipes.cache.ChildData
 
@@ -48,28 +48,70 @@ private[storage] object ZoomSerializer {
         new TrieMap[Class[_], Func1[ChildData, Notification[_]]]
 
     /**
-      * Serializes an object to a byte array for writing to storage.
+      * Binary encoded messages start with a zero byte, which cannot be the
+      * first byte of a valid text format message, followed by the version of
+      * the binary encoding. This allows text and binary encoded objects to
+      * coexist in storage, such as during a rolling upgrade.
+      */
+    final val BinaryMagic: Byte = 0x00
+    final val BinaryVersion: Byte = 0x01
+    final val BinaryHeaderLength = 2
+
+    /**
+      * Serializes an object to a byte array for writing to storage. When
+      * `binary` is true, Protocol Buffers messages are serialized using the
+      * versioned binary encoding instead of the text format.
       */
     @throws[InternalObjectMapperException]
-    def serialize(obj: Obj): Array[Byte] = {
+    def serialize(obj: Obj, binary: Boolean = false): Array[Byte] = {
         obj match {
+            case message: Message if binary => serializeBinaryMessage(message)
             case message: Message => serializeMessage(message)
             case _ => serializeJava(obj)
         }
     }
 
     /**
-      * Deserializes an object from a byte array read from storage.
+      * Deserializes an object from a byte array read from storage. Protocol
+      * Buffers messages are decoded according to their encoding, either text
+      * or binary.
       */
     @throws[InternalObjectMapperException]
     def deserialize[T](data: Array[Byte], clazz: Class[T]): T = {
         if (classOf[Message].isAssignableFrom(clazz)) {
-            deserializeMessage(data, clazz)
+            if (isBinary(data)) deserializeBinaryMessage(data, clazz)
+            else deserializeMessage(data, clazz)
         } else {
             deserializeJava(data, clazz)
         }
     }
 
+    /**
+      * Indicates whether the data uses the binary encoding.
+      */
+    def isBinary(data: Array[Byte]): Boolean = {
+        (data ne null) && data.length >= BinaryHeaderLength &&
+        data(0) == BinaryMagic
+    }
+
+    /**
+      * Re-encodes the serialized data of an object of the given class using
+      * the specified encoding. The method returns null if the data already
+      * uses the requested encoding or if the class is not a Protocol Buffers
+      * message.
+      */
+    @throws[InternalObjectMapperException]
+    @Nullable
+    def reencode(data: Array[Byte], clazz: Class[_], binary: Boolean)
+    : Array[Byte] = {
+        if (!classOf[Message].isAssignableFrom(clazz) ||
+            isBinary(data) == binary) {
+            null
+        } else {
+            serialize(deserialize(data, clazz).asInstanceOf[Obj], binary)
+        }
+    }
+
     /**
       * Returns a cacheable deserializer function for the given type.
       */
@@ -183,6 +225,41 @@ private[storage] object ZoomSerializer {
         builder.toString.getBytes(Utf8)
     }
 
+    @inline
+    private def serializeBinaryMessage(message: Message): Array[Byte] = {
+        val size = message.getSerializedSize
+        val data = new Array[Byte](BinaryHeaderLength + size)
+        data(0) = BinaryMagic
+        data(1) = BinaryVersion
+        val output = CodedOutputStream.newInstance(data, BinaryHeaderLength,
+                                                   size)
+        message.writeTo(output)
+        output.checkNoSpaceLeft()
+        data
+    }
+
+    @throws[InternalObjectMapperException]
+    private def deserializeBinaryMessage[T](data: Array[Byte], clazz: Class[T])
+    : T = {
+        if (data(1) != BinaryVersion) {
+            throw new InternalObjectMapperException(
+                s"Unsupported binary encoding version ${data(1)} for " +
+                s"${clazz.getSimpleName}")
+        }
+        try {
+            val builder = clazz.getMethod("newBuilder").invoke(null)
+                .asInstanceOf[Message.Builder]
+            builder.mergeFrom(data, BinaryHeaderLength,
+                              data.length - BinaryHeaderLength)
+            builder.build().asInstanceOf[T]
+        } catch {
+            case NonFatal(e) =>
+                throw new InternalObjectMapperException(
+                    s"Could not parse binary data from ZooKeeper for " +
+                    s"${clazz.getSimpleName}", e)
+        }
+    }
+
     @throws[InternalObjectMapperException]
     private def deserializeMessage[T](data: Array[Byte], clazz: Class[T]): T = {
         try {
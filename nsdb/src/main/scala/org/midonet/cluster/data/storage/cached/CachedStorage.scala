@@ -15,6 +15,8 @@
  */
 package org.midonet.cluster.data.storage.cached
 
+import java.util.concurrent.atomic.AtomicLong
+
 import scala.collection.JavaConverters._
 import scala.concurrent.Future
 
@@ -25,6 +27,7 @@ import org.midonet.cluster.cache.ObjectNotification.{MappedSnapshot => ObjSnapsh
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
 import org.midonet.cluster.data.storage.{NotFoundException, PersistenceOp, Storage, Transaction}
 import org.midonet.cluster.data.{ObjId, oneLiner}
+import org.midonet.util.functors.{makeFunc0, makeFunc1}
 import org.midonet.util.logging.Logger
 
 /**
@@ -36,6 +39,12 @@ import org.midonet.util.logging.Logger
   * For performance, the objects are only finally deserialized into their
   * message type once a client asks for the object. This saves the cost of
   * deserializing the whole map on startup before starting to use it.
+  *
+  * The observables of the cached objects emit the cached instance first, and
+  * reconcile in the background with the live storage watch. The first live
+  * notification is only emitted if the object changed since the snapshot,
+  * such that unchanged objects do not rebuild their devices twice. All later
+  * notifications are emitted unchanged.
   */
 class CachedStorage(private val store: Storage,
                     private val snapshot: ObjSnapshot)
@@ -43,6 +52,21 @@ class CachedStorage(private val store: Storage,
 
     private val log = Logger("org.midonet.cluster.cached-storage")
 
+    private val reconciledObjects = new AtomicLong()
+    private val staleObjects = new AtomicLong()
+
+    /**
+      * The number of cached objects whose first live notification was equal
+      * to the cached instance.
+      */
+    def reconciledCount: Long = reconciledObjects.get()
+
+    /**
+      * The number of cached objects whose first live notification differed
+      * from the cached instance.
+      */
+    def staleCount: Long = staleObjects.get()
+
     protected def notImplemented = throw new NotImplementedError(
         "Operation not implemented for the initial cached storage")
 
@@ -96,7 +120,26 @@ class CachedStorage(private val store: Storage,
             case Some(cached) =>
                 log.debug("Cache hit, starting observable with cached instance" +
                           s" [$clazz, ${oneLiner(id)}] -> ${oneLiner(cached)}")
-                store.observable(clazz, id).startWith(cached)
+                Observable.defer(makeFunc0 {
+                    // Only the first live notification is compared with the
+                    // cached instance: later notifications are emitted as
+                    // they are received from storage.
+                    var reconciled = false
+                    store.observable(clazz, id)
+                        .filter(makeFunc1 { live: T =>
+                            if (!reconciled) {
+                                reconciled = true
+                                if (live == cached) {
+                                    reconciledObjects.incrementAndGet()
+                                    false
+                                } else {
+                                    staleObjects.incrementAndGet()
+                                    true
+                                }
+                            } else true
+                        })
+                        .startWith(cached)
+                })
             case None =>
                 log.debug("Cache miss, listening for update from storage " +
                           s"[$clazz, ${oneLiner(id)}]")
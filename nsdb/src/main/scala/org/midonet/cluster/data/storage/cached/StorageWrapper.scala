@@ -50,6 +50,23 @@ class StorageWrapper(private val cacheTtlMs: Long,
         cacheValid = false
     }
 
+    /**
+      * @return True while the wrapper serves the objects from the cache.
+      */
+    def isCacheValid: Boolean = cacheValid
+
+    /**
+      * @return The number of cached objects that were unchanged when their
+      *         live storage watch reconciled them.
+      */
+    def reconciledCount: Long = cachedStore.reconciledCount
+
+    /**
+      * @return The number of cached objects that had changed when their live
+      *         storage watch reconciled them.
+      */
+    def staleCount: Long = cachedStore.staleCount
+
     protected def validStore: Storage = if (cacheValid) cachedStore else store
 
     override def multi(ops: Seq[PersistenceOp]): Unit = validStore.multi(ops)
@@ -46,20 +46,32 @@ abstract class TopologyCacheClientBase extends TopologyCacheClient {
 
     private val log = Logger(LoggerFactory.getLogger(this.getClass))
 
-    private val client = {
+    private lazy val client = {
         val requestConfig = RequestConfig.custom()
-            .setSocketTimeout(TopologyCacheClient.SocketTimeoutMillis)
+            .setSocketTimeout(socketTimeoutMillis)
             .build()
 
-        HttpClients.custom()
+        val builder = HttpClients.custom()
             .setDefaultRequestConfig(requestConfig)
-            .disableContentCompression()
-            .build()
+        if (!compression) {
+            builder.disableContentCompression()
+        }
+        builder.build()
     }
 
     protected def ssl: Option[SSLContext]
     protected def url: URI
 
+    /**
+      * Whether the client requests the snapshot with a gzip content encoding,
+      * which the topology cache endpoint supports. The response is
+      * decompressed transparently.
+      */
+    protected def compression: Boolean = false
+
+    protected def socketTimeoutMillis: Int =
+        TopologyCacheClient.SocketTimeoutMillis
+
     override def fetch(): Array[Byte] = {
         val srvUrl = url
         if (srvUrl == null) {
@@ -86,8 +98,10 @@ abstract class TopologyCacheClientBase extends TopologyCacheClient {
             throw new HttpException(
                 "Topology cache client got unexpected content type: " + ctype)
         }
-        IOUtils.toByteArray(resp.getEntity.getContent,
-                            resp.getEntity.getContentLength)
+        // The length of a decompressed response is not known in advance.
+        val length = resp.getEntity.getContentLength
+        if (length < 0) IOUtils.toByteArray(resp.getEntity.getContent)
+        else IOUtils.toByteArray(resp.getEntity.getContent, length)
     }
 }
 
@@ -109,7 +123,10 @@ object TopologyCacheClientImpl {
 
 
 class TopologyCacheClientDiscovery(discovery: MidonetDiscoverySelector[MidonetServiceURI],
-                                   override protected val ssl: Option[SSLContext])
+                                   override protected val ssl: Option[SSLContext],
+                                   override protected val compression: Boolean = false,
+                                   override protected val socketTimeoutMillis: Int =
+                                       TopologyCacheClient.SocketTimeoutMillis)
     extends TopologyCacheClientBase {
     override protected def url: URI = discovery.getInstance.map(_.uri).orNull
 }
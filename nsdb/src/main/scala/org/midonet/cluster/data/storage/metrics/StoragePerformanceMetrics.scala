@@ -54,6 +54,11 @@ class StoragePerformanceMetrics(registry: MetricRegistry) {
         registry.timer(name(classOf[StorageTimer], "write"))
     private val multiTimer =
         registry.timer(name(classOf[StorageTimer], "multi"))
+    private val readBatchTimer =
+        registry.timer(name(classOf[StorageTimer], "readBatch"))
+
+    private val readBatchSize =
+        registry.histogram(name(classOf[StorageHistogram], "readBatchSize"))
 
     private val stateTableReadLatency =
         registry.histogram(name(classOf[StorageHistogram], "stateTable",
@@ -77,6 +82,11 @@ class StoragePerformanceMetrics(registry: MetricRegistry) {
     def addMultiLatency(latencyInNanos: Long): Unit =
         multiTimer.update(latencyInNanos, NANOSECONDS)
 
+    def addReadBatch(size: Int, latencyInNanos: Long): Unit = {
+        readBatchSize.update(size)
+        readBatchTimer.update(latencyInNanos, NANOSECONDS)
+    }
+
     def addStateTableReadLatency(latencyInNanos: Long): Unit =
         stateTableReadLatency.update(latencyInNanos)
 
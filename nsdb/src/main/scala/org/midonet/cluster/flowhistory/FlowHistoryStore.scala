@@ -0,0 +1,564 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.cluster.flowhistory
+
+import java.io.{File, IOException, RandomAccessFile}
+import java.nio.channels.FileChannel.MapMode
+import java.nio.{ByteBuffer, ByteOrder, MappedByteBuffer}
+import java.util.UUID
+
+import org.agrona.IoUtil
+import org.agrona.concurrent.UnsafeBuffer
+
+import org.midonet.cluster.flowhistory.proto.{FlowSummaryDecoder, InetAddrType, MessageHeaderDecoder}
+import org.midonet.packets.IPv4Addr
+
+/**
+  * A query over the locally stored flow records. Records match when they
+  * were appended within the `[from, to]` time interval (in milliseconds
+  * since the epoch), and when they match every defined field.
+  */
+case class FlowHistoryQuery(from: Long = 0L,
+                            to: Long = Long.MaxValue,
+                            device: Option[UUID] = None,
+                            networkProto: Option[Int] = None,
+                            networkSrc: Option[IPv4Addr] = None,
+                            networkDst: Option[IPv4Addr] = None,
+                            srcPort: Option[Int] = None,
+                            dstPort: Option[Int] = None)
+
+object FlowHistorySegment {
+
+    final val Magic = 0x464C4853
+    final val Version = 1
+
+    final val FilePrefix = "flows-"
+    final val FileSuffix = ".seg"
+
+    // Header layout.
+    private final val CapacityOffset = 8
+    private final val DataSizeOffset = 12
+    private final val CountOffset = 16
+    private final val DataPositionOffset = 20
+    private final val MinTimeOffset = 24
+    private final val MaxTimeOffset = 32
+    private final val MinSrcPortOffset = 40
+    private final val MaxSrcPortOffset = 44
+    private final val MinDstPortOffset = 48
+    private final val MaxDstPortOffset = 52
+    private final val MinSrcIpOffset = 56
+    private final val MaxSrcIpOffset = 64
+    private final val MinDstIpOffset = 72
+    private final val MaxDstIpOffset = 80
+    private final val ProtocolsOffset = 88
+    private final val ProtocolsSize = 32
+    private final val DevicesOffset = 128
+    private final val DevicesSize = 2048
+    private final val DeviceBits = DevicesSize * 8
+    private final val DeviceHashes = 3
+    final val HeaderSize = 4096
+
+    // Column widths.
+    private final val TimeWidth = 8
+    private final val IpWidth = 8
+    private final val PortWidth = 4
+    private final val ProtoWidth = 1
+    private final val OffsetWidth = 4
+    private final val LengthWidth = 4
+    final val RowWidth = TimeWidth + 2 * IpWidth + 2 * PortWidth +
+                         ProtoWidth + OffsetWidth + LengthWidth
+
+    /** Value of the IP columns for records that are not IPv4. */
+    private final val NoIp = -1L
+
+    def fileName(index: Long): String =
+        f"$FilePrefix$index%020d$FileSuffix"
+
+    def fileIndex(file: File): Option[Long] = {
+        val name = file.getName
+        if (name.startsWith(FilePrefix) && name.endsWith(FileSuffix)) {
+            try Some(name.substring(FilePrefix.length,
+                                    name.length - FileSuffix.length).toLong)
+            catch { case e: NumberFormatException => None }
+        } else None
+    }
+
+    def fileSize(capacity: Int, dataSize: Int): Long =
+        HeaderSize.toLong + capacity.toLong * RowWidth + dataSize
+
+    /** Creates a new segment file with the given capacity. */
+    @throws[IOException]
+    def create(file: File, capacity: Int, dataSize: Int): FlowHistorySegment = {
+        val raf = new RandomAccessFile(file, "rw")
+        try {
+            raf.setLength(fileSize(capacity, dataSize))
+            val buffer = raf.getChannel.map(MapMode.READ_WRITE, 0,
+                                            raf.length())
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+            buffer.putInt(0, Magic)
+            buffer.putInt(4, Version)
+            buffer.putInt(CapacityOffset, capacity)
+            buffer.putInt(DataSizeOffset, dataSize)
+            buffer.putInt(CountOffset, 0)
+            buffer.putInt(DataPositionOffset, 0)
+            buffer.putLong(MinTimeOffset, Long.MaxValue)
+            buffer.putLong(MaxTimeOffset, Long.MinValue)
+            buffer.putInt(MinSrcPortOffset, Int.MaxValue)
+            buffer.putInt(MaxSrcPortOffset, Int.MinValue)
+            buffer.putInt(MinDstPortOffset, Int.MaxValue)
+            buffer.putInt(MaxDstPortOffset, Int.MinValue)
+            buffer.putLong(MinSrcIpOffset, Long.MaxValue)
+            buffer.putLong(MaxSrcIpOffset, Long.MinValue)
+            buffer.putLong(MinDstIpOffset, Long.MaxValue)
+            buffer.putLong(MaxDstIpOffset, Long.MinValue)
+            new FlowHistorySegment(file, buffer)
+        } finally {
+            raf.close()
+        }
+    }
+
+    /** Opens an existing segment file for reading. */
+    @throws[IOException]
+    def open(file: File): FlowHistorySegment = {
+        val raf = new RandomAccessFile(file, "r")
+        try {
+            if (raf.length() < HeaderSize) {
+                throw new IOException(s"Flow history segment $file truncated")
+            }
+            val buffer = raf.getChannel.map(MapMode.READ_ONLY, 0, raf.length())
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+            if (buffer.getInt(0) != Magic || buffer.getInt(4) != Version) {
+                throw new IOException(s"Invalid flow history segment $file")
+            }
+            val segment = new FlowHistorySegment(file, buffer)
+            if (raf.length() < fileSize(segment.capacity, segment.dataSize)) {
+                throw new IOException(s"Flow history segment $file truncated")
+            }
+            segment
+        } finally {
+            raf.close()
+        }
+    }
+
+    private def deviceHash(device: UUID, i: Int): Int = {
+        val h1 = device.getMostSignificantBits ^ device.getLeastSignificantBits
+        val h2 = (h1 >>> 32) * 0x9E3779B97F4A7C15L
+        val h = h1 + i * h2
+        (((h ^ (h >>> 29)) & Long.MaxValue) % DeviceBits).toInt
+    }
+
+    private def inRange(value: Option[Long], min: Long, max: Long): Boolean =
+        value.isEmpty || (value.get >= min && value.get <= max)
+
+    private def ipValue(ip: Option[IPv4Addr]): Option[Long] =
+        ip.map(_.addr & 0xffffffffL)
+}
+
+/**
+  * A segment of the local flow history store, which is a memory-mapped file
+  * containing a fixed number of flow records in columnar format. The file
+  * has the following layout:
+  *
+  *  - A header with the number of records, and an index with the minimum
+  *    and maximum values of the time and 5-tuple columns, a bitmap of the
+  *    network protocols and a Bloom filter of the traversed devices.
+  *  - The time, network source, network destination, source port,
+  *    destination port and network protocol columns, followed by the
+  *    offset and length of each SBE-encoded record in the data region.
+  *  - The data region with the SBE-encoded records, as produced by the
+  *    binary flow recorder.
+  *
+  * A segment has a single writer, which updates the record count only after
+  * writing the columns and the index, such that readers mapping the same
+  * file never observe partially written records.
+  *
+  * The mapping is released by `close`, rather than when the segment is
+  * garbage collected, such that the disk space of deleted segment files is
+  * reclaimed immediately. A closed segment cannot be used.
+  */
+class FlowHistorySegment private(val file: File, buffer: MappedByteBuffer) {
+
+    import FlowHistorySegment._
+
+    val capacity = buffer.getInt(CapacityOffset)
+    val dataSize = buffer.getInt(DataSizeOffset)
+
+    private val timeColumn = HeaderSize
+    private val srcIpColumn = timeColumn + capacity * TimeWidth
+    private val dstIpColumn = srcIpColumn + capacity * IpWidth
+    private val srcPortColumn = dstIpColumn + capacity * IpWidth
+    private val dstPortColumn = srcPortColumn + capacity * PortWidth
+    private val protoColumn = dstPortColumn + capacity * PortWidth
+    private val offsetColumn = protoColumn + capacity * ProtoWidth
+    private val lengthColumn = offsetColumn + capacity * OffsetWidth
+    private val dataRegion = lengthColumn + capacity * LengthWidth
+
+    private val directBuffer = new UnsafeBuffer(buffer)
+    private val messageHeader = new MessageHeaderDecoder
+    private val flowSummary = new FlowSummaryDecoder
+
+    private var closed = false
+
+    /** The number of records in this segment. */
+    def count: Int = buffer.getInt(CountOffset)
+
+    def minTime: Long = buffer.getLong(MinTimeOffset)
+
+    def maxTime: Long = buffer.getLong(MaxTimeOffset)
+
+    def isFull: Boolean = count >= capacity
+
+    /**
+      * Appends an SBE-encoded flow record between the position and the limit
+      * of the given buffer, without modifying the buffer.
+      *
+      * @return False if the segment does not have enough space.
+      */
+    def append(time: Long, record: ByteBuffer): Boolean = {
+        checkOpen()
+        val index = count
+        val length = record.remaining()
+        val position = buffer.getInt(DataPositionOffset)
+        if (index >= capacity || position.toLong + length > dataSize) {
+            return false
+        }
+
+        val offset = dataRegion + position
+        val source = record.duplicate()
+        val target = buffer.duplicate()
+        target.position(offset)
+        target.put(source)
+
+        wrap(offset)
+        val srcIp = ip(flowSummary.flowMatchNetworkSrcType(),
+                       flowSummary.flowMatchNetworkSrc(0))
+        val dstIp = ip(flowSummary.flowMatchNetworkDstType(),
+                       flowSummary.flowMatchNetworkDst(0))
+        val srcPort = flowSummary.flowMatchSrcPort()
+        val dstPort = flowSummary.flowMatchDstPort()
+        val proto = flowSummary.flowMatchNetworkProto() & 0xff
+
+        buffer.putLong(timeColumn + index * TimeWidth, time)
+        buffer.putLong(srcIpColumn + index * IpWidth, srcIp)
+        buffer.putLong(dstIpColumn + index * IpWidth, dstIp)
+        buffer.putInt(srcPortColumn + index * PortWidth, srcPort)
+        buffer.putInt(dstPortColumn + index * PortWidth, dstPort)
+        buffer.put(protoColumn + index * ProtoWidth, proto.toByte)
+        buffer.putInt(offsetColumn + index * OffsetWidth, position)
+        buffer.putInt(lengthColumn + index * LengthWidth, length)
+
+        updateMin(MinTimeOffset, time)
+        updateMax(MaxTimeOffset, time)
+        updateMinInt(MinSrcPortOffset, srcPort)
+        updateMaxInt(MaxSrcPortOffset, srcPort)
+        updateMinInt(MinDstPortOffset, dstPort)
+        updateMaxInt(MaxDstPortOffset, dstPort)
+        if (srcIp != NoIp) {
+            updateMin(MinSrcIpOffset, srcIp)
+            updateMax(MaxSrcIpOffset, srcIp)
+        }
+        if (dstIp != NoIp) {
+            updateMin(MinDstIpOffset, dstIp)
+            updateMax(MaxDstIpOffset, dstIp)
+        }
+        val protoByte = ProtocolsOffset + (proto >>> 3)
+        buffer.put(protoByte, (buffer.get(protoByte) | (1 << (proto & 7))).toByte)
+
+        val devices = traversedDevices()
+        while (devices.hasNext) {
+            val device = devices.next()
+            addDevice(new UUID(device.device(0), device.device(1)))
+        }
+
+        buffer.putInt(DataPositionOffset, position + length)
+        buffer.putInt(CountOffset, index + 1)
+        true
+    }
+
+    /**
+      * Indicates whether the segment index excludes any matching record for
+      * the given query, in which case the segment does not need to be
+      * scanned.
+      */
+    def excludes(query: FlowHistoryQuery): Boolean = {
+        checkOpen()
+        count == 0 ||
+        query.from > maxTime || query.to < minTime ||
+        !inRange(query.srcPort.map(_.toLong),
+                 buffer.getInt(MinSrcPortOffset),
+                 buffer.getInt(MaxSrcPortOffset)) ||
+        !inRange(query.dstPort.map(_.toLong),
+                 buffer.getInt(MinDstPortOffset),
+                 buffer.getInt(MaxDstPortOffset)) ||
+        !inRange(ipValue(query.networkSrc), buffer.getLong(MinSrcIpOffset),
+                 buffer.getLong(MaxSrcIpOffset)) ||
+        !inRange(ipValue(query.networkDst), buffer.getLong(MinDstIpOffset),
+                 buffer.getLong(MaxDstIpOffset)) ||
+        query.networkProto.exists(proto => !hasProtocol(proto)) ||
+        query.device.exists(device => !mayContainDevice(device))
+    }
+
+    /**
+      * Scans the records matching the given query, in the order they were
+      * appended. The scan only reads the columns, and the SBE-encoded record
+      * when filtering by device, and calls the handler with the time and a
+      * read-only buffer of each matching record. The buffer is only valid
+      * until the segment is closed.
+      *
+      * @return The number of matching records.
+      */
+    def scan(query: FlowHistoryQuery)
+            (handler: (Long, ByteBuffer) => Unit): Int = {
+        if (excludes(query)) {
+            return 0
+        }
+        val srcIp = ipValue(query.networkSrc)
+        val dstIp = ipValue(query.networkDst)
+        val records = count
+        var matches = 0
+        var index = 0
+        while (index < records) {
+            val time = buffer.getLong(timeColumn + index * TimeWidth)
+            if (time >= query.from && time <= query.to &&
+                matchesInt(query.srcPort,
+                           buffer.getInt(srcPortColumn + index * PortWidth)) &&
+                matchesInt(query.dstPort,
+                           buffer.getInt(dstPortColumn + index * PortWidth)) &&
+                matchesInt(query.networkProto,
+                           buffer.get(protoColumn + index * ProtoWidth) & 0xff) &&
+                matchesLong(srcIp, buffer.getLong(srcIpColumn + index * IpWidth)) &&
+                matchesLong(dstIp, buffer.getLong(dstIpColumn + index * IpWidth))) {
+
+                val offset = dataRegion +
+                             buffer.getInt(offsetColumn + index * OffsetWidth)
+                val length = buffer.getInt(lengthColumn + index * LengthWidth)
+                if (query.device.isEmpty ||
+                    traversesDevice(offset, query.device.get)) {
+                    val record = buffer.asReadOnlyBuffer()
+                    record.limit(offset + length).position(offset)
+                    handler(time, record.slice())
+                    matches += 1
+                }
+            }
+            index += 1
+        }
+        matches
+    }
+
+    /** Unmaps the segment file. */
+    def close(): Unit = {
+        if (!closed) {
+            closed = true
+            IoUtil.unmap(buffer)
+        }
+    }
+
+    def isClosed: Boolean = closed
+
+    private def checkOpen(): Unit = {
+        if (closed) {
+            throw new IllegalStateException(
+                s"Flow history segment $file is closed")
+        }
+    }
+
+    private def ip(addrType: InetAddrType, value: Long): Long = {
+        if (addrType == InetAddrType.IPv4) value & 0xffffffffL else NoIp
+    }
+
+    private def matchesInt(expected: Option[Int], value: Int): Boolean =
+        expected.isEmpty || expected.get == value
+
+    private def matchesLong(expected: Option[Long], value: Long): Boolean =
+        expected.isEmpty || expected.get == value
+
+    private def wrap(offset: Int): Unit = {
+        messageHeader.wrap(directBuffer, offset)
+        flowSummary.wrap(directBuffer, offset + messageHeader.encodedLength(),
+                         messageHeader.blockLength(), messageHeader.version())
+    }
+
+    /** Skips the repeating groups that precede the traversed devices, since
+      * SBE groups must be decoded in order. */
+    private def traversedDevices()
+    : FlowSummaryDecoder.TraversedDevicesDecoder = {
+        val icmpData = flowSummary.flowMatchIcmpData()
+        while (icmpData.hasNext) icmpData.next()
+        val vlanIds = flowSummary.flowMatchVlanIds()
+        while (vlanIds.hasNext) vlanIds.next()
+        val outPorts = flowSummary.outPorts()
+        while (outPorts.hasNext) outPorts.next()
+        val rules = flowSummary.traversedRules()
+        while (rules.hasNext) rules.next()
+        flowSummary.traversedDevices()
+    }
+
+    private def traversesDevice(offset: Int, device: UUID): Boolean = {
+        wrap(offset)
+        val devices = traversedDevices()
+        while (devices.hasNext) {
+            val next = devices.next()
+            if (next.device(0) == device.getMostSignificantBits &&
+                next.device(1) == device.getLeastSignificantBits) {
+                return true
+            }
+        }
+        false
+    }
+
+    private def hasProtocol(proto: Int): Boolean = {
+        proto >= 0 && proto < 256 &&
+        (buffer.get(ProtocolsOffset + (proto >>> 3)) & (1 << (proto & 7))) != 0
+    }
+
+    private def addDevice(device: UUID): Unit = {
+        var i = 0
+        while (i < DeviceHashes) {
+            val bit = deviceHash(device, i)
+            val offset = DevicesOffset + (bit >>> 3)
+            buffer.put(offset, (buffer.get(offset) | (1 << (bit & 7))).toByte)
+            i += 1
+        }
+    }
+
+    private def mayContainDevice(device: UUID): Boolean = {
+        var i = 0
+        while (i < DeviceHashes) {
+            val bit = deviceHash(device, i)
+            if ((buffer.get(DevicesOffset + (bit >>> 3)) & (1 << (bit & 7))) == 0)
+                return false
+            i += 1
+        }
+        true
+    }
+
+    private def updateMin(offset: Int, value: Long): Unit =
+        if (value < buffer.getLong(offset)) buffer.putLong(offset, value)
+
+    private def updateMax(offset: Int, value: Long): Unit =
+        if (value > buffer.getLong(offset)) buffer.putLong(offset, value)
+
+    private def updateMinInt(offset: Int, value: Int): Unit =
+        if (value < buffer.getInt(offset)) buffer.putInt(offset, value)
+
+    private def updateMaxInt(offset: Int, value: Int): Unit =
+        if (value > buffer.getInt(offset)) buffer.putInt(offset, value)
+}
+
+object FlowHistoryStore {
+
+    /** Lists the segment files in a directory, in creation order. */
+    def segmentFiles(directory: File): Seq[File] = {
+        val files = directory.listFiles()
+        if (files eq null) Seq.empty
+        else files.toSeq
+                  .flatMap(file => FlowHistorySegment.fileIndex(file)
+                                                     .map((_, file)))
+                  .sortBy(_._1)
+                  .map(_._2)
+    }
+
+    /**
+      * Scans the flow records stored in the given directory that match the
+      * query, skipping the segments whose index excludes any match.
+      *
+      * @return The number of matching records.
+      */
+    @throws[IOException]
+    def query(directory: File, query: FlowHistoryQuery)
+             (handler: (Long, ByteBuffer) => Unit): Int = {
+        var matches = 0
+        for (file <- segmentFiles(directory) if file.exists()) {
+            val segment = FlowHistorySegment.open(file)
+            try matches += segment.scan(query)(handler)
+            finally segment.close()
+        }
+        matches
+    }
+}
+
+/**
+  * An append-only store of SBE-encoded flow records in the local file system,
+  * which keeps the flow history available when the remote flow history
+  * endpoint is not. The records are appended to memory-mapped segments of
+  * `segmentRecords` records and `segmentDataSize` bytes of record data, and
+  * when a segment is full the store rotates to a new segment, deleting the
+  * oldest segments in excess of `maxSegments`. Only the current segment is
+  * mapped: the previous one is closed when rotating, before any segment is
+  * deleted.
+  *
+  * The store is not thread-safe and it must be used by a single writer.
+  * Readers, such as `mm-ctl`, use [[FlowHistoryStore.query]].
+  */
+class FlowHistoryStore(val directory: File, segmentRecords: Int,
+                       segmentDataSize: Int, maxSegments: Int) {
+
+    private var segments = Vector.empty[File]
+    private var current: FlowHistorySegment = _
+    private var nextIndex = 0L
+
+    /** Opens the store, creating a new segment after the existing ones. */
+    @throws[IOException]
+    def open(): Unit = {
+        if (!directory.isDirectory && !directory.mkdirs()) {
+            throw new IOException(s"Cannot create directory $directory")
+        }
+        segments = FlowHistoryStore.segmentFiles(directory).toVector
+        nextIndex = segments.lastOption
+            .flatMap(FlowHistorySegment.fileIndex)
+            .map(_ + 1L)
+            .getOrElse(0L)
+        rotate()
+    }
+
+    /** Appends an SBE-encoded flow record between the position and the
+      * limit of the buffer, without modifying the buffer.
+      *
+      * @return False if the record is larger than a segment.
+      */
+    @throws[IOException]
+    def append(time: Long, record: ByteBuffer): Boolean = {
+        if (current.append(time, record)) {
+            true
+        } else if (current.count > 0) {
+            rotate()
+            current.append(time, record)
+        } else {
+            false
+        }
+    }
+
+    /** Closes the store, unmapping the current segment. */
+    def close(): Unit = {
+        if (current ne null) {
+            current.close()
+            current = null
+        }
+    }
+
+    private def rotate(): Unit = {
+        close()
+        val file = new File(directory, FlowHistorySegment.fileName(nextIndex))
+        nextIndex += 1
+        current = FlowHistorySegment.create(file, segmentRecords,
+                                            segmentDataSize)
+        segments :+= file
+        while (segments.size > maxSegments) {
+            segments.head.delete()
+            segments = segments.tail
+        }
+    }
+}
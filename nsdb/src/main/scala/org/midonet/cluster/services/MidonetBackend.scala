@@ -51,6 +51,7 @@ object MidonetBackend {
     final val FloodingProxyKey = "flooding_proxy"
     final val HostKey = "host"
     final val RoutesKey = "routes"
+    final val RouteTableKey = "route_table"
     final val StatusKey = "status"
     final val VtepConfig = "config"
     final val VtepConnState = "connection_state"
@@ -66,6 +67,69 @@ object MidonetBackend {
     final val NsdbErrorCodeGraceTimeExpired = 7453
     final val NsdbErrorCodeSessionExpired = 7454
 
+    /** The classes of the topology objects stored in ZOOM. */
+    final val ModelClasses: List[Class[_]] = List(
+        classOf[AgentMembership],
+        classOf[BgpNetwork],
+        classOf[BgpPeer],
+        classOf[C3POState],
+        classOf[Chain],
+        classOf[Dhcp],
+        classOf[DhcpV6],
+        classOf[FloatingIp],
+        classOf[FirewallLog],
+        classOf[GatewayDevice],
+        classOf[HealthMonitor],
+        classOf[Host],
+        classOf[HostGroup],
+        classOf[IPAddrGroup],
+        classOf[IPSecSiteConnection],
+        classOf[L2GatewayConnection],
+        classOf[L2Insertion],
+        classOf[LoadBalancer],
+        classOf[LoggingResource],
+        classOf[Mirror],
+        classOf[Network],
+        classOf[NeutronBgpPeer],
+        classOf[NeutronBgpSpeaker],
+        classOf[NeutronConfig],
+        classOf[NeutronFirewall],
+        classOf[NeutronHealthMonitor],
+        classOf[NeutronLoadBalancerPool],
+        classOf[NeutronLoadBalancerPoolMember],
+        classOf[NeutronLoggingResource],
+        classOf[NeutronNetwork],
+        classOf[NeutronPort],
+        classOf[NeutronRouter],
+        classOf[NeutronRouterInterface],
+        classOf[NeutronSubnet],
+        classOf[NeutronVIP],
+        classOf[Pool],
+        classOf[PoolMember],
+        classOf[Port],
+        classOf[PortBinding],
+        classOf[PortGroup],
+        classOf[QosPolicy],
+        classOf[QosRuleBandwidthLimit],
+        classOf[QosRuleDscp],
+        classOf[RemoteMacEntry],
+        classOf[Route],
+        classOf[Router],
+        classOf[Rule],
+        classOf[RuleLogger],
+        classOf[SecurityGroup],
+        classOf[ServiceContainer],
+        classOf[ServiceContainerGroup],
+        classOf[SecurityGroupRule],
+        classOf[TapFlow],
+        classOf[TapService],
+        classOf[TraceRequest],
+        classOf[TunnelZone],
+        classOf[Vip],
+        classOf[VpnService],
+        classOf[Vtep]
+    )
+
     /** Configures a brand new ZOOM instance with all the classes and bindings
       * supported by MidoNet core. It also executes a provided setup function
       * and, if a Reflections object is provided, this method searches the
@@ -75,66 +139,7 @@ object MidonetBackend {
                             setup: () => Unit = () => {},
                             isCluster: Boolean = true)
     : Unit = {
-        List(classOf[AgentMembership],
-             classOf[BgpNetwork],
-             classOf[BgpPeer],
-             classOf[C3POState],
-             classOf[Chain],
-             classOf[Dhcp],
-             classOf[DhcpV6],
-             classOf[FloatingIp],
-             classOf[FirewallLog],
-             classOf[GatewayDevice],
-             classOf[HealthMonitor],
-             classOf[Host],
-             classOf[HostGroup],
-             classOf[IPAddrGroup],
-             classOf[IPSecSiteConnection],
-             classOf[L2GatewayConnection],
-             classOf[L2Insertion],
-             classOf[LoadBalancer],
-             classOf[LoggingResource],
-             classOf[Mirror],
-             classOf[Network],
-             classOf[NeutronBgpPeer],
-             classOf[NeutronBgpSpeaker],
-             classOf[NeutronConfig],
-             classOf[NeutronFirewall],
-             classOf[NeutronHealthMonitor],
-             classOf[NeutronLoadBalancerPool],
-             classOf[NeutronLoadBalancerPoolMember],
-             classOf[NeutronLoggingResource],
-             classOf[NeutronNetwork],
-             classOf[NeutronPort],
-             classOf[NeutronRouter],
-             classOf[NeutronRouterInterface],
-             classOf[NeutronSubnet],
-             classOf[NeutronVIP],
-             classOf[Pool],
-             classOf[PoolMember],
-             classOf[Port],
-             classOf[PortBinding],
-             classOf[PortGroup],
-             classOf[QosPolicy],
-             classOf[QosRuleBandwidthLimit],
-             classOf[QosRuleDscp],
-             classOf[RemoteMacEntry],
-             classOf[Route],
-             classOf[Router],
-             classOf[Rule],
-             classOf[RuleLogger],
-             classOf[SecurityGroup],
-             classOf[ServiceContainer],
-             classOf[ServiceContainerGroup],
-             classOf[SecurityGroupRule],
-             classOf[TapFlow],
-             classOf[TapService],
-             classOf[TraceRequest],
-             classOf[TunnelZone],
-             classOf[Vip],
-             classOf[VpnService],
-             classOf[Vtep]
-        ).foreach(store.registerClass(_, isCluster))
+        ModelClasses.foreach(store.registerClass(_, isCluster))
 
         store.declareBinding(classOf[Port], "insertion_ids", CASCADE,
                              classOf[L2Insertion], "port_id", CLEAR)
@@ -276,6 +281,7 @@ object MidonetBackend {
         stateStore.registerKey(classOf[Port], ActiveKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], BgpKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Port], RoutesKey, Multiple)
+        stateStore.registerKey(classOf[Port], RouteTableKey, Multiple)
         stateStore.registerKey(classOf[TunnelZone], FloodingProxyKey, SingleLastWriteWins)
         stateStore.registerKey(classOf[Vtep], VtepConfig, SingleLastWriteWins)
         stateStore.registerKey(classOf[Vtep], VtepConnState, SingleLastWriteWins)
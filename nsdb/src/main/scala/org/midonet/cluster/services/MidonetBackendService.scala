@@ -50,6 +50,7 @@ import org.midonet.util.concurrent.Executors
 import org.midonet.util.eventloop.TryCatchReactor
 import org.midonet.util.functors.makeRunnable
 
+import io.netty.channel.epoll.{Epoll, EpollEventLoopGroup}
 import io.netty.channel.nio.NioEventLoopGroup
 
 /**
@@ -204,7 +205,11 @@ class MidonetBackendService(config: MidonetBackendConfig,
                             Executors.CallerRunsPolicy)
                     val ec = ExecutionContext.fromExecutor(stateProxyClientExecutor)
                     val numNettyThreads = config.stateClient.numNetworkThreads
-                    val eventLoopGroup = new NioEventLoopGroup(numNettyThreads)
+                    val eventLoopGroup =
+                        if (config.stateClient.epollEnabled && Epoll.isAvailable)
+                            new EpollEventLoopGroup(numNettyThreads)
+                        else
+                            new NioEventLoopGroup(numNettyThreads)
 
                     val discoverySelector = MidonetDiscoverySelector.random(
                         discoveryService.getClient[MidonetServiceHostAndPort](
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state
+
+import java.io.IOException
+import java.util
+import java.util.Comparator
+
+import com.google.protobuf.{ByteString, CodedOutputStream}
+
+import org.midonet.cluster.rpc.State.KeyValue
+import org.midonet.cluster.rpc.State.KeyValue.DataCase
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+
+/**
+  * Encodes and decodes the entries of a state table notification in a compact
+  * binary form, which replaces the repeated `entries` of an [[Notify.Update]]
+  * when the client requests it with the `compact` flag of the SUBSCRIBE
+  * request.
+  *
+  * The entries are sorted by key, such that integer keys (e.g. IPv4 and MAC
+  * addresses) are encoded as the variable-length difference to the previous
+  * key, and variable keys as the length of the prefix shared with the previous
+  * key followed by the remaining bytes. Versions are encoded as the zig-zag
+  * variable-length difference to the previous version. The encoding is:
+  *
+  * {{{
+  *   format version (byte)
+  *   entry count (varint)
+  *   for each entry:
+  *     flags (byte): key type | value type << 2
+  *     key: delta (varint) | shared prefix (varint), suffix (bytes)
+  *     value: value (varint) | value (bytes), absent for removed entries
+  *     version delta (signed varint)
+  * }}}
+  */
+object CompactEntries {
+
+    final val FormatVersion = 1
+
+    private final val TypeNone = 0
+    private final val Type32 = 1
+    private final val Type64 = 2
+    private final val TypeVariable = 3
+
+    private def typeOf(kv: KeyValue): Int = kv.getDataCase match {
+        case DataCase.DATA_32 => Type32
+        case DataCase.DATA_64 => Type64
+        case DataCase.DATA_VARIABLE => TypeVariable
+        case _ => TypeNone
+    }
+
+    private def numeric(kv: KeyValue): Long = kv.getDataCase match {
+        case DataCase.DATA_32 => kv.getData32 & 0xffffffffL
+        case DataCase.DATA_64 => kv.getData64
+        case _ => 0L
+    }
+
+    private object KeyComparator extends Comparator[Notify.Entry] {
+        override def compare(a: Notify.Entry, b: Notify.Entry): Int = {
+            val typeA = typeOf(a.getKey)
+            val typeB = typeOf(b.getKey)
+            if (typeA != typeB) {
+                Integer.compare(typeA, typeB)
+            } else if (typeA == TypeVariable) {
+                compareBytes(a.getKey.getDataVariable,
+                             b.getKey.getDataVariable)
+            } else {
+                java.lang.Long.compareUnsigned(numeric(a.getKey),
+                                               numeric(b.getKey))
+            }
+        }
+    }
+
+    private def compareBytes(a: ByteString, b: ByteString): Int = {
+        val length = Math.min(a.size(), b.size())
+        var index = 0
+        while (index < length) {
+            val result = Integer.compare(a.byteAt(index) & 0xff,
+                                         b.byteAt(index) & 0xff)
+            if (result != 0) return result
+            index += 1
+        }
+        Integer.compare(a.size(), b.size())
+    }
+
+    private def sharedPrefix(a: ByteString, b: ByteString): Int = {
+        val length = Math.min(a.size(), b.size())
+        var index = 0
+        while (index < length && a.byteAt(index) == b.byteAt(index)) {
+            index += 1
+        }
+        index
+    }
+
+    /**
+      * Encodes the given entries, where entries without a value are removed
+      * entries. The list is not modified.
+      */
+    def encode(entries: util.List[Notify.Entry]): ByteString = {
+        val sorted = new util.ArrayList[Notify.Entry](entries)
+        util.Collections.sort(sorted, KeyComparator)
+
+        val output = ByteString.newOutput(16 + entries.size() * 8)
+        val stream = CodedOutputStream.newInstance(output)
+        stream.writeRawByte(FormatVersion)
+        stream.writeUInt32NoTag(sorted.size())
+
+        var lastType = TypeNone
+        var lastNumeric = 0L
+        var lastVariable = ByteString.EMPTY
+        var lastVersion = 0
+        var index = 0
+        while (index < sorted.size()) {
+            val entry = sorted.get(index)
+            val key = entry.getKey
+            val keyType = typeOf(key)
+            val valueType = if (entry.hasValue) typeOf(entry.getValue)
+                            else TypeNone
+            stream.writeRawByte(keyType | (valueType << 2))
+
+            if (keyType != lastType) {
+                lastNumeric = 0L
+                lastVariable = ByteString.EMPTY
+                lastType = keyType
+            }
+            keyType match {
+                case Type32 | Type64 =>
+                    val value = numeric(key)
+                    stream.writeUInt64NoTag(value - lastNumeric)
+                    lastNumeric = value
+                case TypeVariable =>
+                    val data = key.getDataVariable
+                    val shared = sharedPrefix(lastVariable, data)
+                    stream.writeUInt32NoTag(shared)
+                    stream.writeBytesNoTag(data.substring(shared))
+                    lastVariable = data
+                case _ =>
+            }
+
+            valueType match {
+                case Type32 | Type64 =>
+                    stream.writeUInt64NoTag(numeric(entry.getValue))
+                case TypeVariable =>
+                    stream.writeBytesNoTag(entry.getValue.getDataVariable)
+                case _ =>
+            }
+
+            stream.writeSInt64NoTag(entry.getVersion.toLong - lastVersion)
+            lastVersion = entry.getVersion
+            index += 1
+        }
+        stream.flush()
+        output.toByteString
+    }
+
+    /**
+      * Decodes the entries encoded by `encode`, in key order.
+      */
+    @throws[IOException]
+    def decode(data: ByteString): util.List[Notify.Entry] = {
+        val stream = data.newCodedInput()
+        val format = stream.readRawByte()
+        if (format != FormatVersion) {
+            throw new IOException(s"Unsupported compact entries format $format")
+        }
+        val count = stream.readUInt32()
+        val entries = new util.ArrayList[Notify.Entry](count)
+
+        var lastType = TypeNone
+        var lastNumeric = 0L
+        var lastVariable = ByteString.EMPTY
+        var lastVersion = 0
+        val entryBuilder = Notify.Entry.newBuilder()
+        val kvBuilder = KeyValue.newBuilder()
+        var index = 0
+        while (index < count) {
+            val flags = stream.readRawByte()
+            val keyType = flags & 0x3
+            val valueType = (flags >> 2) & 0x3
+            entryBuilder.clear()
+
+            if (keyType != lastType) {
+                lastNumeric = 0L
+                lastVariable = ByteString.EMPTY
+                lastType = keyType
+            }
+            keyType match {
+                case Type32 =>
+                    lastNumeric += stream.readUInt64()
+                    entryBuilder.setKey(kvBuilder.clear()
+                                            .setData32(lastNumeric.toInt))
+                case Type64 =>
+                    lastNumeric += stream.readUInt64()
+                    entryBuilder.setKey(kvBuilder.clear()
+                                            .setData64(lastNumeric))
+                case TypeVariable =>
+                    val shared = stream.readUInt32()
+                    lastVariable =
+                        lastVariable.substring(0, shared)
+                                    .concat(stream.readBytes())
+                    entryBuilder.setKey(kvBuilder.clear()
+                                            .setDataVariable(lastVariable))
+                case _ =>
+                    throw new IOException(s"Invalid key type $keyType")
+            }
+
+            valueType match {
+                case Type32 =>
+                    entryBuilder.setValue(kvBuilder.clear()
+                                              .setData32(stream.readUInt64()
+                                                               .toInt))
+                case Type64 =>
+                    entryBuilder.setValue(kvBuilder.clear()
+                                              .setData64(stream.readUInt64()))
+                case TypeVariable =>
+                    entryBuilder.setValue(kvBuilder.clear()
+                                              .setDataVariable(
+                                                  stream.readBytes()))
+                case _ =>
+            }
+
+            lastVersion = (lastVersion + stream.readSInt64()).toInt
+            entryBuilder.setVersion(lastVersion)
+            entries.add(entryBuilder.build())
+            index += 1
+        }
+        entries
+    }
+}
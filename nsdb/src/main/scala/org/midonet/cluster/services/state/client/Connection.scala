@@ -27,7 +27,7 @@ import com.google.protobuf.Message
 
 import io.netty.bootstrap.Bootstrap
 import io.netty.channel._
-import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.epoll.{EpollEventLoopGroup, EpollSocketChannel}
 import io.netty.channel.socket.nio.NioSocketChannel
 import io.netty.handler.codec.protobuf.{ProtobufDecoder, ProtobufEncoder, ProtobufVarint32FrameDecoder, ProtobufVarint32LengthFieldPrepender}
 import io.netty.handler.timeout.{ReadTimeoutException, ReadTimeoutHandler}
@@ -54,8 +54,10 @@ import rx.Observer
   * @param decoder is a protobuf [[Message]] used as a base for decoding
   *                incoming messages.
   *                Usually MyMessageType.getDefaultInstance()
-  * @param eventLoopGroup is the [[NioEventLoopGroup]] to be used for Netty's
-  *                       event loop.
+  * @param eventLoopGroup is the [[EventLoopGroup]] to be used for Netty's
+  *                       event loop. The connection uses the native epoll
+  *                       transport for an [[EpollEventLoopGroup]], and the
+  *                       NIO transport otherwise.
   *
   * Connection
   *
@@ -83,7 +85,7 @@ class Connection[S <: Message, R <: Message]
                  decoder: R,
                  connectTimeout: Duration = Connection.DefaultConnectTimeout,
                  readTimeout: Duration = Connection.DefaultReadTimeout)
-                (implicit eventLoopGroup: NioEventLoopGroup)
+                (implicit eventLoopGroup: EventLoopGroup)
 
     extends SimpleChannelInboundHandler[Message] {
 
@@ -109,9 +111,14 @@ class Connection[S <: Message, R <: Message]
         pipeline.addLast(channelHandler)
     }
 
+    private def channelClass: Class[_ <: Channel] = eventLoopGroup match {
+        case _: EpollEventLoopGroup => classOf[EpollSocketChannel]
+        case _ => classOf[NioSocketChannel]
+    }
+
     private def createBootstrap(channelHandler: ChannelHandler) = new Bootstrap()
         .group(eventLoopGroup)
-        .channel(classOf[NioSocketChannel])
+        .channel(channelClass)
         // send TCP keep-alive messages
         .option[java.lang.Boolean](ChannelOption.SO_KEEPALIVE, true)
         // no need for delays, already have flush()
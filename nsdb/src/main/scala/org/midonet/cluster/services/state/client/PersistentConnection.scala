@@ -29,7 +29,7 @@ import scala.util.control.NonFatal
 import com.google.protobuf.Message
 import com.typesafe.scalalogging.Logger
 
-import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.EventLoopGroup
 
 import org.slf4j.LoggerFactory
 
@@ -48,7 +48,7 @@ import org.midonet.cluster.services.discovery.MidonetServiceHostAndPort
   *
   * @param executor ScheduledExecutorService used to schedule reconnects
   * @param context the executionContext
-  * @param eventLoopGroup is the [[NioEventLoopGroup]] to be used for Netty's
+  * @param eventLoopGroup is the [[EventLoopGroup]] to be used for Netty's
   *                       event loop.
   * Usage
   *
@@ -67,7 +67,7 @@ abstract class PersistentConnection[S <: Message, R <: Message]
                                     connectTimeout: Duration,
                                     readTimeout: Duration)
                                    (implicit context: ExecutionContext,
-                                    eventLoopGroup: NioEventLoopGroup)
+                                    eventLoopGroup: EventLoopGroup)
         extends Observer[R] {
 
     import PersistentConnection._
@@ -25,7 +25,7 @@ import scala.concurrent.ExecutionContext
 import scala.concurrent.duration.Duration
 import scala.util.control.NonFatal
 
-import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.EventLoopGroup
 
 import rx.Observable.OnSubscribe
 import rx.subjects.BehaviorSubject
@@ -53,7 +53,7 @@ import org.midonet.util.functors.makeAction0
   *                                    remote server and  schedule reconnection
   *                                    attempts.
   * @param ec                          the execution context
-  * @param eventLoopGroup              is the [[NioEventLoopGroup]] to be used
+  * @param eventLoopGroup              is the [[EventLoopGroup]] to be used
   *                                    for Netty's event loop.
   *
   * Usage
@@ -86,7 +86,7 @@ import org.midonet.util.functors.makeAction0
 class StateProxyClient(conf: StateProxyClientConfig,
                        discovery: MidonetDiscoverySelector[MidonetServiceHostAndPort],
                        executor: ScheduledExecutorService,
-                       eventLoopGroup: NioEventLoopGroup)
+                       eventLoopGroup: EventLoopGroup)
                       (implicit ec: ExecutionContext)
 
         extends PersistentConnection[ProxyRequest, ProxyResponse] (
@@ -368,6 +368,12 @@ class StateProxyClient(conf: StateProxyClientConfig,
             case ProxyResponse.DataCase.NOTIFY =>
                 onNotifyReceived(rid, msg.getNotify)
 
+            case ProxyResponse.DataCase.BATCH =>
+                val iterator = msg.getBatch.getResponsesList.iterator()
+                while (iterator.hasNext) {
+                    onResponse(iterator.next())
+                }
+
             case ProxyResponse.DataCase.DATA_NOT_SET =>
                 log debug s"$this Received unknown response with reqId:$rid"
         }
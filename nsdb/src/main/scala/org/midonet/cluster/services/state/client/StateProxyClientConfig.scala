@@ -41,6 +41,12 @@ class StateProxyClientConfig(val conf: Config) {
         case _: ConfigException => Connection.DefaultConnectTimeout
     }
 
+    def epollEnabled = try {
+        conf.getBoolean("state_proxy.epoll_enabled")
+    } catch {
+        case _: ConfigException => false
+    }
+
     def readTimeout = try {
         conf.getDuration("state_proxy.read_timeout",
                          TimeUnit.MILLISECONDS) millis
@@ -32,6 +32,12 @@ case class StateSubscriptionKey(key: StateTable.Key,
 
         if (lastVersion.isDefined) msg.setLastVersion(lastVersion.get)
 
+        // Servers that do not support compact updates ignore this flag.
+        msg.setCompact(true)
+
+        // Servers that do not support batched notifications ignore this flag.
+        msg.setBatch(true)
+
         msg.setObjectId(Commons.UUID.newBuilder()
                             .setMsb(key.objectId.getMostSignificantBits)
                             .setLsb(key.objectId.getLeastSignificantBits))
@@ -67,6 +67,12 @@ class MidonetBackendConfig(val conf: Config,
     def stateClient = new StateProxyClientConfig(conf)
     def lockTimeoutMs = conf.getDuration("zookeeper.lock_timeout", TimeUnit.MILLISECONDS)
     def transactionAttempts = conf.getInt("zookeeper.transaction_attempts")
+    def maxConcurrentReads =
+        if (conf.hasPath("zookeeper.max_concurrent_reads"))
+            conf.getInt("zookeeper.max_concurrent_reads")
+        else 256
+    def binaryEncoding = conf.hasPath("zookeeper.binary_encoding") &&
+                         conf.getBoolean("zookeeper.binary_encoding")
 }
 
 class CassandraConfig(val conf: Config) {
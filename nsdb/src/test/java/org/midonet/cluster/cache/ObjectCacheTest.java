@@ -346,4 +346,58 @@ public class ObjectCacheTest extends ZooKeeperTest {
         ObjectNotification.MappedSnapshot snapshot = cache.snapshot();
         Assert.assertTrue(snapshot.keySet().contains(Topology.Network.class));
     }
+
+    @Test
+    public void testCachePublishesBinaryEncodedObjects() throws Exception {
+        // Given a storage writing binary encoded objects.
+        MidonetBackendConfig binaryConfig = new MidonetBackendConfig(
+            ConfigFactory.parseString("zookeeper.root_key : " + ROOT + "\n" +
+                                      "zookeeper.binary_encoding : true"),
+            false, false, false);
+        ZookeeperObjectMapper binaryStorage = new ZookeeperObjectMapper(
+            binaryConfig, NAMESPACE, curator, curator, null, null,
+            new StorageMetrics(new MetricRegistry()));
+        MidonetBackend$.MODULE$.setupBindings(binaryStorage, binaryStorage,
+                                              NO_SETUP, true);
+
+        // And a cache.
+        ObjectCache cache = new ObjectCache(curator, paths, metricRegistry);
+
+        // And an observer.
+        TestAwaitableObserver<ObjectNotification> observer =
+            new TestAwaitableObserver<>();
+
+        // When the cache is started.
+        cache.startAsync().awaitRunning();
+        cache.observable().subscribe(observer);
+        observer.awaitOnNext(1, TIMEOUT);
+
+        // And adding a binary encoded object to the topology.
+        UUID id = UUID.randomUUID();
+        Topology.Network network = Topology.Network.newBuilder()
+            .setId(UUIDUtil$.MODULE$.toProto(id))
+            .setName("binary")
+            .build();
+        binaryStorage.create(network);
+
+        // Then the observer should receive the decoded object.
+        observer.awaitOnNext(2, TIMEOUT);
+        ObjectNotification.Update update =
+            (ObjectNotification.Update) observer.getOnNextEvents().get(1);
+        Assert.assertEquals(update.id(), id);
+        Assert.assertEquals(update.message(), network);
+        Assert.assertEquals(update.childData().getData()[0], 0x00);
+        Assert.assertFalse(update.isDeleted());
+
+        // When the object is updated by a storage writing text objects.
+        network = network.toBuilder().setName("text").build();
+        storage.update(network);
+
+        // Then the observer should receive the decoded object.
+        observer.awaitOnNext(3, TIMEOUT);
+        update = (ObjectNotification.Update) observer.getOnNextEvents().get(2);
+        assertUpdateEquals(update, id, network, 1);
+
+        cache.stopAsync().awaitTerminated();
+    }
 }
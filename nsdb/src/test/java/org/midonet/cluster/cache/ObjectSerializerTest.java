@@ -56,6 +56,37 @@ public class ObjectSerializerTest implements TopologyBuilder {
         Assert.assertArrayEquals(network.toByteArray(), message.toByteArray());
     }
 
+    @Test
+    public void testConvertBinaryToMessage() throws IOException {
+        // Given a serializer.
+        ObjectSerializer serializer =
+            new ObjectSerializer(Topology.Network.class);
+
+        // And a binary encoded topology object.
+        Topology.Network network = createNetwork(UUID.randomUUID());
+        byte[] message = network.toByteArray();
+        byte[] data = new byte[message.length + 2];
+        data[0] = 0x00;
+        data[1] = 0x01;
+        System.arraycopy(message, 0, data, 2, message.length);
+
+        // Then the data should be converted to the same object.
+        Assert.assertEquals(network, serializer.convertTextToMessage(data));
+    }
+
+    @Test(expected = IOException.class)
+    public void testConvertBinaryUnsupportedVersion() throws IOException {
+        // Given a serializer.
+        ObjectSerializer serializer =
+            new ObjectSerializer(Topology.Network.class);
+
+        // And binary data with an unknown encoding version.
+        byte[] data = new byte[] { 0x00, 0x7F, 0x0A, 0x00 };
+
+        // Then converting the data to Protocol Buffer message should fail.
+        serializer.convertTextToMessage(data);
+    }
+
     @Test(expected = IOException.class)
     public void testConvertTextToBinaryMalformed() throws IOException {
         // Given a serializer.
@@ -64,6 +64,7 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
         """
           |zookeeper.lock_timeout : 60s
           |zookeeper.transaction_attempts : 1000
+          |zookeeper.max_concurrent_reads : 4
         """.stripMargin
 
     feature("Test subscribe") {
@@ -529,6 +530,73 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
             }
         }
 
+        scenario("Commit ignores concurrent changes to read objects by default") {
+            val bridge1 = createPojoBridge(name = "name-1")
+            val bridge2 = createPojoBridge(name = "name-2")
+            storage.create(bridge1)
+            storage.create(bridge2)
+
+            val tx = storage.transaction()
+            tx.get(classOf[PojoBridge], bridge1.id)
+            tx.update(createPojoBridge(id = bridge2.id, name = "name-3"))
+
+            storage.update(createPojoBridge(id = bridge1.id, name = "name-4"))
+
+            tx.commit()
+        }
+
+        scenario("Commit validates read objects if requested") {
+            val bridge1 = createPojoBridge(name = "name-1")
+            val bridge2 = createPojoBridge(name = "name-2")
+            storage.create(bridge1)
+            storage.create(bridge2)
+
+            val tx = storage.transaction()
+            tx.validateReads()
+            tx.get(classOf[PojoBridge], bridge1.id)
+            tx.update(createPojoBridge(id = bridge2.id, name = "name-3"))
+
+            storage.update(createPojoBridge(id = bridge1.id, name = "name-4"))
+
+            intercept[ConcurrentModificationException] {
+                tx.commit()
+            }
+        }
+
+        scenario("Commit validates read objects deleted concurrently") {
+            val bridge1 = createPojoBridge(name = "name-1")
+            val bridge2 = createPojoBridge(name = "name-2")
+            storage.create(bridge1)
+            storage.create(bridge2)
+
+            val tx = storage.transaction()
+            tx.validateReads()
+            tx.get(classOf[PojoBridge], bridge1.id)
+            tx.update(createPojoBridge(id = bridge2.id, name = "name-3"))
+
+            storage.delete(classOf[PojoBridge], bridge1.id)
+
+            intercept[ConcurrentModificationException] {
+                tx.commit()
+            }
+        }
+
+        scenario("Commit succeeds if read objects are not modified") {
+            val bridge1 = createPojoBridge(name = "name-1")
+            val bridge2 = createPojoBridge(name = "name-2")
+            storage.create(bridge1)
+            storage.create(bridge2)
+
+            val tx = storage.transaction()
+            tx.validateReads()
+            tx.get(classOf[PojoBridge], bridge1.id)
+            tx.update(createPojoBridge(id = bridge2.id, name = "name-3"))
+            tx.commit()
+
+            storage.transaction().get(classOf[PojoBridge], bridge2.id)
+                   .name shouldBe "name-3"
+        }
+
         scenario("Update fails if the existing object is modified indirectly before commit") {
             val bridge1 = createPojoBridge(name = "name-1")
             storage.create(bridge1)
@@ -755,6 +823,61 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
         }
     }
 
+    feature("Test batch reads") {
+        scenario("Get all by ids pipelines more reads than the limit") {
+            Given("More bridges than the maximum concurrent reads")
+            val bridges = for (index <- 0 until 20)
+                yield createPojoBridge(name = s"bridge-$index")
+            storage.multi(bridges.map(CreateOp(_)))
+
+            Then("Reading all bridges returns the bridges in order")
+            await(storage.getAll(classOf[PojoBridge], bridges.map(_.id))) shouldBe
+                bridges
+
+            And("Reading duplicate bridges returns every bridge")
+            val ids = Seq(bridges(0).id, bridges(1).id, bridges(0).id)
+            await(storage.getAll(classOf[PojoBridge], ids)) shouldBe
+                Seq(bridges(0), bridges(1), bridges(0))
+        }
+
+        scenario("Get all by ids fails if some of many objects do not exist") {
+            Given("More bridges than the maximum concurrent reads")
+            val bridges = for (index <- 0 until 20)
+                yield createPojoBridge(name = s"bridge-$index")
+            storage.multi(bridges.map(CreateOp(_)))
+
+            Then("Reading the bridges and a missing bridge fails")
+            val ids = bridges.map(_.id) :+ UUID.randomUUID()
+            intercept[NotFoundException] {
+                await(storage.getAll(classOf[PojoBridge], ids))
+            }
+        }
+
+        scenario("Transaction get all by ids pipelines more reads than the limit") {
+            Given("More bridges than the maximum concurrent reads")
+            val bridges = for (index <- 0 until 20)
+                yield createPojoBridge(name = s"bridge-$index")
+            storage.multi(bridges.map(CreateOp(_)))
+
+            When("Reading all bridges in a transaction")
+            val tx = storage.transaction()
+            tx.getAll(classOf[PojoBridge], bridges.map(_.id)) shouldBe bridges
+
+            And("A bridge is modified outside the transaction")
+            val bridge = createPojoBridge(id = bridges(0).id, name = "other")
+            storage.update(bridge)
+
+            Then("The transaction returns the cached bridges")
+            tx.getAll(classOf[PojoBridge], bridges.map(_.id)) shouldBe bridges
+
+            And("Updating the modified bridge fails the transaction")
+            tx.update(createPojoBridge(id = bridges(0).id, name = "updated"))
+            intercept[ConcurrentModificationException] {
+                tx.commit()
+            }
+        }
+    }
+
     feature("Test transaction locks and retries") {
         scenario("Storage executes a transaction") {
             Given("An object")
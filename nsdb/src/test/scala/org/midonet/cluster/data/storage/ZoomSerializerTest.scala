@@ -82,6 +82,77 @@ class ZoomSerializerTest extends FeatureSpec with Matchers with GivenWhenThen {
         message1 shouldBe message2
     }
 
+    scenario("Test Protobuf message binary serializer") {
+        Given("A message")
+        val message1 = createProtoNetwork()
+
+        Then("Serializing the message should return binary data")
+        val data = ZoomSerializer.serialize(message1, binary = true)
+        ZoomSerializer.isBinary(data) shouldBe true
+        data.length should be < ZoomSerializer.serialize(message1).length
+
+        And("Deserializing the binary data should return a message")
+        val message2 = ZoomSerializer.deserialize(data, classOf[Network])
+
+        And("The messages should be equal")
+        message1 shouldBe message2
+    }
+
+    scenario("Test Protobuf message text and binary data coexist") {
+        Given("A message serialized as text and binary")
+        val message = createProtoNetwork()
+        val text = ZoomSerializer.serialize(message, binary = false)
+        val binary = ZoomSerializer.serialize(message, binary = true)
+
+        Then("The encodings should be detected")
+        ZoomSerializer.isBinary(text) shouldBe false
+        ZoomSerializer.isBinary(binary) shouldBe true
+
+        And("Both encodings should be deserialized to the same message")
+        ZoomSerializer.deserialize(text, classOf[Network]) shouldBe message
+        ZoomSerializer.deserialize(binary, classOf[Network]) shouldBe message
+
+        And("The cacheable deserializer should handle both encodings")
+        val func = ZoomSerializer.deserializerOf(classOf[Network])
+        func.call(new ChildData("/", null, text)) shouldBe Notification
+            .createOnNext(message)
+        func.call(new ChildData("/", null, binary)) shouldBe Notification
+            .createOnNext(message)
+    }
+
+    scenario("Test Protobuf message re-encoding") {
+        Given("A message serialized as text")
+        val message = createProtoNetwork()
+        val text = ZoomSerializer.serialize(message)
+
+        Then("Re-encoding as text should return null")
+        ZoomSerializer.reencode(text, classOf[Network], binary = false) shouldBe null
+
+        And("Re-encoding as binary should return the binary data")
+        val binary = ZoomSerializer.reencode(text, classOf[Network], binary = true)
+        binary shouldBe ZoomSerializer.serialize(message, binary = true)
+
+        And("Re-encoding back as text should return the text data")
+        ZoomSerializer.reencode(binary, classOf[Network],
+                                binary = false) shouldBe text
+
+        And("Java objects should not be re-encoded")
+        val pojo = ZoomSerializer.serialize(createPojoBridge())
+        ZoomSerializer.reencode(pojo, classOf[PojoBridge],
+                                binary = true) shouldBe null
+    }
+
+    scenario("Test Protobuf message binary deserializer handles versions") {
+        Given("Binary data with an unknown version")
+        val data = ZoomSerializer.serialize(createProtoNetwork(), binary = true)
+        data(1) = 0x7f
+
+        Then("Deserializing the data should throw an exception")
+        intercept[InternalObjectMapperException] {
+            ZoomSerializer.deserialize(data, classOf[Network])
+        }
+    }
+
     scenario("Test create object") {
         Given("An owner and change number")
         val owner = ZoomOwner.ClusterContainers
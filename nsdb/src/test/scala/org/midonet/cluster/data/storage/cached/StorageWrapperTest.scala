@@ -20,7 +20,8 @@ import java.util
 import scala.concurrent.duration._
 
 import org.junit.runner.RunWith
-import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+import org.scalatest.concurrent.Eventually._
 import org.scalatest.junit.JUnitRunner
 
 import rx.observers.TestObserver
@@ -34,7 +35,8 @@ import org.midonet.util.concurrent._
 import org.midonet.util.reactivex.{AssertableObserver, AwaitableObserver}
 
 @RunWith(classOf[JUnitRunner])
-class StorageWrapperTest extends FeatureSpec with Matchers with BeforeAndAfter {
+class StorageWrapperTest extends FeatureSpec with Matchers with BeforeAndAfter
+                         with GivenWhenThen {
 
     private val cacheTtl = 2000
 
@@ -129,6 +131,64 @@ class StorageWrapperTest extends FeatureSpec with Matchers with BeforeAndAfter {
         }
     }
 
+    feature("Reconcile cached objects with the storage") {
+        scenario("Unchanged objects are not emitted twice") {
+            Given("The storage has the same router as the cache")
+            store.create(router1)
+
+            When("Observing the router")
+            val obs = makeObservable[Router]()
+            wrapper.observable(classOf[Router], router1Id).subscribe(obs)
+
+            Then("The router is reconciled")
+            eventually {
+                wrapper.asInstanceOf[StorageWrapper].reconciledCount shouldBe 1
+            }
+
+            And("The observer receives only the cached router")
+            obs.getOnNextEvents should contain only router1
+            wrapper.asInstanceOf[StorageWrapper].staleCount shouldBe 0
+        }
+
+        scenario("Changed objects are emitted after the cached instance") {
+            Given("The storage has a modified port")
+            val port = port1.toBuilder.setInterfaceName("live").build()
+            store.create(port)
+
+            When("Observing the port")
+            val obs = makeObservable[Port]()
+            wrapper.observable(classOf[Port], port1Id).subscribe(obs)
+
+            Then("The observer receives the cached and the live port")
+            obs.awaitOnNext(2, 5 seconds) shouldBe true
+            obs.getOnNextEvents.get(0) shouldBe port1
+            obs.getOnNextEvents.get(1) shouldBe port
+
+            And("The port is stale")
+            wrapper.asInstanceOf[StorageWrapper].staleCount shouldBe 1
+            wrapper.asInstanceOf[StorageWrapper].reconciledCount shouldBe 0
+        }
+
+        scenario("Updates after the first live notification are emitted") {
+            Given("The storage has the same router as the cache")
+            store.create(router1)
+
+            When("Observing the router")
+            val obs = makeObservable[Router]()
+            wrapper.observable(classOf[Router], router1Id).subscribe(obs)
+            eventually {
+                wrapper.asInstanceOf[StorageWrapper].reconciledCount shouldBe 1
+            }
+
+            And("The router is updated with the same value")
+            store.update(router1)
+
+            Then("The observer receives the update")
+            obs.awaitOnNext(2, 5 seconds) shouldBe true
+            obs.getOnNextEvents.get(1) shouldBe router1
+        }
+    }
+
     feature("Create, delete or update objects") {
         scenario("Only read operations are supported on the cache") {
             a [NotImplementedError] shouldBe thrownBy {
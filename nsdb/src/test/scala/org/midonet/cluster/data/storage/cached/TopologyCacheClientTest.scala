@@ -248,6 +248,22 @@ class TopologyCacheClientTest extends FeatureSpec with Matchers
             val result = client.fetch()
             result shouldBe data
         }
+        scenario("compressed connection") {
+            server = createHttpServer(port, handler)
+            server.startAsync().awaitRunning(Timeout.length, Timeout.unit)
+
+            val discovery = new MidonetDiscoverySelector[MidonetServiceURI] {
+                override def getInstance = Some(MidonetServiceURI(
+                    createURI("http", SrvHostName, port, "/topology-cache")
+                ))
+            }
+
+            val client = new TopologyCacheClientDiscovery(
+                discovery, None, compression = true, socketTimeoutMillis = 5000)
+
+            val result = client.fetch()
+            result shouldBe data
+        }
         scenario("server unavailable") {
             server = createHttpServer(port, handler)
             server.startAsync().awaitRunning(Timeout.length, Timeout.unit)
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.cluster.flowhistory
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.io.Source
+
+import org.agrona.concurrent.UnsafeBuffer
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.flowhistory.proto.{DeviceType => SbeDeviceType, SimulationResult => SbeSimResult, _}
+import org.midonet.packets.IPv4Addr
+
+@RunWith(classOf[JUnitRunner])
+class FlowHistoryStoreTest extends FeatureSpec with Matchers
+                           with GivenWhenThen with BeforeAndAfter {
+
+    private var directory: File = _
+
+    before {
+        directory = Files.createTempDirectory("flow-history").toFile
+    }
+
+    after {
+        Option(directory.listFiles()).foreach(_.foreach(_.delete()))
+        directory.delete()
+    }
+
+    private def record(src: IPv4Addr, dst: IPv4Addr, proto: Int,
+                       srcPort: Int, dstPort: Int,
+                       devices: UUID*): ByteBuffer = {
+        val buffer = ByteBuffer.allocateDirect(BinarySerialization.BufferSize)
+        val directBuffer = new UnsafeBuffer(buffer)
+        val header = new MessageHeaderEncoder
+        val summary = new FlowSummaryEncoder
+        header.wrap(directBuffer, 0)
+            .blockLength(summary.sbeBlockLength)
+            .templateId(summary.sbeTemplateId)
+            .schemaId(summary.sbeSchemaId)
+            .version(summary.sbeSchemaVersion)
+        summary.wrap(directBuffer, header.encodedLength())
+            .simResult(SbeSimResult.FlowCreated)
+            .flowMatchNetworkSrcType(InetAddrType.IPv4)
+            .flowMatchNetworkDstType(InetAddrType.IPv4)
+            .flowMatchNetworkProto(proto.toShort)
+            .flowMatchSrcPort(srcPort)
+            .flowMatchDstPort(dstPort)
+        summary.flowMatchNetworkSrc(0, src.addr)
+        summary.flowMatchNetworkDst(0, dst.addr)
+        summary.flowMatchIcmpDataCount(0)
+        summary.flowMatchVlanIdsCount(0)
+        summary.outPortsCount(0)
+        summary.traversedRulesCount(0)
+        val iter = summary.traversedDevicesCount(devices.size)
+        for (device <- devices) {
+            iter.next()
+                .device(0, device.getMostSignificantBits)
+                .device(1, device.getLeastSignificantBits)
+                .`type`(SbeDeviceType.BRIDGE)
+        }
+        val actions = Array[Byte](0)
+        summary.putFlowActions(actions, 0, actions.length)
+        buffer.limit(header.encodedLength() + summary.encodedLength())
+        buffer
+    }
+
+    private val ip1 = IPv4Addr("10.0.0.1")
+    private val ip2 = IPv4Addr("10.0.0.2")
+    private val ip3 = IPv4Addr("192.168.0.1")
+
+    private def query(q: FlowHistoryQuery): Seq[(Long, FlowRecord)] = {
+        val serializer = new BinarySerialization
+        val results = mutable.Buffer.empty[(Long, FlowRecord)]
+        FlowHistoryStore.query(directory, q) { (time, buffer) =>
+            val bytes = new Array[Byte](buffer.remaining())
+            buffer.get(bytes)
+            results += ((time, serializer.bufferToFlowRecord(bytes)))
+        }
+        results
+    }
+
+    /** Returns the segment files of the store mapped by this process. */
+    private def mappedFiles(maps: File): Set[String] = {
+        val prefix = directory.getCanonicalPath + File.separator
+        val source = Source.fromFile(maps)
+        try {
+            source.getLines()
+                .map(line => line.substring(line.indexOf('/') max 0))
+                .filter(_.startsWith(prefix))
+                .toSet
+        } finally {
+            source.close()
+        }
+    }
+
+    feature("Flow history store appends and queries records") {
+        scenario("Records are queried by time and 5-tuple") {
+            Given("A store with three records")
+            val store = new FlowHistoryStore(directory, 16, 1 << 16, 4)
+            store.open()
+            val r1 = record(ip1, ip2, 6, 1000, 80)
+            store.append(10L, r1) shouldBe true
+            store.append(20L, record(ip2, ip1, 6, 80, 1000)) shouldBe true
+            store.append(30L, record(ip1, ip3, 17, 2000, 53)) shouldBe true
+
+            Then("Appending does not modify the buffer")
+            r1.position() shouldBe 0
+
+            And("All records are returned in order")
+            query(FlowHistoryQuery()).map(_._1) shouldBe Seq(10L, 20L, 30L)
+
+            And("The records are filtered by time")
+            query(FlowHistoryQuery(from = 15L, to = 30L)).map(_._1) shouldBe
+                Seq(20L, 30L)
+            query(FlowHistoryQuery(from = 31L)) shouldBe empty
+
+            And("The records are filtered by the 5-tuple")
+            query(FlowHistoryQuery(networkProto = Some(17))).map(_._1) shouldBe
+                Seq(30L)
+            query(FlowHistoryQuery(networkSrc = Some(ip1))).map(_._1) shouldBe
+                Seq(10L, 30L)
+            query(FlowHistoryQuery(networkDst = Some(ip1),
+                                   srcPort = Some(80))).map(_._1) shouldBe
+                Seq(20L)
+            query(FlowHistoryQuery(dstPort = Some(443))) shouldBe empty
+
+            And("The records are decoded")
+            val flow = query(FlowHistoryQuery(from = 30L)).head._2
+            flow.flowMatch.networkSrc shouldBe ip1.toBytes
+            flow.flowMatch.networkDst shouldBe ip3.toBytes
+            flow.flowMatch.dstPort shouldBe 53
+        }
+
+        scenario("Records are queried by device") {
+            Given("A store with records traversing different devices")
+            val bridge = UUID.randomUUID()
+            val router = UUID.randomUUID()
+            val store = new FlowHistoryStore(directory, 16, 1 << 16, 4)
+            store.open()
+            store.append(1L, record(ip1, ip2, 6, 1, 2, bridge))
+            store.append(2L, record(ip1, ip2, 6, 1, 2, bridge, router))
+            store.append(3L, record(ip1, ip2, 6, 1, 2))
+
+            Then("The records traversing each device are returned")
+            query(FlowHistoryQuery(device = Some(bridge))).map(_._1) shouldBe
+                Seq(1L, 2L)
+            val flows = query(FlowHistoryQuery(device = Some(router)))
+            flows.map(_._1) shouldBe Seq(2L)
+            flows.head._2.devices.size shouldBe 2
+
+            And("No records are returned for other devices")
+            query(FlowHistoryQuery(device = Some(UUID.randomUUID()))) shouldBe
+                empty
+        }
+    }
+
+    feature("Flow history store rotates segments") {
+        scenario("Segments rotate when full") {
+            Given("A store with two records per segment and three segments")
+            val store = new FlowHistoryStore(directory, 2, 1 << 16, 3)
+            store.open()
+
+            When("Appending eight records")
+            for (time <- 1L to 8L) {
+                store.append(time, record(ip1, ip2, 6, 1, 2)) shouldBe true
+            }
+
+            Then("The store keeps the last three segments")
+            FlowHistoryStore.segmentFiles(directory).size shouldBe 3
+            query(FlowHistoryQuery()).map(_._1) shouldBe (3L to 8L)
+
+            And("The segment index excludes segments out of the time range")
+            val segments = FlowHistoryStore.segmentFiles(directory)
+                .map(FlowHistorySegment.open)
+            segments.map(_.excludes(FlowHistoryQuery(from = 5L, to = 6L))) shouldBe
+                Seq(true, false, true)
+            segments.foreach(_.close())
+        }
+
+        scenario("Only the current segment remains mapped") {
+            val maps = new File("/proc/self/maps")
+            assume(maps.exists(), "Requires the process memory maps")
+
+            Given("A store with two records per segment and two segments")
+            val store = new FlowHistoryStore(directory, 2, 1 << 16, 2)
+            store.open()
+
+            When("Appending eight records")
+            for (time <- 1L to 8L) {
+                store.append(time, record(ip1, ip2, 6, 1, 2)) shouldBe true
+            }
+
+            Then("Only the current segment file is mapped")
+            val current = FlowHistoryStore.segmentFiles(directory).last
+            mappedFiles(maps) shouldBe Set(current.getCanonicalPath)
+
+            And("Querying the store does not leave segments mapped")
+            query(FlowHistoryQuery()).map(_._1) shouldBe (5L to 8L)
+            mappedFiles(maps) shouldBe Set(current.getCanonicalPath)
+
+            When("Closing the store")
+            store.close()
+
+            Then("No segment file is mapped")
+            mappedFiles(maps) shouldBe empty
+        }
+
+        scenario("A closed segment cannot be used") {
+            Given("A closed segment")
+            val segment = FlowHistorySegment.create(
+                new File(directory, FlowHistorySegment.fileName(0L)), 2,
+                1 << 16)
+            segment.close()
+            segment.isClosed shouldBe true
+
+            Then("Appending to the segment fails")
+            an [IllegalStateException] shouldBe thrownBy {
+                segment.append(1L, record(ip1, ip2, 6, 1, 2))
+            }
+
+            And("Scanning the segment fails")
+            an [IllegalStateException] shouldBe thrownBy {
+                segment.scan(FlowHistoryQuery()) { (_, _) => }
+            }
+        }
+
+        scenario("A reopened store appends to a new segment") {
+            Given("A store with a record")
+            val store1 = new FlowHistoryStore(directory, 16, 1 << 16, 4)
+            store1.open()
+            store1.append(1L, record(ip1, ip2, 6, 1, 2))
+
+            When("Opening the store again")
+            val store2 = new FlowHistoryStore(directory, 16, 1 << 16, 4)
+            store2.open()
+            store2.append(2L, record(ip1, ip2, 6, 1, 2))
+
+            Then("The records are in different segments")
+            FlowHistoryStore.segmentFiles(directory).size shouldBe 2
+            query(FlowHistoryQuery()).map(_._1) shouldBe Seq(1L, 2L)
+        }
+
+        scenario("Records larger than a segment are rejected") {
+            Given("A store with a small data region")
+            val store = new FlowHistoryStore(directory, 16, 16, 4)
+            store.open()
+
+            Then("Appending a larger record fails")
+            store.append(1L, record(ip1, ip2, 6, 1, 2)) shouldBe false
+            FlowHistoryStore.segmentFiles(directory).size shouldBe 1
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state
+
+import java.io.IOException
+import java.util
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+import com.google.protobuf.ByteString
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.rpc.State.KeyValue
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+
+@RunWith(classOf[JUnitRunner])
+class CompactEntriesTest extends FeatureSpec with Matchers
+                         with GivenWhenThen {
+
+    private val random = new Random()
+
+    private def entry(key: KeyValue, value: KeyValue,
+                      version: Int): Notify.Entry = {
+        val builder = Notify.Entry.newBuilder().setKey(key).setVersion(version)
+        if (value ne null) builder.setValue(value)
+        builder.build()
+    }
+
+    private def data32(value: Int): KeyValue =
+        KeyValue.newBuilder().setData32(value).build()
+
+    private def data64(value: Long): KeyValue =
+        KeyValue.newBuilder().setData64(value).build()
+
+    private def variable(value: String): KeyValue =
+        KeyValue.newBuilder()
+                .setDataVariable(ByteString.copyFromUtf8(value)).build()
+
+    private def roundTrip(entries: Notify.Entry*): Seq[Notify.Entry] = {
+        CompactEntries.decode(
+            CompactEntries.encode(new util.ArrayList(entries.asJava))).asScala
+    }
+
+    feature("Compact entries encode and decode entries") {
+        scenario("Empty entries") {
+            roundTrip() shouldBe empty
+        }
+
+        scenario("Entries with integer keys") {
+            Given("Entries with 32-bit and 64-bit keys")
+            val entries = Seq(
+                entry(data32(0xc0a80102), data64(0x0a0b0c0d0e0fL), 3),
+                entry(data32(0x0a000001), data64(0x0a0b0c0d0e0eL), 1),
+                entry(data32(0xffffffff), data32(-1), Int.MaxValue),
+                entry(data64(0x0a0b0c0d0e0fL), data32(0x0a000001), 2),
+                entry(data64(-1L), variable("value"), 7))
+
+            Then("The decoded entries are sorted by key")
+            roundTrip(entries: _*) shouldBe Seq(entries(1), entries(0),
+                                                entries(2), entries(3),
+                                                entries(4))
+        }
+
+        scenario("Entries with variable keys") {
+            Given("Entries with variable keys sharing prefixes")
+            val entries = Seq(
+                entry(variable("router/port/b"), variable("b"), 10),
+                entry(variable("router/port/a"), variable("a"), 12),
+                entry(variable("router"), variable(""), 1),
+                entry(variable(""), data64(5L), 0))
+
+            Then("The decoded entries are sorted by key")
+            roundTrip(entries: _*) shouldBe Seq(entries(3), entries(2),
+                                                entries(1), entries(0))
+        }
+
+        scenario("Removed entries") {
+            Given("Entries without values")
+            val entries = Seq(entry(data32(1), null, 5),
+                              entry(data32(2), data32(3), 4),
+                              entry(variable("key"), null, -1))
+
+            Then("The decoded entries do not have values")
+            val decoded = roundTrip(entries: _*)
+            decoded shouldBe entries
+            decoded(0).hasValue shouldBe false
+            decoded(2).hasValue shouldBe false
+        }
+
+        scenario("Random MAC entries are smaller than the entries") {
+            Given("A large number of entries")
+            val entries = for (index <- 0 until 1000) yield {
+                entry(data64(random.nextLong() & 0xffffffffffffL),
+                      data32(random.nextInt()), index)
+            }
+            val list = new util.ArrayList(entries.asJava)
+
+            Then("The compact encoding is smaller")
+            val notify = Notify.Update.newBuilder().addAllEntries(list).build()
+            CompactEntries.encode(list).size() should be <
+                notify.getSerializedSize
+
+            And("The decoded entries are the same")
+            roundTrip(entries: _*) should contain theSameElementsAs entries
+        }
+
+        scenario("Unsupported format") {
+            an[IOException] shouldBe thrownBy {
+                CompactEntries.decode(ByteString.copyFrom(Array[Byte](2, 0)))
+            }
+        }
+    }
+}